@@ -23,8 +23,6 @@ import android.util.Log;
 
 import com.android.compatibility.common.util.ReportLog;
 
-import org.xmlpull.v1.XmlPullParserException;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -260,10 +258,9 @@ public class DeviceReportLog extends ReportLog {
         try {
             store.close();
             Bundle output = new Bundle();
-            output.putString(RESULT, serialize(this));
+            output.putString(RESULT, serializeCompact(this));
             instrumentation.sendStatus(INST_STATUS_IN_PROGRESS, output);
-        } catch (IllegalArgumentException | IllegalStateException | XmlPullParserException
-                | IOException e) {
+        } catch (IllegalArgumentException | IOException e) {
             Log.e(TAG, "Submit Failed", e);
             instrumentation.sendStatus(INST_STATUS_ERROR, null);
         }
@@ -0,0 +1,30 @@
+#!/bin/bash
+
+# Copyright (C) 2016 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#       http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Runs the host-side benchmarks, see README for the arguments.
+# JAVA_OPTS may be set to change the heap, eg. JAVA_OPTS=-Xmx8g for sessions of 1M tests.
+
+CTS_DIR=$(dirname ${0})/../../..
+source ${CTS_DIR}/test_defs.sh
+
+JARS="
+    compatibility-host-util\
+    compatibility-mock-tradefed\
+    compatibility-host-benchmarks"
+
+build_jar_path "${JAR_DIR}" "${JARS}"
+java ${JAVA_OPTS:--Xmx6g} -cp ${JAR_PATH} \
+    com.android.compatibility.common.benchmark.HostBenchmarks "${@}"
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.benchmark;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
+import com.android.compatibility.common.tradefed.testtype.Abi;
+import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.ChecksumReporter;
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.MeasureRun;
+import com.android.compatibility.common.util.MeasureTime;
+import com.android.compatibility.common.util.ParallelZipWriter;
+import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.Stat;
+import com.android.compatibility.common.util.TestFilter;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures the time taken by the host-side code whose cost grows with the size of a session:
+ * writing and reading test_result.xml, creating its checksum, parsing test filters, loading the
+ * module configs, parsing the reports of performance tests and zipping the result directory.
+ * <p/>
+ * Run with "run_benchmarks.sh [--tests N[,N...]] [--iterations N] [--warmup N] [benchmark...]".
+ * Each benchmark runs on sessions generated by {@link SyntheticResults}, once for each number of
+ * tests. The first runs of each benchmark warm up the JIT and are not reported; the following
+ * runs are summarized in a table, with the time per test of the mean run.
+ */
+public class HostBenchmarks {
+
+    private static final String WRITE_RESULTS = "write-results";
+    private static final String GET_RESULTS = "get-results";
+    private static final String CHECKSUM = "checksum";
+    private static final String TEST_FILTER = "test-filter";
+    private static final String MODULE_REPO = "module-repo";
+    private static final String REPORT_LOG_PARSE = "report-log-parse";
+    private static final String REPORT_LOG_PARSE_COMPACT = "report-log-parse-compact";
+    private static final String ZIP = "zip";
+    private static final List<String> BENCHMARKS = Arrays.asList(WRITE_RESULTS, GET_RESULTS,
+            CHECKSUM, TEST_FILTER, MODULE_REPO, REPORT_LOG_PARSE, REPORT_LOG_PARSE_COMPACT, ZIP);
+
+    private static final String SUITE_NAME = "CTS";
+    private static final String SUITE_VERSION = "7.1_r1";
+    private static final String SUITE_PLAN = "cts";
+    private static final String SUITE_BUILD = "3562304";
+    private static final String COMMAND_LINE = "cts --shards 1";
+    private static final long START_TIME = 1451606400000L;
+    private static final long SEED = 0;
+    private static final String CONFIG = "<configuration description=\"Config for %s\">\n"
+            + "    <target_preparer class=\"com.android.compatibility.common.tradefed.targetprep."
+            + "ApkInstaller\">\n"
+            + "        <option name=\"cleanup-apks\" value=\"true\" />\n"
+            + "        <option name=\"test-file-name\" value=\"%s.apk\" />\n"
+            + "    </target_preparer>\n"
+            + "    <test class=\"" + ModuleStub.class.getName() + "\">\n"
+            + "        <option name=\"package\" value=\"%s\" />\n"
+            + "        <option name=\"runtime-hint\" value=\"%d\" />\n"
+            + "    </test>\n"
+            + "</configuration>\n";
+
+    private static int sWarmup = 2;
+    private static int sIterations = 5;
+
+    /**
+     * A benchmark of one operation on a session. Each run measures the operation once.
+     */
+    private static abstract class Benchmark extends MeasureRun {
+
+        /**
+         * Called once before the runs, not included in the time measurement.
+         */
+        void setUp() throws Exception {
+            // default empty implementation
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> testCounts = new ArrayList<>(Arrays.asList(10000, 100000, 1000000));
+        Set<String> selected = new LinkedHashSet<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--tests".equals(args[i]) && i + 1 < args.length) {
+                testCounts.clear();
+                for (String count : args[++i].split(",")) {
+                    testCounts.add(Integer.parseInt(count));
+                }
+            } else if ("--iterations".equals(args[i]) && i + 1 < args.length) {
+                sIterations = Integer.parseInt(args[++i]);
+            } else if ("--warmup".equals(args[i]) && i + 1 < args.length) {
+                sWarmup = Integer.parseInt(args[++i]);
+            } else if (BENCHMARKS.contains(args[i])) {
+                selected.add(args[i]);
+            } else {
+                System.err.printf("Unknown argument %s. Benchmarks: %s\n", args[i], BENCHMARKS);
+                System.exit(1);
+            }
+        }
+        if (selected.isEmpty()) {
+            selected.addAll(BENCHMARKS);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%s %s, %d processors, %,d MB max heap\n",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                runtime.availableProcessors(), runtime.maxMemory() / (1024 * 1024));
+        System.out.printf("%d warmup runs, %d measured runs\n\n", sWarmup, sIterations);
+        System.out.printf("%-26s %9s %10s %10s %10s %10s %10s\n", "benchmark", "tests",
+                "mean ms", "stddev ms", "min ms", "max ms", "us/test");
+        for (int tests : testCounts) {
+            File tempDir = FileUtil.createTempDir("host-benchmarks");
+            try {
+                Session session = new Session(tempDir, tests);
+                for (String name : selected) {
+                    Benchmark benchmark = session.createBenchmark(name);
+                    benchmark.setUp();
+                    report(name, tests, MeasureTime.measure(sWarmup + sIterations, benchmark));
+                }
+            } finally {
+                FileUtil.recursiveDelete(tempDir);
+            }
+        }
+    }
+
+    private static void report(String name, int tests, double[] times) {
+        double[] measured = Arrays.copyOfRange(times, sWarmup, times.length);
+        Stat.StatResult stat = Stat.getStat(measured);
+        System.out.printf("%-26s %9d %10.1f %10.1f %10.1f %10.1f %10.2f\n", name, tests,
+                stat.mAverage, stat.mStddev, stat.mMin, stat.mMax, 1000 * stat.mAverage / tests);
+    }
+
+    /**
+     * The inputs of the benchmarks for one number of tests, laid out in a temporary directory
+     * like an installed suite: "android-cts/testcases" holds a config per module, and
+     * "android-cts/results" the result directory of the session.
+     */
+    private static class Session {
+        private final File mRootDir;
+        private final File mTestsDir;
+        private final File mResultsDir;
+        private final File mResultDir;
+        private final IInvocationResult mResult;
+        private final List<String> mFilters;
+        private final List<String> mReportLogs = new ArrayList<>();
+        private final List<String> mCompactReportLogs = new ArrayList<>();
+        private final Set<IAbi> mAbis = new HashSet<>();
+        private final IBuildInfo mBuild;
+
+        Session(File rootDir, int tests) throws Exception {
+            mRootDir = rootDir;
+            File suiteDir = new File(rootDir, "android-" + SUITE_NAME.toLowerCase());
+            mTestsDir = new File(suiteDir, "testcases");
+            mResultsDir = new File(suiteDir, "results");
+            mResultDir = new File(mResultsDir, CompatibilityBuildHelper.getDirSuffix(START_TIME));
+            mTestsDir.mkdirs();
+            mResultDir.mkdirs();
+            mResult = SyntheticResults.createResult(tests, SEED);
+            int modules = SyntheticResults.getModuleCount(tests);
+            mFilters = SyntheticResults.createFilters(tests, modules, SEED);
+            for (IModuleResult module : mResult.getModules()) {
+                for (ICaseResult caseResult : module.getResults()) {
+                    for (ITestResult test : caseResult.getResults()) {
+                        ReportLog report = test.getReportLog();
+                        if (report != null) {
+                            mReportLogs.add(ReportLog.serialize(report));
+                            mCompactReportLogs.add(ReportLog.serializeCompact(report));
+                        }
+                    }
+                }
+            }
+            for (int m = 0; m < modules; m++) {
+                String name = SyntheticResults.getModuleName(m);
+                FileUtil.writeToFile(String.format(CONFIG, name, name,
+                        SyntheticResults.getPackage(m), 60000 + m),
+                        new File(mTestsDir, name + ".config"));
+            }
+            for (String abi : SyntheticResults.ABIS) {
+                mAbis.add(new Abi(abi, AbiUtils.getBitness(abi)));
+            }
+            mBuild = new CompatibilityBuildProvider().getBuild();
+            mBuild.addBuildAttribute(CompatibilityBuildHelper.ROOT_DIR, mRootDir.getAbsolutePath());
+            mBuild.addBuildAttribute(CompatibilityBuildHelper.SUITE_NAME, SUITE_NAME);
+            mBuild.addBuildAttribute(CompatibilityBuildHelper.START_TIME_MS,
+                    Long.toString(START_TIME));
+            // Inputs of the benchmarks reading a session
+            writeResults(mResultDir);
+            SyntheticResults.createLogs(new File(mResultDir, "logs"), mResult, SEED);
+        }
+
+        Benchmark createBenchmark(String name) {
+            switch (name) {
+                case WRITE_RESULTS:
+                    return new Benchmark() {
+                        private File mDir;
+
+                        @Override
+                        void setUp() {
+                            mDir = new File(mRootDir, WRITE_RESULTS);
+                        }
+
+                        @Override
+                        public void prepare(int i) {
+                            FileUtil.recursiveDelete(mDir);
+                            mDir.mkdirs();
+                        }
+
+                        @Override
+                        public void run(int i) throws Exception {
+                            writeResults(mDir);
+                        }
+                    };
+                case GET_RESULTS:
+                    return new Benchmark() {
+                        @Override
+                        public void run(int i) throws Exception {
+                            List<IInvocationResult> results = ResultHandler.getResults(
+                                    mResultsDir);
+                            if (results.size() != 1) {
+                                throw new IllegalStateException("Could not read the results");
+                            }
+                        }
+                    };
+                case CHECKSUM:
+                    return new Benchmark() {
+                        @Override
+                        public void run(int i) throws Exception {
+                            if (!ChecksumReporter.tryCreateChecksum(mResultDir, mResult)) {
+                                throw new IllegalStateException("Could not create the checksum");
+                            }
+                        }
+                    };
+                case TEST_FILTER:
+                    return new Benchmark() {
+                        @Override
+                        public void run(int i) {
+                            for (String filter : mFilters) {
+                                TestFilter.createFrom(filter);
+                            }
+                        }
+                    };
+                case MODULE_REPO:
+                    return new Benchmark() {
+                        private ModuleRepo mRepo;
+
+                        @Override
+                        public void prepare(int i) {
+                            mRepo = new ModuleRepo();
+                        }
+
+                        @Override
+                        public void run(int i) {
+                            mRepo.initialize(1, mTestsDir, mAbis, Collections.<String>emptyList(),
+                                    Collections.<String>emptyList(),
+                                    Collections.<String>emptyList(),
+                                    Collections.<String>emptySet(),
+                                    Collections.<String>emptySet(), mBuild);
+                        }
+                    };
+                case REPORT_LOG_PARSE:
+                    return new ReportLogBenchmark(mReportLogs);
+                case REPORT_LOG_PARSE_COMPACT:
+                    return new ReportLogBenchmark(mCompactReportLogs);
+                case ZIP:
+                    return new Benchmark() {
+                        private File mZip;
+
+                        @Override
+                        void setUp() {
+                            mZip = new File(mRootDir, "result.zip");
+                        }
+
+                        @Override
+                        public void prepare(int i) {
+                            mZip.delete();
+                        }
+
+                        @Override
+                        public void run(int i) throws Exception {
+                            ParallelZipWriter.createZip(mResultDir, mZip);
+                        }
+                    };
+                default:
+                    throw new IllegalArgumentException("Unknown benchmark " + name);
+            }
+        }
+
+        private void writeResults(File dir) throws Exception {
+            ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                    mResult, dir, START_TIME, START_TIME + 3600000, null, null, COMMAND_LINE);
+        }
+    }
+
+    /**
+     * Parses the reports of all the tests of a session reporting metrics.
+     */
+    private static class ReportLogBenchmark extends Benchmark {
+        private final List<String> mReports;
+
+        ReportLogBenchmark(List<String> reports) {
+            mReports = reports;
+        }
+
+        @Override
+        public void run(int i) throws Exception {
+            for (String report : mReports) {
+                ReportLog.parse(report);
+            }
+        }
+    }
+}
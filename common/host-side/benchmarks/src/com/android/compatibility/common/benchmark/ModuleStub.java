@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.benchmark;
+
+import com.android.tradefed.config.Option;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.testtype.IAbiReceiver;
+import com.android.tradefed.testtype.IRemoteTest;
+import com.android.tradefed.testtype.IRuntimeHintProvider;
+import com.android.tradefed.testtype.ITestCollector;
+import com.android.tradefed.testtype.ITestFilterReceiver;
+
+import java.util.Set;
+
+/**
+ * The test of the module configs generated for the ModuleRepo benchmark. Does nothing, so that
+ * only the loading of the configs is measured.
+ */
+public class ModuleStub implements IRemoteTest, IAbiReceiver, IRuntimeHintProvider,
+        ITestCollector, ITestFilterReceiver {
+
+    @Option(name = "package")
+    String mPackage;
+    @Option(name = "runtime-hint")
+    long mRuntimeHint = 1L;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run(ITestInvocationListener listener) throws DeviceNotAvailableException {
+        // Do nothing
+    }
+
+    @Override
+    public void setAbi(IAbi abi) {
+        // Do nothing
+    }
+
+    @Override
+    public long getRuntimeHint() {
+        return mRuntimeHint;
+    }
+
+    @Override
+    public void setCollectTestsOnly(boolean shouldCollectTest) {
+        // Do nothing
+    }
+
+    @Override
+    public void addIncludeFilter(String filter) {
+        // Do nothing
+    }
+
+    @Override
+    public void addAllIncludeFilters(Set<String> filters) {
+        // Do nothing
+    }
+
+    @Override
+    public void addExcludeFilter(String filter) {
+        // Do nothing
+    }
+
+    @Override
+    public void addAllExcludeFilters(Set<String> filters) {
+        // Do nothing
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.benchmark;
+
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IInvocationResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ITestResult;
+import com.android.compatibility.common.util.InvocationResult;
+import com.android.compatibility.common.util.ReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates sessions of any size for the benchmarks, shaped like the results of a full run.
+ * <p/>
+ * Tests are spread over modules run on two ABIs, with {@link #TESTS_PER_CASE} tests per case.
+ * One test in a hundred fails with a stack trace like the ones collected from the device, and
+ * one passing test in twenty reports a metric with a summary of frame times. The same seed
+ * always generates the same session.
+ */
+public class SyntheticResults {
+
+    /** The ABIs each module is run on */
+    public static final String[] ABIS = {"arm64-v8a", "armeabi-v7a"};
+    /** Number of tests of each module, on each ABI */
+    public static final int TESTS_PER_MODULE = 1000;
+    /** Number of tests of each case */
+    public static final int TESTS_PER_CASE = 25;
+
+    private static final int FAILURE_RATE = 100;
+    private static final int METRIC_RATE = 20;
+    private static final int METRIC_VALUES = 120;
+    private static final int LOG_BYTES_PER_TEST = 64;
+
+    private static final String[] AREAS = {"app", "graphics", "media", "net", "os", "provider",
+            "security", "text", "view", "widget"};
+    private static final String[] ASSERTIONS = {
+            "junit.framework.AssertionFailedError: expected:<%d> but was:<%d>",
+            "junit.framework.AssertionFailedError: Timed out after %d ms waiting for %d events",
+            "java.lang.AssertionError: Frame %d dropped, took %d ms"};
+    private static final String[] ASSERT_FRAMES = {
+            "junit.framework.Assert.fail(Assert.java:50)",
+            "junit.framework.Assert.failNotEquals(Assert.java:287)",
+            "junit.framework.Assert.assertEquals(Assert.java:67)"};
+    private static final String[] RUNNER_FRAMES = {
+            "java.lang.reflect.Method.invoke(Native Method)",
+            "junit.framework.TestCase.runTest(TestCase.java:168)",
+            "junit.framework.TestCase.runBare(TestCase.java:134)",
+            "junit.framework.TestResult$1.protect(TestResult.java:115)",
+            "android.support.test.internal.runner.junit3.AndroidTestResult.runProtected("
+                    + "AndroidTestResult.java:77)",
+            "junit.framework.TestResult.run(TestResult.java:118)",
+            "android.support.test.internal.runner.junit3.AndroidTestResult.run("
+                    + "AndroidTestResult.java:55)",
+            "junit.framework.TestCase.run(TestCase.java:124)",
+            "android.support.test.internal.runner.junit3.NonLeakyTestSuite$NonLeakyTest.run("
+                    + "NonLeakyTestSuite.java:63)",
+            "junit.framework.TestSuite.runTest(TestSuite.java:243)",
+            "junit.framework.TestSuite.run(TestSuite.java:238)",
+            "android.support.test.internal.runner.junit3.DelegatingTestSuite.run("
+                    + "DelegatingTestSuite.java:103)",
+            "android.support.test.internal.runner.junit3.AndroidTestSuite.run("
+                    + "AndroidTestSuite.java:69)",
+            "android.support.test.internal.runner.junit3.JUnit38ClassRunner.run("
+                    + "JUnit38ClassRunner.java:90)",
+            "org.junit.runners.Suite.runChild(Suite.java:128)",
+            "org.junit.runners.Suite.runChild(Suite.java:27)",
+            "org.junit.runners.ParentRunner$3.run(ParentRunner.java:290)",
+            "org.junit.runners.ParentRunner$1.schedule(ParentRunner.java:71)",
+            "org.junit.runners.ParentRunner.runChildren(ParentRunner.java:288)",
+            "org.junit.runners.ParentRunner.access$000(ParentRunner.java:58)",
+            "org.junit.runners.ParentRunner$2.evaluate(ParentRunner.java:268)",
+            "org.junit.runners.ParentRunner.run(ParentRunner.java:363)",
+            "org.junit.runner.JUnitCore.run(JUnitCore.java:137)",
+            "org.junit.runner.JUnitCore.run(JUnitCore.java:115)",
+            "android.support.test.internal.runner.TestExecutor.execute(TestExecutor.java:54)",
+            "android.support.test.runner.AndroidJUnitRunner.onStart(AndroidJUnitRunner.java:240)",
+            "android.app.Instrumentation$InstrumentationThread.run(Instrumentation.java:1932)"};
+    private static final String[] CAUSE_FRAMES = {
+            "android.os.Parcel.readException(Parcel.java:1693)",
+            "android.os.Parcel.readException(Parcel.java:1646)",
+            "android.app.ActivityManagerProxy.startActivity(ActivityManagerNative.java:3167)",
+            "android.app.Instrumentation.execStartActivity(Instrumentation.java:1545)"};
+
+    /**
+     * @return the number of modules holding the given number of tests on each ABI.
+     */
+    public static int getModuleCount(int tests) {
+        return Math.max(1, (tests / ABIS.length + TESTS_PER_MODULE - 1) / TESTS_PER_MODULE);
+    }
+
+    /**
+     * @return the name of a module, as found in its config file name.
+     */
+    public static String getModuleName(int module) {
+        return String.format("Cts%s%dTestCases", capitalize(AREAS[module % AREAS.length]),
+                module);
+    }
+
+    /**
+     * @return the package of the tests of a module.
+     */
+    public static String getPackage(int module) {
+        return String.format("android.%s.cts", AREAS[module % AREAS.length]);
+    }
+
+    /**
+     * Generate a session of the given number of tests, over all ABIs.
+     */
+    public static IInvocationResult createResult(int tests, long seed)
+            throws IOException, XmlPullParserException {
+        Random random = new Random(seed);
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(1451606400000L);
+        result.setTestPlan("cts");
+        result.addDeviceSerial("HT7A1B234567");
+        result.setBuildFingerprint("google/marlin/marlin:7.1.1/NMF26Q/3562304:user/release-keys");
+        result.addInvocationInfo("build_id", "NMF26Q");
+        result.addInvocationInfo("build_product", "marlin");
+        result.setCommandLineArgs("cts --shards 1");
+        int modules = getModuleCount(tests);
+        int count = 0;
+        for (int m = 0; m < modules && count < tests; m++) {
+            String area = AREAS[m % AREAS.length];
+            String name = getModuleName(m);
+            for (String abi : ABIS) {
+                IModuleResult module = result.getOrCreateModule(AbiUtils.createId(abi, name));
+                for (int t = 0; t < TESTS_PER_MODULE && count < tests; t++, count++) {
+                    String className = String.format("%s.%sTest%d", getPackage(m),
+                            capitalize(area), t / TESTS_PER_CASE);
+                    ICaseResult caseResult = module.getOrCreateResult(className);
+                    String testName = "test" + capitalize(area) + t % TESTS_PER_CASE;
+                    ITestResult test = caseResult.getOrCreateResult(testName);
+                    if (random.nextInt(FAILURE_RATE) == 0) {
+                        test.failed(createStackTrace(random, className, testName));
+                    } else if (random.nextInt(METRIC_RATE) == 0) {
+                        test.passed(createReportLog(random, className, testName));
+                    } else {
+                        test.passed(null);
+                    }
+                }
+                module.addRuntime(60000 + random.nextInt(600000));
+                module.setDone(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generate a stack trace as reported by the instrumentation of a failed test: an assertion
+     * thrown from the test, or an exception from the system with its cause.
+     */
+    public static String createStackTrace(Random random, String className, String testName) {
+        StringBuilder sb = new StringBuilder();
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        String testFrame = String.format("%s.%s(%s.java:%d)", className, testName, simpleName,
+                50 + random.nextInt(2000));
+        if (random.nextInt(4) != 0) {
+            sb.append(String.format(ASSERTIONS[random.nextInt(ASSERTIONS.length)],
+                    random.nextInt(1000), random.nextInt(1000)));
+            for (String frame : ASSERT_FRAMES) {
+                appendFrame(sb, frame);
+            }
+            appendFrame(sb, testFrame);
+            for (String frame : RUNNER_FRAMES) {
+                appendFrame(sb, frame);
+            }
+        } else {
+            sb.append("java.lang.RuntimeException: Unable to start activity ComponentInfo{");
+            sb.append(className.substring(0, className.lastIndexOf('.')));
+            sb.append('/').append(className).append("Activity}");
+            appendFrame(sb, testFrame);
+            for (String frame : RUNNER_FRAMES) {
+                appendFrame(sb, frame);
+            }
+            sb.append("\nCaused by: java.lang.SecurityException: Permission Denial: uid=");
+            sb.append(10000 + random.nextInt(1000));
+            sb.append(" does not have android.permission.INTERACT_ACROSS_USERS");
+            for (String frame : CAUSE_FRAMES) {
+                appendFrame(sb, frame);
+            }
+            sb.append("\n\t... ").append(RUNNER_FRAMES.length).append(" more");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generate the report of a performance test, with a summary of frame times. The report is
+     * parsed from XML as sent by the device, as this is the only way to build a report with more
+     * than one value outside of the device.
+     */
+    public static ReportLog createReportLog(Random random, String className, String testName)
+            throws IOException, XmlPullParserException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("<Summary><Metric source=\"%s#%s:%d\" message=\"frame_times\" "
+                + "score_type=\"%s\" score_unit=\"%s\">", className, testName,
+                50 + random.nextInt(2000), ResultType.LOWER_BETTER.toReportString(),
+                ResultUnit.MS.toReportString()));
+        for (int i = 0; i < METRIC_VALUES; i++) {
+            sb.append("<Value>").append(16.6 + 2 * random.nextGaussian()).append("</Value>");
+        }
+        sb.append("</Metric></Summary>");
+        return ReportLog.parse(sb.toString());
+    }
+
+    /**
+     * Generate test filters as given to the run command or found in a subplan: whole modules,
+     * classes and single tests, with and without an ABI.
+     *
+     * @param count the number of filters
+     * @param modules the number of modules the filters are spread over
+     */
+    public static List<String> createFilters(int count, int modules, long seed) {
+        Random random = new Random(seed);
+        List<String> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int m = random.nextInt(modules);
+            String area = AREAS[m % AREAS.length];
+            StringBuilder sb = new StringBuilder();
+            if (random.nextBoolean()) {
+                sb.append(ABIS[random.nextInt(ABIS.length)]).append(' ');
+            }
+            sb.append(getModuleName(m));
+            int kind = random.nextInt(3);
+            if (kind > 0) {
+                int t = random.nextInt(TESTS_PER_MODULE);
+                sb.append(String.format(" %s.%sTest%d", getPackage(m), capitalize(area),
+                        t / TESTS_PER_CASE));
+                if (kind > 1) {
+                    sb.append("#test").append(capitalize(area)).append(t % TESTS_PER_CASE);
+                }
+            }
+            filters.add(sb.toString());
+        }
+        return filters;
+    }
+
+    /**
+     * Write the logs collected for each module of a session to the given directory, with a
+     * size proportional to the number of tests.
+     *
+     * @return the total size of the files written.
+     */
+    public static long createLogs(File logsDir, IInvocationResult result, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        long size = 0;
+        for (IModuleResult module : result.getModules()) {
+            File dir = new File(logsDir, module.getId().replace(' ', '_'));
+            dir.mkdirs();
+            File log = new File(dir, "host_log.txt");
+            long limit = (long) LOG_BYTES_PER_TEST * TESTS_PER_MODULE;
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(log))) {
+                for (long written = 0; written < limit; ) {
+                    String line = String.format("01-01 00:%02d:%02d I/ModuleListener: [%d/%d] "
+                            + "%s\n", random.nextInt(60), random.nextInt(60),
+                            random.nextInt(TESTS_PER_MODULE), TESTS_PER_MODULE, module.getId());
+                    writer.write(line);
+                    written += line.length();
+                }
+            }
+            size += log.length();
+        }
+        return size;
+    }
+
+    private static void appendFrame(StringBuilder sb, String frame) {
+        sb.append("\n\tat ").append(frame);
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
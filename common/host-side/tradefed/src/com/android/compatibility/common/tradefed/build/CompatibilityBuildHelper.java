@@ -47,6 +47,9 @@ public class CompatibilityBuildHelper {
     private static final String DYNAMIC_CONFIG_OVERRIDE_URL = "DYNAMIC_CONFIG_OVERRIDE_URL";
     private static final String COMMAND_LINE_ARGS = "command_line_args";
     private static final String RETRY_COMMAND_LINE_ARGS = "retry_command_line_args";
+    private static final String MODULE_INPUT_HASHES = "MODULE_INPUT_HASHES";
+    private static final String CARRIED_MODULES = "CARRIED_MODULES";
+    private static final String SPECULATIVE_EXECUTION = "SPECULATIVE_EXECUTION";
     private final IBuildInfo mBuildInfo;
     private boolean mInitialized = false;
 
@@ -162,6 +165,79 @@ public class CompatibilityBuildHelper {
         mBuildInfo.addBuildAttribute(MODULE_IDS, String.join(",", moduleIds));
     }
 
+    /**
+     * Stores the hash of the inputs of each module to run, see ModuleInputHasher.
+     */
+    public void setModuleInputHashes(Map<String, String> hashes) {
+        mBuildInfo.addBuildAttribute(MODULE_INPUT_HASHES, joinMap(hashes));
+    }
+
+    /**
+     * @return the hash of the inputs of each module to run, keyed by module id.
+     */
+    public Map<String, String> getModuleInputHashes() {
+        return splitMap(mBuildInfo.getBuildAttributes().get(MODULE_INPUT_HASHES));
+    }
+
+    /**
+     * Stores the modules skipped because they passed with the same inputs in a previous
+     * session, whose results are carried forward into this session's report.
+     *
+     * @param carriedModules the name of the previous session's result directory, keyed by
+     * module id
+     */
+    public void setCarriedModules(Map<String, String> carriedModules) {
+        mBuildInfo.addBuildAttribute(CARRIED_MODULES, joinMap(carriedModules));
+    }
+
+    /**
+     * @return the name of the result directory of each module carried forward from a previous
+     * session, keyed by module id.
+     */
+    public Map<String, String> getCarriedModules() {
+        return splitMap(mBuildInfo.getBuildAttributes().get(CARRIED_MODULES));
+    }
+
+    /**
+     * Records whether modules may be duplicated onto idle shards, so that the result reporter
+     * keeps only one run of a duplicated module.
+     */
+    public void setSpeculativeExecution(boolean speculativeExecution) {
+        mBuildInfo.addBuildAttribute(SPECULATIVE_EXECUTION,
+                Boolean.toString(speculativeExecution));
+    }
+
+    /**
+     * @return whether modules may be duplicated onto idle shards.
+     */
+    public boolean isSpeculativeExecution() {
+        return Boolean.parseBoolean(mBuildInfo.getBuildAttributes().get(SPECULATIVE_EXECUTION));
+    }
+
+    private static String joinMap(Map<String, String> map) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> splitMap(String value) {
+        Map<String, String> map = new HashMap<>();
+        if (value != null && value.length() > 0) {
+            for (String entry : value.split(",")) {
+                String[] parts = entry.split("=", 2);
+                if (parts.length == 2) {
+                    map.put(parts[0], parts[1]);
+                }
+            }
+        }
+        return map;
+    }
+
     public Map<String, File> getDynamicConfigFiles() {
         Map<String, File> configMap = new HashMap<>();
         for (String key : mBuildInfo.getBuildAttributes().keySet()) {
@@ -276,6 +352,28 @@ public class CompatibilityBuildHelper {
         return new File(getResultDir(), "test_runs.txt");
     }
 
+    /**
+     * @return a {@link File} next to the resultsDir recording the runtimes of past modules
+     */
+    public File getModuleRuntimesFile() throws FileNotFoundException {
+        return new File(getDir(), "module_runtimes.txt");
+    }
+
+    /**
+     * @return a {@link File} next to the resultsDir recording the runtimes of the test classes
+     * of past modules
+     */
+    public File getClassRuntimesFile() throws FileNotFoundException {
+        return new File(getDir(), "class_runtimes.txt");
+    }
+
+    /**
+     * @return a {@link File} next to the resultsDir recording the last pass of past modules
+     */
+    public File getModulePassesFile() throws FileNotFoundException {
+        return new File(getDir(), "module_passes.txt");
+    }
+
     /**
      * @return a {@link String} to use for directory suffixes created from the given time.
      */
@@ -18,12 +18,10 @@ package com.android.compatibility.common.tradefed.command;
 import com.android.compatibility.SuiteInfo;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildProvider;
-import com.android.compatibility.common.tradefed.result.IInvocationResultRepo;
-import com.android.compatibility.common.tradefed.result.InvocationResultRepo;
 import com.android.compatibility.common.tradefed.result.SubPlanCreator;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepo;
-import com.android.compatibility.common.util.IInvocationResult;
-import com.android.compatibility.common.util.TestStatus;
+import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.SessionSummary;
 import com.android.tradefed.command.Console;
 import com.android.tradefed.config.ArgsOptionParser;
 import com.android.tradefed.config.ConfigurationException;
@@ -344,42 +342,34 @@ public class CompatibilityConsole extends Console {
     private void listResults() {
         TableFormatter tableFormatter = new TableFormatter();
         List<List<String>> table = new ArrayList<>();
-        IInvocationResultRepo testResultRepo = null;
-        List<IInvocationResult> results = null;
+        List<SessionSummary> results = null;
         try {
-            testResultRepo = new InvocationResultRepo(getBuildHelper().getResultsDir());
-            results = testResultRepo.getResults();
+            // Only the summaries of the sessions are read, not their results
+            results = ResultHandler.getSessionSummaries(getBuildHelper().getResultsDir());
         } catch (FileNotFoundException e) {
             printLine(e.getMessage());
             e.printStackTrace();
         }
-        if (testResultRepo != null && results.size() > 0) {
+        if (results != null && results.size() > 0) {
             for (int i = 0; i < results.size(); i++) {
-                IInvocationResult result = results.get(i);
-                Map<String, String> invocationInfo = result.getInvocationInfo();
-
-                // invocation attributes are not always present (e.g. in the case of halted runs)
-                // replace null entries with the string "Unknown"
-                for (Map.Entry<String, String> entry : invocationInfo.entrySet()) {
-                    if (entry.getValue() == null) {
-                        invocationInfo.put(entry.getKey(), "Unknown");
-                    }
-                }
+                SessionSummary result = results.get(i);
 
                 String moduleProgress = String.format("%d of %d",
-                        result.getModuleCompleteCount(), result.getModules().size());
+                        result.getModulesDone(), result.getModulesTotal());
 
+                // build attributes are not always present (e.g. in the case of halted runs)
+                // replace null entries with the string "Unknown"
                 table.add(Arrays.asList(
                         Integer.toString(i),
-                        Integer.toString(result.countResults(TestStatus.PASS)),
-                        Integer.toString(result.countResults(TestStatus.FAIL)),
+                        Integer.toString(result.getPassed()),
+                        Integer.toString(result.getFailed()),
                         Integer.toString(result.getNotExecuted()),
                         moduleProgress,
                         CompatibilityBuildHelper.getDirSuffix(result.getStartTime()),
                         result.getTestPlan(),
                         ArrayUtil.join(", ", result.getDeviceSerials()),
-                        invocationInfo.get("build_id"),
-                        invocationInfo.get("build_product")
+                        unknownIfNull(result.getBuildId()),
+                        unknownIfNull(result.getBuildProduct())
                         ));
             }
 
@@ -394,6 +384,10 @@ public class CompatibilityConsole extends Console {
         }
     }
 
+    private static String unknownIfNull(String value) {
+        return (value == null) ? "Unknown" : value;
+    }
+
     private void listSubPlans() {
         File[] files = null;
         try {
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most recent session in which each module passed, with the device build it passed on and
+ * the hash of the module's inputs at the time. Used to skip modules which are unchanged since
+ * they last passed on the same build.
+ * <p/>
+ * Stored as tab separated lines of "id, fingerprint, inputs hash, result directory name".
+ */
+public class ModulePassHistory {
+
+    private static final String DELIMITER = "\t";
+
+    /**
+     * Held by invocations in this process from loading the history until saving it, so that
+     * they do not overwrite each other's updates.
+     */
+    public static final Object LOCK = new Object();
+
+    // Module id -> its last pass
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private static class Entry {
+        final String mFingerprint;
+        final String mInputsHash;
+        final String mResultDir;
+
+        Entry(String fingerprint, String inputsHash, String resultDir) {
+            mFingerprint = fingerprint;
+            mInputsHash = inputsHash;
+            mResultDir = resultDir;
+        }
+    }
+
+    /**
+     * Load the pass history for the suite, or an empty history if none has been recorded.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} from which to retrieve the history
+     * file
+     */
+    public static ModulePassHistory load(final CompatibilityBuildHelper buildHelper) {
+        ModulePassHistory history = new ModulePassHistory();
+        try {
+            File f = buildHelper.getModulePassesFile();
+            if (f.exists() && f.length() > 0) {
+                history.parse(FileUtil.readStringFromFile(f));
+            }
+        } catch (IOException e) {
+            CLog.e("Could not read module pass history");
+            CLog.e(e);
+        }
+        return history;
+    }
+
+    /**
+     * Write the pass history back to the suite's history file.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} used to write the history file
+     */
+    public void save(final CompatibilityBuildHelper buildHelper) {
+        try {
+            File f = buildHelper.getModulePassesFile();
+            com.android.compatibility.common.util.FileUtil.writeAtomically(toString(), f);
+        } catch (IOException e) {
+            CLog.e("Exception while writing module pass history.");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * @return the ids of the modules which last passed on the given build.
+     */
+    public List<String> getModuleIds(String fingerprint) {
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            if (entry.getValue().mFingerprint.equals(fingerprint)) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the session in which a module last passed, if it passed on the given build with the
+     * given inputs.
+     *
+     * @param id the module id
+     * @param fingerprint the build fingerprint of the device
+     * @param inputsHash the hash of the module's inputs
+     * @return the name of the session's result directory, or null if the module has not passed
+     * on the build with those inputs.
+     */
+    public String getResultDir(String id, String fingerprint, String inputsHash) {
+        Entry entry = mEntries.get(id);
+        if (entry == null || !entry.mFingerprint.equals(fingerprint)
+                || !entry.mInputsHash.equals(inputsHash)) {
+            return null;
+        }
+        return entry.mResultDir;
+    }
+
+    /**
+     * Record that a module passed.
+     *
+     * @param id the module id
+     * @param fingerprint the build fingerprint of the device
+     * @param inputsHash the hash of the module's inputs
+     * @param resultDir the name of the session's result directory
+     */
+    public void addPass(String id, String fingerprint, String inputsHash, String resultDir) {
+        mEntries.put(id, new Entry(fingerprint, inputsHash, resultDir));
+    }
+
+    /**
+     * Forget the last pass of a module, e.g. because it has since failed.
+     */
+    public void removePass(String id) {
+        mEntries.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            Entry pass = entry.getValue();
+            sb.append(entry.getKey()).append(DELIMITER)
+                    .append(pass.mFingerprint).append(DELIMITER)
+                    .append(pass.mInputsHash).append(DELIMITER)
+                    .append(pass.mResultDir).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private void parse(String str) {
+        for (String line : str.split("\n")) {
+            String[] parts = line.split(DELIMITER, -1);
+            if (parts.length != 4) {
+                CLog.w("Ignoring malformed module pass: %s", line);
+                continue;
+            }
+            mEntries.put(parts[0], new Entry(parts[1], parts[2], parts[3]));
+        }
+    }
+}
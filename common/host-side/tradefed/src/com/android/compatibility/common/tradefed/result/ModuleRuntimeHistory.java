@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runtimes measured for each module in previous sessions, used in place of the runtime hints
+ * given in module configs when sharding.
+ * <p/>
+ * Runtimes are kept per module id (which includes the ABI) and device build fingerprint, and are
+ * stored as tab separated lines of "id, fingerprint, runtime in ms, number of samples".
+ */
+public class ModuleRuntimeHistory {
+
+    /** Build attribute holding the fingerprint of the device under test */
+    public static final String BUILD_FINGERPRINT = "cts:build_fingerprint";
+
+    private static final String DELIMITER = "\t";
+    // Weight given to the most recent measurement when updating a known runtime, so a module's
+    // runtime follows changes in the module without being thrown off by a single slow run.
+    private static final double NEW_SAMPLE_WEIGHT = 0.5;
+
+    /**
+     * Held by invocations in this process from loading the history until saving it, so that
+     * they do not overwrite each other's updates.
+     */
+    public static final Object LOCK = new Object();
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private static class Entry {
+        final String mId;
+        final String mFingerprint;
+        long mRuntime;
+        int mSamples;
+
+        Entry(String id, String fingerprint, long runtime, int samples) {
+            mId = id;
+            mFingerprint = fingerprint;
+            mRuntime = runtime;
+            mSamples = samples;
+        }
+    }
+
+    /**
+     * Load the runtime history for the suite, or an empty history if none has been recorded.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} from which to retrieve the history
+     * file
+     */
+    public static ModuleRuntimeHistory load(final CompatibilityBuildHelper buildHelper) {
+        ModuleRuntimeHistory history = new ModuleRuntimeHistory();
+        try {
+            File f = buildHelper.getModuleRuntimesFile();
+            if (f.exists() && f.length() > 0) {
+                history.parse(FileUtil.readStringFromFile(f));
+            }
+        } catch (IOException e) {
+            CLog.e("Could not read module runtime history");
+            CLog.e(e);
+        }
+        return history;
+    }
+
+    /**
+     * Write the runtime history back to the suite's history file.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} used to write the history file
+     */
+    public void save(final CompatibilityBuildHelper buildHelper) {
+        try {
+            File f = buildHelper.getModuleRuntimesFile();
+            com.android.compatibility.common.util.FileUtil.writeAtomically(toString(), f);
+        } catch (IOException e) {
+            CLog.e("Exception while writing module runtime history.");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * @return true if no runtimes have been recorded.
+     */
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Get the runtime of a module measured on the given build. If the module has never been run
+     * on that build, the runtime measured on the build with the most samples is used instead.
+     *
+     * @param id the module id
+     * @param fingerprint the build fingerprint of the device, may be null
+     * @return the runtime in ms, or -1 if the module has never been run
+     */
+    public long getRuntime(String id, String fingerprint) {
+        Entry entry = mEntries.get(getKey(id, fingerprint));
+        if (entry == null) {
+            for (Entry e : mEntries.values()) {
+                if (e.mId.equals(id) && (entry == null || e.mSamples > entry.mSamples)) {
+                    entry = e;
+                }
+            }
+        }
+        return (entry == null) ? -1 : entry.mRuntime;
+    }
+
+    /**
+     * Record a runtime measured for a module.
+     *
+     * @param id the module id
+     * @param fingerprint the build fingerprint of the device, may be null
+     * @param runtime the runtime in ms
+     */
+    public void addRuntime(String id, String fingerprint, long runtime) {
+        String key = getKey(id, fingerprint);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mEntries.put(key, new Entry(id, normalize(fingerprint), runtime, 1));
+        } else {
+            entry.mRuntime = Math.round(NEW_SAMPLE_WEIGHT * runtime
+                    + (1 - NEW_SAMPLE_WEIGHT) * entry.mRuntime);
+            entry.mSamples++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : mEntries.values()) {
+            sb.append(entry.mId).append(DELIMITER)
+                    .append(entry.mFingerprint).append(DELIMITER)
+                    .append(entry.mRuntime).append(DELIMITER)
+                    .append(entry.mSamples).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private void parse(String str) {
+        for (String line : str.split("\n")) {
+            String[] parts = line.split(DELIMITER, -1);
+            if (parts.length != 4) {
+                CLog.w("Ignoring malformed module runtime: %s", line);
+                continue;
+            }
+            try {
+                mEntries.put(getKey(parts[0], parts[1]), new Entry(parts[0], parts[1],
+                        Long.parseLong(parts[2]), Integer.parseInt(parts[3])));
+            } catch (NumberFormatException e) {
+                CLog.w("Ignoring malformed module runtime: %s", line);
+            }
+        }
+    }
+
+    private static String getKey(String id, String fingerprint) {
+        return id + DELIMITER + normalize(fingerprint);
+    }
+
+    private static String normalize(String fingerprint) {
+        return (fingerprint == null) ? "" : fingerprint;
+    }
+}
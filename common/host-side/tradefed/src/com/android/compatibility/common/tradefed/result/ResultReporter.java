@@ -20,15 +20,25 @@ import com.android.compatibility.common.tradefed.result.InvocationFailureHandler
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTest.RetryType;
+import com.android.compatibility.common.tradefed.testtype.TestClassSharder;
+import com.android.compatibility.common.tradefed.util.DeviceLatencyRecorder;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
+import com.android.compatibility.common.util.BinaryResultHandler;
+import com.android.compatibility.common.util.ChecksumReporter;
+import com.android.compatibility.common.util.CompactInvocationResult;
 import com.android.compatibility.common.util.ICaseResult;
 import com.android.compatibility.common.util.IInvocationResult;
 import com.android.compatibility.common.util.IModuleResult;
 import com.android.compatibility.common.util.ITestResult;
 import com.android.compatibility.common.util.InvocationResult;
 import com.android.compatibility.common.util.MetricsStore;
+import com.android.compatibility.common.util.ModuleResult;
+import com.android.compatibility.common.util.ParallelZipWriter;
 import com.android.compatibility.common.util.ReportLog;
 import com.android.compatibility.common.util.ResultHandler;
+import com.android.compatibility.common.util.ResultJournal;
 import com.android.compatibility.common.util.ResultUploader;
+import com.android.compatibility.common.util.SessionSummary;
 import com.android.compatibility.common.util.TestStatus;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.testrunner.TestIdentifier;
@@ -51,7 +61,6 @@ import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.TimeUtil;
-import com.android.tradefed.util.ZipUtil;
 
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -60,7 +69,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -77,6 +89,13 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     private static final String RESULT_KEY = "COMPATIBILITY_TEST_RESULT";
     private static final String CTS_PREFIX = "cts:";
     private static final String BUILD_INFO = CTS_PREFIX + "build_";
+    // Number of phases listed in the summary of where the invocation's time went
+    private static final int TOP_TIME_SINKS = 10;
+    // Files of the previous session not copied into the result directory of a retry
+    private static final Set<String> RESULT_FILE_NAMES = new HashSet<>(Arrays.asList(
+            ResultHandler.TEST_RESULT_FILE_NAME, ResultHandler.FAILURE_REPORT_NAME,
+            BinaryResultHandler.BINARY_RESULT_FILE_NAME, ResultJournal.JOURNAL_FILE_NAME,
+            ChecksumReporter.NAME, SessionSummary.SUMMARY_FILE_NAME));
 
     @Option(name = CompatibilityTest.RETRY_OPTION,
             shortName = 'r',
@@ -97,12 +116,31 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     @Option(name = "disable-result-posting", description = "Disable result posting into report server.")
     private boolean mDisableResultPosting = false;
 
+    @Option(name = "async-result-upload", description = "Upload the result to the result "
+            + "server in the background, so the invocation can end while it uploads.")
+    private boolean mAsyncResultUpload = false;
+
     @Option(name = "include-test-log-tags", description = "Include test log tags in report.")
     private boolean mIncludeTestLogTags = false;
 
     @Option(name = "use-log-saver", description = "Also saves generated result with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "result-journal", description = "Journal the results of each module to the "
+            + "result directory as it completes, so that the results of a session which is killed "
+            + "before it ends can still be retried. The report of such a session is then written "
+            + "from the journal.")
+    private boolean mUseJournal = false;
+
+    @Option(name = "compact-results", description = "Hold the results of the session in a "
+            + "compact form, for sessions with too many tests to hold one object per test. The "
+            + "results of a retried session are loaded in the same form.")
+    private boolean mCompactResults = false;
+
+    @Option(name = "binary-result", description = "Also write the results in a compact binary "
+            + "format next to the result XML, for tools which ingest many results.")
+    private boolean mBinaryResult = false;
+
     private CompatibilityBuildHelper mBuildHelper;
     private File mResultDir = null;
     private File mLogDir = null;
@@ -131,6 +169,19 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     protected boolean mCanMarkDone;
     // Whether the current module has previously been marked done
     private boolean mModuleWasDone;
+    // The shard which merged the first complete run of each module run as a single piece, so
+    // that a duplicate run of the module on another shard can be discarded. Only used by the
+    // master ResultReporter, with speculative execution.
+    private Map<String, ResultReporter> mCompletedModuleShards = new HashMap<>();
+    // The runs of modules run as a single piece which did not run every test, held back until
+    // the end of the invocation in case a complete run of the module arrives from another shard.
+    // Only used by the master ResultReporter, with speculative execution.
+    private Map<String, List<IModuleResult>> mPartialModuleRuns = new HashMap<>();
+    // Journal of the results, when enabled. Only used by the master ResultReporter.
+    private ResultJournal mJournal = null;
+    // The device serials and build info already journaled
+    private Set<String> mJournaledSerials = new HashSet<>();
+    private Map<String, String> mJournaledInfo = new HashMap<>();
 
     // Nullable. If null, "this" is considered the master and must handle
     // result aggregation and reporting. When not null, it should forward events
@@ -206,7 +257,12 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // an existing session.
             if (mRetrySessionId != null) {
                 // Overwrite the mResult with the test results of the previous session
-                mResult = ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId);
+                mResult = mCompactResults
+                        ? ResultHandler.findCompactResult(mBuildHelper.getResultsDir(),
+                                mRetrySessionId)
+                        : ResultHandler.findResult(mBuildHelper.getResultsDir(), mRetrySessionId);
+            } else if (mCompactResults) {
+                mResult = new CompactInvocationResult();
             }
             mResult.setStartTime(mBuildHelper.getStartTime());
             mResultDir = mBuildHelper.getResultDir();
@@ -227,6 +283,10 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
 
         info("Results Directory: " + mResultDir.getAbsolutePath());
 
+        if (mUseJournal) {
+            openJournal();
+        }
+
         mUploader = new ResultUploader(mResultServer, mBuildHelper.getSuiteName());
         try {
             mLogDir = new File(mBuildHelper.getLogsDir(),
@@ -296,7 +356,7 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // Test has previously failed.
             return;
         }
-        // device test can have performance results in test metrics
+        // device test can have performance results in test metrics, in XML or compact form
         String perfResult = metrics.get(RESULT_KEY);
         ReportLog report = null;
         if (perfResult != null) {
@@ -377,21 +437,158 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
         if (isShardResultReporter()) {
             // Forward module results to the master.
-            mMasterResultReporter.mergeModuleResult(mCurrentModuleResult);
+            mMasterResultReporter.mergeModuleResult(this, mCurrentModuleResult,
+                    mCurrentTestNum >= mTotalTestsInModule);
             mCurrentModuleResult.resetTestRuns();
+            mMasterResultReporter.flushJournal();
+        } else {
+            synchronized(this) {
+                journalModule(mCurrentModuleResult);
+            }
+            flushJournal();
         }
     }
 
     /**
      * Directly add a module result. Note: this method is meant to be used by
      * a shard ResultReporter.
+     *
+     * @param shard the shard ResultReporter the result comes from.
+     * @param complete whether the shard ran every test of its run of the module.
      */
-    private void mergeModuleResult(IModuleResult moduleResult) {
+    private void mergeModuleResult(ResultReporter shard, IModuleResult moduleResult,
+            boolean complete) {
         // This merges the results in moduleResult to any existing results already
         // contained in mResult. This is useful for retries and allows the final
         // report from a retry to contain all test results.
+        // Only the shard's run is journaled, encoded before taking the lock. The run is only
+        // changed by the shard, which is blocked here.
+        // With CompatibilityTest's speculative-execution, a module run as a single piece may be
+        // duplicated onto another shard. Only one run of such a module is merged: the first
+        // complete run, or if none completes, the partial runs at the end.
+        boolean duplicable = isSpeculativeExecution()
+                && moduleResult.getExpectedTestRuns() <= 1;
+        boolean heldBack = duplicable && !complete;
+        String encodedRun = (mJournal != null && !heldBack)
+                ? ResultJournal.encodeModuleRun(moduleResult) : null;
         synchronized(this) {
+            String id = moduleResult.getId();
+            ResultReporter completedShard = mCompletedModuleShards.get(id);
+            if (completedShard != null && completedShard != shard) {
+                info("Discarding duplicate run of %s, already completed on another shard", id);
+                return;
+            }
+            if (heldBack) {
+                // Copied, as the shard reuses its module result for its next run of the module
+                IModuleResult run = new ModuleResult(id);
+                run.mergeFrom(moduleResult);
+                List<IModuleResult> runs = mPartialModuleRuns.get(id);
+                if (runs == null) {
+                    runs = new ArrayList<>();
+                    mPartialModuleRuns.put(id, runs);
+                }
+                runs.add(run);
+                return;
+            }
+            if (duplicable) {
+                // The complete run replaces any partial run of the module
+                mPartialModuleRuns.remove(id);
+                mCompletedModuleShards.put(id, shard);
+            }
             mResult.mergeModuleResult(moduleResult);
+            if (encodedRun != null && journalInvocation()) {
+                mJournal.addModuleRun(encodedRun);
+                mJournal.updateSummary(mResult);
+            }
+        }
+    }
+
+    /**
+     * @return whether any shard may duplicate modules run by another shard.
+     */
+    private synchronized boolean isSpeculativeExecution() {
+        for (IBuildInfo buildInfo : mMasterBuildInfos) {
+            if (new CompatibilityBuildHelper(buildInfo).isSpeculativeExecution()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the journal in the result directory, and records the start of the session.
+     */
+    private void openJournal() {
+        try {
+            mJournal = new ResultJournal(new File(mResultDir, ResultJournal.JOURNAL_FILE_NAME));
+            mJournal.startSession(mBuildHelper.getStartTime(), mBuildHelper.getSuitePlan(),
+                    mBuildHelper.getCommandLineArgs());
+            if (mRetrySessionId != null) {
+                mJournal.setBase(ResultHandler.getResultDirectory(mBuildHelper.getResultsDir(),
+                        mRetrySessionId));
+            }
+            mJournal.updateSummary(mResult);
+        } catch (IOException e) {
+            warn("Could not open the result journal, results will only be written at the end: "
+                    + "%s", e.getMessage());
+            mJournal = null;
+        }
+    }
+
+    /**
+     * Records a snapshot of the module in the journal, along with any device serials and build
+     * info not yet journaled. Must be called with the lock of this master ResultReporter held.
+     */
+    private void journalModule(IModuleResult module) {
+        if (!journalInvocation()) {
+            return;
+        }
+        mJournal.addModule(module);
+        mJournal.updateSummary(mResult);
+    }
+
+    /**
+     * Records the device serials and build info not yet journaled. Must be called with the lock
+     * of this master ResultReporter held.
+     *
+     * @return false if there is no journal.
+     */
+    private boolean journalInvocation() {
+        if (mJournal == null) {
+            return false;
+        }
+        for (String deviceSerial : mMasterDeviceSerials) {
+            if (mJournaledSerials.add(deviceSerial)) {
+                mJournal.addDeviceSerial(deviceSerial);
+            }
+        }
+        for (IBuildInfo buildInfo : mMasterBuildInfos) {
+            for (Map.Entry<String, String> entry : buildInfo.getBuildAttributes().entrySet()) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+                if (key.startsWith(BUILD_INFO) && value != null
+                        && !value.equals(mJournaledInfo.get(key))) {
+                    mJournaledInfo.put(key, value);
+                    mJournal.addInvocationInfo(key.substring(CTS_PREFIX.length()), value);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the journal is on disk. Not synchronized, so that other shards may merge
+     * their results meanwhile.
+     */
+    private void flushJournal() {
+        ResultJournal journal = mJournal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            warn("Could not write the result journal: %s", e.getMessage());
         }
     }
 
@@ -449,14 +646,27 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     }
 
     private void finalizeResults(long elapsedTime) {
+        // No complete run arrived for these modules, so report what their partial runs ran
+        for (List<IModuleResult> runs : mPartialModuleRuns.values()) {
+            for (IModuleResult run : runs) {
+                mResult.mergeModuleResult(run);
+            }
+        }
+        mPartialModuleRuns.clear();
+
         // Add all device serials into the result to be serialized
         for (String deviceSerial : mMasterDeviceSerials) {
             mResult.addDeviceSerial(deviceSerial);
         }
 
         Set<String> allExpectedModules = new HashSet<>();
+        Map<String, String> inputHashes = new HashMap<>();
+        Map<String, String> carriedModules = new HashMap<>();
         // Add all build info to the result to be serialized
         for (IBuildInfo buildInfo : mMasterBuildInfos) {
+            CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(buildInfo);
+            inputHashes.putAll(buildHelper.getModuleInputHashes());
+            carriedModules.putAll(buildHelper.getCarriedModules());
             for (Map.Entry<String, String> entry : buildInfo.getBuildAttributes().entrySet()) {
                 String key = entry.getKey();
                 String value = entry.getValue();
@@ -470,11 +680,15 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             }
         }
 
+        carryModuleResults(carriedModules);
+
         // Include a record in the report of all expected modules ids, even if they weren't
         // executed.
         for (String moduleId : allExpectedModules) {
             mResult.getOrCreateModule(moduleId);
         }
+        // The results are complete in memory, so the journal is no longer needed
+        boolean journaled = closeJournal();
 
         String moduleProgress = String.format("%d of %d",
                 mResult.getModuleCompleteCount(), mResult.getModules().size());
@@ -491,15 +705,39 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // Zip the full test results directory.
             copyDynamicConfigFiles(mBuildHelper.getDynamicConfigFiles(), mResultDir);
             copyFormattingFiles(mResultDir);
+            if (mRetrySessionId != null) {
+                // Copied before the checksum is created, so that it covers the copied files and
+                // reuses the previous session's checksums of them
+                copyRetryFiles(ResultHandler.getResultDirectory(
+                        mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+            }
 
+            if (mBinaryResult) {
+                // Written first, so that the checksum written with test_result.xml covers it
+                BinaryResultHandler.writeResults(mBuildHelper.getSuiteName(),
+                        mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
+                        mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
+                        elapsedTime + startTime, mReferenceUrl, getLogUrl(),
+                        mBuildHelper.getCommandLineArgs());
+            }
             File resultFile = ResultHandler.writeResults(mBuildHelper.getSuiteName(),
                     mBuildHelper.getSuiteVersion(), mBuildHelper.getSuitePlan(),
                     mBuildHelper.getSuiteBuild(), mResult, mResultDir, startTime,
                     elapsedTime + startTime, mReferenceUrl, getLogUrl(),
                     mBuildHelper.getCommandLineArgs());
-            if (mRetrySessionId != null) {
-                copyRetryFiles(ResultHandler.getResultDirectory(
-                        mBuildHelper.getResultsDir(), mRetrySessionId), mResultDir);
+            if (mRetrySessionId == null) {
+                // Runtimes of retried modules only cover the retried tests, so only record
+                // runtimes from full sessions.
+                saveModuleRuntimes(carriedModules.keySet());
+            }
+            if (!inputHashes.isEmpty()) {
+                saveModulePasses(inputHashes);
+            }
+            savePhaseProfile();
+            saveDeviceLatencies();
+            if (journaled) {
+                // The journal is only needed until the report is written
+                FileUtil.deleteFile(new File(mResultDir, ResultJournal.JOURNAL_FILE_NAME));
             }
             File zippedResults = zipResults(mResultDir);
 
@@ -522,6 +760,169 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
     }
 
+    /**
+     * Closes the journal, once every shard has merged its results.
+     *
+     * @return true if the session was journaled.
+     */
+    private boolean closeJournal() {
+        if (mJournal == null) {
+            return false;
+        }
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            warn("Could not write the result journal: %s", e.getMessage());
+        } finally {
+            mJournal = null;
+        }
+        return true;
+    }
+
+    /**
+     * Write the time taken by each phase of each module to the result directory, and show the
+     * phases which took the most time overall.
+     */
+    private void savePhaseProfile() {
+        PhaseProfiler profiler = PhaseProfiler.remove(mBuildHelper.getBuildInfo());
+        if (profiler == null) {
+            return;
+        }
+        try {
+            profiler.write(mResultDir);
+        } catch (IOException e) {
+            warn("Could not write the phase profile: %s", e.getMessage());
+        }
+        String summary = profiler.getSummary(TOP_TIME_SINKS);
+        if (!summary.isEmpty()) {
+            info("Top time sinks:\n%s", summary);
+        }
+    }
+
+    /**
+     * Write the latency of the calls each module made to its device to the result directory, if
+     * they were recorded, and show the modules whose calls took the most time.
+     */
+    private void saveDeviceLatencies() {
+        DeviceLatencyRecorder recorder = DeviceLatencyRecorder.remove(mBuildHelper.getBuildInfo());
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.write(mResultDir);
+        } catch (IOException e) {
+            warn("Could not write the device latencies: %s", e.getMessage());
+        }
+        List<DeviceLatencyRecorder.Latency> latencies = recorder.getLatencies();
+        for (DeviceLatencyRecorder.Latency latency
+                : latencies.subList(0, Math.min(TOP_TIME_SINKS, latencies.size()))) {
+            info("%s %s: %d calls, %d ms", latency.getModule(), latency.getCommand(),
+                    latency.getCount(), Math.round(latency.getTotalMillis()));
+        }
+    }
+
+    /**
+     * Record the runtime of each module completed in this session and of its test classes, so
+     * that future sessions can shard modules by their measured runtimes and split long modules
+     * by class.
+     */
+    private void saveModuleRuntimes(Set<String> carriedIds) {
+        String fingerprint = mResult.getBuildFingerprint();
+        List<IModuleResult> measured = new ArrayList<>();
+        synchronized (ModuleRuntimeHistory.LOCK) {
+            ModuleRuntimeHistory history = ModuleRuntimeHistory.load(mBuildHelper);
+            for (IModuleResult module : mResult.getModules()) {
+                // Modules which did not complete would record a runtime that is too short, and
+                // the runtimes of carried modules were recorded by the session they ran in.
+                if (module.isDone() && module.getRuntime() > 0
+                        && !carriedIds.contains(module.getId())) {
+                    history.addRuntime(module.getId(), fingerprint, module.getRuntime());
+                    measured.add(module);
+                }
+            }
+            history.save(mBuildHelper);
+        }
+        synchronized (TestClassSharder.LOCK) {
+            TestClassSharder classRuntimes = TestClassSharder.load(mBuildHelper);
+            classRuntimes.addModules(measured, mResultDir);
+            classRuntimes.save(mBuildHelper);
+        }
+    }
+
+    /**
+     * Record the modules which passed in this session along with the hash of their inputs, so
+     * that future sessions on the same build can skip them while they are unchanged, and forget
+     * the previous passes of modules which did not pass.
+     *
+     * @param inputHashes the hash of the inputs of each module run unfiltered in this session
+     */
+    private void saveModulePasses(Map<String, String> inputHashes) {
+        String fingerprint = mResult.getBuildFingerprint();
+        synchronized (ModulePassHistory.LOCK) {
+            ModulePassHistory history = ModulePassHistory.load(mBuildHelper);
+            for (IModuleResult module : mResult.getModules()) {
+                String inputsHash = inputHashes.get(module.getId());
+                if (inputsHash == null) {
+                    continue;
+                }
+                if (module.isDone() && module.getNotExecuted() == 0
+                        && module.countResults(TestStatus.FAIL) == 0) {
+                    history.addPass(module.getId(), fingerprint, inputsHash,
+                            mResultDir.getName());
+                } else {
+                    history.removePass(module.getId());
+                }
+            }
+            history.save(mBuildHelper);
+        }
+    }
+
+    /**
+     * Add the results of modules skipped because they passed in a previous session with the same
+     * inputs, so that the report of this session is complete.
+     *
+     * @param carriedModules the name of the previous session's result directory, keyed by
+     * module id
+     */
+    private void carryModuleResults(Map<String, String> carriedModules) {
+        if (carriedModules.isEmpty()) {
+            return;
+        }
+        // Result directory name -> ids of the modules carried from it, so that each previous
+        // session is only loaded once.
+        Map<String, Set<String>> resultDirs = new HashMap<>();
+        for (Map.Entry<String, String> entry : carriedModules.entrySet()) {
+            Set<String> ids = resultDirs.get(entry.getValue());
+            if (ids == null) {
+                ids = new HashSet<>();
+                resultDirs.put(entry.getValue(), ids);
+            }
+            ids.add(entry.getKey());
+        }
+        for (Map.Entry<String, Set<String>> entry : resultDirs.entrySet()) {
+            IInvocationResult previous = null;
+            try {
+                previous = ResultHandler.getResultFromDir(
+                        new File(mBuildHelper.getResultsDir(), entry.getKey()), false);
+            } catch (FileNotFoundException e) {
+                CLog.e(e);
+            }
+            if (previous == null) {
+                warn("Could not load the results of %d modules from %s",
+                        entry.getValue().size(), entry.getKey());
+                continue;
+            }
+            for (IModuleResult module : previous.getModules()) {
+                if (entry.getValue().contains(module.getId())) {
+                    mResult.mergeModuleResult(module);
+                    journalModule(mResult.getOrCreateModule(module.getId()));
+                }
+            }
+            info("Carried forward the results of %d modules from %s", entry.getValue().size(),
+                    entry.getKey());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -643,6 +1044,19 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
      */
     private void uploadResult(File resultFile) throws IOException {
         if (mResultServer != null && !mResultServer.trim().isEmpty() && !mDisableResultPosting) {
+            if (mAsyncResultUpload) {
+                final String deviceSerial = mDeviceSerial;
+                mUploader.uploadResultAsync(resultFile, mReferenceUrl).whenComplete(
+                        (response, e) -> {
+                            if (e != null) {
+                                CLog.e("[%s] Exception while uploading result.", deviceSerial);
+                                CLog.e(e);
+                            } else {
+                                info("Result Server: %d", response);
+                            }
+                        });
+                return;
+            }
             try {
                 info("Result Server: %d", mUploader.uploadResult(resultFile, mReferenceUrl));
             } catch (IOException ioe) {
@@ -723,6 +1137,9 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
      * new result directory, so long as they don't already exist. For example, a "screenshots"
      * directory generated in a previous session by a passing test will not be generated on retry
      * unless copied from the old result directory.
+     * <p/>
+     * The results, checksum and reports of the previous session are not copied, as the new
+     * session writes its own after the copy.
      *
      * @param oldResultsDir
      * @param newResultsDir
@@ -730,6 +1147,9 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
     static void copyRetryFiles(File oldResultsDir, File newResultsDir) {
         File[] oldFiles = oldResultsDir.listFiles();
         for (File oldFile : oldFiles) {
+            if (RESULT_FILE_NAMES.contains(oldFile.getName())) {
+                continue;
+            }
             File newFile = new File (newResultsDir, oldFile.getName());
             if (!newFile.exists()) {
                 try {
@@ -738,6 +1158,8 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
                     } else {
                         FileUtil.copyFile(oldFile, newFile);
                     }
+                    // Unchanged files keep the checksum calculated by the previous session
+                    copyLastModified(oldFile, newFile);
                 } catch (IOException e) {
                     warn("Failed to copy file \"%s\" from previous session", oldFile.getName());
                 }
@@ -745,6 +1167,21 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
         }
     }
 
+    /**
+     * Recursively give copied files the modification time of the files they were copied from.
+     */
+    private static void copyLastModified(File oldFile, File newFile) {
+        if (oldFile.isDirectory()) {
+            String[] childNames = oldFile.list();
+            if (childNames != null) {
+                for (String childName : childNames) {
+                    copyLastModified(new File(oldFile, childName), new File(newFile, childName));
+                }
+            }
+        }
+        newFile.setLastModified(oldFile.lastModified());
+    }
+
     /**
      * Zip the contents of the given results directory.
      *
@@ -756,7 +1193,8 @@ public class ResultReporter implements ILogSaverListener, ITestInvocationListene
             // create a file in parent directory, with same name as resultsDir
             zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
                     resultsDir.getName()));
-            ZipUtil.createZip(resultsDir, zipResultFile);
+            // Already compressed logs are stored and the rest deflated in parallel
+            ParallelZipWriter.createZip(resultsDir, zipResultFile);
         } catch (IOException e) {
             warn("Failed to create zip for %s", resultsDir.getName());
         }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.AaptParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the APKs installed on one device by {@link ApkInstaller}s, so that installing an APK
+ * identical to the one already installed for its package can be skipped.
+ * <p/>
+ * An install is only skipped if it is the same as the last install of the package: the same APK,
+ * for the same ABI and with the same install arguments. For example, the module of the second ABI
+ * installs the APK again.
+ * <p/>
+ * An APK is only skipped if the APK installed on the device for its package still has the hash
+ * recorded, so a package uninstalled or replaced since, e.g. by a host-side test installing its own
+ * version, is installed again.
+ */
+public class ApkInstallLedger {
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PACKAGE_PATH_PREFIX = "package:";
+
+    private static class ApkInfo {
+        final String mPackageName;
+        final String mHash;
+
+        ApkInfo(String packageName, String hash) {
+            mPackageName = packageName;
+            mHash = hash;
+        }
+    }
+
+    // Package name -> hash, ABI and install arguments of the last install of the package
+    private final Map<String, String> mInstalled = new HashMap<>();
+    // APK file -> its package name and hash, computed once per file
+    private final Map<File, ApkInfo> mApks = new HashMap<>();
+
+    /**
+     * @return true if the same install of an identical APK was recorded and the APK installed on
+     * the device for its package is still identical.
+     *
+     * @param device the device to install on
+     * @param apkFile the APK to install
+     * @param abi the name of the ABI the APK is installed for, or null if none was given
+     * @param installArgs all the arguments of the install, including the ABI
+     */
+    public boolean isInstalled(ITestDevice device, File apkFile, String abi,
+            List<String> installArgs) throws DeviceNotAvailableException {
+        ApkInfo apk = getApkInfo(apkFile);
+        if (apk == null) {
+            return false;
+        }
+        synchronized (mInstalled) {
+            if (!getInstallKey(apk, abi, installArgs).equals(mInstalled.get(apk.mPackageName))) {
+                return false;
+            }
+        }
+        if (!apk.mHash.equals(getInstalledHash(device, apk.mPackageName))) {
+            // Uninstalled or replaced since, e.g. by a test or an instrumentation preparer
+            forget(apk.mPackageName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash of the APK installed on the device for the package, or null if the package
+     * is not installed as a single APK or the APK could not be hashed on the device.
+     */
+    private static String getInstalledHash(ITestDevice device, String packageName)
+            throws DeviceNotAvailableException {
+        String paths = device.executeShellCommand("pm path " + packageName);
+        if (paths == null) {
+            return null;
+        }
+        paths = paths.trim();
+        if (!paths.startsWith(PACKAGE_PATH_PREFIX) || paths.contains("\n")) {
+            // Not installed, or installed with splits
+            return null;
+        }
+        String path = paths.substring(PACKAGE_PATH_PREFIX.length());
+        String output = device.executeShellCommand("sha1sum " + path);
+        if (output == null) {
+            return null;
+        }
+        // "<hash>  <path>", or an error message if the APK cannot be hashed
+        String[] fields = output.trim().split("\\s+");
+        if (fields.length != 2 || !fields[0].matches("[0-9a-f]{40}")) {
+            return null;
+        }
+        return fields[0];
+    }
+
+    /**
+     * Records that the APK was installed on the device, replacing any previous install of its
+     * package.
+     *
+     * @param apkFile the APK installed
+     * @param abi the name of the ABI the APK was installed for, or null if none was given
+     * @param installArgs all the arguments of the install, including the ABI
+     */
+    public void recordInstall(File apkFile, String abi, List<String> installArgs) {
+        ApkInfo apk = getApkInfo(apkFile);
+        if (apk != null) {
+            synchronized (mInstalled) {
+                mInstalled.put(apk.mPackageName, getInstallKey(apk, abi, installArgs));
+            }
+        }
+    }
+
+    /**
+     * Forgets the APK installed for the given package, e.g. because it was uninstalled.
+     */
+    public void forget(String packageName) {
+        synchronized (mInstalled) {
+            mInstalled.remove(packageName);
+        }
+    }
+
+    /**
+     * @return the package name and hash of the APK, or null if either could not be determined.
+     */
+    private ApkInfo getApkInfo(File apkFile) {
+        synchronized (mApks) {
+            if (mApks.containsKey(apkFile)) {
+                return mApks.get(apkFile);
+            }
+        }
+        ApkInfo apk = null;
+        AaptParser parser = AaptParser.parse(apkFile);
+        if (parser != null && parser.getPackageName() != null) {
+            try {
+                apk = new ApkInfo(parser.getPackageName(), hash(apkFile));
+            } catch (IOException | NoSuchAlgorithmException e) {
+                CLog.w("Could not hash %s: %s", apkFile.getName(), e.getMessage());
+            }
+        } else {
+            CLog.w("Could not read the package name of %s", apkFile.getName());
+        }
+        synchronized (mApks) {
+            mApks.put(apkFile, apk);
+        }
+        return apk;
+    }
+
+    /**
+     * @return a key identifying an install of the APK, equal only for the same APK installed for
+     * the same ABI with the same arguments.
+     */
+    private static String getInstallKey(ApkInfo apk, String abi, List<String> installArgs) {
+        StringBuilder key = new StringBuilder(apk.mHash);
+        key.append('\n').append(abi);
+        for (String arg : installArgs) {
+            key.append('\n').append(arg);
+        }
+        return key.toString();
+    }
+
+    private static String hash(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
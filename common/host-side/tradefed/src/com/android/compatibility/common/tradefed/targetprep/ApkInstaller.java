@@ -16,22 +16,52 @@
 package com.android.compatibility.common.tradefed.targetprep;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.util.OptionHelper;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionClass;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.targetprep.BuildError;
 import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.targetprep.TestAppInstallSetup;
+import com.android.tradefed.testtype.IAbi;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
 
 /**
  * Installs specified APKs from Compatibility repository.
  */
 @OptionClass(alias="apk-installer")
-public class ApkInstaller extends TestAppInstallSetup {
+public class ApkInstaller extends TestAppInstallSetup
+        implements IHostSidePreparer, IArtifactPreparer {
+
+    private static final String TEST_FILE_NAME_OPTION = "test-file-name";
+    private static final String INSTALL_ARG_OPTION = "install-arg";
+    private static final String CLEANUP_OPTION = "cleanup-apks";
+    private static final String MANIFEST = "AndroidManifest.xml";
 
     private CompatibilityBuildHelper mBuildHelper = null;
 
+    // APK files which have already been located and verified, keyed by file name.
+    private Map<String, File> mVerifiedApks = new ConcurrentHashMap<>();
+
+    // Skips APKs already installed on the device when set, see setInstallLedger().
+    private ApkInstallLedger mInstallLedger = null;
+
+    // The ABI the APKs are installed for, also given to the superclass
+    private IAbi mAbi = null;
+
     protected File getTestsDir(IBuildInfo buildInfo) throws FileNotFoundException {
         if (mBuildHelper == null) {
             mBuildHelper = new CompatibilityBuildHelper(buildInfo);
@@ -39,12 +69,118 @@ public class ApkInstaller extends TestAppInstallSetup {
         return mBuildHelper.getTestsDir();
     }
 
+    /**
+     * Sets the ledger of APKs installed on the device, so that APKs identical to the ones already
+     * installed are not installed again. Ignored if the APKs are uninstalled after the module.
+     */
+    public void setInstallLedger(ApkInstallLedger installLedger) {
+        mInstallLedger = installLedger;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAbi(IAbi abi) {
+        super.setAbi(abi);
+        mAbi = abi;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getArtifacts() {
+        Set<String> artifacts = new HashSet<>();
+        for (Object apkFileName : getOptionValues(TEST_FILE_NAME_OPTION)) {
+            artifacts.add(apkFileName.toString());
+        }
+        return artifacts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUp(ITestDevice device, IBuildInfo buildInfo) throws TargetSetupError,
+            BuildError, DeviceNotAvailableException {
+        if (mInstallLedger == null
+                || Boolean.TRUE.equals(OptionHelper.getOptionValue(this, CLEANUP_OPTION))) {
+            super.setUp(device, buildInfo);
+            return;
+        }
+        // The same arguments as the superclass installs with
+        List<String> installArgs = new ArrayList<>();
+        for (Object arg : getOptionValues(INSTALL_ARG_OPTION)) {
+            installArgs.add(arg.toString());
+        }
+        String abi = (mAbi == null) ? null : mAbi.getName();
+        if (abi != null) {
+            installArgs.add(String.format("--abi %s", abi));
+        }
+        for (Object apkFileName : getOptionValues(TEST_FILE_NAME_OPTION)) {
+            File apkFile = getLocalPathForFilename(buildInfo, apkFileName.toString());
+            if (mInstallLedger.isInstalled(device, apkFile, abi, installArgs)) {
+                CLog.d("Skipping install of %s, already installed on %s", apkFileName,
+                        device.getSerialNumber());
+                continue;
+            }
+            String result = device.installPackage(apkFile, true,
+                    installArgs.toArray(new String[installArgs.size()]));
+            if (result != null) {
+                throw new TargetSetupError(String.format("Failed to install %s on %s. Reason: %s",
+                        apkFileName, device.getSerialNumber(), result));
+            }
+            mInstallLedger.recordInstall(apkFile, abi, installArgs);
+        }
+    }
+
+    /**
+     * Locates each of the APKs to install and checks that they are valid APK files.
+     */
+    @Override
+    public void setUpHostSide(IBuildInfo buildInfo) throws TargetSetupError {
+        for (Object apkFileName : getOptionValues(TEST_FILE_NAME_OPTION)) {
+            File apkFile = findApk(buildInfo, apkFileName.toString());
+            try (ZipFile apk = new ZipFile(apkFile)) {
+                if (apk.getEntry(MANIFEST) == null) {
+                    throw new TargetSetupError(String.format("%s has no %s", apkFileName,
+                            MANIFEST));
+                }
+            } catch (IOException e) {
+                throw new TargetSetupError(String.format("%s is not a valid APK", apkFileName),
+                        e);
+            }
+            mVerifiedApks.put(apkFileName.toString(), apkFile);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected File getLocalPathForFilename(IBuildInfo buildInfo, String apkFileName)
             throws TargetSetupError {
+        File apkFile = mVerifiedApks.get(apkFileName);
+        if (apkFile != null) {
+            return apkFile;
+        }
+        return findApk(buildInfo, apkFileName);
+    }
+
+    /**
+     * @return the values of a collection option of {@link TestAppInstallSetup}, which are not
+     * otherwise exposed.
+     */
+    private Collection<?> getOptionValues(String optionName) {
+        Object values = OptionHelper.getOptionValue(this, optionName);
+        if (values instanceof Collection) {
+            return (Collection<?>) values;
+        }
+        return new ArrayList<Object>();
+    }
+
+    private File findApk(IBuildInfo buildInfo, String apkFileName) throws TargetSetupError {
         File apkFile = null;
         try {
             apkFile = new File(getTestsDir(buildInfo), apkFileName);
@@ -34,15 +34,18 @@ import com.android.tradefed.testtype.AndroidJUnitTest;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Target preparer that instruments an APK.
  */
 @OptionClass(alias="apk-instrumentation-preparer")
-public class ApkInstrumentationPreparer extends PreconditionPreparer implements ITargetCleaner {
+public class ApkInstrumentationPreparer extends PreconditionPreparer
+        implements ITargetCleaner, IArtifactPreparer {
 
     @Option(name = "apk", description = "Name of the apk to instrument", mandatory = true)
     protected String mApkFileName = null;
@@ -61,6 +64,14 @@ public class ApkInstrumentationPreparer extends PreconditionPreparer implements
             new ConcurrentHashMap<>();
     private ConcurrentHashMap<TestIdentifier, String> testFailures = new ConcurrentHashMap<>();
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getArtifacts() {
+        return Collections.singleton(mApkFileName);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -43,7 +43,7 @@ import java.net.URL;
  * Pushes dynamic config files from config repository
  */
 @OptionClass(alias="dynamic-config-pusher")
-public class DynamicConfigPusher implements ITargetCleaner {
+public class DynamicConfigPusher implements ITargetCleaner, IHostSidePreparer {
     public enum TestTarget {
         DEVICE,
         HOST
@@ -70,10 +70,25 @@ public class DynamicConfigPusher implements ITargetCleaner {
 
     private String mFilePushed;
 
+    // The merged dynamic config, kept so it is only downloaded and merged once per module.
+    private File mMergedConfigFile = null;
+
     void setModuleName(String moduleName) {
         mModuleName = moduleName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUpHostSide(IBuildInfo buildInfo) throws TargetSetupError {
+        if (mMergedConfigFile != null && mMergedConfigFile.exists()) {
+            // Already merged by setUp, e.g. when the module was prepared before it was queued
+            return;
+        }
+        mMergedConfigFile = getMergedConfigFile(new CompatibilityBuildHelper(buildInfo));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -83,6 +98,47 @@ public class DynamicConfigPusher implements ITargetCleaner {
 
         CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(buildInfo);
 
+        if (mMergedConfigFile == null || !mMergedConfigFile.exists()) {
+            mMergedConfigFile = getMergedConfigFile(buildHelper);
+        }
+        File src = mMergedConfigFile;
+
+        switch (mTarget) {
+            case DEVICE:
+                String deviceDest = DynamicConfig.CONFIG_FOLDER_ON_DEVICE + src.getName();
+                if (!device.pushFile(src, deviceDest)) {
+                    throw new TargetSetupError(String.format(
+                            "Failed to push local '%s' to remote '%s'",
+                            src.getAbsolutePath(), deviceDest));
+                } else {
+                    mFilePushed = deviceDest;
+                    buildHelper.addDynamicConfigFile(mModuleName, src);
+                }
+                break;
+
+            case HOST:
+                File storageDir = new File(DynamicConfig.CONFIG_FOLDER_ON_HOST);
+                if (!storageDir.exists()) {
+                    storageDir.mkdir();
+                }
+                File hostDest = new File(DynamicConfig.CONFIG_FOLDER_ON_HOST + src.getName());
+                try {
+                    FileUtil.copyFile(src, hostDest);
+                } catch (IOException e) {
+                    throw new TargetSetupError(String.format("Failed to copy file from %s to %s",
+                            src.getAbsolutePath(), hostDest.getAbsolutePath()), e);
+                }
+                mFilePushed = hostDest.getAbsolutePath();
+                buildHelper.addDynamicConfigFile(mModuleName, src);
+                break;
+        }
+    }
+
+    /**
+     * Merges the local dynamic config file with the config downloaded from the server, if any.
+     */
+    private File getMergedConfigFile(CompatibilityBuildHelper buildHelper)
+            throws TargetSetupError {
         File localConfigFile = null;
         try {
             localConfigFile = DynamicConfig.getConfigFile(buildHelper.getTestsDir(), mModuleName);
@@ -114,43 +170,12 @@ public class DynamicConfigPusher implements ITargetCleaner {
                     "Dynamic config override URL is not set, using local configuration values");
         }
 
-        File src = null;
         try {
-            src = DynamicConfigHandler.getMergedDynamicConfigFile(
+            return DynamicConfigHandler.getMergedDynamicConfigFile(
                     localConfigFile, apfeConfigInJson, mModuleName);
         } catch (IOException | XmlPullParserException | JSONException e) {
             throw new TargetSetupError("Cannot get merged dynamic config file", e);
         }
-
-        switch (mTarget) {
-            case DEVICE:
-                String deviceDest = DynamicConfig.CONFIG_FOLDER_ON_DEVICE + src.getName();
-                if (!device.pushFile(src, deviceDest)) {
-                    throw new TargetSetupError(String.format(
-                            "Failed to push local '%s' to remote '%s'",
-                            src.getAbsolutePath(), deviceDest));
-                } else {
-                    mFilePushed = deviceDest;
-                    buildHelper.addDynamicConfigFile(mModuleName, src);
-                }
-                break;
-
-            case HOST:
-                File storageDir = new File(DynamicConfig.CONFIG_FOLDER_ON_HOST);
-                if (!storageDir.exists()) {
-                    storageDir.mkdir();
-                }
-                File hostDest = new File(DynamicConfig.CONFIG_FOLDER_ON_HOST + src.getName());
-                try {
-                    FileUtil.copyFile(src, hostDest);
-                } catch (IOException e) {
-                    throw new TargetSetupError(String.format("Failed to copy file from %s to %s",
-                            src.getAbsolutePath(), hostDest.getAbsolutePath()), e);
-                }
-                mFilePushed = hostDest.getAbsolutePath();
-                buildHelper.addDynamicConfigFile(mModuleName, src);
-                break;
-        }
     }
 
     /**
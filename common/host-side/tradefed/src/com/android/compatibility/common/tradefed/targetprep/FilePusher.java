@@ -16,23 +16,34 @@
 package com.android.compatibility.common.tradefed.targetprep;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.util.OptionHelper;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.Option;
 import com.android.tradefed.config.OptionClass;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.targetprep.PushFilePreparer;
+import com.android.tradefed.targetprep.TargetSetupError;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IAbiReceiver;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Pushes specified testing artifacts from Compatibility repository.
  */
 @OptionClass(alias="file-pusher")
-public class FilePusher extends PushFilePreparer implements IAbiReceiver {
+public class FilePusher extends PushFilePreparer
+        implements IAbiReceiver, IHostSidePreparer, IArtifactPreparer {
+
+    private static final String PUSH_OPTION = "push";
+    private static final String PUSH_DELIMITER = "->";
 
     @Option(name = "append-bitness",
             description = "Append the ABI's bitness to the filename.")
@@ -42,6 +53,9 @@ public class FilePusher extends PushFilePreparer implements IAbiReceiver {
 
     private IAbi mAbi;
 
+    // Files which have already been located, keyed by the file name given in the push option.
+    private Map<String, File> mResolvedFiles = new ConcurrentHashMap<>();
+
     protected File getTestsDir(IBuildInfo buildInfo) throws FileNotFoundException {
         if (mBuildHelper == null) {
             mBuildHelper = new CompatibilityBuildHelper(buildInfo);
@@ -57,16 +71,66 @@ public class FilePusher extends PushFilePreparer implements IAbiReceiver {
         mAbi = abi;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getArtifacts() {
+        Set<String> artifacts = new HashSet<>();
+        Object pushSpecs = OptionHelper.getOptionValue(this, PUSH_OPTION);
+        if (pushSpecs instanceof Collection) {
+            for (Object pushSpec : (Collection<?>) pushSpecs) {
+                String[] parts = pushSpec.toString().split(PUSH_DELIMITER, 2);
+                if (mAppendBitness && mAbi != null) {
+                    parts[0] += mAbi.getBitness();
+                }
+                artifacts.add(String.join(PUSH_DELIMITER, parts));
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * Locates each of the relative files to push, and checks that they exist.
+     */
+    @Override
+    public void setUpHostSide(IBuildInfo buildInfo) throws TargetSetupError {
+        Object pushSpecs = OptionHelper.getOptionValue(this, PUSH_OPTION);
+        if (!(pushSpecs instanceof Collection)) {
+            return;
+        }
+        for (Object pushSpec : (Collection<?>) pushSpecs) {
+            String fileName = pushSpec.toString().split(PUSH_DELIMITER, 2)[0];
+            if (new File(fileName).isAbsolute()) {
+                continue;
+            }
+            File f = getRelativeFile(buildInfo, fileName);
+            if (f == null || !f.exists()) {
+                throw new TargetSetupError(String.format("%s not found", fileName));
+            }
+            mResolvedFiles.put(fileName, f);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public File resolveRelativeFilePath(IBuildInfo buildInfo, String fileName) {
+        File f = mResolvedFiles.get(fileName);
+        if (f == null) {
+            f = getRelativeFile(buildInfo, fileName);
+        }
+        if (f != null) {
+            CLog.logAndDisplay(LogLevel.INFO, "Copying from %s", f.getAbsolutePath());
+        }
+        return f;
+    }
+
+    private File getRelativeFile(IBuildInfo buildInfo, String fileName) {
         try {
-            File f = new File(getTestsDir(buildInfo),
+            return new File(getTestsDir(buildInfo),
                     String.format("%s%s", fileName, mAppendBitness ? mAbi.getBitness() : ""));
-            CLog.logAndDisplay(LogLevel.INFO, "Copying from %s", f.getAbsolutePath());
-            return f;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.targetprep.ITargetPreparer;
+
+import java.util.Set;
+
+/**
+ * An {@link ITargetPreparer} which installs or pushes files from the Compatibility repository,
+ * so that modules using the same files can be scheduled onto the same device.
+ */
+public interface IArtifactPreparer extends ITargetPreparer {
+
+    /**
+     * @return the names of the files this preparer installs or pushes, which are equal for two
+     * preparers only if they put the same file in the same place on the device.
+     */
+    Set<String> getArtifacts();
+}
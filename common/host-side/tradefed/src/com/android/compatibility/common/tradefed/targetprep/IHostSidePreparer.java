@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.tradefed.targetprep;
+
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.targetprep.BuildError;
+import com.android.tradefed.targetprep.ITargetPreparer;
+import com.android.tradefed.targetprep.TargetSetupError;
+
+/**
+ * An {@link ITargetPreparer} with setup steps that only touch the host, such as downloading or
+ * locating files, which can be run ahead of time while another module's tests run on the device.
+ */
+public interface IHostSidePreparer extends ITargetPreparer {
+
+    /**
+     * Runs the setup steps that do not touch the device. May be called on a thread other than
+     * the one running the tests, before {@link #setUp}. If it fails, {@link #setUp} must still run
+     * every step itself.
+     *
+     * @param buildInfo the {@link IBuildInfo} for the invocation
+     */
+    void setUpHostSide(IBuildInfo buildInfo) throws TargetSetupError, BuildError;
+}
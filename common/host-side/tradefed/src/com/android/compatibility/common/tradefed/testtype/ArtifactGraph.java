@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A graph of modules, connected by the files their preparers install or push onto the device.
+ * Used to schedule modules sharing files onto the same device, so that each device installs
+ * fewer distinct files.
+ */
+public class ArtifactGraph {
+
+    // Module -> files it installs or pushes
+    private final Map<IModuleDef, Set<String>> mArtifacts = new HashMap<>();
+    // File -> modules installing or pushing it
+    private final Map<String, List<IModuleDef>> mModules = new HashMap<>();
+
+    /**
+     * Adds a module and the files it installs or pushes.
+     */
+    public void addModule(IModuleDef module, Set<String> artifacts) {
+        mArtifacts.put(module, artifacts);
+        for (String artifact : artifacts) {
+            List<IModuleDef> modules = mModules.get(artifact);
+            if (modules == null) {
+                modules = new ArrayList<>();
+                mModules.put(artifact, modules);
+            }
+            modules.add(module);
+        }
+    }
+
+    /**
+     * @return the files the module installs or pushes.
+     */
+    public Set<String> getArtifacts(IModuleDef module) {
+        Set<String> artifacts = mArtifacts.get(module);
+        return (artifacts == null) ? Collections.<String>emptySet() : artifacts;
+    }
+
+    /**
+     * @return the number of files the module installs or pushes which are in the given set.
+     */
+    public int getOverlap(IModuleDef module, Set<String> artifacts) {
+        int overlap = 0;
+        for (String artifact : getArtifacts(module)) {
+            if (artifacts.contains(artifact)) {
+                overlap++;
+            }
+        }
+        return overlap;
+    }
+
+    /**
+     * @return the modules sharing files with the module, and the number of files each shares.
+     */
+    public Map<IModuleDef, Integer> getNeighbors(IModuleDef module) {
+        Map<IModuleDef, Integer> neighbors = new HashMap<>();
+        for (String artifact : getArtifacts(module)) {
+            for (IModuleDef neighbor : mModules.get(artifact)) {
+                if (neighbor != module) {
+                    Integer shared = neighbors.get(neighbor);
+                    neighbors.put(neighbor, (shared == null) ? 1 : shared + 1);
+                }
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * Orders the modules so that modules sharing files are next to each other. Starting from the
+     * first module, each module is followed by the remaining module sharing the most files with
+     * it, or by the first remaining module if none share any.
+     *
+     * @return a new list of the given modules.
+     */
+    public List<IModuleDef> order(List<IModuleDef> modules) {
+        // Preserves the given order, which breaks ties.
+        Set<IModuleDef> remaining = new LinkedHashSet<>(modules);
+        Map<IModuleDef, Integer> positions = new HashMap<>();
+        for (int i = 0; i < modules.size(); i++) {
+            positions.put(modules.get(i), i);
+        }
+        List<IModuleDef> ordered = new ArrayList<>(modules.size());
+        IModuleDef next = remaining.isEmpty() ? null : remaining.iterator().next();
+        while (next != null) {
+            remaining.remove(next);
+            ordered.add(next);
+            IModuleDef current = next;
+            next = null;
+            int mostShared = 0;
+            for (Entry<IModuleDef, Integer> neighbor : getNeighbors(current).entrySet()) {
+                IModuleDef module = neighbor.getKey();
+                int shared = neighbor.getValue();
+                if (remaining.contains(module) && (shared > mostShared || (shared == mostShared
+                        && positions.get(module) < positions.get(next)))) {
+                    next = module;
+                    mostShared = shared;
+                }
+            }
+            if (next == null && !remaining.isEmpty()) {
+                next = remaining.iterator().next();
+            }
+        }
+        return ordered;
+    }
+}
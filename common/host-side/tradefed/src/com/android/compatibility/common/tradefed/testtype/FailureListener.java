@@ -15,6 +15,7 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
@@ -25,6 +26,8 @@ import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.ResultForwarder;
 import com.android.tradefed.util.RunUtil;
 
+import java.util.Map;
+
 public class FailureListener extends ResultForwarder {
 
     private static final int DEFAULT_MAX_LOGCAT_BYTES = 500 * 1024; // 500K
@@ -37,6 +40,9 @@ public class FailureListener extends ResultForwarder {
     private boolean mScreenshotOnFailure;
     private boolean mRebootOnFailure;
     private int mMaxLogcatBytes;
+    private PhaseProfiler mProfiler = new PhaseProfiler();
+    // Name of the current run, the module id for modules run by a CompatibilityTest
+    private String mRunName = null;
 
     public FailureListener(ITestInvocationListener listener, ITestDevice device,
             boolean bugReportOnFailure, boolean logcatOnFailure, boolean screenshotOnFailure,
@@ -61,6 +67,31 @@ public class FailureListener extends ResultForwarder {
         }
     }
 
+    /**
+     * Set the profiler recording the time taken to collect logs on failure.
+     */
+    public void setPhaseProfiler(PhaseProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStarted(String runName, int testCount) {
+        mRunName = runName;
+        super.testRunStarted(runName, testCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        super.testRunEnded(elapsedTime, runMetrics);
+        mRunName = null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -69,21 +100,25 @@ public class FailureListener extends ResultForwarder {
         super.testFailed(test, trace);
         CLog.i("FailureListener.testFailed %s %b %b %b", test.toString(), mBugReportOnFailure, mLogcatOnFailure, mScreenshotOnFailure);
         if (mBugReportOnFailure) {
-           InputStreamSource bugSource = mDevice.getBugreport();
-           super.testLog(String.format("%s-bugreport", test.toString()), LogDataType.BUGREPORT,
-                   bugSource);
-           bugSource.cancel();
+            try (PhaseProfiler.Timer timer = startPhase("bugreport")) {
+                InputStreamSource bugSource = mDevice.getBugreport();
+                super.testLog(String.format("%s-bugreport", test.toString()),
+                        LogDataType.BUGREPORT, bugSource);
+                bugSource.cancel();
+            }
         }
         if (mLogcatOnFailure) {
-            // sleep 2s to ensure test failure stack trace makes it into logcat capture
-            RunUtil.getDefault().sleep(2 * 1000);
-            InputStreamSource logSource = mDevice.getLogcat(mMaxLogcatBytes);
-            super.testLog(String.format("%s-logcat", test.toString()), LogDataType.LOGCAT,
-                    logSource);
-            logSource.cancel();
+            try (PhaseProfiler.Timer timer = startPhase("logcat")) {
+                // sleep 2s to ensure test failure stack trace makes it into logcat capture
+                RunUtil.getDefault().sleep(2 * 1000);
+                InputStreamSource logSource = mDevice.getLogcat(mMaxLogcatBytes);
+                super.testLog(String.format("%s-logcat", test.toString()), LogDataType.LOGCAT,
+                        logSource);
+                logSource.cancel();
+            }
         }
         if (mScreenshotOnFailure) {
-            try {
+            try (PhaseProfiler.Timer timer = startPhase("screenshot")) {
                 InputStreamSource screenSource = mDevice.getScreenshot();
                 super.testLog(String.format("%s-screenshot", test.toString()), LogDataType.PNG,
                         screenSource);
@@ -95,7 +130,7 @@ public class FailureListener extends ResultForwarder {
             }
         }
         if (mRebootOnFailure) {
-            try {
+            try (PhaseProfiler.Timer timer = startPhase("reboot")) {
                 // Rebooting on all failures can hide legitimate issues and platform instabilities,
                 // therefore only allowed on "user-debug" and "eng" builds.
                 if ("user".equals(mDevice.getProperty("ro.build.type"))) {
@@ -112,4 +147,8 @@ public class FailureListener extends ResultForwarder {
         }
     }
 
+    private PhaseProfiler.Timer startPhase(String log) {
+        return mProfiler.start(mDevice.getSerialNumber(), mRunName, PhaseProfiler.FAILURE_LOG,
+                log);
+    }
 }
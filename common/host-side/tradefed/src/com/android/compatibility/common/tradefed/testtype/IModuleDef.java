@@ -15,6 +15,8 @@
  */
 package com.android.compatibility.common.tradefed.testtype;
 
+import com.android.compatibility.common.tradefed.targetprep.ApkInstallLedger;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IBuildReceiver;
@@ -57,6 +59,13 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
      */
     IRemoteTest getTest();
 
+    /**
+     * Set the expected runtime of this module, overriding the hint given by its test.
+     *
+     * @param runtimeHint the expected runtime in ms, e.g. as measured in previous sessions.
+     */
+    void setRuntimeHint(long runtimeHint);
+
     /**
      * Set a list of preparers to allow to run before or after a test.
      * If this list is empty, then all configured preparers will run.
@@ -65,6 +74,26 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
      */
     void setPreparerWhitelist(Set<String> preparerWhitelist);
 
+    /**
+     * @return the names of the files this module's preparers install or push onto the device.
+     */
+    Set<String> getArtifacts();
+
+    /**
+     * Set the ledger of APKs installed on the device, so that APKs already installed by an
+     * earlier module are not installed again.
+     *
+     * @param installLedger the ledger of the device running this module.
+     */
+    void setInstallLedger(ApkInstallLedger installLedger);
+
+    /**
+     * Set the profiler recording how long each phase of this module takes.
+     *
+     * @param profiler the profiler of the invocation running this module.
+     */
+    void setPhaseProfiler(PhaseProfiler profiler);
+
     /**
      * Pushes dynamic configuration, then runs the module's precondition checks and setup tasks.
      * @param skipPrep whether preparation should be skipped
@@ -75,4 +104,11 @@ public interface IModuleDef extends Comparable<IModuleDef>, IBuildReceiver, IDev
     boolean prepare(boolean skipPrep, List<String> preconditionArgs)
             throws DeviceNotAvailableException;
 
+    /**
+     * Runs the steps of the module's target preparers that only touch the host, such as
+     * downloading dynamic config and locating test files, so they are done by the time the module
+     * runs. Safe to call on another thread while a different module runs on the device.
+     */
+    void prepareHostSide();
+
 }
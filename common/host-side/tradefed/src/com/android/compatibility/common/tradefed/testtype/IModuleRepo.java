@@ -39,6 +39,39 @@ public interface IModuleRepo {
      */
     void setPrepared(boolean isPrepared);
 
+    /**
+     * Splits modules which took longer than the given runtime in previous sessions into modules
+     * running different test classes, so they can run on different devices at once. Must be called
+     * before {@link #initialize}.
+     *
+     * @param runtimeThreshold the runtime in ms above which modules are split, or 0 to disable
+     */
+    void setClassShardingThreshold(long runtimeThreshold);
+
+    /**
+     * Prefers assigning modules which install or push the same files to the same device, so that
+     * each device installs fewer distinct files. Must be called before {@link #initialize}.
+     */
+    void setArtifactAffinity(boolean artifactAffinity);
+
+    /**
+     * Allows idle devices to run duplicates of modules which are taking longer than expected on
+     * other devices, see {@link #getSpeculativeModule}. Must be called before {@link #initialize}.
+     */
+    void setSpeculativeExecution(boolean speculativeExecution);
+
+    /**
+     * Sets the hasher used to hash the inputs of each module when it is loaded, see
+     * {@link #getModuleInputHashes}. Must be called before {@link #initialize}.
+     */
+    void setModuleInputHasher(ModuleInputHasher inputHasher);
+
+    /**
+     * @return the hash of the inputs of each module which runs unfiltered, keyed by module id, or
+     * an empty map if no {@link ModuleInputHasher} was set.
+     */
+    Map<String, String> getModuleInputHashes();
+
     /**
      * @return true if this repository has been initialized.
      */
@@ -56,6 +89,65 @@ public interface IModuleRepo {
      */
     List<IModuleDef> getModules(String serial);
 
+    /**
+     * Takes the next module to run on the device referenced by the given serial from a queue
+     * shared by all shards, ordered by runtime hint. Used instead of {@link #getModules(String)}
+     * when modules are assigned to devices dynamically.
+     *
+     * @return the next {@link IModuleDef} to run, or null if no modules remain for this device.
+     */
+    IModuleDef getNextModule(String serial);
+
+    /**
+     * Gives back modules taken by the device referenced by the given serial which it cannot run,
+     * e.g. because it failed preparation, so that other devices can take them through
+     * {@link #getNextModule(String)}. The device is not given any more modules.
+     */
+    void returnModules(String serial, List<IModuleDef> modules);
+
+    /**
+     * Records that the module failed preparation on the device referenced by the given serial.
+     * The first time a module fails, it is given back as by {@link #returnModules}. A module
+     * which then fails on another device is assumed to be at fault rather than the devices, so it
+     * is dropped and the device is left to take more modules.
+     *
+     * @return true if the module was given back and the device should stop taking modules, false
+     * if the module was dropped.
+     */
+    boolean returnFailedModule(String serial, IModuleDef module);
+
+    /**
+     * Records that the device referenced by the given serial started running the module.
+     */
+    void startModule(String serial, IModuleDef module);
+
+    /**
+     * Records that the device referenced by the given serial finished running the module.
+     *
+     * @return true if this is the first run of the module to finish.
+     */
+    boolean finishModule(String serial, IModuleDef module);
+
+    /**
+     * @return true if a run of the module with the given id has finished on any device.
+     */
+    boolean isModuleFinished(String id);
+
+    /**
+     * Returns a duplicate of a module that another device has been running for longer than its
+     * runtime hint, for an idle device to run in case it finishes first. Each module is only
+     * duplicated once, and only modules run as a single piece are duplicated.
+     *
+     * @return the duplicate, or null if no module is overdue.
+     */
+    IModuleDef getSpeculativeModule(String serial);
+
+    /**
+     * @return true if other devices are running modules which may later be returned by
+     * {@link #getSpeculativeModule} for the device referenced by the given serial.
+     */
+    boolean hasSpeculativeCandidates(String serial);
+
     /**
      * @return the number of shards this repo is initialized for.
      */
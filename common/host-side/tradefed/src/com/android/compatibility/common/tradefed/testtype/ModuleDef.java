@@ -17,9 +17,14 @@ package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.result.IModuleListener;
 import com.android.compatibility.common.tradefed.result.ModuleListener;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstallLedger;
+import com.android.compatibility.common.tradefed.targetprep.ApkInstaller;
 import com.android.compatibility.common.tradefed.targetprep.DynamicConfigPusher;
+import com.android.compatibility.common.tradefed.targetprep.IArtifactPreparer;
+import com.android.compatibility.common.tradefed.targetprep.IHostSidePreparer;
 import com.android.compatibility.common.tradefed.targetprep.PreconditionPreparer;
 import com.android.compatibility.common.tradefed.targetprep.TokenRequirement;
+import com.android.compatibility.common.tradefed.util.PhaseProfiler;
 import com.android.compatibility.common.util.AbiUtils;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.ConfigurationException;
@@ -67,6 +72,9 @@ public class ModuleDef implements IModuleDef {
     private IBuildInfo mBuild;
     private ITestDevice mDevice;
     private Set<String> mPreparerWhitelist = new HashSet<>();
+    private long mRuntimeHint = -1;
+    // Profiles the phases of this module, discarded unless set by the CompatibilityTest
+    private PhaseProfiler mProfiler = new PhaseProfiler();
 
     public ModuleDef(String name, IAbi abi, IRemoteTest test,
             List<ITargetPreparer> preparers) {
@@ -161,12 +169,23 @@ public class ModuleDef implements IModuleDef {
      */
     @Override
     public long getRuntimeHint() {
+        if (mRuntimeHint >= 0) {
+            return mRuntimeHint;
+        }
         if (mTest instanceof IRuntimeHintProvider) {
             return ((IRuntimeHintProvider) mTest).getRuntimeHint();
         }
         return TimeUnit.MINUTES.toMillis(1); // Default 1 minute.
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setRuntimeHint(long runtimeHint) {
+        mRuntimeHint = runtimeHint;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -183,6 +202,45 @@ public class ModuleDef implements IModuleDef {
         mPreparerWhitelist.addAll(preparerWhitelist);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<String> getArtifacts() {
+        Set<String> artifacts = new HashSet<>();
+        List<ITargetPreparer> preparers = new ArrayList<>(mPreconditions);
+        preparers.addAll(mPreparers);
+        for (ITargetPreparer preparer : preparers) {
+            if (preparer instanceof IArtifactPreparer) {
+                if (preparer instanceof IAbiReceiver) {
+                    ((IAbiReceiver) preparer).setAbi(mAbi);
+                }
+                artifacts.addAll(((IArtifactPreparer) preparer).getArtifacts());
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setInstallLedger(ApkInstallLedger installLedger) {
+        for (ITargetPreparer preparer : mPreparers) {
+            if (preparer instanceof ApkInstaller) {
+                ((ApkInstaller) preparer).setInstallLedger(installLedger);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPhaseProfiler(PhaseProfiler profiler) {
+        mProfiler = profiler;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -223,11 +281,11 @@ public class ModuleDef implements IModuleDef {
         // Run DynamicConfigPusher setup once more, in case cleaner has previously
         // removed dynamic config file from the target (see b/32877809)
         for (ITargetPreparer preparer : mDynamicConfigPreparers) {
-            runPreparerSetup(preparer);
+            runPreparerSetup(preparer, PhaseProfiler.PREPARER);
         }
         // Setup
         for (ITargetPreparer preparer : mPreparers) {
-            runPreparerSetup(preparer);
+            runPreparerSetup(preparer, PhaseProfiler.PREPARER);
         }
 
         CLog.d("Test: %s", mTest.getClass().getSimpleName());
@@ -244,13 +302,17 @@ public class ModuleDef implements IModuleDef {
         IModuleListener moduleListener = new ModuleListener(this, listener);
         // Guarantee events testRunStarted and testRunEnded in case underlying test runner does not
         ModuleFinisher moduleFinisher = new ModuleFinisher(moduleListener);
-        mTest.run(moduleFinisher);
+        try (PhaseProfiler.Timer timer = startPhase(PhaseProfiler.TEST, null)) {
+            mTest.run(moduleFinisher);
+        }
         moduleFinisher.finish();
 
         // Tear down
         for (ITargetCleaner cleaner : mCleaners) {
             CLog.d("Cleaner: %s", cleaner.getClass().getSimpleName());
-            cleaner.tearDown(mDevice, mBuild, null);
+            try (PhaseProfiler.Timer timer = startPhase(PhaseProfiler.CLEANER, cleaner)) {
+                cleaner.tearDown(mDevice, mBuild, null);
+            }
         }
     }
 
@@ -261,7 +323,7 @@ public class ModuleDef implements IModuleDef {
     public boolean prepare(boolean skipPrep, List<String> preconditionArgs)
             throws DeviceNotAvailableException {
         for (ITargetPreparer preparer : mDynamicConfigPreparers) {
-            runPreparerSetup(preparer);
+            runPreparerSetup(preparer, PhaseProfiler.PREPARER);
         }
         for (ITargetPreparer preparer : mPreconditions) {
             setOption(preparer, CompatibilityTest.SKIP_PRECONDITIONS_OPTION,
@@ -270,7 +332,7 @@ public class ModuleDef implements IModuleDef {
                 setOption(preparer, CompatibilityTest.PRECONDITION_ARG_OPTION, preconditionArg);
             }
             try {
-                runPreparerSetup(preparer);
+                runPreparerSetup(preparer, PhaseProfiler.PRECONDITIONS);
             } catch (RuntimeException e) {
                 CLog.e("Precondition class %s failed", preparer.getClass().getCanonicalName());
                 return false;
@@ -279,7 +341,45 @@ public class ModuleDef implements IModuleDef {
         return true;
     }
 
-    private void runPreparerSetup(ITargetPreparer preparer) throws DeviceNotAvailableException {
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prepareHostSide() {
+        List<ITargetPreparer> preparers = new ArrayList<>(mDynamicConfigPreparers);
+        preparers.addAll(mPreparers);
+        for (ITargetPreparer preparer : preparers) {
+            String preparerName = preparer.getClass().getCanonicalName();
+            if (!(preparer instanceof IHostSidePreparer) || (!mPreparerWhitelist.isEmpty()
+                    && !mPreparerWhitelist.contains(preparerName))) {
+                continue;
+            }
+            if (preparer instanceof IAbiReceiver) {
+                ((IAbiReceiver) preparer).setAbi(mAbi);
+            }
+            try {
+                ((IHostSidePreparer) preparer).setUpHostSide(mBuild);
+            } catch (BuildError | TargetSetupError | RuntimeException e) {
+                // The preparer runs all of its steps again during setup, where the error is
+                // reported as usual.
+                CLog.w("Host side preparation of %s failed for %s: %s", preparerName, mId,
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Start timing a phase of this module on its device.
+     *
+     * @param detail the preparer or cleaner run in the phase, may be null
+     */
+    private PhaseProfiler.Timer startPhase(String phase, Object detail) {
+        return mProfiler.start((mDevice == null) ? null : mDevice.getSerialNumber(), mId, phase,
+                (detail == null) ? null : detail.getClass().getSimpleName());
+    }
+
+    private void runPreparerSetup(ITargetPreparer preparer, String phase)
+            throws DeviceNotAvailableException {
         String preparerName = preparer.getClass().getCanonicalName();
         if (!mPreparerWhitelist.isEmpty() && !mPreparerWhitelist.contains(preparerName)) {
             CLog.w("Skipping Preparer: %s since it is not in the whitelist %s",
@@ -290,7 +390,7 @@ public class ModuleDef implements IModuleDef {
         if (preparer instanceof IAbiReceiver) {
             ((IAbiReceiver) preparer).setAbi(mAbi);
         }
-        try {
+        try (PhaseProfiler.Timer timer = startPhase(phase, preparer)) {
             preparer.setUp(mDevice, mBuild);
         } catch (BuildError e) {
             // This should only happen for flashing new build
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes the inputs of a module: its config file, its test jar if it has one, and every file its
+ * preparers install or push. Two runs of a module with the same hash ran the same tests.
+ * <p/>
+ * The hash of each file is computed once per hasher, so modules sharing files only read them
+ * once. Safe to use from multiple threads.
+ */
+public class ModuleInputHasher {
+
+    private static final String CONFIG_EXT = ".config";
+    private static final String JAR_EXT = ".jar";
+    private static final String PUSH_DELIMITER = "->";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Recorded in place of the hash of a file which could not be read
+    private static final String MISSING = "missing";
+
+    private final File mTestsDir;
+    // Absolute path -> hash of the file
+    private final Map<String, String> mFileHashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param testsDir the directory containing the module configs and their files.
+     */
+    public ModuleInputHasher(File testsDir) {
+        mTestsDir = testsDir;
+    }
+
+    /**
+     * @return the hash of the inputs of the module.
+     */
+    public String hash(IModuleDef module) {
+        // Sorted so the hash does not depend on the order of the preparers
+        Set<String> fileNames = new TreeSet<>();
+        fileNames.add(module.getName() + CONFIG_EXT);
+        if (new File(mTestsDir, module.getName() + JAR_EXT).isFile()) {
+            fileNames.add(module.getName() + JAR_EXT);
+        }
+        for (String artifact : module.getArtifacts()) {
+            // Files pushed are given as "source->destination"
+            fileNames.add(artifact.split(PUSH_DELIMITER, 2)[0]);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            for (String fileName : fileNames) {
+                File f = new File(fileName);
+                if (!f.isAbsolute()) {
+                    f = new File(mTestsDir, fileName);
+                }
+                digest.update(fileName.getBytes(StandardCharsets.UTF_8));
+                digest.update(getFileHash(f).getBytes(StandardCharsets.UTF_8));
+            }
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String getFileHash(File f) throws NoSuchAlgorithmException {
+        String path = f.getAbsolutePath();
+        String hash = mFileHashes.get(path);
+        if (hash == null) {
+            try {
+                hash = hashFile(f);
+            } catch (IOException e) {
+                CLog.d("Could not hash %s: %s", path, e.getMessage());
+                hash = MISSING;
+            }
+            mFileHashes.put(path, hash);
+        }
+        return hash;
+    }
+
+    private static String hashFile(File f) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        try (InputStream in = new FileInputStream(f)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -16,9 +16,10 @@
 package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.tradefed.result.ModuleRuntimeHistory;
 import com.android.compatibility.common.tradefed.result.TestRunHandler;
 import com.android.compatibility.common.util.AbiUtils;
-import com.android.compatibility.common.util.TestFilter;
+import com.android.compatibility.common.util.TestFilterIndex;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.ConfigurationException;
@@ -40,7 +41,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -49,7 +50,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -64,6 +71,15 @@ public class ModuleRepo implements IModuleRepo {
     }
     private static final long SMALL_TEST = TimeUnit.MINUTES.toMillis(2); // Small tests < 2mins
     private static final long MEDIUM_TEST = TimeUnit.MINUTES.toMillis(10); // Medium tests < 10mins
+    // Maximum number of threads used to load config files.
+    private static final int LOADING_THREADS =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+    // When assigning modules by runtime, a module may go to a shard sharing more files with it as
+    // long as that shard's runtime is within this fraction of the module's runtime of the least.
+    private static final double AFFINITY_SLACK = 0.25;
+    // Number of devices a module may fail preparation on before it is dropped rather than given
+    // to another device.
+    private static final int MAX_PREPARATION_FAILURES = 2;
 
     private int mShards;
     private int mModulesPerShard;
@@ -72,12 +88,19 @@ public class ModuleRepo implements IModuleRepo {
     private int mLargeModulesPerShard;
     private int mModuleCount = 0;
     private Set<String> mSerials = new HashSet<>();
+    // Devices which gave back their modules, see returnModules().
+    private Set<String> mQuarantinedSerials = new HashSet<>();
+    // Devices each module failed preparation on, keyed by module id, see returnFailedModule().
+    private Map<String, Set<String>> mPreparationFailures = new HashMap<>();
     private Map<String, Set<String>> mDeviceTokens = new HashMap<>();
     private Map<String, Map<String, String>> mTestArgs = new HashMap<>();
     private Map<String, Map<String, String>> mModuleArgs = new HashMap<>();
     private boolean mIncludeAll;
-    private Map<String, List<TestFilter>> mIncludeFilters = new HashMap<>();
-    private Map<String, List<TestFilter>> mExcludeFilters = new HashMap<>();
+    private TestFilterIndex mIncludeFilters = new TestFilterIndex(false);
+    private TestFilterIndex mExcludeFilters = new TestFilterIndex(true);
+    // Filter files keyed by suffix and content, shared by all modules and shards using the same
+    // filters.
+    private final Map<String, File> mFilterFiles = new HashMap<>();
     private IConfigurationFactory mConfigFactory = ConfigurationFactory.getInstance();
 
     private volatile boolean mInitialized = false;
@@ -94,6 +117,86 @@ public class ModuleRepo implements IModuleRepo {
     private List<IModuleDef> mLargeModules = new ArrayList<>();
     // Holds all the tests with tokens waiting to be run. Meaning the DUT must have a specific token.
     private List<IModuleDef> mTokenModules = new ArrayList<>();
+    // Holds the modules without tokens waiting to be taken one at a time by devices, ordered by
+    // runtime hint. Only created once a device asks for its next module, see getNextModule().
+    private PriorityBlockingQueue<IModuleDef> mModuleQueue = null;
+    // Whether any module's runtime hint was replaced by its runtime measured in past sessions.
+    private boolean mHasLearnedRuntimes = false;
+    // Modules which took longer than this are split by test class when a sharder is set.
+    private long mClassShardingThreshold = 0;
+    private TestClassSharder mClassSharder = null;
+    // Connects modules installing or pushing the same files, when artifact affinity is enabled.
+    private ArtifactGraph mArtifactGraph = null;
+    private boolean mArtifactAffinity = false;
+    // Whether overdue modules may be duplicated onto idle devices, see getSpeculativeModule().
+    private boolean mSpeculativeExecution = false;
+    private IBuildInfo mBuildInfo;
+    // The config file of each module which runs as a single piece, and so can be duplicated.
+    private Map<IModuleDef, String[]> mModuleConfigs = new HashMap<>();
+    // The module each device is running, keyed by serial.
+    private Map<String, RunningModule> mRunningModules = new HashMap<>();
+    // Ids of the modules which have been duplicated, and which have finished on any device.
+    private Set<String> mSpeculatedIds = new HashSet<>();
+    private Set<String> mFinishedIds = new HashSet<>();
+    // Hashes the inputs of each module run unfiltered when set, see getModuleInputHashes().
+    private ModuleInputHasher mInputHasher = null;
+    private Map<String, String> mModuleInputHashes = new HashMap<>();
+
+    /**
+     * A module running on a device, and when it started.
+     */
+    private static class RunningModule {
+        final IModuleDef mModule;
+        final long mStartTime;
+
+        RunningModule(IModuleDef module, long startTime) {
+            mModule = module;
+            mStartTime = startTime;
+        }
+    }
+    // Holds the modules without tokens split into one list per shard by runtime, heaviest first.
+    // Only created once a device asks for its modules, see getModulesByRuntime().
+    private List<List<IModuleDef>> mRuntimeShards = null;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setClassShardingThreshold(long runtimeThreshold) {
+        mClassShardingThreshold = runtimeThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setArtifactAffinity(boolean artifactAffinity) {
+        mArtifactAffinity = artifactAffinity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSpeculativeExecution(boolean speculativeExecution) {
+        mSpeculativeExecution = speculativeExecution;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setModuleInputHasher(ModuleInputHasher inputHasher) {
+        mInputHasher = inputHasher;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getModuleInputHashes() {
+        return mModuleInputHashes;
+    }
 
     /**
      * {@inheritDoc}
@@ -260,83 +363,78 @@ public class ModuleRepo implements IModuleRepo {
                         String.format("Could not parse device token: %s", line));
             }
         }
+        mBuildInfo = buildInfo;
         putArgs(testArgs, mTestArgs);
         putArgs(moduleArgs, mModuleArgs);
         mIncludeAll = includeFilters.isEmpty();
         // Include all the inclusions
-        addFilters(includeFilters, mIncludeFilters, abis);
+        addFilters(includeFilters, mIncludeFilters);
         // Exclude all the exclusions
-        addFilters(excludeFilters, mExcludeFilters, abis);
+        addFilters(excludeFilters, mExcludeFilters);
+        CLog.d("Indexed %d include and %d exclude filters", mIncludeFilters.size(),
+                mExcludeFilters.size());
 
         File[] configFiles = testsDir.listFiles(new ConfigFilter());
         if (configFiles.length == 0) {
             throw new IllegalArgumentException(
                     String.format("No config files found in %s", testsDir.getAbsolutePath()));
         }
+        if (mClassShardingThreshold > 0 && mShards > 1) {
+            mClassSharder = TestClassSharder.load(new CompatibilityBuildHelper(buildInfo));
+        }
         Map<String, Integer> shardedTestCounts = new HashMap<>();
-        for (File configFile : configFiles) {
-            final String name = configFile.getName().replace(CONFIG_EXT, "");
-            final String[] pathArg = new String[] { configFile.getAbsolutePath() };
-            try {
-                // Invokes parser to process the test module config file
-                // Need to generate a different config for each ABI as we cannot guarantee the
-                // configs are idempotent. This however means we parse the same file multiple times
-                for (IAbi abi : abis) {
-                    IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
-                    String id = AbiUtils.createId(abi.getName(), name);
-                    if (!shouldRunModule(id)) {
-                        // If the module should not run tests based on the state of filters,
-                        // skip this name/abi combination.
-                        continue;
-                    }
-                    {
-                        Map<String, String> args = new HashMap<>();
-                        if (mModuleArgs.containsKey(name)) {
-                            args.putAll(mModuleArgs.get(name));
-                        }
-                        if (mModuleArgs.containsKey(id)) {
-                            args.putAll(mModuleArgs.get(id));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                config.injectOptionValue(entry.getKey(), entry.getValue());
-                            }
-                        }
-                    }
-                    List<IRemoteTest> tests = config.getTests();
-                    for (IRemoteTest test : tests) {
-                        String className = test.getClass().getName();
-                        Map<String, String> args = new HashMap<>();
-                        if (mTestArgs.containsKey(className)) {
-                            args.putAll(mTestArgs.get(className));
-                        }
-                        if (args != null && args.size() > 0) {
-                            for (Entry<String, String> entry : args.entrySet()) {
-                                config.injectOptionValue(entry.getKey(), entry.getValue());
-                            }
-                        }
-                        addFiltersToTest(test, abi, name);
-                    }
-                    List<IRemoteTest> shardedTests = tests;
-                    if (mShards > 1) {
-                         shardedTests = splitShardableTests(tests, buildInfo);
-                    }
-                    if (shardedTests.size() > 1) {
-                        shardedTestCounts.put(id, shardedTests.size());
-                    }
-                    for (IRemoteTest test : shardedTests) {
-                        if (test instanceof IBuildReceiver) {
-                            ((IBuildReceiver)test).setBuild(buildInfo);
-                        }
-                        addModuleDef(name, abi, test, pathArg);
-                    }
+        ModuleRuntimeHistory runtimeHistory =
+                ModuleRuntimeHistory.load(new CompatibilityBuildHelper(buildInfo));
+        String fingerprint =
+                buildInfo.getBuildAttributes().get(ModuleRuntimeHistory.BUILD_FINGERPRINT);
+        // Load the config files in parallel. Each config file is loaded by a single thread, and
+        // the loaded modules are added below in the order of the config files.
+        long start = System.currentTimeMillis();
+        int threads = Math.min(configFiles.length, LOADING_THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<LoadedConfig>> futures = new ArrayList<>(configFiles.length);
+        for (final File configFile : configFiles) {
+            futures.add(executor.submit(new Callable<LoadedConfig>() {
+                @Override
+                public LoadedConfig call() {
+                    return loadConfig(configFile, abis, buildInfo, runtimeHistory, fingerprint);
+                }
+            }));
+        }
+        executor.shutdown();
+        long loadingTime = 0;
+        try {
+            for (Future<LoadedConfig> future : futures) {
+                LoadedConfig loaded = future.get();
+                loadingTime += loaded.mLoadingTime;
+                shardedTestCounts.putAll(loaded.mShardedTestCounts);
+                mHasLearnedRuntimes |= loaded.mHasLearnedRuntimes;
+                mModuleConfigs.putAll(loaded.mModuleConfigs);
+                mModuleInputHashes.putAll(loaded.mInputHashes);
+                for (IModuleDef moduleDef : loaded.mModuleDefs) {
+                    addModuleDef(moduleDef);
                 }
-            } catch (ConfigurationException e) {
-                throw new RuntimeException(String.format("error parsing config file: %s",
-                        configFile.getName()), e);
             }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while loading config files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
         }
+        long elapsedTime = System.currentTimeMillis() - start;
+        CLog.logAndDisplay(LogLevel.INFO, "Loaded %d modules from %d config files in %s using %d "
+                + "threads, saving %s over loading them one at a time", mModuleCount,
+                configFiles.length, TimeUtil.formatElapsedTime(elapsedTime), threads,
+                TimeUtil.formatElapsedTime(Math.max(loadingTime - elapsedTime, 0)));
         TestRunHandler.setTestRuns(new CompatibilityBuildHelper(buildInfo), shardedTestCounts);
+        if (mArtifactAffinity) {
+            groupModulesByArtifacts();
+        }
         mModulesPerShard = mModuleCount / shards;
         if (mModuleCount % shards != 0) {
             mModulesPerShard++; // Round up
@@ -346,6 +444,205 @@ public class ModuleRepo implements IModuleRepo {
         mLargeModulesPerShard = mLargeModules.size() / shards;
     }
 
+    /**
+     * Builds the graph of modules sharing files, and orders each bucket of modules so that modules
+     * sharing files are next to each other, and so are likely to be taken by the same device.
+     */
+    private void groupModulesByArtifacts() {
+        long start = System.currentTimeMillis();
+        mArtifactGraph = new ArtifactGraph();
+        List<IModuleDef> modules = new ArrayList<>(mLargeModules);
+        modules.addAll(mMediumModules);
+        modules.addAll(mSmallModules);
+        for (IModuleDef module : modules) {
+            mArtifactGraph.addModule(module, module.getArtifacts());
+        }
+        mLargeModules = mArtifactGraph.order(mLargeModules);
+        mMediumModules = mArtifactGraph.order(mMediumModules);
+        mSmallModules = mArtifactGraph.order(mSmallModules);
+        CLog.d("Grouped %d modules by artifacts in %s", modules.size(),
+                TimeUtil.formatElapsedTime(System.currentTimeMillis() - start));
+    }
+
+    /**
+     * The modules created from a single config file.
+     */
+    private static class LoadedConfig {
+        final List<IModuleDef> mModuleDefs = new ArrayList<>();
+        // Modules which can be duplicated, see getSpeculativeModule()
+        final Map<IModuleDef, String[]> mModuleConfigs = new HashMap<>();
+        final Map<String, Integer> mShardedTestCounts = new HashMap<>();
+        final Map<String, String> mInputHashes = new HashMap<>();
+        boolean mHasLearnedRuntimes = false;
+        long mLoadingTime = 0;
+    }
+
+    /**
+     * Creates the modules defined by a config file, one for each ABI and test shard. This is
+     * called from multiple threads at once, so must only read the state of this repo.
+     */
+    private LoadedConfig loadConfig(File configFile, Set<IAbi> abis, IBuildInfo buildInfo,
+            ModuleRuntimeHistory runtimeHistory, String fingerprint) {
+        long start = System.currentTimeMillis();
+        LoadedConfig loaded = new LoadedConfig();
+        final String name = configFile.getName().replace(CONFIG_EXT, "");
+        final String[] pathArg = new String[] { configFile.getAbsolutePath() };
+        try {
+            // Invokes parser to process the test module config file
+            // Need to generate a different config for each ABI as we cannot guarantee the
+            // configs are idempotent. The factory caches the parsed file, so only the first
+            // configuration created reads the file.
+            for (IAbi abi : abis) {
+                String id = AbiUtils.createId(abi.getName(), name);
+                if (!shouldRunModule(abi.getName(), name)) {
+                    // If the module should not run tests based on the state of filters,
+                    // skip this name/abi combination.
+                    continue;
+                }
+                List<IRemoteTest> tests = createTests(name, abi, pathArg);
+                // Runs of a module which are filtered or given args do not stand for a run of
+                // the whole module, so the inputs of those are not hashed
+                boolean hashInputs = mInputHasher != null && runsUnfiltered(abi.getName(), name,
+                        tests, mIncludeFilters, mExcludeFilters, mTestArgs, mModuleArgs);
+                List<IRemoteTest> shardedTests = tests;
+                if (mShards > 1) {
+                    shardedTests = splitShardableTests(tests, buildInfo);
+                }
+                List<List<String>> classShards = null;
+                if (shardedTests.size() == 1) {
+                    classShards = getClassShards(abi.getName(), name);
+                }
+                if (classShards != null) {
+                    shardedTests = splitByClass(name, abi, pathArg, shardedTests.get(0),
+                            classShards);
+                }
+                if (shardedTests.size() > 1) {
+                    loaded.mShardedTestCounts.put(id, shardedTests.size());
+                }
+                for (int i = 0; i < shardedTests.size(); i++) {
+                    IRemoteTest test = shardedTests.get(i);
+                    if (test instanceof IBuildReceiver) {
+                        ((IBuildReceiver)test).setBuild(buildInfo);
+                    }
+                    IModuleDef moduleDef = createModuleDef(name, abi, test, pathArg);
+                    long runtime = runtimeHistory.getRuntime(id, fingerprint);
+                    if (classShards != null) {
+                        // Each shard of the module is expected to take as long as its classes
+                        // took before.
+                        runtime = mClassSharder.getRuntime(id, classShards.get(i));
+                    } else if (runtime >= 0) {
+                        // Each shard of the module is expected to take an even part of the
+                        // module's runtime.
+                        runtime /= shardedTests.size();
+                    }
+                    if (runtime >= 0) {
+                        moduleDef.setRuntimeHint(runtime);
+                        loaded.mHasLearnedRuntimes = true;
+                    }
+                    loaded.mModuleDefs.add(moduleDef);
+                    if (hashInputs && i == 0) {
+                        // All pieces of a module share the same inputs
+                        loaded.mInputHashes.put(id, mInputHasher.hash(moduleDef));
+                    }
+                    if (mSpeculativeExecution && shardedTests.size() == 1) {
+                        loaded.mModuleConfigs.put(moduleDef, pathArg);
+                    }
+                }
+            }
+        } catch (ConfigurationException e) {
+            throw new RuntimeException(String.format("error parsing config file: %s",
+                    configFile.getName()), e);
+        }
+        loaded.mLoadingTime = System.currentTimeMillis() - start;
+        return loaded;
+    }
+
+    /**
+     * Creates the tests of a module from its config file, with the test and module args and the
+     * test filters of the module applied.
+     */
+    private List<IRemoteTest> createTests(String name, IAbi abi, String[] pathArg)
+            throws ConfigurationException {
+        String id = AbiUtils.createId(abi.getName(), name);
+        IConfiguration config = mConfigFactory.createConfigurationFromArgs(pathArg);
+        {
+            Map<String, String> args = new HashMap<>();
+            if (mModuleArgs.containsKey(name)) {
+                args.putAll(mModuleArgs.get(name));
+            }
+            if (mModuleArgs.containsKey(id)) {
+                args.putAll(mModuleArgs.get(id));
+            }
+            if (args != null && args.size() > 0) {
+                for (Entry<String, String> entry : args.entrySet()) {
+                    config.injectOptionValue(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        List<IRemoteTest> tests = config.getTests();
+        for (IRemoteTest test : tests) {
+            String className = test.getClass().getName();
+            Map<String, String> args = new HashMap<>();
+            if (mTestArgs.containsKey(className)) {
+                args.putAll(mTestArgs.get(className));
+            }
+            if (args != null && args.size() > 0) {
+                for (Entry<String, String> entry : args.entrySet()) {
+                    config.injectOptionValue(entry.getKey(), entry.getValue());
+                }
+            }
+            addFiltersToTest(test, abi, name);
+        }
+        return tests;
+    }
+
+    /**
+     * Returns the test classes each shard of the module should run, or null if the module should
+     * not be split by test class. Modules are only split if they took longer than the class
+     * sharding threshold in a previous session, and the user has not selected specific tests.
+     */
+    private List<List<String>> getClassShards(String abi, String name) {
+        if (mClassSharder == null || mIncludeFilters.hasTestFilters(abi, name)) {
+            return null;
+        }
+        Map<String, Long> classRuntimes =
+                mClassSharder.getClassRuntimes(AbiUtils.createId(abi, name));
+        long runtime = 0;
+        for (long classRuntime : classRuntimes.values()) {
+            runtime += classRuntime;
+        }
+        if (runtime <= mClassShardingThreshold) {
+            return null;
+        }
+        int count = (int) Math.min(mShards, (runtime + mClassShardingThreshold - 1)
+                / mClassShardingThreshold);
+        List<List<String>> classShards = TestClassSharder.split(classRuntimes, count);
+        return (classShards.size() > 1) ? classShards : null;
+    }
+
+    /**
+     * Splits a test into one test for each of the given lists of test classes. The last test
+     * excludes the classes of all other tests rather than including its own, so that classes
+     * added since the runtimes were recorded still run.
+     */
+    private List<IRemoteTest> splitByClass(String name, IAbi abi, String[] pathArg,
+            IRemoteTest test, List<List<String>> classShards) throws ConfigurationException {
+        List<IRemoteTest> tests = new ArrayList<>(classShards.size());
+        tests.add(test);
+        for (int i = 1; i < classShards.size(); i++) {
+            tests.add(createTests(name, abi, pathArg).get(0));
+        }
+        int last = classShards.size() - 1;
+        for (int i = 0; i < last; i++) {
+            ITestFilterReceiver receiver = (ITestFilterReceiver) tests.get(i);
+            for (String className : classShards.get(i)) {
+                receiver.addIncludeFilter(className);
+                ((ITestFilterReceiver) tests.get(last)).addExcludeFilter(className);
+            }
+        }
+        return tests;
+    }
+
     private static List<IRemoteTest> splitShardableTests(List<IRemoteTest> tests,
             IBuildInfo buildInfo) {
         ArrayList<IRemoteTest> shardedList = new ArrayList<>(tests.size());
@@ -362,40 +659,17 @@ public class ModuleRepo implements IModuleRepo {
         return shardedList;
     }
 
-    private static void addFilters(Set<String> stringFilters,
-            Map<String, List<TestFilter>> filters, Set<IAbi> abis) {
+    private static void addFilters(Set<String> stringFilters, TestFilterIndex filters) {
         for (String filterString : stringFilters) {
-            TestFilter filter = TestFilter.createFrom(filterString);
-            String abi = filter.getAbi();
-            if (abi == null) {
-                for (IAbi a : abis) {
-                    addFilter(a.getName(), filter, filters);
-                }
-            } else {
-                addFilter(abi, filter, filters);
-            }
-        }
-    }
-
-    private static void addFilter(String abi, TestFilter filter,
-            Map<String, List<TestFilter>> filters) {
-        getFilter(filters, AbiUtils.createId(abi, filter.getName())).add(filter);
-    }
-
-    private static List<TestFilter> getFilter(Map<String, List<TestFilter>> filters, String id) {
-        List<TestFilter> fs = filters.get(id);
-        if (fs == null) {
-            fs = new ArrayList<>();
-            filters.put(id, fs);
+            filters.addFilter(filterString);
         }
-        return fs;
     }
 
-    private void addModuleDef(String name, IAbi abi, IRemoteTest test,
+    private IModuleDef createModuleDef(String name, IAbi abi, IRemoteTest test,
             String[] configPaths) throws ConfigurationException {
         // Invokes parser to process the test module config file
         IConfiguration config = mConfigFactory.createConfigurationFromArgs(configPaths);
-        addModuleDef(new ModuleDef(name, abi, test, config.getTargetPreparers()));
+        return new ModuleDef(name, abi, test, config.getTargetPreparers());
     }
 
     private void addModuleDef(IModuleDef moduleDef) {
@@ -418,64 +692,71 @@ public class ModuleRepo implements IModuleRepo {
             throw new IllegalArgumentException(String.format(
                     "Test in module %s must implement ITestFilterReceiver.", moduleId));
         }
-        List<TestFilter> mdIncludes = getFilter(mIncludeFilters, moduleId);
-        List<TestFilter> mdExcludes = getFilter(mExcludeFilters, moduleId);
-        if (!mdIncludes.isEmpty()) {
-            addTestIncludes((ITestFilterReceiver) test, mdIncludes, name);
+        if (mIncludeFilters.hasModule(abi.getName(), name)) {
+            addTestIncludes((ITestFilterReceiver) test,
+                    mIncludeFilters.getTestFilters(abi.getName(), name), name);
         }
-        if (!mdExcludes.isEmpty()) {
-            addTestExcludes((ITestFilterReceiver) test, mdExcludes, name);
+        if (mExcludeFilters.hasModule(abi.getName(), name)) {
+            addTestExcludes((ITestFilterReceiver) test,
+                    mExcludeFilters.getTestFilters(abi.getName(), name), name);
         }
     }
 
-    private boolean shouldRunModule(String moduleId) {
-        List<TestFilter> mdIncludes = getFilter(mIncludeFilters, moduleId);
-        List<TestFilter> mdExcludes = getFilter(mExcludeFilters, moduleId);
+    private boolean shouldRunModule(String abi, String name) {
         // if including all modules or includes exist for this module, and there are not excludes
         // for the entire module, this module should be run.
-        return (mIncludeAll || !mdIncludes.isEmpty()) && !containsModuleExclude(mdExcludes);
+        return (mIncludeAll || mIncludeFilters.hasModule(abi, name))
+                && !mExcludeFilters.containsModule(abi, name);
     }
 
-    private void addTestIncludes(ITestFilterReceiver test, List<TestFilter> includes,
-            String name) {
+    private void addTestIncludes(ITestFilterReceiver test, List<String> includes, String name) {
         if (test instanceof ITestFileFilterReceiver) {
-            File includeFile = createFilterFile(name, ".include", includes);
+            File includeFile = getFilterFile(name, ".include", includes);
             ((ITestFileFilterReceiver)test).setIncludeTestFile(includeFile);
         } else {
             // add test includes one at a time
-            for (TestFilter include : includes) {
-                String filterTestName = include.getTest();
-                if (filterTestName != null) {
-                    test.addIncludeFilter(filterTestName);
-                }
+            for (String include : includes) {
+                test.addIncludeFilter(include);
             }
         }
     }
 
-    private void addTestExcludes(ITestFilterReceiver test, List<TestFilter> excludes,
-            String name) {
+    private void addTestExcludes(ITestFilterReceiver test, List<String> excludes, String name) {
         if (test instanceof ITestFileFilterReceiver) {
-            File excludeFile = createFilterFile(name, ".exclude", excludes);
+            File excludeFile = getFilterFile(name, ".exclude", excludes);
             ((ITestFileFilterReceiver)test).setExcludeTestFile(excludeFile);
         } else {
             // add test excludes one at a time
-            for (TestFilter exclude : excludes) {
-                test.addExcludeFilter(exclude.getTest());
+            for (String exclude : excludes) {
+                test.addExcludeFilter(exclude);
             }
         }
     }
 
-    private File createFilterFile(String prefix, String suffix, List<TestFilter> filters) {
+    /**
+     * Returns a file containing the given test filters, only creating one the first time a set
+     * of filters is seen. Called while loading config files in parallel.
+     */
+    private File getFilterFile(String prefix, String suffix, List<String> filters) {
+        String key = suffix + filters;
+        synchronized (mFilterFiles) {
+            File filterFile = mFilterFiles.get(key);
+            if (filterFile == null) {
+                filterFile = createFilterFile(prefix, suffix, filters);
+                mFilterFiles.put(key, filterFile);
+            }
+            return filterFile;
+        }
+    }
+
+    private File createFilterFile(String prefix, String suffix, List<String> filters) {
         File filterFile = null;
         PrintWriter out = null;
         try {
             filterFile = FileUtil.createTempFile(prefix, suffix);
             out = new PrintWriter(filterFile);
-            for (TestFilter filter : filters) {
-                String filterTest = filter.getTest();
-                if (filterTest != null) {
-                    out.println(filterTest);
-                }
+            for (String filter : filters) {
+                out.println(filter);
             }
             out.flush();
         } catch (IOException e) {
@@ -489,18 +770,6 @@ public class ModuleRepo implements IModuleRepo {
         return filterFile;
     }
 
-    /*
-     * Returns true iff one or more test filters in excludes apply to the entire module.
-     */
-    private boolean containsModuleExclude(Collection<TestFilter> excludes) {
-        for (TestFilter exclude : excludes) {
-            if (exclude.getTest() == null) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * A {@link FilenameFilter} to find all the config files in a directory.
      */
@@ -524,7 +793,11 @@ public class ModuleRepo implements IModuleRepo {
         List<IModuleDef> modules = new ArrayList<>(mModulesPerShard);
         Set<String> tokens = mDeviceTokens.get(serial);
         getModulesWithTokens(tokens, modules);
-        getModules(modules);
+        if (mHasLearnedRuntimes) {
+            getModulesByRuntime(modules);
+        } else {
+            getModules(modules);
+        }
         mSerials.add(serial);
         if (mSerials.size() == mShards) {
             for (IModuleDef def : mTokenModules) {
@@ -549,6 +822,228 @@ public class ModuleRepo implements IModuleRepo {
         return modules;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef getNextModule(String serial) {
+        mSerials.add(serial);
+        if (mQuarantinedSerials.contains(serial)) {
+            return null;
+        }
+        createModuleQueue();
+        // Devices with tokens run the modules requiring them before anything else.
+        IModuleDef module = takeModuleWithTokens(mDeviceTokens.get(serial));
+        if (module == null) {
+            module = mModuleQueue.poll();
+        }
+        if (module == null) {
+            module = takeUnclaimedTokenModule(serial);
+        }
+        return module;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void returnModules(String serial, List<IModuleDef> modules) {
+        mSerials.add(serial);
+        mQuarantinedSerials.add(serial);
+        createModuleQueue();
+        for (IModuleDef module : modules) {
+            Set<String> tokens = module.getTokens();
+            if (tokens != null && !tokens.isEmpty()) {
+                mTokenModules.add(module);
+            } else {
+                mModuleQueue.add(module);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean returnFailedModule(String serial, IModuleDef module) {
+        Set<String> serials = mPreparationFailures.get(module.getId());
+        if (serials == null) {
+            serials = new HashSet<>();
+            mPreparationFailures.put(module.getId(), serials);
+        }
+        serials.add(serial);
+        if (serials.size() >= MAX_PREPARATION_FAILURES) {
+            return false;
+        }
+        returnModules(serial, Arrays.asList(module));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void startModule(String serial, IModuleDef module) {
+        mRunningModules.put(serial, new RunningModule(module, System.currentTimeMillis()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean finishModule(String serial, IModuleDef module) {
+        RunningModule running = mRunningModules.get(serial);
+        if (running != null && running.mModule == module) {
+            mRunningModules.remove(serial);
+        }
+        if (!mModuleConfigs.containsKey(module) && !mSpeculatedIds.contains(module.getId())) {
+            // Modules run in several pieces are never duplicated, so each piece is a first run.
+            return true;
+        }
+        return mFinishedIds.add(module.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isModuleFinished(String id) {
+        return mFinishedIds.contains(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IModuleDef getSpeculativeModule(String serial) {
+        long now = System.currentTimeMillis();
+        RunningModule overdue = null;
+        for (RunningModule running : getSpeculativeCandidates(serial)) {
+            long elapsed = now - running.mStartTime;
+            if (elapsed > running.mModule.getRuntimeHint() && (overdue == null
+                    || running.mStartTime < overdue.mStartTime)) {
+                overdue = running;
+            }
+        }
+        if (overdue == null) {
+            return null;
+        }
+        IModuleDef module = overdue.mModule;
+        mSpeculatedIds.add(module.getId());
+        try {
+            String[] pathArg = mModuleConfigs.get(module);
+            IRemoteTest test = createTests(module.getName(), module.getAbi(), pathArg).get(0);
+            if (test instanceof IBuildReceiver) {
+                ((IBuildReceiver) test).setBuild(mBuildInfo);
+            }
+            IModuleDef duplicate = createModuleDef(module.getName(), module.getAbi(), test,
+                    pathArg);
+            duplicate.setRuntimeHint(module.getRuntimeHint());
+            CLog.logAndDisplay(LogLevel.INFO, "Running a duplicate of %s on %s, overdue after %s",
+                    module.getId(), serial,
+                    TimeUtil.formatElapsedTime(now - overdue.mStartTime));
+            return duplicate;
+        } catch (ConfigurationException e) {
+            CLog.w("Could not duplicate %s: %s", module.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean hasSpeculativeCandidates(String serial) {
+        return !getSpeculativeCandidates(serial).isEmpty();
+    }
+
+    /**
+     * Returns the modules running on other devices which have not finished or been duplicated,
+     * and which the given device can run.
+     */
+    private List<RunningModule> getSpeculativeCandidates(String serial) {
+        List<RunningModule> candidates = new ArrayList<>();
+        Set<String> deviceTokens = mDeviceTokens.get(serial);
+        for (Entry<String, RunningModule> entry : mRunningModules.entrySet()) {
+            IModuleDef module = entry.getValue().mModule;
+            Set<String> tokens = module.getTokens();
+            if (entry.getKey().equals(serial) || !mModuleConfigs.containsKey(module)
+                    || mSpeculatedIds.contains(module.getId())
+                    || mFinishedIds.contains(module.getId())
+                    || (tokens != null && !tokens.isEmpty()
+                            && (deviceTokens == null || !deviceTokens.containsAll(tokens)))) {
+                continue;
+            }
+            candidates.add(entry.getValue());
+        }
+        return candidates;
+    }
+
+    /**
+     * Moves all remaining modules without tokens into the queue, longest running modules first.
+     */
+    private void createModuleQueue() {
+        if (mModuleQueue == null) {
+            mModuleQueue = new PriorityBlockingQueue<>(Math.max(mModuleCount, 1),
+                    new ExecutionOrderComparator());
+            mModuleQueue.addAll(mLargeModules);
+            mModuleQueue.addAll(mMediumModules);
+            mModuleQueue.addAll(mSmallModules);
+            mLargeModules.clear();
+            mMediumModules.clear();
+            mSmallModules.clear();
+        }
+    }
+
+    /**
+     * Removes and returns the first module requiring tokens that the device can run, or null if
+     * there are none.
+     */
+    private IModuleDef takeModuleWithTokens(Set<String> tokens) {
+        if (tokens != null) {
+            for (int i = 0; i < mTokenModules.size(); i++) {
+                if (tokens.containsAll(mTokenModules.get(i).getTokens())) {
+                    return mTokenModules.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Once every shard has asked for work, removes and returns a module requiring tokens that no
+     * device in this invocation that is still running modules has, so that it still gets run.
+     * Returns null if there are none.
+     */
+    private IModuleDef takeUnclaimedTokenModule(String serial) {
+        if (mSerials.size() < mShards) {
+            // A device that has yet to ask for work may have the tokens.
+            return null;
+        }
+        for (int i = 0; i < mTokenModules.size(); i++) {
+            IModuleDef module = mTokenModules.get(i);
+            boolean claimed = false;
+            for (String s : mSerials) {
+                if (mQuarantinedSerials.contains(s)) {
+                    // This device has given up its modules.
+                    continue;
+                }
+                Set<String> tokens = mDeviceTokens.get(s);
+                if (tokens != null && tokens.containsAll(module.getTokens())) {
+                    claimed = true;
+                    break;
+                }
+            }
+            if (!claimed) {
+                CLog.logAndDisplay(LogLevel.WARN,
+                        String.format("No devices found with %s, running %s on %s",
+                                module.getTokens(), module.getId(), serial));
+                return mTokenModules.remove(i);
+            }
+        }
+        return null;
+    }
+
     /**
      * Iterates through the remaining tests that require tokens and if the device has all the
      * required tokens it will queue that module to run on that device, else the module gets put
@@ -569,6 +1064,92 @@ public class ModuleRepo implements IModuleRepo {
         }
     }
 
+    /**
+     * Takes the share of modules for a device when runtimes measured in past sessions are known.
+     * The first time this is called, all modules without tokens are split into one list per shard
+     * by assigning the longest running remaining module to the list with the least total runtime.
+     * Devices that already have token modules take the list with the least runtime, others take
+     * the list with the most.
+     */
+    private void getModulesByRuntime(List<IModuleDef> modules) {
+        if (mRuntimeShards == null) {
+            List<IModuleDef> remaining = new ArrayList<>();
+            remaining.addAll(mLargeModules);
+            remaining.addAll(mMediumModules);
+            remaining.addAll(mSmallModules);
+            mLargeModules.clear();
+            mMediumModules.clear();
+            mSmallModules.clear();
+            Collections.sort(remaining, new Comparator<IModuleDef>() {
+                @Override
+                public int compare(IModuleDef def1, IModuleDef def2) {
+                    return Long.compare(def2.getRuntimeHint(), def1.getRuntimeHint());
+                }
+            });
+            final long[] runtimes = new long[mShards];
+            List<List<IModuleDef>> shards = new ArrayList<>(mShards);
+            List<Set<String>> shardArtifacts = new ArrayList<>(mShards);
+            for (int i = 0; i < mShards; i++) {
+                shards.add(new ArrayList<IModuleDef>());
+                shardArtifacts.add(new HashSet<String>());
+            }
+            for (IModuleDef module : remaining) {
+                int lightest = 0;
+                for (int i = 1; i < mShards; i++) {
+                    if (runtimes[i] < runtimes[lightest]) {
+                        lightest = i;
+                    }
+                }
+                int shard = lightest;
+                if (mArtifactGraph != null) {
+                    shard = getAffineShard(module, runtimes, shardArtifacts, lightest);
+                    shardArtifacts.get(shard).addAll(mArtifactGraph.getArtifacts(module));
+                }
+                shards.get(shard).add(module);
+                runtimes[shard] += module.getRuntimeHint();
+            }
+            // Order the shards heaviest first.
+            mRuntimeShards = new ArrayList<>(mShards);
+            for (int i = 0; i < mShards; i++) {
+                int heaviest = -1;
+                for (int j = 0; j < mShards; j++) {
+                    if (runtimes[j] >= 0 && (heaviest < 0 || runtimes[j] > runtimes[heaviest])) {
+                        heaviest = j;
+                    }
+                }
+                mRuntimeShards.add(shards.get(heaviest));
+                runtimes[heaviest] = -1;
+            }
+        }
+        if (!mRuntimeShards.isEmpty()) {
+            int index = modules.isEmpty() ? 0 : mRuntimeShards.size() - 1;
+            modules.addAll(mRuntimeShards.remove(index));
+        }
+    }
+
+    /**
+     * Returns the shard sharing the most files with the module, among the shards whose runtime is
+     * close enough to that of the lightest shard. Returns the lightest shard if none share files.
+     */
+    private int getAffineShard(IModuleDef module, long[] runtimes,
+            List<Set<String>> shardArtifacts, int lightest) {
+        long limit = runtimes[lightest] + (long) (module.getRuntimeHint() * AFFINITY_SLACK);
+        int shard = lightest;
+        int mostShared = 0;
+        for (int i = 0; i < runtimes.length; i++) {
+            if (runtimes[i] > limit) {
+                continue;
+            }
+            int shared = mArtifactGraph.getOverlap(module, shardArtifacts.get(i));
+            if (shared > mostShared || (shared == mostShared && shared > 0
+                    && runtimes[i] < runtimes[shard])) {
+                shard = i;
+                mostShared = shared;
+            }
+        }
+        return shard;
+    }
+
     /**
      * Adds count modules that do not require tokens, to run on a device.
      */
@@ -626,7 +1207,28 @@ public class ModuleRepo implements IModuleRepo {
         return modules;
     }
 
-    private static void putArgs(List<String> args, Map<String, Map<String, String>> argsMap) {
+    /**
+     * @return true if the module runs every one of its tests with the options of its config: no
+     * filter applies to only some of its tests, and no args are given to the module or its tests.
+     */
+    static boolean runsUnfiltered(String abi, String name, List<IRemoteTest> tests,
+            TestFilterIndex includeFilters, TestFilterIndex excludeFilters,
+            Map<String, Map<String, String>> testArgs,
+            Map<String, Map<String, String>> moduleArgs) {
+        if (includeFilters.hasTestFilters(abi, name) || excludeFilters.hasTestFilters(abi, name)
+                || moduleArgs.containsKey(name)
+                || moduleArgs.containsKey(AbiUtils.createId(abi, name))) {
+            return false;
+        }
+        for (IRemoteTest test : tests) {
+            if (testArgs.containsKey(test.getClass().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void putArgs(List<String> args, Map<String, Map<String, String>> argsMap) {
         for (String arg : args) {
             String[] parts = arg.split(":");
             String target = parts[0];
@@ -16,6 +16,7 @@
 package com.android.compatibility.common.tradefed.testtype;
 
 import com.android.compatibility.common.util.TestFilter;
+import com.android.compatibility.common.util.TestFilterIndex;
 import com.android.tradefed.util.xml.AbstractXmlParser;
 
 import org.kxml2.io.KXmlSerializer;
@@ -26,8 +27,6 @@ import org.xml.sax.helpers.DefaultHandler;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -116,10 +115,10 @@ public class SubPlan extends AbstractXmlParser implements ISubPlan {
         serializer.startTag(NS, SUBPLAN_TAG);
         serializer.attribute(NS, VERSION_ATTR, SUBPLAN_VERSION);
 
-        ArrayList<String> sortedIncludes = new ArrayList<String>(mIncludes);
-        ArrayList<String> sortedExcludes = new ArrayList<String>(mExcludes);
-        Collections.sort(sortedIncludes);
-        Collections.sort(sortedExcludes);
+        // Sorted, without duplicate or redundant filters, which retries of sessions with many
+        // failures otherwise produce in the tens of thousands.
+        Set<String> sortedIncludes = new TestFilterIndex(mIncludes, false).getFilters();
+        Set<String> sortedExcludes = new TestFilterIndex(mExcludes, true).getFilters();
         for (String include : sortedIncludes) {
             serializer.startTag(NS, ENTRY_TAG);
             serializer.attribute(NS, INCLUDE_ATTR, include);
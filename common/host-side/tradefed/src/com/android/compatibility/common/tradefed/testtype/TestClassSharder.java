@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Splits modules into pieces which each run a subset of the module's test classes, balanced by
+ * the time each class took in the most recent session that completed the module.
+ * <p/>
+ * The runtime of each class is estimated at the end of a session from the module's runtime and
+ * the durations of slow tests written by the MetadataReporter: the runtime not accounted for by
+ * slow tests is spread evenly over the other tests. Runtimes are stored next to the results
+ * directory as tab separated lines of "module id, class name, runtime in ms", so that they are
+ * read without parsing previous results.
+ */
+public class TestClassSharder {
+
+    private static final String DELIMITER = "\t";
+    private static final String METADATA_DIR = "metadata";
+    private static final String JSON_EXT = ".json";
+    // Keys of the metadata files
+    private static final String MODULE_ID_KEY = "module_id";
+    private static final String TEST_KEY = "test";
+    private static final String TEST_ID_KEY = "id";
+    private static final String SECONDS_KEY = "sec";
+
+    /**
+     * Held by invocations in this process from loading the history until saving it, so that
+     * they do not overwrite each other's updates.
+     */
+    public static final Object LOCK = new Object();
+
+    // The runtime in ms of each test class of a module, keyed by module id then class name.
+    private final Map<String, Map<String, Long>> mClassRuntimes = new HashMap<>();
+
+    /**
+     * Load the class runtimes recorded for the suite, or no runtimes if none have been recorded.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} from which to retrieve the class
+     * runtimes file
+     */
+    public static TestClassSharder load(final CompatibilityBuildHelper buildHelper) {
+        TestClassSharder sharder = new TestClassSharder();
+        try {
+            File f = buildHelper.getClassRuntimesFile();
+            if (f.exists() && f.length() > 0) {
+                sharder.parse(FileUtil.readStringFromFile(f));
+            }
+        } catch (IOException e) {
+            CLog.w("Could not read class runtimes, modules will not be split by class: %s",
+                    e.getMessage());
+        }
+        return sharder;
+    }
+
+    /**
+     * Write the class runtimes back to the suite's class runtimes file.
+     *
+     * @param buildHelper the {@link CompatibilityBuildHelper} used to write the class runtimes
+     * file
+     */
+    public void save(final CompatibilityBuildHelper buildHelper) {
+        try {
+            File f = buildHelper.getClassRuntimesFile();
+            com.android.compatibility.common.util.FileUtil.writeAtomically(toString(), f);
+        } catch (IOException e) {
+            CLog.e("Exception while writing class runtimes.");
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Record the class runtimes of modules completed in a session, replacing any runtimes
+     * recorded for them by previous sessions.
+     *
+     * @param modules the modules whose runtimes were measured
+     * @param resultDir the result directory of the session, holding its metadata files
+     */
+    public void addModules(Collection<IModuleResult> modules, File resultDir) {
+        Map<String, IModuleResult> byId = new HashMap<>();
+        for (IModuleResult module : modules) {
+            byId.put(module.getId(), module);
+        }
+        Map<String, Map<String, Long>> slowTests;
+        try {
+            slowTests = loadMetadata(resultDir, byId);
+        } catch (IOException | JSONException e) {
+            CLog.w("Could not read the slow tests of %s: %s", resultDir.getName(),
+                    e.getMessage());
+            slowTests = Collections.emptyMap();
+        }
+        for (IModuleResult module : modules) {
+            Map<String, Long> slow = slowTests.get(module.getId());
+            addModule(module, (slow == null) ? Collections.<String, Long>emptyMap() : slow);
+        }
+    }
+
+    /**
+     * @return the runtime in ms of each test class of the module, or an empty map if the module
+     * has not been run before.
+     */
+    public Map<String, Long> getClassRuntimes(String moduleId) {
+        Map<String, Long> runtimes = mClassRuntimes.get(moduleId);
+        return (runtimes == null) ? Collections.<String, Long>emptyMap() : runtimes;
+    }
+
+    /**
+     * Sets the runtime in ms of each test class of the module.
+     */
+    void setClassRuntimes(String moduleId, Map<String, Long> runtimes) {
+        mClassRuntimes.put(moduleId, runtimes);
+    }
+
+    /**
+     * Splits test classes into at most the given number of pieces with similar total runtimes, by
+     * assigning the longest remaining class to the piece with the least runtime.
+     *
+     * @return the classes in each piece, with no empty pieces.
+     */
+    public static List<List<String>> split(Map<String, Long> classRuntimes, int count) {
+        List<Entry<String, Long>> classes = new ArrayList<>(classRuntimes.entrySet());
+        Collections.sort(classes, new Comparator<Entry<String, Long>>() {
+            @Override
+            public int compare(Entry<String, Long> e1, Entry<String, Long> e2) {
+                int diff = Long.compare(e2.getValue(), e1.getValue());
+                // Break ties by name so pieces are the same across shards and invocations
+                return (diff != 0) ? diff : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        count = Math.min(count, classes.size());
+        List<List<String>> pieces = new ArrayList<>(count);
+        long[] runtimes = new long[count];
+        for (int i = 0; i < count; i++) {
+            pieces.add(new ArrayList<String>());
+        }
+        for (Entry<String, Long> c : classes) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (runtimes[i] < runtimes[lightest]) {
+                    lightest = i;
+                }
+            }
+            pieces.get(lightest).add(c.getKey());
+            runtimes[lightest] += c.getValue();
+        }
+        return pieces;
+    }
+
+    /**
+     * @return the total runtime in ms of the given classes of a module.
+     */
+    public long getRuntime(String moduleId, List<String> classNames) {
+        Map<String, Long> runtimes = getClassRuntimes(moduleId);
+        long total = 0;
+        for (String className : classNames) {
+            Long runtime = runtimes.get(className);
+            if (runtime != null) {
+                total += runtime;
+            }
+        }
+        return total;
+    }
+
+    private void addModule(IModuleResult module, Map<String, Long> slow) {
+        // Class name -> number of tests
+        Map<String, Integer> classCounts = new HashMap<>();
+        int testCount = 0;
+        for (ICaseResult caseResult : module.getResults()) {
+            int count = caseResult.getResults().size();
+            if (count > 0) {
+                classCounts.put(caseResult.getName(), count);
+                testCount += count;
+            }
+        }
+        if (classCounts.isEmpty()) {
+            mClassRuntimes.remove(module.getId());
+            return;
+        }
+        // Spread the runtime not accounted for by slow tests over the other tests
+        long slowRuntime = 0;
+        for (long runtime : slow.values()) {
+            slowRuntime += runtime;
+        }
+        int fastCount = Math.max(testCount - slow.size(), 1);
+        long fastRuntime = Math.max(module.getRuntime() - slowRuntime, 0) / fastCount;
+        Map<String, Long> classRuntimes = new HashMap<>();
+        for (Entry<String, Integer> c : classCounts.entrySet()) {
+            classRuntimes.put(c.getKey(), c.getValue() * fastRuntime);
+        }
+        for (Entry<String, Long> test : slow.entrySet()) {
+            String className = getClassName(test.getKey());
+            Long runtime = classRuntimes.get(className);
+            if (runtime != null) {
+                // The slow test was counted as a fast test above
+                classRuntimes.put(className, runtime - fastRuntime + test.getValue());
+            }
+        }
+        setClassRuntimes(module.getId(), classRuntimes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, Map<String, Long>> module : mClassRuntimes.entrySet()) {
+            for (Entry<String, Long> c : module.getValue().entrySet()) {
+                sb.append(module.getKey()).append(DELIMITER)
+                        .append(c.getKey()).append(DELIMITER)
+                        .append(c.getValue()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private void parse(String str) {
+        for (String line : str.split("\n")) {
+            String[] parts = line.split(DELIMITER, -1);
+            if (parts.length != 3) {
+                CLog.w("Ignoring malformed class runtime: %s", line);
+                continue;
+            }
+            try {
+                Map<String, Long> classRuntimes = mClassRuntimes.get(parts[0]);
+                if (classRuntimes == null) {
+                    classRuntimes = new HashMap<>();
+                    mClassRuntimes.put(parts[0], classRuntimes);
+                }
+                classRuntimes.put(parts[1], Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                CLog.w("Ignoring malformed class runtime: %s", line);
+            }
+        }
+    }
+
+    /**
+     * @return the runtime in ms of the slow tests recorded for the given modules, keyed by module
+     * id then by test id.
+     */
+    private static Map<String, Map<String, Long>> loadMetadata(File resultDir,
+            Map<String, ?> modules) throws IOException, JSONException {
+        Map<String, Map<String, Long>> slowTests = new HashMap<>();
+        File[] files = new File(resultDir, METADATA_DIR).listFiles();
+        if (files == null) {
+            return slowTests;
+        }
+        for (File f : files) {
+            if (!f.getName().endsWith(JSON_EXT)) {
+                continue;
+            }
+            JSONObject metadata = new JSONObject(FileUtil.readStringFromFile(f));
+            String id = metadata.optString(MODULE_ID_KEY);
+            if (!modules.containsKey(id)) {
+                continue;
+            }
+            Map<String, Long> moduleTests = slowTests.get(id);
+            if (moduleTests == null) {
+                moduleTests = new HashMap<>();
+                slowTests.put(id, moduleTests);
+            }
+            JSONArray array = metadata.optJSONArray(TEST_KEY);
+            for (int i = 0; array != null && i < array.length(); i++) {
+                JSONObject test = array.getJSONObject(i);
+                String testId = test.getString(TEST_ID_KEY);
+                long runtime = test.getLong(SECONDS_KEY) * 1000;
+                // Keep the longest run of tests which were run more than once
+                Long previous = moduleTests.get(testId);
+                if (previous == null || previous < runtime) {
+                    moduleTests.put(testId, runtime);
+                }
+            }
+        }
+        return slowTests;
+    }
+
+    /**
+     * @return the class name of a test id of the form "class.method".
+     */
+    private static String getClassName(String testId) {
+        // Parameterized test names may contain dots within brackets
+        int bracket = testId.indexOf('[');
+        int dot = testId.lastIndexOf('.', (bracket < 0) ? testId.length() : bracket);
+        return (dot < 0) ? testId : testId.substring(0, dot);
+    }
+}
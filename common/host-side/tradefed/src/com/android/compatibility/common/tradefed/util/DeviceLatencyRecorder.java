@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.QuantileSketch;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the latency of the calls modules make to their device, such as
+ * executeShellCommand, pushFile, pullFile, getProperty and installPackage, to find the modules
+ * making the most round trips and where batching or caching would pay off.
+ * <p/>
+ * Calls are recorded through a proxy of the device, created by
+ * {@link #wrap(ITestDevice, String)} for each module. Only the methods which can throw
+ * {@link DeviceNotAvailableException} are recorded, as these are the ones reaching the device.
+ * All the shards of an invocation share one recorder, retrieved with {@link #get(IBuildInfo)}.
+ * <p/>
+ * The latencies are written as CSV with one line per module and method:
+ * "module,command,count,total_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms".
+ */
+public class DeviceLatencyRecorder {
+
+    /** Name of the latencies written to the result directory */
+    public static final String LATENCY_FILE_NAME = "device_latency.csv";
+
+    private static final String HEADER =
+            "module,command,count,total_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms";
+    private static final String DELIMITER = ",";
+
+    // Recorders of running invocations, keyed by their start time
+    private static final Map<String, DeviceLatencyRecorder> sRecorders =
+            new ConcurrentHashMap<>();
+
+    // Latencies by module id, then by method name
+    private final Map<String, Map<String, Latency>> mLatencies = new HashMap<>();
+
+    /**
+     * The latencies of the calls to one method of the device.
+     */
+    public static class Latency {
+        private final String mModule;
+        private final String mCommand;
+        // Latencies in ms
+        private final QuantileSketch mSketch = new QuantileSketch();
+        private long mTotalNanos = 0;
+
+        Latency(String module, String command) {
+            mModule = module;
+            mCommand = command;
+        }
+
+        public String getModule() {
+            return mModule;
+        }
+
+        public String getCommand() {
+            return mCommand;
+        }
+
+        public long getCount() {
+            return mSketch.getCount();
+        }
+
+        public double getTotalMillis() {
+            return mTotalNanos / 1e6;
+        }
+
+        /**
+         * @return the estimated latency in ms at the given quantile, between 0 and 1 inclusive.
+         */
+        public double getMillis(double quantile) {
+            return mSketch.getQuantile(quantile);
+        }
+
+        void add(long nanos) {
+            mTotalNanos += nanos;
+            mSketch.add(nanos / 1e6);
+        }
+    }
+
+    /**
+     * Get the recorder of the invocation running the given build, creating it if needed.
+     */
+    public static DeviceLatencyRecorder get(IBuildInfo buildInfo) {
+        return sRecorders.computeIfAbsent(getKey(buildInfo), k -> new DeviceLatencyRecorder());
+    }
+
+    /**
+     * Remove the recorder of the invocation running the given build once the invocation is
+     * finished, so it can be released.
+     *
+     * @return the recorder, or null if the invocation did not record latencies.
+     */
+    public static DeviceLatencyRecorder remove(IBuildInfo buildInfo) {
+        return sRecorders.remove(getKey(buildInfo));
+    }
+
+    /**
+     * Create a proxy of the device recording the latency of the calls made by a module. The
+     * proxy implements all the interfaces of the device, so it can be used anywhere the device
+     * can, except where the device is cast to its class.
+     *
+     * @param device the device to forward calls to
+     * @param module the id of the module to attribute the calls to
+     */
+    public ITestDevice wrap(final ITestDevice device, final String module) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> c = device.getClass(); c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                // A proxy of a non-public interface would have to be in its package
+                if (Modifier.isPublic(i.getModifiers())) {
+                    interfaces.add(i);
+                }
+            }
+        }
+        interfaces.add(ITestDevice.class);
+        return (ITestDevice) Proxy.newProxyInstance(device.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        boolean recorded = isDeviceCall(method);
+                        long start = recorded ? System.nanoTime() : 0;
+                        try {
+                            return method.invoke(device, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if (recorded) {
+                                record(module, method.getName(), System.nanoTime() - start);
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Record a call made by a module to its device.
+     *
+     * @param module the module id
+     * @param command the method called
+     * @param nanos the time the call took
+     */
+    public synchronized void record(String module, String command, long nanos) {
+        Map<String, Latency> commands = mLatencies.get(module);
+        if (commands == null) {
+            commands = new HashMap<>();
+            mLatencies.put(module, commands);
+        }
+        Latency latency = commands.get(command);
+        if (latency == null) {
+            latency = new Latency(module, command);
+            commands.put(command, latency);
+        }
+        latency.add(nanos);
+    }
+
+    /**
+     * @return the latencies of each module and command, the largest total first.
+     */
+    public synchronized List<Latency> getLatencies() {
+        List<Latency> latencies = new ArrayList<>();
+        for (Map<String, Latency> commands : mLatencies.values()) {
+            latencies.addAll(commands.values());
+        }
+        Collections.sort(latencies, (a, b) -> (a.mTotalNanos != b.mTotalNanos)
+                ? Long.compare(b.mTotalNanos, a.mTotalNanos)
+                : (a.mModule + a.mCommand).compareTo(b.mModule + b.mCommand));
+        return latencies;
+    }
+
+    /**
+     * Write the latencies to the given directory, the largest total first.
+     *
+     * @return the latency file.
+     */
+    public File write(File dir) throws IOException {
+        File file = new File(dir, LATENCY_FILE_NAME);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Latency latency : getLatencies()) {
+                writer.write(String.format(Locale.US, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                        escape(latency.getModule()), latency.getCommand(), latency.getCount(),
+                        latency.getTotalMillis(), latency.getTotalMillis() / latency.getCount(),
+                        latency.getMillis(0.5), latency.getMillis(0.9), latency.getMillis(0.99),
+                        latency.getMillis(1)));
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    private static boolean isDeviceCall(Method method) {
+        return Arrays.asList(method.getExceptionTypes()).contains(
+                DeviceNotAvailableException.class);
+    }
+
+    private static String escape(String value) {
+        if (value.contains(DELIMITER) || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String getKey(IBuildInfo buildInfo) {
+        return String.valueOf(
+                buildInfo.getBuildAttributes().get(CompatibilityBuildHelper.START_TIME_MS));
+    }
+}
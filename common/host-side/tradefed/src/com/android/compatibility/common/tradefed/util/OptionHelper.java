@@ -54,6 +54,32 @@ public final class OptionHelper {
         return optionFields;
     }
 
+    /**
+     * Retrieve the value of the {@link Option} with the given name on the given
+     * object, including options declared by its superclasses.
+     *
+     * @param object An object with @option-annotated fields.
+     * @param optionName The name of the option.
+     * @return the value of the option, or null if the object has no such option.
+     */
+    public static Object getOptionValue(Object object, String optionName) {
+        for (Class<?> c = object.getClass(); c != null; c = c.getSuperclass()) {
+            for (Field declaredField : c.getDeclaredFields()) {
+                Option option = declaredField.getAnnotation(Option.class);
+                if (option != null && option.name().equals(optionName)) {
+                    // allow access to protected and private fields
+                    declaredField.setAccessible(true);
+                    try {
+                        return declaredField.get(object);
+                    } catch (IllegalAccessException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Retrieve a {@link Set} of {@link Option} names present on the given
      * object.
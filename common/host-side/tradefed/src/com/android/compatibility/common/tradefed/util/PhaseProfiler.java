@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.tradefed.build.IBuildInfo;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of a session takes, per module and device, so that the time of a
+ * slow session can be attributed to config parsing, preconditions, target preparers, the tests
+ * themselves, system status checkers, cleaners or the logs collected on failure.
+ * <p/>
+ * Phases are timed with {@link System#nanoTime()}, so they are not affected by changes to the
+ * wall clock. All the shards of an invocation share one profiler, retrieved with
+ * {@link #get(IBuildInfo)}. The profile is written as CSV with one line per phase:
+ * "device,module,phase,detail,start_ms,duration_ms", where start_ms is relative to the start of
+ * the profile.
+ */
+public class PhaseProfiler {
+
+    /** Name of the profile written to the result directory */
+    public static final String PROFILE_FILE_NAME = "phase_profile.csv";
+
+    /** Loading the module configs, once per invocation */
+    public static final String CONFIG_PARSING = "config-parsing";
+    /** Running the preconditions of a module */
+    public static final String PRECONDITIONS = "preconditions";
+    /** Setting up a target preparer of a module, with the preparer as detail */
+    public static final String PREPARER = "preparer";
+    /** Running the tests of a module */
+    public static final String TEST = "test";
+    /** Tearing down a target cleaner of a module, with the cleaner as detail */
+    public static final String CLEANER = "cleaner";
+    /** Running a system status checker around a module, with the checker as detail */
+    public static final String SYSTEM_STATUS_CHECK = "system-status-check";
+    /** Collecting logs or rebooting after a test failure, with the action as detail */
+    public static final String FAILURE_LOG = "failure-log";
+
+    private static final String HEADER = "device,module,phase,detail,start_ms,duration_ms";
+    private static final String DELIMITER = ",";
+
+    // Profilers of running invocations, keyed by their start time
+    private static final Map<String, PhaseProfiler> sProfilers = new ConcurrentHashMap<>();
+
+    private final long mStartNanos = System.nanoTime();
+    private final List<Phase> mPhases = Collections.synchronizedList(new ArrayList<Phase>());
+
+    /**
+     * A phase being timed. Closing it records its duration.
+     */
+    public class Timer implements AutoCloseable {
+        private final String mDevice;
+        private final String mModule;
+        private final String mPhase;
+        private final String mDetail;
+        private final long mStart = System.nanoTime();
+        private boolean mClosed = false;
+
+        private Timer(String device, String module, String phase, String detail) {
+            mDevice = device;
+            mModule = module;
+            mPhase = phase;
+            mDetail = detail;
+        }
+
+        /**
+         * Stops the timer and records the phase. Has no effect if already stopped.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mPhases.add(new Phase(mDevice, mModule, mPhase, mDetail, mStart - mStartNanos,
+                    System.nanoTime() - mStart));
+        }
+    }
+
+    /**
+     * The time spent in one phase, summed over all its occurrences.
+     */
+    public static class TimeSink {
+        private final String mName;
+        private long mNanos = 0;
+        private int mCount = 0;
+
+        TimeSink(String name) {
+            mName = name;
+        }
+
+        /**
+         * @return the phase, followed by its detail if any.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mNanos);
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+    }
+
+    private static class Phase {
+        final String mDevice;
+        final String mModule;
+        final String mPhase;
+        final String mDetail;
+        final long mStartNanos;
+        final long mDurationNanos;
+
+        Phase(String device, String module, String phase, String detail, long startNanos,
+                long durationNanos) {
+            mDevice = device;
+            mModule = module;
+            mPhase = phase;
+            mDetail = detail;
+            mStartNanos = startNanos;
+            mDurationNanos = durationNanos;
+        }
+    }
+
+    /**
+     * Get the profiler of the invocation running the given build, creating it if needed.
+     */
+    public static PhaseProfiler get(IBuildInfo buildInfo) {
+        return sProfilers.computeIfAbsent(getKey(buildInfo), k -> new PhaseProfiler());
+    }
+
+    /**
+     * Remove the profiler of the invocation running the given build once the invocation is
+     * finished, so it can be released.
+     *
+     * @return the profiler, or null if no phase of the invocation was profiled.
+     */
+    public static PhaseProfiler remove(IBuildInfo buildInfo) {
+        return sProfilers.remove(getKey(buildInfo));
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @param device the serial of the device, or null for phases of the whole invocation
+     * @param module the module id, or null for phases not specific to a module
+     * @param phase the phase, one of the constants of this class
+     * @param detail what the phase ran, such as the class of a preparer, may be null
+     * @return the timer to close when the phase is over
+     */
+    public Timer start(String device, String module, String phase, String detail) {
+        return new Timer(device, module, phase, detail);
+    }
+
+    /**
+     * @return the time spent in each phase and detail, summed over all devices and modules,
+     * the largest first.
+     */
+    public List<TimeSink> getTimeSinks() {
+        Map<String, TimeSink> sinks = new HashMap<>();
+        synchronized (mPhases) {
+            for (Phase phase : mPhases) {
+                String name = (phase.mDetail == null) ? phase.mPhase
+                        : phase.mPhase + " " + phase.mDetail;
+                TimeSink sink = sinks.get(name);
+                if (sink == null) {
+                    sink = new TimeSink(name);
+                    sinks.put(name, sink);
+                }
+                sink.mNanos += phase.mDurationNanos;
+                sink.mCount++;
+            }
+        }
+        List<TimeSink> sorted = new ArrayList<>(sinks.values());
+        Collections.sort(sorted, (a, b) -> (a.mNanos != b.mNanos)
+                ? Long.compare(b.mNanos, a.mNanos) : a.mName.compareTo(b.mName));
+        return sorted;
+    }
+
+    /**
+     * @return a summary of the phases taking the most time, one per line.
+     */
+    public String getSummary(int count) {
+        List<TimeSink> sinks = getTimeSinks();
+        long total = 0;
+        for (TimeSink sink : sinks) {
+            total += sink.mNanos;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (TimeSink sink : sinks.subList(0, Math.min(count, sinks.size()))) {
+            sb.append(String.format("%s: %d ms in %d run%s (%.1f%%)\n", sink.getName(),
+                    sink.getMillis(), sink.getCount(), (sink.getCount() == 1) ? "" : "s",
+                    (total == 0) ? 0.0 : 100.0 * sink.mNanos / total));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the profile to the given directory, in the order the phases started.
+     *
+     * @return the profile file.
+     */
+    public File write(File dir) throws IOException {
+        List<Phase> phases;
+        synchronized (mPhases) {
+            phases = new ArrayList<>(mPhases);
+        }
+        Collections.sort(phases, (a, b) -> Long.compare(a.mStartNanos, b.mStartNanos));
+        File file = new File(dir, PROFILE_FILE_NAME);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Phase phase : phases) {
+                writer.write(escape(phase.mDevice));
+                writer.write(DELIMITER);
+                writer.write(escape(phase.mModule));
+                writer.write(DELIMITER);
+                writer.write(escape(phase.mPhase));
+                writer.write(DELIMITER);
+                writer.write(escape(phase.mDetail));
+                writer.write(DELIMITER);
+                writer.write(Long.toString(TimeUnit.NANOSECONDS.toMillis(phase.mStartNanos)));
+                writer.write(DELIMITER);
+                writer.write(Long.toString(TimeUnit.NANOSECONDS.toMillis(phase.mDurationNanos)));
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(DELIMITER) || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String getKey(IBuildInfo buildInfo) {
+        return String.valueOf(
+                buildInfo.getBuildAttributes().get(CompatibilityBuildHelper.START_TIME_MS));
+    }
+}
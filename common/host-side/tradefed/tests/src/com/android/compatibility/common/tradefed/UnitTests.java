@@ -20,16 +20,22 @@ import com.android.compatibility.common.tradefed.command.CompatibilityConsoleTes
 import com.android.compatibility.common.tradefed.result.ChecksumReporterTest;
 import com.android.compatibility.common.tradefed.result.ConsoleReporterTest;
 import com.android.compatibility.common.tradefed.result.MetadataReporterTest;
+import com.android.compatibility.common.tradefed.result.ModulePassHistoryTest;
 import com.android.compatibility.common.tradefed.result.ResultReporterTest;
 import com.android.compatibility.common.tradefed.result.SubPlanCreatorTest;
 import com.android.compatibility.common.tradefed.targetprep.PropertyCheckTest;
 import com.android.compatibility.common.tradefed.targetprep.SettingsPreparerTest;
+import com.android.compatibility.common.tradefed.testtype.ArtifactGraphTest;
 import com.android.compatibility.common.tradefed.testtype.CompatibilityTestTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleDefTest;
+import com.android.compatibility.common.tradefed.testtype.ModuleInputHasherTest;
 import com.android.compatibility.common.tradefed.testtype.ModuleRepoTest;
 import com.android.compatibility.common.tradefed.testtype.SubPlanTest;
+import com.android.compatibility.common.tradefed.testtype.TestClassSharderTest;
 import com.android.compatibility.common.tradefed.util.OptionHelperTest;
 import com.android.compatibility.common.tradefed.util.CollectorUtilTest;
+import com.android.compatibility.common.tradefed.util.DeviceLatencyRecorderTest;
+import com.android.compatibility.common.tradefed.util.PhaseProfilerTest;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -43,6 +49,7 @@ public class UnitTests extends TestSuite {
 
     public UnitTests() {
         super();
+        addTestSuite(ArtifactGraphTest.class);
         addTestSuite(CompatibilityBuildHelperTest.class);
         addTestSuite(CompatibilityConsoleTest.class);
         addTestSuite(CompatibilityTestTest.class);
@@ -52,13 +59,18 @@ public class UnitTests extends TestSuite {
         addTestSuite(CompatibilityTestTest.class);
         addTestSuite(OptionHelperTest.class);
         addTestSuite(CollectorUtilTest.class);
+        addTestSuite(DeviceLatencyRecorderTest.class);
         addTestSuite(MetadataReporterTest.class);
         addTestSuite(ModuleDefTest.class);
+        addTestSuite(ModuleInputHasherTest.class);
+        addTestSuite(ModulePassHistoryTest.class);
         addTestSuite(ModuleRepoTest.class);
+        addTestSuite(PhaseProfilerTest.class);
         addTestSuite(PropertyCheckTest.class);
         addTestSuite(SettingsPreparerTest.class);
         addTestSuite(SubPlanTest.class);
         addTestSuite(SubPlanCreatorTest.class);
+        addTestSuite(TestClassSharderTest.class);
     }
 
     public static Test suite() {
@@ -23,6 +23,8 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CompatibilityBuildHelperTest extends TestCase {
 
@@ -148,6 +150,16 @@ public class CompatibilityBuildHelperTest extends TestCase {
             mBuild.getBuildAttributes().get(CompatibilityBuildHelper.MODULE_IDS));
     }
 
+    public void testCarriedModules() {
+        assertTrue(mHelper.getCarriedModules().isEmpty());
+        Map<String, String> carried = new HashMap<>();
+        carried.put("armeabi-v7a module1", "2016.01.01_00.00.00");
+        carried.put("arm64-v8a module1", "2016.01.02_00.00.00");
+        mHelper.setCarriedModules(carried);
+        assertEquals(carried, mHelper.getCarriedModules());
+        assertTrue(mHelper.getModuleInputHashes().isEmpty());
+    }
+
     /**
      * Sets the *_ROOT property of the build's installation location.
      *
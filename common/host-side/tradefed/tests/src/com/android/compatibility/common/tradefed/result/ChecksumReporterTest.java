@@ -31,11 +31,20 @@ import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.util.FileUtil;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
 import junit.framework.TestCase;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
 
 public class ChecksumReporterTest extends TestCase {
 
@@ -168,6 +177,110 @@ public class ChecksumReporterTest extends TestCase {
 
     }
 
+    public void testDirectoryReusesUnchangedFiles() throws Exception {
+        File previousDir = new File(mRoot, "previous");
+        File currentDir = new File(mRoot, "current");
+        new File(previousDir, "logs").mkdirs();
+        new File(currentDir, "logs").mkdirs();
+        File previousFile = new File(previousDir, "logs/log.txt");
+        File unchanged = new File(currentDir, "logs/log.txt");
+        File changed = new File(currentDir, "changed.txt");
+        writeFile(previousFile, "previous");
+        writeFile(new File(previousDir, "changed.txt"), "previous");
+        // Same size and modification time, so taken as the same file as in the previous session
+        writeFile(unchanged, "current!");
+        unchanged.setLastModified(previousFile.lastModified());
+        writeFile(changed, "a changed file");
+
+        ChecksumReporter previous = new ChecksumReporter(100, .001, (short)2);
+        previous.addDirectory(previousDir);
+        previous.saveToFile(previousDir);
+        ChecksumReporter current = new ChecksumReporter(100, .001, (short)2);
+        current.addDirectory(currentDir, ChecksumReporter.load(previousDir), previousDir);
+
+        assertFalse("Unchanged file should keep its previous checksum",
+                current.containsFile(unchanged, "current/logs"));
+        assertTrue("Changed file should be hashed again",
+                current.containsFile(changed, "current"));
+    }
+
+    public void testRetryReusesCarriedFiles() throws Exception {
+        File previousDir = new File(mRoot, "previous");
+        File currentDir = new File(mRoot, "current");
+        new File(previousDir, "logs").mkdirs();
+        currentDir.mkdirs();
+        writeFile(new File(previousDir, "logs/log.txt"), "previous");
+        writeFile(new File(previousDir, "test_result.xml"), "previous results");
+        assertTrue(ChecksumReporter.tryCreateChecksum(previousDir, mInvocationResult));
+
+        ResultReporter.copyRetryFiles(previousDir, currentDir);
+        assertFalse("Results should not be copied",
+                new File(currentDir, "test_result.xml").exists());
+        assertFalse("Checksum should not be copied",
+                new File(currentDir, ChecksumReporter.NAME).exists());
+        // Changed without changing its size or modification time, so that a file hashed again
+        // would not match the previous session's checksum
+        File carried = new File(currentDir, "logs/log.txt");
+        long lastModified = carried.lastModified();
+        writeFile(carried, "current!");
+        carried.setLastModified(lastModified);
+
+        mInvocationResult.setRetryDirectory(previousDir);
+        assertTrue(ChecksumReporter.tryCreateChecksum(currentDir, mInvocationResult));
+        ChecksumReporter current = ChecksumReporter.load(currentDir);
+        assertFalse("Carried file should keep its previous checksum",
+                current.containsFile(carried, "current/logs"));
+        assertTrue(current.containsFile(new File(previousDir, "logs/log.txt"), "current/logs"));
+    }
+
+    public void testLegacyFileMigration() throws Exception {
+        File file1 = new File(mRoot, "file1.txt");
+        writeFile(file1, "This is a test file");
+        BloomFilter<CharSequence> results = BloomFilter.create(Funnels.unencodedCharsFunnel(),
+                100, .001);
+        results.put("result");
+        HashMap<String, byte[]> files = new HashMap<>();
+        files.put(mRoot.getName() + "/file1.txt",
+                MessageDigest.getInstance("SHA-256").digest("This is a test file".getBytes()));
+        // As written by earlier versions
+        File checksumFile = new File(mRoot, ChecksumReporter.NAME);
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(checksumFile))) {
+            out.writeShort(ChecksumReporter.SERIALIZED_FORMAT_CODE);
+            out.writeShort(1);
+            out.writeObject(results);
+            out.writeObject(files);
+        }
+
+        long lastModified = checksumFile.lastModified();
+        long length = checksumFile.length();
+        ChecksumReporter legacy = ChecksumReporter.load(mRoot);
+        assertTrue("Legacy checksum maintains file hash",
+                legacy.containsFile(file1, mRoot.getName()));
+        assertEquals("Loading should not rewrite the file", length, checksumFile.length());
+        assertEquals("Loading should not rewrite the file",
+                lastModified, checksumFile.lastModified());
+
+        // Only a new session is written in the new format
+        File sessionDir = new File(mRoot, "session");
+        sessionDir.mkdir();
+        legacy.saveToFile(sessionDir);
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(new File(sessionDir, ChecksumReporter.NAME)))) {
+            assertEquals("File should be migrated", ChecksumReporter.FORMAT_MAGIC, in.readInt());
+        }
+        ChecksumReporter migrated = ChecksumReporter.load(sessionDir);
+        assertTrue("Migrated checksum maintains file hash",
+                migrated.containsFile(file1, mRoot.getName()));
+        assertFalse("Should not contain non-existent file",
+                migrated.containsFile(new File(mRoot, "fake.txt"), mRoot.getName()));
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (FileWriter fileWriter = new FileWriter(file, false)) {
+            fileWriter.append(content);
+        }
+    }
+
     private void VerifyInvocationResults(IInvocationResult invocation, ChecksumReporter reporter) {
         for (IModuleResult module : invocation.getModules()) {
             String buildFingerprint = invocation.getBuildFingerprint();
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.result;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link ModulePassHistory}
+ */
+public class ModulePassHistoryTest extends TestCase {
+
+    private static final String ROOT_PROPERTY = "TESTS_ROOT";
+    private static final String BUILD_NUMBER = "2";
+    private static final String SUITE_PLAN = "cts";
+    private static final String DYNAMIC_CONFIG_URL = "";
+    private static final String ROOT_DIR_NAME = "root";
+    private static final String BASE_DIR_NAME = "android-tests";
+    private static final String TESTCASES = "testcases";
+    private static final String ID_A = AbiUtils.createId("mips64", "ModuleA");
+    private static final String ID_B = AbiUtils.createId("mips64", "ModuleB");
+    private static final String FINGERPRINT = "vendor/product/device:7.0/NRD90M/123:user/keys";
+    private static final String OTHER_FINGERPRINT =
+            "vendor/product/device:7.0/NRD90M/456:user/keys";
+    private static final String HASH = "0123456789abcdef";
+    private static final String OTHER_HASH = "fedcba9876543210";
+    private static final String RESULT_DIR = "2016.01.01_00.00.00";
+    private static final long START_TIME = 123456L;
+
+    private CompatibilityBuildHelper mBuildHelper;
+    private File mRoot = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mRoot = FileUtil.createTempDir(ROOT_DIR_NAME);
+        new File(new File(mRoot, BASE_DIR_NAME), TESTCASES).mkdirs();
+        System.setProperty(ROOT_PROPERTY, mRoot.getAbsolutePath());
+        mBuildHelper = new CompatibilityBuildHelper(new BuildInfo(BUILD_NUMBER, "", ""));
+        mBuildHelper.init(SUITE_PLAN, DYNAMIC_CONFIG_URL, START_TIME);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mRoot);
+    }
+
+    public void testEmpty() throws Exception {
+        ModulePassHistory history = ModulePassHistory.load(mBuildHelper);
+        assertTrue("Unexpected module", history.getModuleIds(FINGERPRINT).isEmpty());
+        assertNull("Unexpected pass", history.getResultDir(ID_A, FINGERPRINT, HASH));
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        ModulePassHistory history = ModulePassHistory.load(mBuildHelper);
+        history.addPass(ID_A, FINGERPRINT, HASH, RESULT_DIR);
+        history.addPass(ID_B, OTHER_FINGERPRINT, HASH, RESULT_DIR);
+        history.save(mBuildHelper);
+        for (File f : mBuildHelper.getDir().listFiles()) {
+            assertFalse("Temporary file left behind", f.getName().endsWith(".tmp"));
+        }
+
+        history = ModulePassHistory.load(mBuildHelper);
+        assertEquals("Wrong modules", Arrays.asList(ID_A), history.getModuleIds(FINGERPRINT));
+        assertEquals("Wrong result dir", RESULT_DIR,
+                history.getResultDir(ID_A, FINGERPRINT, HASH));
+        // A pass only counts on the same build with the same inputs
+        assertNull("Pass on another build", history.getResultDir(ID_A, OTHER_FINGERPRINT, HASH));
+        assertNull("Pass with other inputs", history.getResultDir(ID_A, FINGERPRINT, OTHER_HASH));
+    }
+
+    public void testRemovePass() throws Exception {
+        ModulePassHistory history = ModulePassHistory.load(mBuildHelper);
+        history.addPass(ID_A, FINGERPRINT, HASH, RESULT_DIR);
+        history.save(mBuildHelper);
+        history = ModulePassHistory.load(mBuildHelper);
+        history.removePass(ID_A);
+        history.save(mBuildHelper);
+        history = ModulePassHistory.load(mBuildHelper);
+        assertNull("Pass not removed", history.getResultDir(ID_A, FINGERPRINT, HASH));
+    }
+
+    public void testMalformedLine() throws Exception {
+        FileUtil.writeToFile(String.format("%s\t%s\n%s\t%s\t%s\t%s\n", ID_A, FINGERPRINT,
+                ID_B, FINGERPRINT, HASH, RESULT_DIR), mBuildHelper.getModulePassesFile());
+        ModulePassHistory history = ModulePassHistory.load(mBuildHelper);
+        assertEquals("Wrong modules", Arrays.asList(ID_B), history.getModuleIds(FINGERPRINT));
+    }
+}
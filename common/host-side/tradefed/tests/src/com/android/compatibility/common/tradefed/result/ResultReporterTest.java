@@ -381,6 +381,107 @@ public class ResultReporterTest extends TestCase {
                 result1.getResultStatus());
     }
 
+    /**
+     * Runs the given tests of the module on a shard, out of numTests tests in the module.
+     */
+    private void makeShardRun(ResultReporter shard, int numTests, String[] methods,
+            boolean[] passes, long elapsedTime) {
+        shard.testRunStarted(ID, numTests);
+        for (int i = 0; i < methods.length; i++) {
+            TestIdentifier test = new TestIdentifier(CLASS, methods[i]);
+            shard.testStarted(test);
+            if (!passes[i]) {
+                shard.testFailed(test, STACK_TRACE);
+            }
+            shard.testEnded(test, new HashMap<String, String>());
+        }
+        if (methods.length < numTests) {
+            shard.testRunFailed("error");
+        }
+        shard.testRunEnded(elapsedTime, new HashMap<String, String>());
+    }
+
+    public void testSpeculativeRun_firstCompleteWins() throws Exception {
+        mBuildHelper.setSpeculativeExecution(true);
+        String[] methods = new String[] {METHOD_1, METHOD_2, METHOD_3};
+        ResultReporter shard1 = (ResultReporter) mReporter.clone();
+        ResultReporter shard2 = (ResultReporter) mReporter.clone();
+        shard1.invocationStarted(mBuildInfo);
+        shard2.invocationStarted(mBuildInfo);
+
+        makeShardRun(shard1, 3, methods, new boolean[] {true, true, true}, 10);
+        // The duplicate run finishing last is discarded
+        makeShardRun(shard2, 3, methods, new boolean[] {false, false, true}, 20);
+        shard1.invocationEnded(10);
+        shard2.invocationEnded(10);
+
+        IInvocationResult result = mReporter.getResult();
+        assertEquals("Expected 3 passes", 3, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 0 failures", 0, result.countResults(TestStatus.FAIL));
+        List<IModuleResult> modules = result.getModules();
+        assertEquals("Expected 1 module", 1, modules.size());
+        IModuleResult module = modules.get(0);
+        assertTrue(module.isDone());
+        assertEquals("Expected the runtime of the first run", 10, module.getRuntime());
+    }
+
+    public void testSpeculativeRun_partialThenComplete() throws Exception {
+        mBuildHelper.setSpeculativeExecution(true);
+        ResultReporter shard1 = (ResultReporter) mReporter.clone();
+        ResultReporter shard2 = (ResultReporter) mReporter.clone();
+        shard1.invocationStarted(mBuildInfo);
+        shard2.invocationStarted(mBuildInfo);
+
+        // The first run stops after one test, then the duplicate completes
+        makeShardRun(shard1, 3, new String[] {METHOD_1}, new boolean[] {false}, 10);
+        makeShardRun(shard2, 3, new String[] {METHOD_1, METHOD_2, METHOD_3},
+                new boolean[] {true, true, true}, 20);
+        shard1.invocationEnded(10);
+        shard2.invocationEnded(10);
+
+        IInvocationResult result = mReporter.getResult();
+        assertEquals("Expected 3 passes", 3, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 0 failures", 0, result.countResults(TestStatus.FAIL));
+        assertEquals("Expected 0 not executed", 0, result.getNotExecuted());
+        List<IModuleResult> modules = result.getModules();
+        assertEquals("Expected 1 module", 1, modules.size());
+        IModuleResult module = modules.get(0);
+        assertTrue(module.isDone());
+        assertEquals("Expected the runtime of the complete run", 20, module.getRuntime());
+    }
+
+    public void testSpeculativeRun_partialOnly() throws Exception {
+        mBuildHelper.setSpeculativeExecution(true);
+        ResultReporter shard1 = (ResultReporter) mReporter.clone();
+        ResultReporter shard2 = (ResultReporter) mReporter.clone();
+        shard1.invocationStarted(mBuildInfo);
+        shard2.invocationStarted(mBuildInfo);
+
+        // Without a complete run, the partial run is reported
+        makeShardRun(shard1, 3, new String[] {METHOD_1}, new boolean[] {true}, 10);
+        shard1.invocationEnded(10);
+        shard2.invocationEnded(10);
+
+        IInvocationResult result = mReporter.getResult();
+        assertEquals("Expected 1 pass", 1, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 2 not executed", 2, result.getNotExecuted());
+        List<IModuleResult> modules = result.getModules();
+        assertEquals("Expected 1 module", 1, modules.size());
+        assertFalse(modules.get(0).isDone());
+    }
+
+    public void testPartialRun_mergedWithoutSpeculativeExecution() throws Exception {
+        ResultReporter shard1 = (ResultReporter) mReporter.clone();
+        shard1.invocationStarted(mBuildInfo);
+
+        // Without speculative execution, a partial run is not held back
+        makeShardRun(shard1, 3, new String[] {METHOD_1}, new boolean[] {true}, 10);
+        IInvocationResult result = mReporter.getResult();
+        assertEquals("Expected 1 pass", 1, result.countResults(TestStatus.PASS));
+        assertEquals("Expected 1 module", 1, result.getModules().size());
+        shard1.invocationEnded(10);
+    }
+
     public void testCopyFormattingFiles() throws Exception {
         File resultDir = new File(mBuildHelper.getResultsDir(), RESULT_DIR);
         resultDir.mkdirs();
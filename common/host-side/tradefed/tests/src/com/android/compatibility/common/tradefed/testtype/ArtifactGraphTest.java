@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link ArtifactGraph}
+ */
+public class ArtifactGraphTest extends TestCase {
+
+    private static final String APK_A = "CtsHelperA.apk";
+    private static final String APK_B = "CtsHelperB.apk";
+    private static final String FILE = "file->/data/local/tmp/file";
+
+    private IModuleDef mModule1;
+    private IModuleDef mModule2;
+    private IModuleDef mModule3;
+    private IModuleDef mModule4;
+    private ArtifactGraph mGraph;
+
+    @Override
+    public void setUp() throws Exception {
+        mModule1 = EasyMock.createMock(IModuleDef.class);
+        mModule2 = EasyMock.createMock(IModuleDef.class);
+        mModule3 = EasyMock.createMock(IModuleDef.class);
+        mModule4 = EasyMock.createMock(IModuleDef.class);
+        mGraph = new ArtifactGraph();
+        mGraph.addModule(mModule1, new HashSet<>(Arrays.asList(APK_A)));
+        mGraph.addModule(mModule2, new HashSet<>(Arrays.asList(APK_B)));
+        mGraph.addModule(mModule3, new HashSet<>(Arrays.asList(APK_A, FILE)));
+        mGraph.addModule(mModule4, new HashSet<>(Arrays.asList(APK_A, FILE)));
+    }
+
+    public void testGetNeighbors() throws Exception {
+        Map<IModuleDef, Integer> neighbors = mGraph.getNeighbors(mModule3);
+        assertEquals("Wrong number of neighbors", 2, neighbors.size());
+        assertEquals("Wrong number of shared files", 1, neighbors.get(mModule1).intValue());
+        assertEquals("Wrong number of shared files", 2, neighbors.get(mModule4).intValue());
+        assertTrue("Unexpected neighbors", mGraph.getNeighbors(mModule2).isEmpty());
+        assertEquals("Wrong overlap", 2,
+                mGraph.getOverlap(mModule4, new HashSet<>(Arrays.asList(APK_A, APK_B, FILE))));
+    }
+
+    public void testOrder() throws Exception {
+        List<IModuleDef> ordered = mGraph.order(
+                Arrays.asList(mModule1, mModule2, mModule3, mModule4));
+        // Modules sharing files are next to each other, the rest keep their order
+        assertEquals("Wrong order", Arrays.asList(mModule1, mModule3, mModule4, mModule2),
+                ordered);
+    }
+}
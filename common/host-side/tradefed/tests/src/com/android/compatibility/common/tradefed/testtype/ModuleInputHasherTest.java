@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import com.android.tradefed.util.FileUtil;
+
+import org.easymock.EasyMock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * Unit tests for {@link ModuleInputHasher}
+ */
+public class ModuleInputHasherTest extends TestCase {
+
+    private static final String NAME = "ModuleName";
+    private static final String APK = "CtsModuleTestCases.apk";
+    private static final String DATA = "data.bin";
+
+    private File mTestsDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTestsDir = FileUtil.createTempDir("testcases");
+        FileUtil.writeToFile("<configuration/>", new File(mTestsDir, NAME + ".config"));
+        FileUtil.writeToFile("apk", new File(mTestsDir, APK));
+        FileUtil.writeToFile("data", new File(mTestsDir, DATA));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTestsDir);
+    }
+
+    public void testSameInputs() throws Exception {
+        String hash = new ModuleInputHasher(mTestsDir).hash(createModule(APK, DATA));
+        // The order of the preparers does not matter
+        assertEquals("Hash should not change", hash,
+                new ModuleInputHasher(mTestsDir).hash(createModule(DATA, APK)));
+    }
+
+    public void testChangedInputs() throws Exception {
+        String hash = new ModuleInputHasher(mTestsDir).hash(createModule(APK));
+        FileUtil.writeToFile("new apk", new File(mTestsDir, APK));
+        assertFalse("Changed file should change the hash",
+                hash.equals(new ModuleInputHasher(mTestsDir).hash(createModule(APK))));
+        FileUtil.writeToFile("new config", new File(mTestsDir, NAME + ".config"));
+        assertFalse("Changed config should change the hash",
+                hash.equals(new ModuleInputHasher(mTestsDir).hash(createModule(APK))));
+        assertFalse("Added file should change the hash",
+                hash.equals(new ModuleInputHasher(mTestsDir).hash(createModule(APK, DATA))));
+    }
+
+    public void testPushedFile() throws Exception {
+        // Files pushed are hashed by their source
+        ModuleInputHasher hasher = new ModuleInputHasher(mTestsDir);
+        assertEquals("Destination should not change the hash",
+                hasher.hash(createModule(DATA + "->/data/local/tmp/" + DATA)),
+                hasher.hash(createModule(DATA + "->/sdcard/" + DATA)));
+    }
+
+    public void testMissingFile() throws Exception {
+        ModuleInputHasher hasher = new ModuleInputHasher(mTestsDir);
+        String hash = hasher.hash(createModule("missing.apk"));
+        FileUtil.writeToFile("apk", new File(mTestsDir, "missing.apk"));
+        assertFalse("Missing file should not hash as present",
+                hash.equals(new ModuleInputHasher(mTestsDir).hash(createModule("missing.apk"))));
+    }
+
+    private static IModuleDef createModule(String... artifacts) {
+        IModuleDef module = EasyMock.createMock(IModuleDef.class);
+        EasyMock.expect(module.getName()).andStubReturn(NAME);
+        EasyMock.expect(module.getArtifacts())
+                .andStubReturn(new LinkedHashSet<>(Arrays.asList(artifacts)));
+        EasyMock.replay(module);
+        return module;
+    }
+}
@@ -190,6 +190,126 @@ public class ModuleRepoTest extends TestCase {
         assertTrue("Unexpected device serial", serials.containsAll(SERIALS));
     }
 
+    public void testGetNextModule() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // Serial 1 can take every module not requiring tokens
+        for (int i = 0; i < 4; i++) {
+            IModuleDef module = mRepo.getNextModule(SERIAL1);
+            assertNotNull("Missing module", module);
+            assertFalse("Wrong module", MODULE_NAME_C.equals(module.getName()));
+        }
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL1));
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL2));
+        // Serial 3 should get the modules with tokens
+        for (int i = 0; i < 2; i++) {
+            IModuleDef module = mRepo.getNextModule(SERIAL3);
+            assertNotNull("Missing module", module);
+            assertEquals("Wrong module", MODULE_NAME_C, module.getName());
+        }
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL3));
+        assertEquals("Wrong number of serials", 3, mRepo.getSerials().size());
+    }
+
+    public void testGetNextModule_missingTokens() throws Exception {
+        mRepo.initialize(1, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        // With no device holding the tokens, the only shard should still run every module
+        Set<String> idSet = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.getNextModule(SERIAL1)) != null) {
+            idSet.add(module.getId());
+        }
+        assertEquals("Incorrect number of IDs", 6, idSet.size());
+        assertTrue("Missing ID_C_32", idSet.contains(ID_C_32));
+        assertTrue("Missing ID_C_64", idSet.contains(ID_C_64));
+    }
+
+    public void testReturnModules() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        List<IModuleDef> serial1Modules = mRepo.getModules(SERIAL1);
+        mRepo.getModules(SERIAL2);
+        List<IModuleDef> serial3Modules = mRepo.getModules(SERIAL3);
+        // Serial 1 fails preparation, so serial 2 should run its modules
+        mRepo.returnModules(SERIAL1, serial1Modules);
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL1));
+        Set<String> idSet = new HashSet<>();
+        IModuleDef module;
+        while ((module = mRepo.getNextModule(SERIAL2)) != null) {
+            idSet.add(module.getId());
+        }
+        assertEquals("Wrong number of modules", 2, idSet.size());
+        for (IModuleDef def : serial1Modules) {
+            assertTrue("Missing module", idSet.contains(def.getId()));
+        }
+        // Serial 3 fails preparation, so its modules with tokens should run without the tokens
+        mRepo.returnModules(SERIAL3, serial3Modules);
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL3));
+        for (int i = 0; i < 2; i++) {
+            module = mRepo.getNextModule(SERIAL2);
+            assertNotNull("Missing module", module);
+            assertEquals("Wrong module", MODULE_NAME_C, module.getName());
+        }
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL2));
+    }
+
+    public void testReturnFailedModule() throws Exception {
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        IModuleDef failing = mRepo.getNextModule(SERIAL1);
+        assertNotNull("Missing module", failing);
+        // The first failure gives the module to another device, and stops the device
+        assertTrue("Module should be given back", mRepo.returnFailedModule(SERIAL1, failing));
+        assertNull("Unexpected module", mRepo.getNextModule(SERIAL1));
+        IModuleDef module = mRepo.getNextModule(SERIAL2);
+        while (module != failing) {
+            assertNotNull("Missing returned module", module);
+            module = mRepo.getNextModule(SERIAL2);
+        }
+        // A second failure drops the module, and the device carries on
+        assertFalse("Module should be dropped", mRepo.returnFailedModule(SERIAL2, failing));
+        IModuleDef tokenModule = mRepo.getNextModule(SERIAL3);
+        mRepo.returnModules(SERIAL3, Arrays.asList(tokenModule));
+        boolean tokenModuleRun = false;
+        while ((module = mRepo.getNextModule(SERIAL2)) != null) {
+            assertNotSame("Dropped module given back", failing, module);
+            tokenModuleRun |= (module == tokenModule);
+        }
+        assertTrue("Device should still take modules", tokenModuleRun);
+    }
+
+    public void testGetModules_learnedRuntimes() throws Exception {
+        File runtimesFile = new CompatibilityBuildHelper(mBuild).getModuleRuntimesFile();
+        String runtimes = String.format("%s\t\t%d\t1\n", ID_A_32, TimeUnit.MINUTES.toMillis(60))
+                + String.format("%s\t\t%d\t1\n", ID_A_64, TimeUnit.MINUTES.toMillis(20))
+                + String.format("%s\t\t%d\t1\n", ID_B_32, TimeUnit.MINUTES.toMillis(20))
+                + String.format("%s\t\t%d\t1\n", ID_B_64, TimeUnit.MINUTES.toMillis(10));
+        FileUtil.writeToFile(runtimes, runtimesFile);
+        mRepo.initialize(3, mTestsDir, ABIS, DEVICE_TOKENS, TEST_ARGS, MODULE_ARGS, INCLUDES,
+                EXCLUDES, mBuild);
+        assertEquals("Wrong number of modules", 4, mRepo.getLargeModules().size());
+        assertEquals("Wrong number of modules", 0, mRepo.getSmallModules().size());
+        // The longest module should run by itself
+        List<IModuleDef> serial1Modules = mRepo.getModules(SERIAL1);
+        assertEquals("Wrong number of modules", 1, serial1Modules.size());
+        assertEquals("Wrong module", ID_A_32, serial1Modules.get(0).getId());
+        List<IModuleDef> serial2Modules = mRepo.getModules(SERIAL2);
+        assertEquals("Wrong number of modules", 2, serial2Modules.size());
+        assertEquals("Wrong module", ID_A_64, serial2Modules.get(0).getId());
+        assertEquals("Wrong module", ID_B_64, serial2Modules.get(1).getId());
+        // Serial 3 should take the shortest share on top of the modules with tokens
+        List<IModuleDef> serial3Modules = mRepo.getModules(SERIAL3);
+        assertEquals("Wrong number of modules", 3, serial3Modules.size());
+        Set<String> idSet = new HashSet<>();
+        for (IModuleDef module : serial3Modules) {
+            idSet.add(module.getId());
+        }
+        assertTrue("Missing ID_B_32", idSet.contains(ID_B_32));
+        assertTrue("Missing ID_C_32", idSet.contains(ID_C_32));
+        assertTrue("Missing ID_C_64", idSet.contains(ID_C_64));
+    }
+
     public void testConfigFilter() throws Exception {
         File[] configFiles = mTestsDir.listFiles(new ConfigFilter());
         assertEquals("Wrong number of config files found.", 3, configFiles.length);
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.testtype;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.compatibility.common.util.AbiUtils;
+import com.android.compatibility.common.util.ICaseResult;
+import com.android.compatibility.common.util.IModuleResult;
+import com.android.compatibility.common.util.ModuleResult;
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link TestClassSharder}
+ */
+public class TestClassSharderTest extends TestCase {
+
+    private static final String ROOT_PROPERTY = "TESTS_ROOT";
+    private static final String BUILD_NUMBER = "2";
+    private static final String SUITE_PLAN = "cts";
+    private static final String DYNAMIC_CONFIG_URL = "";
+    private static final String ROOT_DIR_NAME = "root";
+    private static final String BASE_DIR_NAME = "android-tests";
+    private static final String TESTCASES = "testcases";
+    private static final long START_TIME = 123456L;
+    private static final String ABI = "armeabi-v7a";
+    private static final String MODULE = "FooModule";
+    private static final String ID = AbiUtils.createId(ABI, MODULE);
+    private static final String CLASS_A = "com.foo.ATest";
+    private static final String CLASS_B = "com.foo.BTest";
+    private static final String CLASS_C = "com.foo.CTest";
+    private static final String METADATA = "{\"module_id\":\"" + ID + "\",\"test\":["
+            + "{\"id\":\"" + CLASS_A + ".testSlow\",\"sec\":70}]}";
+
+    private CompatibilityBuildHelper mBuildHelper;
+    private File mRoot = null;
+    private File mResultDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mRoot = FileUtil.createTempDir(ROOT_DIR_NAME);
+        new File(new File(mRoot, BASE_DIR_NAME), TESTCASES).mkdirs();
+        System.setProperty(ROOT_PROPERTY, mRoot.getAbsolutePath());
+        mBuildHelper = new CompatibilityBuildHelper(new BuildInfo(BUILD_NUMBER, "", ""));
+        mBuildHelper.init(SUITE_PLAN, DYNAMIC_CONFIG_URL, START_TIME);
+        mResultDir = new File(mBuildHelper.getResultsDir(), "2016.01.01_00.00.00");
+        mResultDir.mkdirs();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mRoot);
+    }
+
+    public void testEmpty() throws Exception {
+        TestClassSharder sharder = TestClassSharder.load(mBuildHelper);
+        assertTrue("Unexpected runtimes", sharder.getClassRuntimes(ID).isEmpty());
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        File metadataDir = new File(mResultDir, "metadata");
+        metadataDir.mkdirs();
+        FileUtil.writeToFile(METADATA, new File(metadataDir, ID + ".0.json"));
+        IModuleResult module = new ModuleResult(ID);
+        module.addRuntime(100000);
+        ICaseResult caseA = module.getOrCreateResult(CLASS_A);
+        caseA.getOrCreateResult("testSlow").passed(null);
+        caseA.getOrCreateResult("testFast").passed(null);
+        ICaseResult caseB = module.getOrCreateResult(CLASS_B);
+        caseB.getOrCreateResult("testFast1").passed(null);
+        caseB.getOrCreateResult("testFast2").passed(null);
+
+        TestClassSharder sharder = TestClassSharder.load(mBuildHelper);
+        sharder.addModules(Arrays.asList(module), mResultDir);
+        sharder.save(mBuildHelper);
+        Map<String, Long> runtimes = TestClassSharder.load(mBuildHelper).getClassRuntimes(ID);
+        assertEquals("Wrong number of classes", 2, runtimes.size());
+        // The 30s not spent in the slow test is spread over the 3 other tests
+        assertEquals("Wrong runtime", 80000, runtimes.get(CLASS_A).longValue());
+        assertEquals("Wrong runtime", 20000, runtimes.get(CLASS_B).longValue());
+        assertTrue("Unexpected runtimes", sharder.getClassRuntimes("foo").isEmpty());
+
+        // A later run of the module replaces its class runtimes
+        module = new ModuleResult(ID);
+        module.addRuntime(3000);
+        module.getOrCreateResult(CLASS_C).getOrCreateResult("testFast").passed(null);
+        sharder.addModules(Arrays.asList(module), new File(mResultDir.getParentFile(), "other"));
+        sharder.save(mBuildHelper);
+        runtimes = TestClassSharder.load(mBuildHelper).getClassRuntimes(ID);
+        assertEquals("Wrong number of classes", 1, runtimes.size());
+        assertEquals("Wrong runtime", 3000, runtimes.get(CLASS_C).longValue());
+    }
+
+    public void testSplit() throws Exception {
+        Map<String, Long> runtimes = new HashMap<>();
+        runtimes.put(CLASS_A, 60L);
+        runtimes.put(CLASS_B, 40L);
+        runtimes.put(CLASS_C, 30L);
+        List<List<String>> pieces = TestClassSharder.split(runtimes, 2);
+        assertEquals("Wrong number of pieces", 2, pieces.size());
+        assertEquals("Wrong number of classes", 1, pieces.get(0).size());
+        assertEquals("Wrong class", CLASS_A, pieces.get(0).get(0));
+        assertEquals("Wrong number of classes", 2, pieces.get(1).size());
+        assertTrue("Missing class", pieces.get(1).contains(CLASS_B));
+        assertTrue("Missing class", pieces.get(1).contains(CLASS_C));
+        // Never more pieces than classes
+        assertEquals("Wrong number of pieces", 3, TestClassSharder.split(runtimes, 5).size());
+    }
+}
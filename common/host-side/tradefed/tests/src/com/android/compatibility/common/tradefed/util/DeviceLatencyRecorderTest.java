@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DeviceLatencyRecorder}
+ */
+public class DeviceLatencyRecorderTest extends TestCase {
+
+    private static final String MODULE_1 = "arm64-v8a CtsModule1";
+    private static final String MODULE_2 = "arm64-v8a CtsModule2";
+    private static final String SERIAL = "serial";
+
+    private ITestDevice mMockDevice;
+    private DeviceLatencyRecorder mRecorder;
+
+    @Override
+    public void setUp() throws Exception {
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mRecorder = new DeviceLatencyRecorder();
+    }
+
+    public void testRecordsDeviceCalls() throws Exception {
+        EasyMock.expect(mMockDevice.executeShellCommand("ls")).andReturn("data").times(3);
+        EasyMock.expect(mMockDevice.getProperty("ro.build.type")).andReturn("user");
+        EasyMock.expect(mMockDevice.getSerialNumber()).andReturn(SERIAL);
+        EasyMock.replay(mMockDevice);
+        ITestDevice device1 = mRecorder.wrap(mMockDevice, MODULE_1);
+        ITestDevice device2 = mRecorder.wrap(mMockDevice, MODULE_2);
+        assertEquals("data", device1.executeShellCommand("ls"));
+        assertEquals("data", device1.executeShellCommand("ls"));
+        assertEquals("data", device2.executeShellCommand("ls"));
+        assertEquals("user", device2.getProperty("ro.build.type"));
+        // Not a call to the device, so not recorded
+        assertEquals(SERIAL, device1.getSerialNumber());
+        EasyMock.verify(mMockDevice);
+
+        List<DeviceLatencyRecorder.Latency> latencies = mRecorder.getLatencies();
+        assertEquals(3, latencies.size());
+        for (DeviceLatencyRecorder.Latency latency : latencies) {
+            if (latency.getModule().equals(MODULE_1)) {
+                assertEquals("executeShellCommand", latency.getCommand());
+                assertEquals(2, latency.getCount());
+            } else {
+                assertEquals(MODULE_2, latency.getModule());
+                assertEquals(1, latency.getCount());
+            }
+            assertTrue("Latency should not be negative", latency.getMillis(0.5) >= 0);
+        }
+    }
+
+    public void testExceptionsPassThrough() throws Exception {
+        DeviceNotAvailableException exception = new DeviceNotAvailableException("offline");
+        EasyMock.expect(mMockDevice.executeShellCommand("ls")).andThrow(exception);
+        EasyMock.replay(mMockDevice);
+        try {
+            mRecorder.wrap(mMockDevice, MODULE_1).executeShellCommand("ls");
+            fail("Expected DeviceNotAvailableException");
+        } catch (DeviceNotAvailableException e) {
+            assertSame(exception, e);
+        }
+        // Failed calls take time too
+        assertEquals(1, mRecorder.getLatencies().get(0).getCount());
+    }
+
+    public void testWrite() throws Exception {
+        mRecorder.record(MODULE_1, "pushFile", 3000000);
+        mRecorder.record(MODULE_1, "pushFile", 1000000);
+        mRecorder.record(MODULE_2, "installPackage", 50000000);
+        File dir = FileUtil.createTempDir("device-latency");
+        try {
+            File file = mRecorder.write(dir);
+            assertEquals(DeviceLatencyRecorder.LATENCY_FILE_NAME, file.getName());
+            String[] lines = FileUtil.readStringFromFile(file).split("\n");
+            assertEquals(3, lines.length);
+            assertEquals("module,command,count,total_ms,mean_ms,p50_ms,p90_ms,p99_ms,max_ms",
+                    lines[0]);
+            // Largest total first
+            assertTrue("Wrong line: " + lines[1],
+                    lines[1].startsWith(MODULE_2 + ",installPackage,1,50.000,50.000,"));
+            assertTrue("Wrong line: " + lines[2],
+                    lines[2].startsWith(MODULE_1 + ",pushFile,2,4.000,2.000,"));
+            assertTrue("Wrong line: " + lines[2], lines[2].endsWith(",3.000"));
+        } finally {
+            FileUtil.recursiveDelete(dir);
+        }
+    }
+}
@@ -62,6 +62,21 @@ public class OptionHelperTest extends TestCase {
         assertEquals("Expected four elements", 4, optionNames.size());
     }
 
+    public void testGetOptionValue() throws Exception {
+        mTestName = "footest";
+        mFilters.add("foofilter");
+        assertEquals("Wrong option value", "footest",
+                OptionHelper.getOptionValue(this, TEST_NAME));
+        assertEquals("Wrong option value", mFilters,
+                OptionHelper.getOptionValue(this, TEST_FILTER));
+        assertNull("Unexpected option value", OptionHelper.getOptionValue(this, "foo"));
+        // Options declared by a superclass should also be found
+        OptionHelperTest subclass = new OptionHelperTest() {};
+        subclass.mTestSuite = "foosuite";
+        assertEquals("Wrong option value", "foosuite",
+                OptionHelper.getOptionValue(subclass, TEST_SUITE));
+    }
+
     public void testGetOptionShortNames() throws Exception {
         Set<String> optionShortNames = OptionHelper.getOptionShortNames(this);
         List<String> expectedShortNames = Arrays.asList(TEST_CLASS_SHORTNAME, TEST_SUITE_SHORTNAME);
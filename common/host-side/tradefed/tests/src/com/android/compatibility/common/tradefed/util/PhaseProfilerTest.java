@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.tradefed.util;
+
+import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
+import com.android.tradefed.build.BuildInfo;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Unit tests for {@link PhaseProfiler}
+ */
+public class PhaseProfilerTest extends TestCase {
+
+    private static final String SERIAL = "serial";
+    private static final String MODULE = "arm64-v8a CtsModule";
+
+    private File mDir;
+
+    @Override
+    public void setUp() throws Exception {
+        mDir = FileUtil.createTempDir("phase-profile");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    public void testSharedPerInvocation() throws Exception {
+        IBuildInfo build = createBuild("1000");
+        IBuildInfo shardBuild = createBuild("1000");
+        IBuildInfo otherBuild = createBuild("2000");
+        PhaseProfiler profiler = PhaseProfiler.get(build);
+        assertSame("Shards should share a profiler", profiler, PhaseProfiler.get(shardBuild));
+        assertNotSame("Invocations should not share a profiler", profiler,
+                PhaseProfiler.get(otherBuild));
+        assertSame(profiler, PhaseProfiler.remove(build));
+        assertNull(PhaseProfiler.remove(shardBuild));
+        PhaseProfiler.remove(otherBuild);
+    }
+
+    public void testTimeSinks() throws Exception {
+        PhaseProfiler profiler = new PhaseProfiler();
+        try (PhaseProfiler.Timer timer = profiler.start(SERIAL, MODULE, PhaseProfiler.TEST,
+                null)) {
+            Thread.sleep(20);
+        }
+        for (int i = 0; i < 2; i++) {
+            PhaseProfiler.Timer timer = profiler.start(SERIAL, MODULE, PhaseProfiler.PREPARER,
+                    "ApkInstaller");
+            timer.close();
+            // Closing again has no effect
+            timer.close();
+        }
+        List<PhaseProfiler.TimeSink> sinks = profiler.getTimeSinks();
+        assertEquals(2, sinks.size());
+        assertEquals(PhaseProfiler.TEST, sinks.get(0).getName());
+        assertTrue("Wrong duration", sinks.get(0).getMillis() >= 20);
+        assertEquals(1, sinks.get(0).getCount());
+        assertEquals(PhaseProfiler.PREPARER + " ApkInstaller", sinks.get(1).getName());
+        assertEquals(2, sinks.get(1).getCount());
+        String summary = profiler.getSummary(1);
+        assertTrue("Wrong summary: " + summary, summary.startsWith(PhaseProfiler.TEST + ": "));
+        assertEquals("Expected one line", 1, summary.split("\n").length);
+    }
+
+    public void testWrite() throws Exception {
+        PhaseProfiler profiler = new PhaseProfiler();
+        profiler.start(null, null, PhaseProfiler.CONFIG_PARSING, null).close();
+        profiler.start(SERIAL, "module,with \"quotes\"", PhaseProfiler.CLEANER, "Cleaner")
+                .close();
+        File file = profiler.write(mDir);
+        assertEquals(PhaseProfiler.PROFILE_FILE_NAME, file.getName());
+        String[] lines = FileUtil.readStringFromFile(file).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("device,module,phase,detail,start_ms,duration_ms", lines[0]);
+        assertTrue("Wrong line: " + lines[1],
+                lines[1].matches(",," + PhaseProfiler.CONFIG_PARSING + ",,\\d+,\\d+"));
+        assertTrue("Wrong line: " + lines[2], lines[2].matches(SERIAL
+                + ",\"module,with \"\"quotes\"\"\"," + PhaseProfiler.CLEANER + ",Cleaner,"
+                + "\\d+,\\d+"));
+    }
+
+    private static IBuildInfo createBuild(String startTime) {
+        IBuildInfo build = new BuildInfo("0", "", "");
+        build.addBuildAttribute(CompatibilityBuildHelper.START_TIME_MS, startTime);
+        return build;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Writes results in a compact binary format, next to the test_result.xml of a session, and
+ * converts between the two formats. The XML remains the report of the session; the binary file
+ * is for tools which ingest many results. Read with {@link BinaryResultReader}.
+ * <p/>
+ * The file holds the same results as the XML. It starts with a header of the attributes of the
+ * report and the build, followed by one block per module, a dictionary of the case and test names
+ * and a directory of the modules. It ends with a trailer giving the offsets of the dictionary and
+ * directory, so that a module can be read without reading the others.
+ * <p/>
+ * Each module block stores its cases and tests as columns: case names, test counts per case,
+ * test names as indices into the dictionary, a bitmap per status, and offsets into a blob of the
+ * module's failure messages, stack traces, file paths and report logs.
+ */
+public class BinaryResultHandler {
+
+    public static final String BINARY_RESULT_FILE_NAME = "test_result.bin";
+
+    /* Same names as the attributes of the Result tag of test_result.xml */
+    static final String COMMAND_LINE_ARGS_ATTR = "command_line_args";
+    static final String END_TIME_ATTR = "end";
+    static final String LOG_URL_ATTR = "log_url";
+    static final String REFERENCE_URL_ATTR = "reference_url";
+    static final String START_TIME_ATTR = "start";
+    static final String SUITE_BUILD_ATTR = "suite_build_number";
+    static final String SUITE_NAME_ATTR = "suite_name";
+    static final String SUITE_PLAN_ATTR = "suite_plan";
+    static final String SUITE_VERSION_ATTR = "suite_version";
+
+    static final int MAGIC = 0x43545342; // "CTSB"
+    static final short VERSION = 1;
+    // Dictionary offset, directory offset and magic
+    static final int TRAILER_SIZE = 8 + 8 + 4;
+    // Offset of a test with no details
+    static final int NO_DETAILS = -1;
+    // Statuses with a bitmap in each module block, in order
+    static final TestStatus[] STATUSES = TestStatus.values();
+
+    /**
+     * Write the results of a session in the binary format, with the same arguments as
+     * {@link ResultHandler#writeResults}.
+     *
+     * @return The result file created.
+     */
+    public static File writeResults(String suiteName, String suiteVersion, String suitePlan,
+            String suiteBuild, IInvocationResult result, File resultDir,
+            long startTime, long endTime, String referenceUrl, String logUrl,
+            String commandLineArgs) throws IOException {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put(SUITE_NAME_ATTR, suiteName);
+        attributes.put(SUITE_VERSION_ATTR, suiteVersion);
+        attributes.put(SUITE_PLAN_ATTR, suitePlan);
+        attributes.put(SUITE_BUILD_ATTR, suiteBuild);
+        attributes.put(START_TIME_ATTR, Long.toString(startTime));
+        attributes.put(END_TIME_ATTR, Long.toString(endTime));
+        attributes.put(REFERENCE_URL_ATTR, referenceUrl);
+        attributes.put(LOG_URL_ATTR, logUrl);
+        attributes.put(COMMAND_LINE_ARGS_ATTR, commandLineArgs);
+        return writeResults(attributes, result, resultDir);
+    }
+
+    /**
+     * Write the results of the session in the given directory in the binary format, from its
+     * test_result.xml.
+     *
+     * @return The result file created.
+     */
+    public static File convertToBinary(File resultDir) throws IOException {
+        IInvocationResult result = ResultHandler.getResultFromDir(resultDir, false);
+        Map<String, String> attributes = ResultHandler.readResultAttributes(resultDir);
+        if (result == null || attributes == null) {
+            throw new FileNotFoundException(String.format("Could not read the results in %s",
+                    resultDir.getAbsolutePath()));
+        }
+        return writeResults(attributes, result, resultDir);
+    }
+
+    /**
+     * Write the test_result.xml of the session in the given directory from its binary results.
+     *
+     * @return The result file created.
+     */
+    public static File convertToXml(File resultDir) throws IOException, XmlPullParserException {
+        try (BinaryResultReader reader = new BinaryResultReader(
+                new File(resultDir, BINARY_RESULT_FILE_NAME))) {
+            Map<String, String> attributes = reader.getAttributes();
+            return ResultHandler.writeResults(attributes.get(SUITE_NAME_ATTR),
+                    attributes.get(SUITE_VERSION_ATTR), attributes.get(SUITE_PLAN_ATTR),
+                    attributes.get(SUITE_BUILD_ATTR), reader.readResults(), resultDir,
+                    Long.parseLong(attributes.get(START_TIME_ATTR)),
+                    Long.parseLong(attributes.get(END_TIME_ATTR)),
+                    attributes.get(REFERENCE_URL_ATTR), attributes.get(LOG_URL_ATTR),
+                    attributes.get(COMMAND_LINE_ARGS_ATTR));
+        }
+    }
+
+    private static File writeResults(Map<String, String> attributes, IInvocationResult result,
+            File resultDir) throws IOException {
+        File resultFile = new File(resultDir, BINARY_RESULT_FILE_NAME);
+        // Name -> index in the dictionary
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        List<IModuleResult> modules = result.getModules();
+        List<Long> moduleOffsets = new ArrayList<>();
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream blockOut = new DataOutputStream(block);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(resultFile))) {
+            blockOut.writeInt(MAGIC);
+            blockOut.writeShort(VERSION);
+            writeMap(blockOut, attributes);
+            writeMap(blockOut, result.getInvocationInfo());
+            writeString(blockOut, result.getBuildFingerprint());
+            blockOut.writeInt(result.getDeviceSerials().size());
+            for (String serial : result.getDeviceSerials()) {
+                writeString(blockOut, serial);
+            }
+            long position = writeBlock(block, out);
+
+            for (IModuleResult module : modules) {
+                moduleOffsets.add(position);
+                writeModule(blockOut, module, dictionary);
+                position += writeBlock(block, out);
+            }
+
+            long dictionaryOffset = position;
+            blockOut.writeInt(dictionary.size());
+            for (String name : dictionary.keySet()) {
+                writeString(blockOut, name);
+            }
+            position += writeBlock(block, out);
+
+            long directoryOffset = position;
+            blockOut.writeInt(modules.size());
+            for (int i = 0; i < modules.size(); i++) {
+                writeString(blockOut, modules.get(i).getId());
+                blockOut.writeLong(moduleOffsets.get(i));
+            }
+            blockOut.writeLong(dictionaryOffset);
+            blockOut.writeLong(directoryOffset);
+            blockOut.writeInt(MAGIC);
+            writeBlock(block, out);
+        }
+        return resultFile;
+    }
+
+    private static void writeModule(DataOutputStream out, IModuleResult module,
+            Map<String, Integer> dictionary) throws IOException {
+        List<ICaseResult> cases = module.getResults();
+        // Tests which were not executed are not reported, as in test_result.xml
+        List<List<ITestResult>> caseTests = new ArrayList<>();
+        int numTests = 0;
+        for (ICaseResult caseResult : cases) {
+            List<ITestResult> tests = new ArrayList<>();
+            for (ITestResult test : caseResult.getResults()) {
+                if (test.getResultStatus() != null) {
+                    tests.add(test);
+                }
+            }
+            caseTests.add(tests);
+            numTests += tests.size();
+        }
+
+        out.writeLong(module.getRuntime());
+        out.writeBoolean(module.isDone());
+        out.writeInt(module.getNotExecuted());
+        out.writeInt(cases.size());
+        out.writeInt(numTests);
+        for (ICaseResult caseResult : cases) {
+            out.writeInt(lookup(dictionary, caseResult.getName()));
+        }
+        for (List<ITestResult> tests : caseTests) {
+            out.writeInt(tests.size());
+        }
+        for (List<ITestResult> tests : caseTests) {
+            for (ITestResult test : tests) {
+                out.writeInt(lookup(dictionary, test.getName()));
+            }
+        }
+        for (TestStatus status : STATUSES) {
+            byte[] bitmap = new byte[(numTests + 7) / 8];
+            int i = 0;
+            for (List<ITestResult> tests : caseTests) {
+                for (ITestResult test : tests) {
+                    if (test.getResultStatus() == status) {
+                        bitmap[i / 8] |= 1 << (i % 8);
+                    }
+                    i++;
+                }
+            }
+            out.write(bitmap);
+        }
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        DataOutputStream blobOut = new DataOutputStream(blob);
+        for (List<ITestResult> tests : caseTests) {
+            for (ITestResult test : tests) {
+                String report = serializeReportLog(test.getReportLog());
+                if (test.getMessage() == null && test.getStackTrace() == null
+                        && test.getBugReport() == null && test.getLog() == null
+                        && test.getScreenshot() == null && report == null) {
+                    out.writeInt(NO_DETAILS);
+                    continue;
+                }
+                out.writeInt(blobOut.size());
+                writeString(blobOut, test.getMessage());
+                writeString(blobOut, test.getStackTrace());
+                writeString(blobOut, test.getBugReport());
+                writeString(blobOut, test.getLog());
+                writeString(blobOut, test.getScreenshot());
+                writeString(blobOut, report);
+            }
+        }
+        out.writeInt(blob.size());
+        blob.writeTo(out);
+    }
+
+    private static int lookup(Map<String, Integer> dictionary, String name) {
+        Integer index = dictionary.get(name);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Writes the block to the output and clears it.
+     *
+     * @return the size of the block.
+     */
+    private static long writeBlock(ByteArrayOutputStream block, OutputStream out)
+            throws IOException {
+        long size = block.size();
+        block.writeTo(out);
+        block.reset();
+        return size;
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map)
+            throws IOException {
+        out.writeInt(map.size());
+        for (Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    /**
+     * Writes a string of any length, which may be null.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String serializeReportLog(ReportLog report) throws IOException {
+        if (report == null) {
+            return null;
+        }
+        try {
+            return ReportLog.serialize(report);
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+}
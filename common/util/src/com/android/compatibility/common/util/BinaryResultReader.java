@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads results written by {@link BinaryResultHandler}.
+ * <p/>
+ * Opening the reader only reads the header, dictionary and directory of the file; each module is
+ * read and decoded when asked for. Safe to use from multiple threads.
+ */
+public class BinaryResultReader implements Closeable {
+
+    private final RandomAccessFile mFile;
+    private final Map<String, String> mAttributes;
+    private final Map<String, String> mInvocationInfo;
+    private final String mBuildFingerprint;
+    private final List<String> mDeviceSerials = new ArrayList<>();
+    private final String[] mDictionary;
+    // Module id -> offset of the module's block, in the order the modules were written
+    private final Map<String, Long> mModuleOffsets = new LinkedHashMap<>();
+    // Module id -> length of the module's block
+    private final Map<String, Integer> mModuleLengths = new LinkedHashMap<>();
+
+    /**
+     * Opens a binary result file.
+     *
+     * @throws IOException if the file cannot be read or is not a binary result file
+     */
+    public BinaryResultReader(File resultFile) throws IOException {
+        mFile = new RandomAccessFile(resultFile, "r");
+        try {
+            long length = mFile.length();
+            if (length < BinaryResultHandler.TRAILER_SIZE) {
+                throw new IOException("Truncated result file " + resultFile.getAbsolutePath());
+            }
+            DataInputStream trailer = readSection(length - BinaryResultHandler.TRAILER_SIZE,
+                    length);
+            long dictionaryOffset = trailer.readLong();
+            long directoryOffset = trailer.readLong();
+            if (trailer.readInt() != BinaryResultHandler.MAGIC) {
+                throw new IOException("Not a binary result file " + resultFile.getAbsolutePath());
+            }
+
+            DataInputStream directory = readSection(directoryOffset,
+                    length - BinaryResultHandler.TRAILER_SIZE);
+            List<String> ids = new ArrayList<>();
+            for (int i = directory.readInt(); i > 0; i--) {
+                String id = BinaryResultHandler.readString(directory);
+                ids.add(id);
+                mModuleOffsets.put(id, directory.readLong());
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                long end = (i + 1 < ids.size())
+                        ? mModuleOffsets.get(ids.get(i + 1)) : dictionaryOffset;
+                mModuleLengths.put(ids.get(i), (int) (end - mModuleOffsets.get(ids.get(i))));
+            }
+
+            DataInputStream dictionary = readSection(dictionaryOffset, directoryOffset);
+            mDictionary = new String[dictionary.readInt()];
+            for (int i = 0; i < mDictionary.length; i++) {
+                mDictionary[i] = BinaryResultHandler.readString(dictionary);
+            }
+
+            long headerEnd = ids.isEmpty() ? dictionaryOffset : mModuleOffsets.get(ids.get(0));
+            DataInputStream header = readSection(0, headerEnd);
+            if (header.readInt() != BinaryResultHandler.MAGIC) {
+                throw new IOException("Not a binary result file " + resultFile.getAbsolutePath());
+            }
+            short version = header.readShort();
+            if (version != BinaryResultHandler.VERSION) {
+                throw new IOException(String.format("Unsupported binary result version %d",
+                        version));
+            }
+            mAttributes = readMap(header);
+            mInvocationInfo = readMap(header);
+            mBuildFingerprint = BinaryResultHandler.readString(header);
+            for (int i = header.readInt(); i > 0; i--) {
+                mDeviceSerials.add(BinaryResultHandler.readString(header));
+            }
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the attributes of the report, named as in test_result.xml.
+     */
+    public Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(mAttributes);
+    }
+
+    /**
+     * @return the ids of the modules in the file, in the order they were written.
+     */
+    public List<String> getModuleIds() {
+        return new ArrayList<>(mModuleOffsets.keySet());
+    }
+
+    /**
+     * Reads the results of one module, without reading the other modules.
+     *
+     * @return the results of the module, or null if the file has no such module.
+     */
+    public IModuleResult readModule(String id) throws IOException {
+        if (!mModuleOffsets.containsKey(id)) {
+            return null;
+        }
+        IModuleResult module = new ModuleResult(id);
+        readModule(id, module);
+        return module;
+    }
+
+    /**
+     * Reads all the results in the file, as they would be read from test_result.xml.
+     */
+    public IInvocationResult readResults() throws IOException {
+        IInvocationResult invocation = new InvocationResult();
+        String startTime = mAttributes.get(BinaryResultHandler.START_TIME_ATTR);
+        if (startTime != null) {
+            invocation.setStartTime(Long.parseLong(startTime));
+        }
+        invocation.setTestPlan(mAttributes.get(BinaryResultHandler.SUITE_PLAN_ATTR));
+        invocation.setCommandLineArgs(
+                mAttributes.get(BinaryResultHandler.COMMAND_LINE_ARGS_ATTR));
+        for (String serial : mDeviceSerials) {
+            invocation.addDeviceSerial(serial);
+        }
+        for (Map.Entry<String, String> entry : mInvocationInfo.entrySet()) {
+            invocation.addInvocationInfo(entry.getKey(), entry.getValue());
+        }
+        invocation.setBuildFingerprint(mBuildFingerprint);
+        for (String id : mModuleOffsets.keySet()) {
+            readModule(id, invocation.getOrCreateModule(id));
+        }
+        return invocation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private void readModule(String id, IModuleResult module) throws IOException {
+        DataInputStream in = readSection(mModuleOffsets.get(id),
+                mModuleOffsets.get(id) + mModuleLengths.get(id));
+        module.addRuntime(in.readLong());
+        module.initializeDone(in.readBoolean());
+        module.setNotExecuted(in.readInt());
+        int numCases = in.readInt();
+        int numTests = in.readInt();
+        int[] caseNames = readInts(in, numCases);
+        int[] caseCounts = readInts(in, numCases);
+        int[] testNames = readInts(in, numTests);
+        byte[][] bitmaps = new byte[BinaryResultHandler.STATUSES.length][];
+        for (int s = 0; s < bitmaps.length; s++) {
+            bitmaps[s] = new byte[(numTests + 7) / 8];
+            in.readFully(bitmaps[s]);
+        }
+        int[] detailOffsets = readInts(in, numTests);
+        byte[] blob = new byte[in.readInt()];
+        in.readFully(blob);
+
+        int t = 0;
+        for (int c = 0; c < numCases; c++) {
+            ICaseResult caseResult = module.getOrCreateResult(mDictionary[caseNames[c]]);
+            for (int end = t + caseCounts[c]; t < end; t++) {
+                ITestResult test = caseResult.getOrCreateResult(mDictionary[testNames[t]]);
+                for (int s = 0; s < bitmaps.length; s++) {
+                    if ((bitmaps[s][t / 8] & (1 << (t % 8))) != 0) {
+                        test.setResultStatus(BinaryResultHandler.STATUSES[s]);
+                    }
+                }
+                // Marked as a retry, as when read from test_result.xml
+                test.setRetry(true);
+                if (detailOffsets[t] != BinaryResultHandler.NO_DETAILS) {
+                    readDetails(new DataInputStream(new ByteArrayInputStream(blob,
+                            detailOffsets[t], blob.length - detailOffsets[t])), test);
+                }
+            }
+        }
+    }
+
+    private static void readDetails(DataInputStream in, ITestResult test) throws IOException {
+        test.setMessage(BinaryResultHandler.readString(in));
+        test.setStackTrace(BinaryResultHandler.readString(in));
+        test.setBugReport(BinaryResultHandler.readString(in));
+        test.setLog(BinaryResultHandler.readString(in));
+        test.setScreenshot(BinaryResultHandler.readString(in));
+        String report = BinaryResultHandler.readString(in);
+        if (report != null) {
+            try {
+                test.setReportLog(ReportLog.parse(report));
+            } catch (XmlPullParserException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the file from start to end.
+     */
+    private synchronized DataInputStream readSection(long start, long end) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        mFile.seek(start);
+        mFile.readFully(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            map.put(BinaryResultHandler.readString(in), BinaryResultHandler.readString(in));
+        }
+        return map;
+    }
+}
@@ -27,14 +27,25 @@ import java.util.Map;
 public class CaseResult implements ICaseResult {
 
     private String mName;
+    // The module of the case, whose counts are updated with the case's. May be null.
+    private final ModuleResult mParent;
 
     private Map<String, ITestResult> mResults = new HashMap<>();
+    private final StatusCounts mCounts = new StatusCounts();
 
     /**
      * Creates a {@link CaseResult} for the given name, eg &lt;package-name&gt;.&lt;class-name&gt;
      */
     public CaseResult(String name) {
+        this(name, null);
+    }
+
+    /**
+     * Creates a {@link CaseResult} of the given module.
+     */
+    CaseResult(String name, ModuleResult parent) {
         mName = name;
+        mParent = parent;
     }
 
     /**
@@ -54,6 +65,7 @@ public class CaseResult implements ICaseResult {
         if (result == null) {
             result = new TestResult(this, testName);
             mResults.put(testName, result);
+            updateCount(null, 1);
         }
         return result;
     }
@@ -95,13 +107,17 @@ public class CaseResult implements ICaseResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ITestResult result : mResults.values()) {
-            if (result.getResultStatus() == status) {
-                total++;
-            }
+        return mCounts.get(status);
+    }
+
+    /**
+     * Adds delta to the number of tests of the case with the given status.
+     */
+    void updateCount(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+        if (mParent != null) {
+            mParent.updateCount(status, delta);
         }
-        return total;
     }
 
     /**
@@ -124,7 +140,9 @@ public class CaseResult implements ICaseResult {
         }
 
         for (ITestResult otherTestResult : otherCaseResult.getResults()) {
-            mResults.put(otherTestResult.getName(), otherTestResult);
+            // Copied rather than shared, so that the counts of this case follow its tests
+            TestResult.copyResult(otherTestResult,
+                    getOrCreateResult(otherTestResult.getName()));
         }
     }
 
@@ -24,6 +24,10 @@ import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,20 +35,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.io.Serializable;
-import java.security.DigestException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /***
  * Calculate and store checksum values for files and test results
+ * <p/>
+ * The checksum file starts with a magic number and the versions of the format and the data,
+ * followed by the bloom filter of the results, as its hash parameters and raw bit array. Then a
+ * table of the files sorted by path, with fixed-width entries holding the offset of the path, the
+ * SHA-256 digest, size and modification time of the file, and the paths themselves. The file is
+ * memory-mapped when loaded and files are looked up in the table by binary search.
+ * <p/>
+ * Files written by earlier versions with Java serialization can still be loaded, and are
+ * rewritten in the current format when loaded with {@link #load(File)}.
  */
-public final class ChecksumReporter implements Serializable {
+public final class ChecksumReporter {
 
     public static final String NAME = "checksum.data";
     public static final String PREV_NAME = "checksum.previous.data";
@@ -54,13 +74,34 @@ public final class ChecksumReporter implements Serializable {
     private static final String ID_SEPARATOR = "@";
     private static final String NAME_SEPARATOR = ".";
 
-    private static final short CURRENT_VERSION = 1;
+    // Version 2 adds the size and modification time of each file
+    private static final short CURRENT_VERSION = 2;
+    private static final short FILE_INFO_VERSION = 2;
     // Serialized format Id (ie magic number) used to identify serialized data.
-    static final short SERIALIZED_FORMAT_CODE = 650;
-
-    private final BloomFilter<CharSequence> mResultChecksum;
-    private final HashMap<String, byte[]> mFileChecksum;
-    private final short mVersion;
+    @VisibleForTesting
+    public static final short SERIALIZED_FORMAT_CODE = 650;
+    // First bytes of files written with Java serialization, before the format Id
+    private static final short LEGACY_STREAM_MAGIC = (short) 0xaced;
+    @VisibleForTesting
+    public static final int FORMAT_MAGIC = 0x434b534d; // "CKSM"
+    private static final short FORMAT_VERSION = 1;
+    private static final int DIGEST_SIZE = 32;
+    // Size and modification time of files recorded before version 2
+    private static final long NO_INFO = -1;
+
+    // Files larger than this are hashed through a memory mapping, in chunks of MAP_SIZE
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final long MAP_SIZE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HASH_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private BloomFilter<CharSequence> mResultChecksum;
+    private final HashMap<String, byte[]> mFileChecksum = new HashMap<>();
+    // File key -> {size, modification time} of the file when its checksum was calculated
+    private final HashMap<String, long[]> mFileInfo = new HashMap<>();
+    // Files read from the checksum file, looked up after the files added since
+    private FileTable mLoadedFiles = null;
+    private short mVersion;
 
     /***
      * Calculate checksum of test results and files in result directory and write to disk
@@ -74,7 +115,17 @@ public final class ChecksumReporter implements Serializable {
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
             checksumReporter.addInvocation(result);
-            checksumReporter.addDirectory(dir);
+            // Files carried over from the session being retried need not be hashed again
+            File retryDir = result.getRetryDirectory();
+            ChecksumReporter previous = null;
+            if (retryDir != null) {
+                try {
+                    previous = load(retryDir);
+                } catch (ChecksumValidationException e) {
+                    // Hash every file
+                }
+            }
+            checksumReporter.addDirectory(dir, previous, retryDir);
             checksumReporter.saveToFile(dir);
         } catch (Exception e) {
             return false;
@@ -103,25 +154,74 @@ public final class ChecksumReporter implements Serializable {
      */
     public ChecksumReporter(File directory) throws ChecksumValidationException {
         File file = new File(directory, ChecksumReporter.NAME);
+        try {
+            if (isLegacyFile(file)) {
+                loadLegacyFile(file);
+            } else {
+                loadFile(file);
+            }
+        } catch (ChecksumValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ChecksumValidationException("Unable to load checksum from file", e);
+        }
+        if (mVersion > CURRENT_VERSION) {
+            throw new ChecksumValidationException(
+                    "File contains a newer version of ChecksumReporter");
+        }
+    }
+
+    private void loadFile(File file) throws IOException, ChecksumValidationException {
+        ByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+                FileChannel channel = in.getChannel()) {
+            // The mapping remains valid once the channel is closed
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 8 || buffer.getInt() != FORMAT_MAGIC) {
+            throw new ChecksumValidationException("Unknown format of serialized data.");
+        }
+        if (buffer.getShort() > FORMAT_VERSION) {
+            throw new ChecksumValidationException(
+                    "File contains a newer format of ChecksumReporter");
+        }
+        mVersion = buffer.getShort();
+        byte[] bloomFilter = new byte[buffer.getInt()];
+        buffer.get(bloomFilter);
+        mResultChecksum = BloomFilter.readFrom(new ByteArrayInputStream(bloomFilter),
+                Funnels.unencodedCharsFunnel());
+        mLoadedFiles = new FileTable(buffer.slice());
+    }
+
+    /***
+     * Loads a file written with Java serialization by earlier versions.
+     */
+    @SuppressWarnings("unchecked")
+    private void loadLegacyFile(File file) throws Exception {
         try (FileInputStream fileStream = new FileInputStream(file);
             InputStream outputStream = new BufferedInputStream(fileStream);
             ObjectInput objectInput = new ObjectInputStream(outputStream)) {
             short magicNumber = objectInput.readShort();
             switch (magicNumber) {
                 case SERIALIZED_FORMAT_CODE:
-                   mVersion = objectInput.readShort();
+                    mVersion = objectInput.readShort();
                     mResultChecksum = (BloomFilter<CharSequence>) objectInput.readObject();
-                    mFileChecksum = (HashMap<String, byte[]>) objectInput.readObject();
+                    mFileChecksum.putAll((HashMap<String, byte[]>) objectInput.readObject());
+                    if (mVersion >= FILE_INFO_VERSION) {
+                        mFileInfo.putAll((HashMap<String, long[]>) objectInput.readObject());
+                    }
                     break;
                 default:
                     throw new ChecksumValidationException("Unknown format of serialized data.");
             }
-        } catch (Exception e) {
-            throw new ChecksumValidationException("Unable to load checksum from file", e);
         }
-        if (mVersion > CURRENT_VERSION) {
-            throw new ChecksumValidationException(
-                    "File contains a newer version of ChecksumReporter");
+    }
+
+    private static boolean isLegacyFile(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readShort() == LEGACY_STREAM_MAGIC;
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -133,7 +233,6 @@ public final class ChecksumReporter implements Serializable {
     public ChecksumReporter(int testCount, double fpp, short version) {
         mResultChecksum = BloomFilter.create(Funnels.unencodedCharsFunnel(),
                 testCount, fpp);
-        mFileChecksum = new HashMap<>();
         mVersion = version;
     }
 
@@ -158,24 +257,22 @@ public final class ChecksumReporter implements Serializable {
      * @param path part of the key to identify the files crc
      */
     public void addFile(File file, String path) {
-        byte[] crc;
-        try {
-            crc = calculateFileChecksum(file);
-        } catch (ChecksumValidationException e) {
-            crc = new byte[0];
-        }
         String key = path + SEPARATOR + file.getName();
-        mFileChecksum.put(key, crc);
+        // Taken before hashing, so that a file changed while being hashed is hashed again
+        long[] info = getFileInfo(file);
+        mFileChecksum.put(key, calculateFileChecksumOrEmpty(file));
+        mFileInfo.put(key, info);
     }
 
     @VisibleForTesting
     public boolean containsFile(File file, String path) {
         String key = path + SEPARATOR + file.getName();
-        if (mFileChecksum.containsKey(key))
+        byte[] storedCrc = findChecksum(key);
+        if (storedCrc != null)
         {
             try {
                 byte[] crc = calculateFileChecksum(file);
-                return Arrays.equals(mFileChecksum.get(key), crc);
+                return Arrays.equals(storedCrc, crc);
             } catch (ChecksumValidationException e) {
                 return false;
             }
@@ -188,23 +285,142 @@ public final class ChecksumReporter implements Serializable {
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
-        addDirectory(directory, directory.getName());
+        addDirectory(directory, null, null);
     }
 
     /***
+     * Adds all child files recursively through all sub directories, hashing files on a thread
+     * per processor. Files which have the same size and modification time as when the previous
+     * checksum was calculated keep their previous checksum.
+     * @param directory target that is deeply searched for files
+     * @param previous the checksum of a previous session, or null to hash every file
+     * @param previousDirectory the directory the previous checksum was calculated for
+     */
+    public void addDirectory(File directory, ChecksumReporter previous,
+            File previousDirectory) {
+        final List<File> files = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        listFiles(directory, directory.getName(), files, keys);
+        if (files.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(HASH_THREADS, files.size()), r -> {
+                    Thread t = new Thread(r, "ChecksumReporter");
+                    t.setDaemon(true);
+                    return t;
+                });
+        try {
+            List<Future<byte[]>> checksums = new ArrayList<>();
+            List<long[]> infos = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                long[] info = getFileInfo(file);
+                infos.add(info);
+                byte[] checksum = null;
+                if (previous != null) {
+                    // Keys start with the name of the directory, which differs between sessions
+                    checksum = previous.getUnchangedChecksum(previousDirectory.getName()
+                            + keys.get(i).substring(directory.getName().length()), info);
+                }
+                if (checksum != null) {
+                    final byte[] previousChecksum = checksum;
+                    checksums.add(executor.submit(() -> previousChecksum));
+                } else {
+                    checksums.add(executor.submit(() -> calculateFileChecksumOrEmpty(file)));
+                }
+            }
+            // Added in the order the directory was walked, whatever order hashing finished in
+            for (int i = 0; i < files.size(); i++) {
+                mFileChecksum.put(keys.get(i), getChecksum(checksums.get(i)));
+                mFileInfo.put(keys.get(i), infos.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /***
+     * Lists all child files recursively, sorted so that the walk is the same on every run
      * @param path the relative path to the current directory from the base directory
      */
-    private void addDirectory(File directory, String path) {
-        for(String childName : directory.list()) {
+    private static void listFiles(File directory, String path, List<File> files,
+            List<String> keys) {
+        String[] childNames = directory.list();
+        if (childNames == null) {
+            return;
+        }
+        Arrays.sort(childNames);
+        for (String childName : childNames) {
             File child = new File(directory, childName);
             if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
+                listFiles(child, path + SEPARATOR + child.getName(), files, keys);
             } else {
-                addFile(child, path);
+                files.add(child);
+                keys.add(path + SEPARATOR + child.getName());
             }
         }
     }
 
+    /***
+     * @return the checksum of the file with the given key, if the file had the given size and
+     * modification time when it was calculated, or null otherwise.
+     */
+    private byte[] getUnchangedChecksum(String key, long[] info) {
+        long[] previousInfo = findInfo(key);
+        byte[] checksum = findChecksum(key);
+        if (previousInfo == null || checksum == null || checksum.length == 0
+                || !Arrays.equals(previousInfo, info)) {
+            return null;
+        }
+        return checksum;
+    }
+
+    /***
+     * @return the checksum of the file with the given key, or null if the file was not added.
+     */
+    private byte[] findChecksum(String key) {
+        byte[] checksum = mFileChecksum.get(key);
+        if (checksum == null && mLoadedFiles != null) {
+            int index = mLoadedFiles.find(key);
+            if (index >= 0) {
+                checksum = mLoadedFiles.getChecksum(index);
+            }
+        }
+        return checksum;
+    }
+
+    /***
+     * @return the size and modification time of the file with the given key, or null if unknown.
+     */
+    private long[] findInfo(String key) {
+        if (mFileChecksum.containsKey(key)) {
+            return mFileInfo.get(key);
+        }
+        if (mLoadedFiles != null) {
+            int index = mLoadedFiles.find(key);
+            if (index >= 0) {
+                return mLoadedFiles.getInfo(index);
+            }
+        }
+        return null;
+    }
+
+    private static long[] getFileInfo(File file) {
+        return new long[] {file.length(), file.lastModified()};
+    }
+
+    private static byte[] getChecksum(Future<byte[]> checksum) {
+        try {
+            return checksum.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new byte[0];
+        } catch (ExecutionException e) {
+            return new byte[0];
+        }
+    }
+
     /***
      * Calculate checksum of test result and store the value
      * @param testResult the target of the checksum
@@ -252,14 +468,54 @@ public final class ChecksumReporter implements Serializable {
      */
     public void saveToFile(File directory) throws IOException {
         File file = new File(directory, NAME);
-
-        try (FileOutputStream fileStream = new FileOutputStream(file, false);
-             OutputStream outputStream = new BufferedOutputStream(fileStream);
-             ObjectOutput objectOutput = new ObjectOutputStream(outputStream)) {
-            objectOutput.writeShort(SERIALIZED_FORMAT_CODE);
-            objectOutput.writeShort(mVersion);
-            objectOutput.writeObject(mResultChecksum);
-            objectOutput.writeObject(mFileChecksum);
+        TreeSet<String> keys = new TreeSet<>(mFileChecksum.keySet());
+        if (mLoadedFiles != null) {
+            for (int i = 0; i < mLoadedFiles.size(); i++) {
+                keys.add(mLoadedFiles.getKey(i));
+            }
+        }
+        // Written to a temporary file first, as the file being replaced may be mapped
+        File tmpFile = File.createTempFile(NAME, ".tmp", directory);
+        try {
+            try (FileOutputStream fileStream = new FileOutputStream(tmpFile, false);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(fileStream))) {
+                out.writeInt(FORMAT_MAGIC);
+                out.writeShort(FORMAT_VERSION);
+                out.writeShort(mVersion);
+                ByteArrayOutputStream bloomFilter = new ByteArrayOutputStream();
+                mResultChecksum.writeTo(bloomFilter);
+                out.writeInt(bloomFilter.size());
+                bloomFilter.writeTo(out);
+
+                out.writeInt(keys.size());
+                List<byte[]> names = new ArrayList<>(keys.size());
+                int nameOffset = 0;
+                for (String key : keys) {
+                    byte[] name = key.getBytes(StandardCharsets.UTF_8);
+                    names.add(name);
+                    out.writeInt(nameOffset);
+                    out.writeInt(name.length);
+                    nameOffset += name.length;
+                    byte[] checksum = findChecksum(key);
+                    // Files which could not be hashed have no digest
+                    boolean hasDigest = checksum.length == DIGEST_SIZE;
+                    out.writeByte(hasDigest ? DIGEST_SIZE : 0);
+                    out.write(hasDigest ? checksum : new byte[DIGEST_SIZE]);
+                    long[] info = findInfo(key);
+                    out.writeLong((info == null) ? NO_INFO : info[0]);
+                    out.writeLong((info == null) ? NO_INFO : info[1]);
+                }
+                for (byte[] name : names) {
+                    out.write(name);
+                }
+            }
+            // Renaming over an existing file fails on some platforms, so remove it first then
+            if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+                throw new IOException("Unable to write " + file.getAbsolutePath());
+            }
+        } finally {
+            tmpFile.delete();
         }
     }
 
@@ -347,25 +603,37 @@ public final class ChecksumReporter implements Serializable {
 
     static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
 
-        try (FileInputStream fis = new FileInputStream(file);
-             InputStream inputStream = new BufferedInputStream(fis)) {
+        try (FileInputStream in = new FileInputStream(file);
+                FileChannel channel = in.getChannel()) {
             MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
-            int cnt;
-            int bufferSize = 8192;
-            byte [] buffer = new byte[bufferSize];
-            while ((cnt = inputStream.read(buffer)) != -1) {
-                hashSum.update(buffer, 0, cnt);
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                // Hashed straight from the page cache, without copying through a buffer
+                for (long position = 0; position < size; position += MAP_SIZE) {
+                    hashSum.update(channel.map(MapMode.READ_ONLY, position,
+                            Math.min(MAP_SIZE, size - position)));
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    hashSum.update(buffer);
+                    buffer.clear();
+                }
             }
-
-            byte[] partialHash = new byte[32];
-            hashSum.digest(partialHash, 0, 32);
-            return partialHash;
+            return hashSum.digest();
         } catch (NoSuchAlgorithmException e) {
             throw new ChecksumValidationException("Unable to hash file.", e);
         } catch (IOException e) {
             throw new ChecksumValidationException("Unable to hash file.", e);
-        } catch (DigestException e) {
-            throw new ChecksumValidationException("Unable to hash file.", e);
+        }
+    }
+
+    private static byte[] calculateFileChecksumOrEmpty(File file) {
+        try {
+            return calculateFileChecksum(file);
+        } catch (ChecksumValidationException e) {
+            return new byte[0];
         }
     }
 
@@ -382,6 +650,84 @@ public final class ChecksumReporter implements Serializable {
         return count;
     }
 
+    /***
+     * The files of a checksum file, sorted by key, read from the file as they are looked up.
+     */
+    private static class FileTable {
+        // Offset and length of the key, length of the digest, digest, size and modification time
+        private static final int ENTRY_SIZE = 4 + 4 + 1 + DIGEST_SIZE + 8 + 8;
+
+        private final ByteBuffer mBuffer;
+        private final int mCount;
+        private final int mNamesStart;
+
+        /***
+         * @param buffer the table, from the count of files to the end of the file
+         */
+        FileTable(ByteBuffer buffer) throws ChecksumValidationException {
+            mBuffer = buffer;
+            mCount = mBuffer.getInt(0);
+            mNamesStart = 4 + mCount * ENTRY_SIZE;
+            if (mCount < 0 || mNamesStart > mBuffer.limit()) {
+                throw new ChecksumValidationException("Truncated checksum file.");
+            }
+        }
+
+        int size() {
+            return mCount;
+        }
+
+        /***
+         * @return the index of the file with the given key, or a negative value if not found.
+         */
+        int find(String key) {
+            int low = 0;
+            int high = mCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = getKey(mid).compareTo(key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        String getKey(int index) {
+            int entry = entry(index);
+            byte[] name = new byte[mBuffer.getInt(entry + 4)];
+            read(mNamesStart + mBuffer.getInt(entry), name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        byte[] getChecksum(int index) {
+            int entry = entry(index);
+            byte[] checksum = new byte[mBuffer.get(entry + 8)];
+            read(entry + 9, checksum);
+            return checksum;
+        }
+
+        long[] getInfo(int index) {
+            int entry = entry(index) + 9 + DIGEST_SIZE;
+            return new long[] {mBuffer.getLong(entry), mBuffer.getLong(entry + 8)};
+        }
+
+        private int entry(int index) {
+            return 4 + index * ENTRY_SIZE;
+        }
+
+        private void read(int position, byte[] bytes) {
+            // A duplicate, so that lookups from several threads do not share a position
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(position);
+            buffer.get(bytes);
+        }
+    }
+
     public static class ChecksumValidationException extends Exception {
         public ChecksumValidationException(String detailMessage) {
             super(detailMessage);
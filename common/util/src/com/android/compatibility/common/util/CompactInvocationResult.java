@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An {@link InvocationResult} for sessions too large to hold as one object per test.
+ * <p/>
+ * Modules are {@link CompactModuleResult}s sharing one {@link StringTable}, so the names of
+ * cases and tests run on several ABIs are only stored once. When loaded from a result file, the
+ * messages, stack traces, report logs and file paths of tests are not kept, and are read back
+ * from the file in one pass when any of them is first asked for.
+ */
+public class CompactInvocationResult extends InvocationResult {
+
+    private final StringTable mStrings = new StringTable();
+    // The result file holding the deferred details of the tests, or null
+    private final File mResultFile;
+    private boolean mDetailsLoaded = false;
+
+    /**
+     * Creates an empty {@link CompactInvocationResult}.
+     */
+    public CompactInvocationResult() {
+        this(null);
+    }
+
+    /**
+     * Creates a {@link CompactInvocationResult} to load from the given result file, from which
+     * the details of its tests may be deferred.
+     */
+    CompactInvocationResult(File resultFile) {
+        mResultFile = resultFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ModuleResult createModule(String id) {
+        return new CompactModuleResult(id, mStrings, this);
+    }
+
+    /**
+     * Restores the deferred details of every test from the result file, the first time it is
+     * called.
+     */
+    synchronized void loadDeferredDetails() {
+        if (mDetailsLoaded || mResultFile == null) {
+            return;
+        }
+        mDetailsLoaded = true;
+        try {
+            ResultHandler.loadDeferredDetails(mResultFile, getModules());
+        } catch (IOException | XmlPullParserException e) {
+            // The tests keep their results without their details
+            e.printStackTrace();
+        }
+    }
+}
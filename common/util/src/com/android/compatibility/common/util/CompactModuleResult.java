@@ -0,0 +1,650 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ModuleResult} which stores its tests in arrays rather than one object per test.
+ * <p/>
+ * Each test is an index into arrays of its case name, test name and status, with names stored as
+ * ids in a {@link StringTable}. Messages, stack traces, report logs and file paths are rarely
+ * set, so they are kept apart in a table holding only the tests which have them. The details of
+ * tests loaded from a result file can be deferred, in which case they are dropped from the table
+ * and read back from the file when first asked for, see {@link CompactInvocationResult}. The
+ * {@link ICaseResult}s and {@link ITestResult}s returned are views of the arrays; they are
+ * created when asked for and not kept.
+ */
+public class CompactModuleResult extends ModuleResult {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // Stored in place of a null status, other statuses are stored as their ordinal + 1
+    private static final byte NO_STATUS = 0;
+    private static final TestStatus[] STATUSES = TestStatus.values();
+
+    private final StringTable mStrings;
+    // The invocation which loads deferred details, null for a module created on its own
+    private final CompactInvocationResult mInvocation;
+    // Case name -> the indices of the case's tests
+    private final Map<String, CompactCaseResult> mCases = new HashMap<>();
+
+    /* The tests, indexed in the order they were added */
+    private int mTestCount = 0;
+    private int[] mCaseNames = new int[INITIAL_CAPACITY];
+    private int[] mTestNames = new int[INITIAL_CAPACITY];
+    private byte[] mStatuses = new byte[INITIAL_CAPACITY];
+    private final BitSet mRetries = new BitSet();
+
+    /* Open addressing table of (case name, test name) -> index + 1, where 0 is an empty slot */
+    private long[] mIndexKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] mIndexSlots = new int[INITIAL_CAPACITY * 2];
+
+    // Index -> details of the tests which have any
+    private final Map<Integer, Details> mDetails = new HashMap<>();
+    // The tests whose details are still in the result file they were loaded from
+    private final BitSet mDeferred = new BitSet();
+
+    private static class Details {
+        String mMessage;
+        String mStackTrace;
+        ReportLog mReport;
+        String mBugReport;
+        String mLog;
+        String mScreenshot;
+
+        boolean isEmpty() {
+            return mMessage == null && mStackTrace == null && mReport == null
+                    && mBugReport == null && mLog == null && mScreenshot == null;
+        }
+    }
+
+    /**
+     * Creates a {@link CompactModuleResult} for the given id, created with
+     * {@link AbiUtils#createId(String, String)}
+     */
+    public CompactModuleResult(String id) {
+        this(id, new StringTable(), null);
+    }
+
+    /**
+     * Creates a {@link CompactModuleResult} of the given invocation, storing its names in the
+     * given table.
+     */
+    CompactModuleResult(String id, StringTable strings, CompactInvocationResult parent) {
+        super(id, parent);
+        mStrings = strings;
+        mInvocation = parent;
+    }
+
+    /**
+     * Drops the details of a test loaded from its invocation's result file, so that they are only
+     * held in memory once they are asked for.
+     */
+    void deferDetails(ITestResult test) {
+        int index = ((CompactTestResult) test).mIndex;
+        if (mInvocation != null && mDetails.remove(index) != null) {
+            mDeferred.set(index);
+        }
+    }
+
+    /**
+     * @return the test with the given names if its details are deferred, so that they can be
+     * restored, or null.
+     */
+    ITestResult takeDeferredResult(String caseName, String testName) {
+        CompactCaseResult caseResult = mCases.get(caseName);
+        int name = mStrings.find(testName);
+        if (caseResult == null || name == StringTable.NOT_FOUND) {
+            return null;
+        }
+        int index = find(caseResult.mName, name);
+        if (index < 0 || !mDeferred.get(index)) {
+            return null;
+        }
+        mDeferred.clear(index);
+        return new CompactTestResult(caseResult, index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ICaseResult getOrCreateResult(String caseName) {
+        CompactCaseResult result = mCases.get(caseName);
+        if (result == null) {
+            int name = mStrings.intern(caseName);
+            // Key the case by the interned name so the name is only stored once
+            result = new CompactCaseResult(name);
+            mCases.put(mStrings.get(name), result);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ICaseResult getResult(String caseName) {
+        return mCases.get(caseName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<ICaseResult> getResults() {
+        ArrayList<ICaseResult> results = new ArrayList<ICaseResult>(mCases.values());
+        Collections.sort(results);
+        return results;
+    }
+
+    private static byte encode(TestStatus status) {
+        return (status == null) ? NO_STATUS : (byte) (status.ordinal() + 1);
+    }
+
+    private static TestStatus decode(byte value) {
+        return (value == NO_STATUS) ? null : STATUSES[value - 1];
+    }
+
+    private static long key(int caseName, int testName) {
+        return ((long) caseName << 32) | (testName & 0xffffffffL);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return the index of the test, or -1 if there is no such test.
+     */
+    private int find(int caseName, int testName) {
+        long key = key(caseName, testName);
+        int mask = mIndexKeys.length - 1;
+        for (int i = slot(key, mask); mIndexSlots[i] != 0; i = (i + 1) & mask) {
+            if (mIndexKeys[i] == key) {
+                return mIndexSlots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a test with no result, returning its index.
+     */
+    private int add(int caseName, int testName) {
+        if (mTestCount == mCaseNames.length) {
+            int capacity = mTestCount * 2;
+            mCaseNames = Arrays.copyOf(mCaseNames, capacity);
+            mTestNames = Arrays.copyOf(mTestNames, capacity);
+            mStatuses = Arrays.copyOf(mStatuses, capacity);
+        }
+        int index = mTestCount++;
+        mCaseNames[index] = caseName;
+        mTestNames[index] = testName;
+        mStatuses[index] = NO_STATUS;
+        if (mTestCount * 2 > mIndexKeys.length) {
+            rehash(mIndexKeys.length * 2);
+        } else {
+            insert(index);
+        }
+        return index;
+    }
+
+    private void insert(int index) {
+        long key = key(mCaseNames[index], mTestNames[index]);
+        int mask = mIndexKeys.length - 1;
+        int i = slot(key, mask);
+        while (mIndexSlots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        mIndexKeys[i] = key;
+        mIndexSlots[i] = index + 1;
+    }
+
+    private void rehash(int capacity) {
+        mIndexKeys = new long[capacity];
+        mIndexSlots = new int[capacity];
+        for (int i = 0; i < mTestCount; i++) {
+            insert(i);
+        }
+    }
+
+    private Details getDetails(int index) {
+        loadDeferredDetails(index);
+        return mDetails.get(index);
+    }
+
+    private Details getOrCreateDetails(int index) {
+        loadDeferredDetails(index);
+        Details details = mDetails.get(index);
+        if (details == null) {
+            details = new Details();
+            mDetails.put(index, details);
+        }
+        return details;
+    }
+
+    /**
+     * Restores the details of the test if they were deferred, so that they are not lost when the
+     * test is changed. The invocation restores every deferred test in one read of its file.
+     */
+    private void loadDeferredDetails(int index) {
+        if (mDeferred.get(index)) {
+            mInvocation.loadDeferredDetails();
+            // Tests the file no longer has details for keep none
+            mDeferred.clear();
+        }
+    }
+
+    private void removeDetailsIfEmpty(int index) {
+        Details details = mDetails.get(index);
+        if (details != null && details.isEmpty()) {
+            mDetails.remove(index);
+        }
+    }
+
+    /**
+     * A case of the module, holding the indices of its tests.
+     */
+    private class CompactCaseResult implements ICaseResult {
+
+        private final int mName;
+        private int[] mTests = new int[1];
+        private int mCount = 0;
+        private final StatusCounts mCounts = new StatusCounts();
+
+        CompactCaseResult(int name) {
+            mName = name;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return mStrings.get(mName);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ITestResult getOrCreateResult(String testName) {
+            int name = mStrings.intern(testName);
+            int index = find(mName, name);
+            if (index < 0) {
+                index = add(mName, name);
+                if (mCount == mTests.length) {
+                    mTests = Arrays.copyOf(mTests, mCount * 2);
+                }
+                mTests[mCount++] = index;
+                updateCount(null, 1);
+            }
+            return new CompactTestResult(this, index);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ITestResult getResult(String testName) {
+            int name = mStrings.find(testName);
+            if (name == StringTable.NOT_FOUND) {
+                return null;
+            }
+            int index = find(mName, name);
+            return (index < 0) ? null : new CompactTestResult(this, index);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<ITestResult> getResults(TestStatus status) {
+            byte value = encode(status);
+            List<ITestResult> results = new ArrayList<>();
+            for (int i = 0; i < mCount; i++) {
+                if (mStatuses[mTests[i]] == value) {
+                    results.add(new CompactTestResult(this, mTests[i]));
+                }
+            }
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<ITestResult> getResults() {
+            ArrayList<ITestResult> results = new ArrayList<>(mCount);
+            for (int i = 0; i < mCount; i++) {
+                results.add(new CompactTestResult(this, mTests[i]));
+            }
+            Collections.sort(results);
+            return results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int countResults(TestStatus status) {
+            return mCounts.get(status);
+        }
+
+        /**
+         * Adds delta to the number of tests of the case with the given status.
+         */
+        void updateCount(TestStatus status, int delta) {
+            mCounts.add(status, delta);
+            CompactModuleResult.this.updateCount(status, delta);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(ICaseResult another) {
+            return getName().compareTo(another.getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void mergeFrom(ICaseResult otherCaseResult) {
+            if (!otherCaseResult.getName().equals(getName())) {
+                throw new IllegalArgumentException(String.format(
+                    "Cannot merge case result with mismatched name. Expected %s, Found %s",
+                            otherCaseResult.getName(), getName()));
+            }
+
+            for (ITestResult otherTestResult : otherCaseResult.getResults()) {
+                // The other result replaces any result of the same test
+                TestResult.copyResult(otherTestResult,
+                        getOrCreateResult(otherTestResult.getName()));
+            }
+        }
+    }
+
+    /**
+     * A view of the test at an index of the module's arrays.
+     */
+    private class CompactTestResult implements ITestResult {
+
+        private final CompactCaseResult mParent;
+        private final int mIndex;
+
+        CompactTestResult(CompactCaseResult parent, int index) {
+            mParent = parent;
+            mIndex = index;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getName() {
+            return mStrings.get(mTestNames[mIndex]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getFullName() {
+            return String.format("%s#%s", mParent.getName(), getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public TestStatus getResultStatus() {
+            return decode(mStatuses[mIndex]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setResultStatus(TestStatus status) {
+            TestStatus current = getResultStatus();
+            if (status != current) {
+                mParent.updateCount(current, -1);
+                mParent.updateCount(status, 1);
+                mStatuses[mIndex] = encode(status);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getMessage() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mMessage;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setMessage(String message) {
+            getOrCreateDetails(mIndex).mMessage = message;
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getStackTrace() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mStackTrace;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setStackTrace(String stackTrace) {
+            getOrCreateDetails(mIndex).mStackTrace = TestResult.sanitizeStackTrace(stackTrace);
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ReportLog getReportLog() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mReport;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setReportLog(ReportLog report) {
+            getOrCreateDetails(mIndex).mReport = report;
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getBugReport() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mBugReport;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setBugReport(String path) {
+            getOrCreateDetails(mIndex).mBugReport = path;
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getLog() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mLog;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setLog(String path) {
+            getOrCreateDetails(mIndex).mLog = path;
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getScreenshot() {
+            Details details = getDetails(mIndex);
+            return (details == null) ? null : details.mScreenshot;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setScreenshot(String path) {
+            getOrCreateDetails(mIndex).mScreenshot = path;
+            removeDetailsIfEmpty(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void failed(String trace) {
+            setResultStatus(TestStatus.FAIL);
+            int index = trace.indexOf('\n');
+            if (index < 0) {
+                // Trace is a single line, just set the message to be the same as the stacktrace.
+                setMessage(trace);
+            } else {
+                setMessage(trace.substring(0, index));
+            }
+            setStackTrace(trace);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void passed(ReportLog report) {
+            if (getResultStatus() != TestStatus.FAIL) {
+                setResultStatus(TestStatus.PASS);
+                if (report != null) {
+                    setReportLog(report);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void skipped() {
+            // Reported as PASS, as in TestResult
+            setResultStatus(TestStatus.PASS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void reset() {
+            setResultStatus(null);
+            mRetries.clear(mIndex);
+            mDeferred.clear(mIndex);
+            mDetails.remove(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setRetry(boolean isRetry) {
+            mRetries.set(mIndex, isRetry);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isRetry() {
+            return mRetries.get(mIndex);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void removeResult() {
+            setResultStatus(TestStatus.FAIL);
+            setStackTrace("");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(ITestResult another) {
+            return getName().compareTo(another.getName());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CompactTestResult)) {
+                return false;
+            }
+            CompactTestResult other = (CompactTestResult) o;
+            return other.mParent == mParent && other.mIndex == mIndex;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return mIndex;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A helper class for file related operations
@@ -68,4 +69,30 @@ public class FileUtil {
         }
     }
 
+    /**
+     * Replaces the contents of a file with the given string, encoded as UTF-8. The string is
+     * written to a temporary file in the same directory, which is then renamed over the file so
+     * that readers never see the file partially written.
+     *
+     * @param content the new contents of the file
+     * @param destFile the file to replace
+     * @throws IOException if the file could not be written or replaced
+     */
+    public static void writeAtomically(String content, File destFile) throws IOException {
+        File tmp = File.createTempFile(destFile.getName(), ".tmp",
+                destFile.getAbsoluteFile().getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(destFile)) {
+                throw new IOException(String.format("Could not rename %s to %s",
+                        tmp.getAbsolutePath(), destFile.getAbsolutePath()));
+            }
+        } finally {
+            // Only left behind if it could not be renamed
+            tmp.delete();
+        }
+    }
+
 }
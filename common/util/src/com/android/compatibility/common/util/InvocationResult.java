@@ -38,6 +38,7 @@ public class InvocationResult implements IInvocationResult {
     private String mTestPlan;
     private String mCommandLineArgs;
     private int mNotExecuted = 0;
+    private final StatusCounts mCounts = new StatusCounts();
     private RetryChecksumStatus mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
     private File mRetryDirectory = null;
     /**
@@ -55,11 +56,7 @@ public class InvocationResult implements IInvocationResult {
      */
     @Override
     public int countResults(TestStatus result) {
-        int total = 0;
-        for (IModuleResult m : mModuleResults.values()) {
-            total += m.countResults(result);
-        }
-        return total;
+        return mCounts.get(result);
     }
 
     /**
@@ -67,11 +64,21 @@ public class InvocationResult implements IInvocationResult {
      */
     @Override
     public int getNotExecuted() {
-        int numTests = 0;
-        for (IModuleResult module : mModuleResults.values()) {
-            numTests += module.getNotExecuted();
-        }
-        return numTests;
+        return mNotExecuted;
+    }
+
+    /**
+     * Adds delta to the number of tests of the invocation with the given status.
+     */
+    void updateCount(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+    }
+
+    /**
+     * Adds delta to the number of tests of the invocation not executed.
+     */
+    void updateNotExecuted(int delta) {
+        mNotExecuted += delta;
     }
 
     /**
@@ -81,12 +88,20 @@ public class InvocationResult implements IInvocationResult {
     public IModuleResult getOrCreateModule(String id) {
         IModuleResult moduleResult = mModuleResults.get(id);
         if (moduleResult == null) {
-            moduleResult = new ModuleResult(id);
+            moduleResult = createModule(id);
             mModuleResults.put(id, moduleResult);
         }
         return moduleResult;
     }
 
+    /**
+     * Creates the result of the module with the given id, when it is first added. The module
+     * must update the counts of this invocation as its own change.
+     */
+    protected ModuleResult createModule(String id) {
+        return new ModuleResult(id, this);
+    }
+
     /**
      * {@inheritDoc}
      */
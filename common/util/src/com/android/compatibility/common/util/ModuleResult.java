@@ -28,6 +28,8 @@ public class ModuleResult implements IModuleResult {
 
     private String mId;
     private long mRuntime = 0;
+    // The invocation of the module, whose counts are updated with the module's. May be null.
+    private final InvocationResult mParent;
 
     /* Variables related to completion of the module */
     private boolean mDone = false;
@@ -38,13 +40,22 @@ public class ModuleResult implements IModuleResult {
     private int mNotExecuted = 0;
 
     private Map<String, ICaseResult> mResults = new HashMap<>();
+    private final StatusCounts mCounts = new StatusCounts();
 
     /**
      * Creates a {@link ModuleResult} for the given id, created with
      * {@link AbiUtils#createId(String, String)}
      */
     public ModuleResult(String id) {
+        this(id, null);
+    }
+
+    /**
+     * Creates a {@link ModuleResult} of the given invocation.
+     */
+    ModuleResult(String id, InvocationResult parent) {
         mId = id;
+        mParent = parent;
     }
 
     /**
@@ -71,7 +82,7 @@ public class ModuleResult implements IModuleResult {
         mDone = done;
         mHaveSetDone = false;
         if (mDone) {
-            mNotExecuted = 0;
+            updateNotExecuted(0);
         }
     }
 
@@ -87,7 +98,7 @@ public class ModuleResult implements IModuleResult {
         }
         mHaveSetDone = true;
         if (mDone) {
-            mNotExecuted = 0;
+            updateNotExecuted(0);
         }
     }
 
@@ -152,6 +163,13 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public void setNotExecuted(int numTests) {
+        updateNotExecuted(numTests);
+    }
+
+    private void updateNotExecuted(int numTests) {
+        if (mParent != null) {
+            mParent.updateNotExecuted(numTests - mNotExecuted);
+        }
         mNotExecuted = numTests;
     }
 
@@ -202,7 +220,7 @@ public class ModuleResult implements IModuleResult {
     public ICaseResult getOrCreateResult(String caseName) {
         ICaseResult result = mResults.get(caseName);
         if (result == null) {
-            result = new CaseResult(caseName);
+            result = new CaseResult(caseName, this);
             mResults.put(caseName, result);
         }
         return result;
@@ -231,11 +249,17 @@ public class ModuleResult implements IModuleResult {
      */
     @Override
     public int countResults(TestStatus status) {
-        int total = 0;
-        for (ICaseResult result : mResults.values()) {
-            total += result.countResults(status);
+        return mCounts.get(status);
+    }
+
+    /**
+     * Adds delta to the number of tests of the module with the given status.
+     */
+    void updateCount(TestStatus status, int delta) {
+        mCounts.add(status, delta);
+        if (mParent != null) {
+            mParent.updateCount(status, delta);
         }
-        return total;
     }
 
     /**
@@ -258,7 +282,7 @@ public class ModuleResult implements IModuleResult {
         }
 
         this.mRuntime += otherModuleResult.getRuntime();
-        this.mNotExecuted += otherModuleResult.getNotExecuted();
+        updateNotExecuted(mNotExecuted + otherModuleResult.getNotExecuted());
         this.setDone(otherModuleResult.isDoneSoFar());
         this.mActualTestRuns += otherModuleResult.getTestRuns();
         // expected test runs are the same across shards, except for shards that do not run this
@@ -16,7 +16,12 @@
 
 package com.android.compatibility.common.util;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,17 +31,31 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
-/** Builds a multipart form and submits it. */
+/**
+ * Builds a multipart form and submits it.
+ * <p/>
+ * A file payload is gzipped as the form is sent, in chunks, so that it is never held in memory.
+ * If the server refuses the chunked request, the form is gzipped to a temporary file and sent
+ * again with its length. Submitting is retried a bounded number of times, with exponential
+ * backoff, on network errors and server errors.
+ */
 class MultipartForm {
 
     private static final String FORM_DATA_BOUNDARY = "C75I55u3R3p0r73r";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_MS = 1000;
 
     /* package */ final String mServerUrl;
     /* package */ final Map<String, String> mFormValues = new HashMap<String, String>();
     /* package */ String mName;
     /* package */ String mFileName;
     /* package */ byte[] mData;
+    /* package */ File mFile;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
 
     /**
      * Creates a new multi-part form with the given serverUrl.
@@ -69,27 +88,115 @@ class MultipartForm {
         mName = name;
         mFileName = fileName;
         mData = data;
+        mFile = null;
+        return this;
+    }
+
+    /**
+     * Adds the file as the payload of the form, gzipped as the form is submitted.
+     *
+     * @param name The name of attribute
+     * @param fileName The name of the gzipped file
+     * @param file The file to gzip
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    public MultipartForm addGzippedFormFile(String name, String fileName, File file) {
+        mName = name;
+        mFileName = fileName;
+        mData = null;
+        mFile = file;
+        return this;
+    }
+
+    /**
+     * Sets how many times submitting is attempted, and how long to wait before the first retry.
+     * The wait doubles for each retry.
+     *
+     * @return the {@link MultipartForm} for easy chaining.
+     */
+    /* package */ MultipartForm setRetryPolicy(int maxAttempts, long initialBackoffMs) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mInitialBackoffMs = initialBackoffMs;
         return this;
     }
 
     /**
      * Submits the form to the server url.
      *
-     * This will handle a redirection from the server.
+     * This will handle a redirection from the server, and retry on network and server errors.
      *
      * @return response code
      * @throws IOException
      */
     public int submit() throws IOException {
-        return submitForm(mServerUrl);
+        try {
+            return submitWithRetries(null);
+        } catch (ResponseException e) {
+            if (mFile == null || !isChunkedRefused(e.mResponse)) {
+                throw e;
+            }
+        }
+        // The server refused the chunked request, which not all servers accept
+        File body = File.createTempFile("form", ".tmp");
+        try {
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(body),
+                    CHUNK_SIZE)) {
+                writeContentBody(output);
+            }
+            return submitWithRetries(body);
+        } finally {
+            body.delete();
+        }
+    }
+
+    /**
+     * @return whether the response code is one given by servers which do not accept a request
+     * without a length.
+     */
+    private static boolean isChunkedRefused(int response) {
+        return response == HttpURLConnection.HTTP_LENGTH_REQUIRED
+                || response == HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+
+    /**
+     * Submits the form, retrying on network and server errors.
+     *
+     * @param body the file holding the body of the form to send with its length, or null
+     * @return response code
+     * @throws IOException
+     */
+    private int submitWithRetries(File body) throws IOException {
+        long backoffMs = mInitialBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return submitForm(mServerUrl, body);
+            } catch (ResponseException e) {
+                // The request itself was refused, sending it again will not help
+                if (e.mResponse < 500 || attempt >= mMaxAttempts) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying to submit form", e);
+            }
+            backoffMs *= 2;
+        }
     }
 
     /**
      * @param serverUrl to post the data to
+     * @param bodyFile the file holding the body of the form to send with its length, or null
      * @return response code
      * @throws IOException
      */
-    private int submitForm(String serverUrl) throws IOException {
+    private int submitForm(String serverUrl, File bodyFile) throws IOException {
         HttpURLConnection connection = null;
         try {
             URL url = new URL(serverUrl);
@@ -100,23 +207,41 @@ class MultipartForm {
             connection.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + FORM_DATA_BOUNDARY);
 
-            byte[] body = getContentBody();
-            connection.setRequestProperty("Content-Length", Integer.toString(body.length));
+            byte[] body = null;
+            if (bodyFile != null) {
+                connection.setFixedLengthStreamingMode(bodyFile.length());
+            } else if (mFile == null) {
+                body = getContentBody();
+                connection.setFixedLengthStreamingMode(body.length);
+            } else {
+                // The length of the gzipped file is not known until it has been sent
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+            }
 
-            OutputStream output = connection.getOutputStream();
+            OutputStream output = new BufferedOutputStream(connection.getOutputStream(),
+                    CHUNK_SIZE);
             try {
-                output.write(body);
+                if (bodyFile != null) {
+                    copy(bodyFile, output);
+                } else if (body != null) {
+                    output.write(body);
+                } else {
+                    writeContentBody(output);
+                }
             } finally {
                 output.close();
             }
 
+            int response = connection.getResponseCode();
+            if (response >= 400) {
+                throw new ResponseException(response, serverUrl);
+            }
             // Open the stream to get a response. Otherwise request will be cancelled.
             InputStream input = connection.getInputStream();
             input.close();
 
-            int response = connection.getResponseCode();
             if (response == 302) {
-                return submitForm(connection.getHeaderField("Location"));
+                return submitForm(connection.getHeaderField("Location"), bodyFile);
             }
             return response;
         } finally {
@@ -128,23 +253,66 @@ class MultipartForm {
 
     /* package */ byte[] getContentBody() throws IOException {
         ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(new OutputStreamWriter(byteOutput));
+        writeContentBody(byteOutput);
+        return byteOutput.toByteArray();
+    }
+
+    /**
+     * Writes the body of the form to the output, without closing it.
+     */
+    /* package */ void writeContentBody(OutputStream output) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
         writer.println();
 
         for (Map.Entry<String, String> formValue : mFormValues.entrySet()) {
             writeFormField(writer, formValue.getKey(), formValue.getValue());
         }
 
-        if (mData != null) {
+        if (mData != null || mFile != null) {
             writeFormFileHeader(writer, mName, mFileName);
             writer.flush(); // Must flush here before writing to the byte stream!
-            byteOutput.write(mData);
+            if (mData != null) {
+                output.write(mData);
+            } else {
+                writeGzipped(mFile, output);
+            }
             writer.println();
         }
         writer.append("--").append(FORM_DATA_BOUNDARY).println("--");
         writer.flush();
-        writer.close();
-        return byteOutput.toByteArray();
+    }
+
+    private static void copy(File file, OutputStream output) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+        }
+    }
+
+    private static void writeGzipped(File file, OutputStream output) throws IOException {
+        // Closing the gzip stream frees its deflater, but must leave the output open
+        OutputStream unclosable = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (InputStream input = new FileInputStream(file);
+                GZIPOutputStream gzipOutput = new GZIPOutputStream(unclosable, CHUNK_SIZE)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                gzipOutput.write(buffer, 0, count);
+            }
+        }
     }
 
     private void writeFormField(PrintWriter writer, String name, String value) {
@@ -162,4 +330,19 @@ class MultipartForm {
         writer.println("Content-Transfer-Encoding: binary");
         writer.println();
     }
+
+    /**
+     * The server responded with an error.
+     */
+    private static class ResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mResponse;
+
+        ResponseException(int response, String serverUrl) {
+            super(String.format("Server returned HTTP response code: %d for URL: %s", response,
+                    serverUrl));
+            mResponse = response;
+        }
+    }
 }
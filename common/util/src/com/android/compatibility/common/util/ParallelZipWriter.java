@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Creates a zip file of a directory, compressing its files on several threads.
+ * <p/>
+ * Files of types which are already compressed, such as zips and PNG screenshots, are stored as
+ * they are. Other files are deflated by a pool of threads, a few files ahead of the file being
+ * written, and written to the zip in directory order, so the zip is the same whatever the number
+ * of threads. Large files are deflated to a temporary file rather than in memory, and files which
+ * do not get smaller are stored.
+ * <p/>
+ * The zip format is written here rather than with {@link java.util.zip.ZipOutputStream}, which
+ * can only deflate on the thread writing the zip. Zips and files over 4GB use the Zip64
+ * extensions.
+ */
+public class ParallelZipWriter {
+
+    /* Extensions of files which are already compressed */
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "apk", "bz2", "gz", "jar", "jpeg", "jpg", "png", "tgz", "xz", "zip"));
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // Entry names are UTF-8
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int DIRECTORY_ATTR = 0x10;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    // Sizes, offsets and counts this large are given in the Zip64 fields instead
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    // Files larger than this are deflated to a temporary file
+    private static final long IN_MEMORY_LIMIT = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Time given to the files being deflated to finish when creating the zip fails
+    private static final long TERMINATION_TIMEOUT_S = 10;
+
+    /**
+     * Creates a zip file containing the given directory and all its contents, using a thread
+     * per processor.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(File dir, File zipFile) throws IOException {
+        createZip(dir, zipFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a zip file containing the given directory and all its contents.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip file to create - it should not already exist
+     * @param threads the number of threads compressing files
+     * @throws IOException if failed to create zip file
+     */
+    public static void createZip(File dir, File zipFile, int threads) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        listEntries(dir, dir.getName(), entries);
+        threads = Math.max(1, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ParallelZipWriter");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<Entry>> pending = new ArrayDeque<>();
+        try (ZipOutput out = new ZipOutput(zipFile)) {
+            int next = 0;
+            while (next < entries.size() || !pending.isEmpty()) {
+                // Keep a few files ahead of the writer, bounding the memory held
+                while (next < entries.size() && pending.size() < 2 * threads) {
+                    final Entry entry = entries.get(next++);
+                    pending.add(executor.submit(() -> {
+                        entry.prepare();
+                        return entry;
+                    }));
+                }
+                Entry entry = get(pending.remove());
+                try {
+                    out.writeEntry(entry);
+                } finally {
+                    entry.discard();
+                }
+            }
+            out.writeCentralDirectory(entries);
+        } catch (IOException | RuntimeException e) {
+            zipFile.delete();
+            throw e;
+        } finally {
+            // On failure, files queued or being deflated are not needed any more. Queued files
+            // are never prepared once the executor is shut down, so their futures are cancelled
+            // rather than waited for.
+            for (Future<Entry> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            if (!pending.isEmpty()) {
+                try {
+                    // Let the files being deflated finish, so their data can be discarded
+                    executor.awaitTermination(TERMINATION_TIMEOUT_S, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (Entry entry : entries) {
+                    entry.discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the file is of a type which is already compressed.
+     */
+    static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0
+                && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /**
+     * Adds entries for the given file and, if it is a directory, its contents, in the order they
+     * will be written.
+     */
+    private static void listEntries(File file, String name, List<Entry> entries)
+            throws IOException {
+        if (!file.isDirectory()) {
+            entries.add(new Entry(file, name));
+            return;
+        }
+        // note: it appears even on windows, ZipEntry expects '/' as a path separator
+        name += "/";
+        entries.add(new Entry(file, name));
+        File[] subFiles = file.listFiles();
+        if (subFiles == null) {
+            throw new IOException(String.format("Could not read directory %s",
+                    file.getAbsolutePath()));
+        }
+        // Sorted so the zip does not depend on the order the file system lists files in
+        Arrays.sort(subFiles);
+        for (File subFile : subFiles) {
+            listEntries(subFile, name + subFile.getName(), entries);
+        }
+    }
+
+    private static Entry get(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating zip", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A file of the zip. Prepared on a pool thread, which computes its checksum and deflates it,
+     * then written on the thread creating the zip.
+     */
+    private static class Entry {
+        private final File mFile;
+        private final String mName;
+        private final boolean mIsDirectory;
+        private int mMethod = STORED;
+        private long mCrc = 0;
+        private long mSize = 0;
+        private long mCompressedSize = 0;
+        private long mOffset = 0;
+        // The deflated file, in memory or in a temporary file. Stored files are copied as is.
+        private byte[] mData = null;
+        private File mTempFile = null;
+
+        Entry(File file, String name) {
+            mFile = file;
+            mName = name;
+            mIsDirectory = name.endsWith("/");
+        }
+
+        void prepare() throws IOException {
+            if (mIsDirectory) {
+                return;
+            }
+            if (isCompressed(mName)) {
+                CRC32 crc = new CRC32();
+                mSize = copy(mFile, null, crc);
+                mCompressedSize = mSize;
+                mCrc = crc.getValue();
+                return;
+            }
+            ByteArrayOutputStream memory = null;
+            OutputStream deflated;
+            if (mFile.length() <= IN_MEMORY_LIMIT) {
+                memory = new ByteArrayOutputStream();
+                deflated = memory;
+            } else {
+                mTempFile = File.createTempFile("zip", ".deflated");
+                deflated = new BufferedOutputStream(new FileOutputStream(mTempFile));
+            }
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            CRC32 crc = new CRC32();
+            try (DeflaterOutputStream out =
+                    new DeflaterOutputStream(deflated, deflater, BUFFER_SIZE)) {
+                mSize = copy(mFile, out, crc);
+                out.finish();
+                mCompressedSize = deflater.getBytesWritten();
+            } catch (IOException | RuntimeException e) {
+                discard();
+                throw e;
+            } finally {
+                deflater.end();
+            }
+            mCrc = crc.getValue();
+            if (mCompressedSize >= mSize) {
+                // Not worth deflating
+                discard();
+                mCompressedSize = mSize;
+                return;
+            }
+            mMethod = DEFLATED;
+            if (memory != null) {
+                mData = memory.toByteArray();
+            }
+        }
+
+        /**
+         * Writes the data of the entry, as prepared.
+         */
+        void writeData(OutputStream out) throws IOException {
+            if (mIsDirectory) {
+                return;
+            }
+            long written;
+            if (mData != null) {
+                out.write(mData);
+                written = mData.length;
+            } else if (mTempFile != null) {
+                written = copy(mTempFile, out, null);
+            } else {
+                written = copy(mFile, out, null);
+            }
+            if (written != mCompressedSize) {
+                throw new IOException(String.format("%s changed while being zipped",
+                        mFile.getAbsolutePath()));
+            }
+        }
+
+        /**
+         * Frees the deflated data once written.
+         */
+        void discard() {
+            mData = null;
+            if (mTempFile != null) {
+                mTempFile.delete();
+                mTempFile = null;
+            }
+        }
+    }
+
+    /**
+     * Copies a file to the output, if any, updating the checksum, if any.
+     *
+     * @return the number of bytes copied.
+     */
+    private static long copy(File file, OutputStream out, CRC32 crc) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (crc != null) {
+                    crc.update(buffer, 0, n);
+                }
+                if (out != null) {
+                    out.write(buffer, 0, n);
+                }
+                size += n;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the records of the zip format, keeping count of the position in the zip.
+     */
+    private static class ZipOutput implements AutoCloseable {
+        private final OutputStream mOut;
+        private long mPosition = 0;
+
+        ZipOutput(File zipFile) throws IOException {
+            mOut = new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE);
+        }
+
+        void writeEntry(Entry entry) throws IOException {
+            entry.mOffset = mPosition;
+            boolean zip64 = entry.mSize >= ZIP64_MAGIC || entry.mCompressedSize >= ZIP64_MAGIC;
+            byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+            writeInt(LOCAL_HEADER_SIG);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+            writeShort(FLAG_UTF8);
+            writeShort(entry.mMethod);
+            writeInt(dosTime(entry.mFile.lastModified()));
+            writeInt(entry.mCrc);
+            writeInt(zip64 ? ZIP64_MAGIC : entry.mCompressedSize);
+            writeInt(zip64 ? ZIP64_MAGIC : entry.mSize);
+            writeShort(name.length);
+            writeShort(zip64 ? 4 + 16 : 0);
+            write(name);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(16);
+                writeLong(entry.mSize);
+                writeLong(entry.mCompressedSize);
+            }
+            entry.writeData(mOut);
+            mPosition += entry.mCompressedSize;
+        }
+
+        void writeCentralDirectory(List<Entry> entries) throws IOException {
+            long start = mPosition;
+            for (Entry entry : entries) {
+                writeCentralHeader(entry);
+            }
+            long size = mPosition - start;
+            long count = entries.size();
+            if (count >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+                long zip64End = mPosition;
+                writeInt(ZIP64_END_SIG);
+                // Size of the rest of the record
+                writeLong(44);
+                writeShort(VERSION_ZIP64);
+                writeShort(VERSION_ZIP64);
+                writeInt(0);
+                writeInt(0);
+                writeLong(count);
+                writeLong(count);
+                writeLong(size);
+                writeLong(start);
+                writeInt(ZIP64_LOCATOR_SIG);
+                writeInt(0);
+                writeLong(zip64End);
+                writeInt(1);
+            }
+            writeInt(END_SIG);
+            writeShort(0);
+            writeShort(0);
+            writeShort((int) Math.min(count, ZIP64_MAGIC_COUNT));
+            writeShort((int) Math.min(count, ZIP64_MAGIC_COUNT));
+            writeInt(Math.min(size, ZIP64_MAGIC));
+            writeInt(Math.min(start, ZIP64_MAGIC));
+            writeShort(0);
+        }
+
+        private void writeCentralHeader(Entry entry) throws IOException {
+            // Only the fields which do not fit are given in the Zip64 extra field, in this order
+            List<Long> zip64Fields = new ArrayList<>();
+            if (entry.mSize >= ZIP64_MAGIC) {
+                zip64Fields.add(entry.mSize);
+            }
+            if (entry.mCompressedSize >= ZIP64_MAGIC) {
+                zip64Fields.add(entry.mCompressedSize);
+            }
+            if (entry.mOffset >= ZIP64_MAGIC) {
+                zip64Fields.add(entry.mOffset);
+            }
+            boolean zip64 = !zip64Fields.isEmpty();
+            byte[] name = entry.mName.getBytes(StandardCharsets.UTF_8);
+            writeInt(CENTRAL_HEADER_SIG);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+            writeShort(FLAG_UTF8);
+            writeShort(entry.mMethod);
+            writeInt(dosTime(entry.mFile.lastModified()));
+            writeInt(entry.mCrc);
+            writeInt(Math.min(entry.mCompressedSize, ZIP64_MAGIC));
+            writeInt(Math.min(entry.mSize, ZIP64_MAGIC));
+            writeShort(name.length);
+            writeShort(zip64 ? 4 + 8 * zip64Fields.size() : 0);
+            // Comment length, disk number and internal attributes
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(entry.mIsDirectory ? DIRECTORY_ATTR : 0);
+            writeInt(Math.min(entry.mOffset, ZIP64_MAGIC));
+            write(name);
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(8 * zip64Fields.size());
+                for (long field : zip64Fields) {
+                    writeLong(field);
+                }
+            }
+        }
+
+        /**
+         * @return the time in the MS-DOS format of zip headers.
+         */
+        private static long dosTime(long time) {
+            Calendar c = Calendar.getInstance();
+            c.setTimeInMillis(time);
+            int year = c.get(Calendar.YEAR);
+            if (year < 1980) {
+                // The earliest time which can be given
+                return (1 << 21) | (1 << 16);
+            }
+            return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+                    | (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                    | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            mOut.write(bytes);
+            mPosition += bytes.length;
+        }
+
+        private void writeShort(int value) throws IOException {
+            mOut.write(value & 0xff);
+            mOut.write((value >>> 8) & 0xff);
+            mPosition += 2;
+        }
+
+        private void writeInt(long value) throws IOException {
+            writeShort((int) (value & 0xffff));
+            writeShort((int) ((value >>> 16) & 0xffff));
+        }
+
+        private void writeLong(long value) throws IOException {
+            writeInt(value & ZIP64_MAGIC);
+            writeInt(value >>> 32);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Estimates quantiles of a stream of values in constant memory.
+ * <p/>
+ * Values are counted in buckets whose bounds grow geometrically, so that any quantile is
+ * estimated to within a relative error of the value, whatever the distribution of the values.
+ * Sketches of different streams can be merged, giving the same sketch as if all the values had
+ * been added to one. Memory is bounded by a maximum number of buckets per sign; if the values
+ * span more than that, the buckets of the values nearest zero are merged, losing accuracy only
+ * for those values.
+ */
+public class QuantileSketch {
+
+    /* Relative error of the quantiles with the default accuracy */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    // Enough buckets for values from 1e-9 to 1e9 at the default accuracy
+    private static final int MAX_BUCKETS = 2048;
+
+    private final double mRelativeAccuracy;
+    private final double mLogGamma;
+    private final double mGamma;
+    private final Buckets mPositive = new Buckets();
+    private final Buckets mNegative = new Buckets();
+    private long mZeroCount = 0;
+    private long mCount = 0;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    /**
+     * Creates a sketch with the default relative accuracy.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy the relative error of the quantiles, between 0 and 1 exclusive.
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1");
+        }
+        mRelativeAccuracy = relativeAccuracy;
+        mGamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        mLogGamma = Math.log(mGamma);
+    }
+
+    /**
+     * Adds a value to the sketch. NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value >= Double.MIN_NORMAL) {
+            mPositive.add(index(value), 1);
+        } else if (value <= -Double.MIN_NORMAL) {
+            mNegative.add(index(-value), 1);
+        } else {
+            mZeroCount++;
+        }
+        if (mCount == 0 || value < mMin) {
+            mMin = value;
+        }
+        if (mCount == 0 || value > mMax) {
+            mMax = value;
+        }
+        mCount++;
+    }
+
+    /**
+     * Adds the values of another sketch with the same accuracy to this sketch.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.mRelativeAccuracy != mRelativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches of different accuracy");
+        }
+        if (other.mCount == 0) {
+            return;
+        }
+        mPositive.addAll(other.mPositive);
+        mNegative.addAll(other.mNegative);
+        mZeroCount += other.mZeroCount;
+        mMin = (mCount == 0) ? other.mMin : Math.min(mMin, other.mMin);
+        mMax = (mCount == 0) ? other.mMax : Math.max(mMax, other.mMax);
+        mCount += other.mCount;
+    }
+
+    /**
+     * @return the number of values added.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the estimated value at the given quantile, between 0 and 1 inclusive, or NaN if
+     * no value was added.
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (mCount - 1));
+        // The exact extremes are known
+        if (rank == 0) {
+            return mMin;
+        } else if (rank == mCount - 1) {
+            return mMax;
+        }
+        double value;
+        if (rank < mNegative.mTotal) {
+            // The most negative values are in the highest buckets
+            value = -value(mNegative.indexAtRank(mNegative.mTotal - 1 - rank));
+        } else if (rank < mNegative.mTotal + mZeroCount) {
+            value = 0;
+        } else {
+            value = value(mPositive.indexAtRank(rank - mNegative.mTotal - mZeroCount));
+        }
+        return Math.max(mMin, Math.min(mMax, value));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / mLogGamma);
+    }
+
+    /**
+     * @return the value representing the bucket, within the relative accuracy of its values.
+     */
+    private double value(int index) {
+        return 2 * Math.pow(mGamma, index) / (mGamma + 1);
+    }
+
+    /**
+     * Counts of the values in a contiguous range of buckets.
+     */
+    private static class Buckets {
+        private long[] mCounts = new long[0];
+        // Index of the bucket counted by mCounts[0]
+        private int mOffset = 0;
+        private long mTotal = 0;
+
+        void add(int index, long count) {
+            if (mCounts.length == 0) {
+                mCounts = new long[16];
+                mOffset = index - mCounts.length / 2;
+            }
+            if (index < mOffset || index >= mOffset + mCounts.length) {
+                resize(Math.min(index, mOffset), Math.max(index, mOffset + mCounts.length - 1));
+                // Below the buckets kept, if the lowest were merged
+                index = Math.max(index, mOffset);
+            }
+            mCounts[index - mOffset] += count;
+            mTotal += count;
+        }
+
+        void addAll(Buckets other) {
+            for (int i = 0; i < other.mCounts.length; i++) {
+                if (other.mCounts[i] != 0) {
+                    add(other.mOffset + i, other.mCounts[i]);
+                }
+            }
+        }
+
+        /**
+         * @return the index of the bucket holding the value of the given rank, from lowest.
+         */
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen > rank) {
+                    return mOffset + i;
+                }
+            }
+            return mOffset + mCounts.length - 1;
+        }
+
+        /**
+         * Grows the buckets to hold the given range of indices. If the range has more than
+         * {@link #MAX_BUCKETS}, the lowest buckets are merged into the lowest kept.
+         */
+        private void resize(int lowest, int highest) {
+            lowest = Math.max(lowest, highest - MAX_BUCKETS + 1);
+            // Grow by at least half, so that adding values in order is amortized
+            int length = Math.min(MAX_BUCKETS, Math.max(highest - lowest + 1,
+                    mCounts.length + mCounts.length / 2));
+            // Leave the room on the side the buckets grew
+            int offset = (lowest < mOffset) ? highest - length + 1 : lowest;
+            long[] counts = new long[length];
+            for (int i = 0; i < mCounts.length; i++) {
+                counts[Math.max(mOffset + i, offset) - offset] += mCounts[i];
+            }
+            mCounts = counts;
+            mOffset = offset;
+        }
+    }
+}
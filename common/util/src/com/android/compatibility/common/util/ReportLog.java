@@ -16,6 +16,8 @@
 
 package com.android.compatibility.common.util;
 
+import com.google.common.io.BaseEncoding;
+
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -25,6 +27,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,6 +53,10 @@ public class ReportLog implements Serializable {
     private static final String VALUE_TAG = "Value";
     private static final String DEFAULT_NAME = "default";
 
+    // Compact encoding constants. The prefix cannot start an XML document.
+    private static final String COMPACT_PREFIX = "RLB:";
+    private static final byte COMPACT_VERSION = 1;
+
     protected Metric mSummary;
     protected String mReportLogName;
     protected String mStreamName;
@@ -271,6 +281,23 @@ public class ReportLog implements Serializable {
         // Do nothing. Subclasses may implement using InfoStore to write metrics to files.
     }
 
+    /**
+     * Adds the statistics of a stream of values to the report, as the count, mean, standard
+     * deviation, min, max, and 50th, 90th and 99th percentiles of the values. Unlike an array of
+     * values, any number of values can be reported this way.
+     */
+    public void addValues(String message, StatAccumulator stats, ResultType type,
+            ResultUnit unit) {
+        addValue(message + " count", stats.getCount(), ResultType.NEUTRAL, ResultUnit.COUNT);
+        addValue(message + " mean", stats.getMean(), type, unit);
+        addValue(message + " stddev", stats.getStddev(), ResultType.NEUTRAL, unit);
+        addValue(message + " min", stats.getMin(), type, unit);
+        addValue(message + " max", stats.getMax(), type, unit);
+        addValue(message + " p50", stats.getQuantile(0.5), type, unit);
+        addValue(message + " p90", stats.getQuantile(0.9), type, unit);
+        addValue(message + " p99", stats.getQuantile(0.99), type, unit);
+    }
+
     /**
      * @param elem
      */
@@ -332,7 +359,50 @@ public class ReportLog implements Serializable {
     }
 
     /**
-     * Parses a {@link ReportLog} from the given string.
+     * Serializes a given {@link ReportLog} to a compact String, which {@link #parse(String)}
+     * accepts as well as XML. The values are base64 encoded little-endian doubles rather than
+     * formatted text, so the String is quicker to create and parse than
+     * {@link #serialize(ReportLog)}, and much smaller for metrics with many values.
+     * <p/>
+     * The encoding is "RLB:" followed by the base64 of a version byte, a byte which is 1 if
+     * there is a summary, then the summary's source, message, score type and score unit as
+     * length-prefixed UTF-8, the number of values and the values.
+     */
+    public static String serializeCompact(ReportLog reportLog) {
+        if (reportLog == null) {
+            throw new IllegalArgumentException("Metrics reports was null");
+        }
+        Metric summary = reportLog.getSummary();
+        if (summary == null) {
+            return COMPACT_PREFIX + BaseEncoding.base64().encode(
+                    new byte[] {COMPACT_VERSION, 0});
+        }
+        byte[][] strings = {
+            summary.getSource().getBytes(StandardCharsets.UTF_8),
+            summary.getMessage().getBytes(StandardCharsets.UTF_8),
+            summary.getType().toReportString().getBytes(StandardCharsets.UTF_8),
+            summary.getUnit().toReportString().getBytes(StandardCharsets.UTF_8)
+        };
+        double[] values = summary.getValues();
+        int size = 2 + Integer.BYTES + values.length * Double.BYTES;
+        for (byte[] string : strings) {
+            size += Integer.BYTES + string.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(COMPACT_VERSION);
+        buffer.put((byte) 1);
+        for (byte[] string : strings) {
+            buffer.putInt(string.length);
+            buffer.put(string);
+        }
+        buffer.putInt(values.length);
+        buffer.asDoubleBuffer().put(values);
+        return COMPACT_PREFIX + BaseEncoding.base64().encode(buffer.array());
+    }
+
+    /**
+     * Parses a {@link ReportLog} from the given string, either XML or as created by
+     * {@link #serializeCompact(ReportLog)}.
      * @throws XmlPullParserException
      * @throws IOException
      */
@@ -340,6 +410,9 @@ public class ReportLog implements Serializable {
         if (result == null){
             throw new IllegalArgumentException("Metrics string was null");
         }
+        if (result.startsWith(COMPACT_PREFIX)) {
+            return parseCompact(result.substring(COMPACT_PREFIX.length()));
+        }
         if (result.trim().isEmpty()) {
             // Empty report.
             return new ReportLog();
@@ -371,4 +444,49 @@ public class ReportLog implements Serializable {
         parser.require(XmlPullParser.END_TAG, null, SUMMARY_TAG);
         return report;
     }
+
+    private static ReportLog parseCompact(String encoded) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = BaseEncoding.base64().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compact report", e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte version = buffer.get();
+            if (version != COMPACT_VERSION) {
+                throw new IOException("Unsupported compact report version " + version);
+            }
+            ReportLog report = new ReportLog();
+            if (buffer.get() == 0) {
+                return report;
+            }
+            String source = getString(buffer);
+            String message = getString(buffer);
+            ResultType type = ResultType.parseReportString(getString(buffer));
+            ResultUnit unit = ResultUnit.parseReportString(getString(buffer));
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / Double.BYTES) {
+                throw new IOException("Invalid number of values " + count);
+            }
+            double[] values = new double[count];
+            buffer.asDoubleBuffer().get(values);
+            report.setSummary(new Metric(source, message, values, type, unit));
+            return report;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated compact report", e);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        String string = new String(buffer.array(), buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
 }
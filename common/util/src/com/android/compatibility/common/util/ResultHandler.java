@@ -24,6 +24,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -31,17 +32,35 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -59,7 +78,8 @@ public class ResultHandler {
     private static final String NS = null;
     private static final String RESULT_FILE_VERSION = "5.0";
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
-    private static final String FAILURE_REPORT_NAME = "test_result_failures.html";
+    public static final String SESSION_INDEX_FILE_NAME = "session_index";
+    public static final String FAILURE_REPORT_NAME = "test_result_failures.html";
     private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
 
     public static final String[] RESULT_RESOURCES = {
@@ -105,6 +125,7 @@ public class ResultHandler {
     private static final String RESULT_TAG = "Result";
     private static final String RUNTIME_ATTR = "runtime";
     private static final String SCREENSHOT_TAG = "Screenshot";
+    private static final String SESSION = "SESSION";
     private static final String STACK_TAG = "StackTrace";
     private static final String START_DISPLAY_TIME_ATTR = "start_display";
     private static final String START_TIME_ATTR = "start";
@@ -115,6 +136,14 @@ public class ResultHandler {
     private static final String SUMMARY_TAG = "Summary";
     private static final String TEST_TAG = "Test";
 
+    // Sessions are parsed on up to one thread per processor
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    // Sessions parsed ahead of the one being consumed, bounding the sessions held in memory
+    private static final int PARSE_AHEAD = 2 * PARSE_THREADS;
+
+    // Creating a factory looks up the parser implementation, so each thread reuses its own
+    private static final ThreadLocal<XmlPullParserFactory> sParserFactory = new ThreadLocal<>();
+
     /**
      * @param resultsDir
      */
@@ -128,143 +157,304 @@ public class ResultHandler {
      */
     public static List<IInvocationResult> getResults(
             File resultsDir, Boolean useChecksum) {
-        List<IInvocationResult> results = new ArrayList<>();
-        List<File> files = getResultDirectories(resultsDir);
-        for (File resultDir : files) {
-            if (!resultDir.isDirectory()) {
-                continue;
+        final List<IInvocationResult> results = new ArrayList<>();
+        forEachResult(resultsDir, useChecksum, new Consumer<IInvocationResult>() {
+            @Override
+            public void accept(IInvocationResult invocation) {
+                results.add(invocation);
             }
-            try {
-                File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-                if (!resultFile.exists()) {
-                    continue;
+        });
+        // Sort the table entries on each entry's timestamp.
+        Collections.sort(results, new Comparator<IInvocationResult>() {
+            public int compare(IInvocationResult result1, IInvocationResult result2) {
+                return Long.compare(result1.getStartTime(), result2.getStartTime());
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Parse the results of every session in the results directory, passing each to the consumer
+     * in turn, so that only a few sessions are held in memory at once. Sessions are parsed in
+     * parallel, but passed to the consumer on the calling thread in the order of their result
+     * directories.
+     *
+     * @param resultsDir the root test result directory
+     * @param useChecksum whether to drop results which do not match each session's checksums
+     * @param consumer called with the results of each session which could be read
+     */
+    public static void forEachResult(File resultsDir, final Boolean useChecksum,
+            Consumer<IInvocationResult> consumer) {
+        List<File> resultDirs = getResultDirectories(resultsDir);
+        if (resultDirs.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(PARSE_THREADS, resultDirs.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ResultHandler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            Deque<Future<IInvocationResult>> pending = new ArrayDeque<>();
+            Iterator<File> toParse = resultDirs.iterator();
+            while (toParse.hasNext() || !pending.isEmpty()) {
+                while (toParse.hasNext() && pending.size() < PARSE_AHEAD) {
+                    final File resultDir = toParse.next();
+                    pending.add(executor.submit(new Callable<IInvocationResult>() {
+                        @Override
+                        public IInvocationResult call() {
+                            return getResultFromDir(resultDir, useChecksum);
+                        }
+                    }));
                 }
-                Boolean invocationUseChecksum = useChecksum;
-                IInvocationResult invocation = new InvocationResult();
-                invocation.setRetryDirectory(resultDir);
-                ChecksumReporter checksumReporter = null;
-                if (invocationUseChecksum) {
-                    try {
-                        checksumReporter = ChecksumReporter.load(resultDir);
-                        invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
-                    } catch (ChecksumValidationException e) {
-                        // Unable to read checksum form previous execution
-                        invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithoutChecksum);
-                        invocationUseChecksum = false;
-                    }
+                IInvocationResult invocation = pending.remove().get();
+                if (invocation != null) {
+                    consumer.accept(invocation);
                 }
-                XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-                XmlPullParser parser = factory.newPullParser();
-                parser.setInput(new FileReader(resultFile));
-
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
-                invocation.setStartTime(Long.valueOf(
-                        parser.getAttributeValue(NS, START_TIME_ATTR)));
-                invocation.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
-                invocation.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
-                String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
-                for (String device : deviceList.split(",")) {
-                    invocation.addDeviceSerial(device);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the IInvocationResult of a single result directory. The results of a session which
+     * was killed before writing its test_result.xml are rebuilt from its {@link ResultJournal}.
+     *
+     * @param resultDir the directory of a session, containing its test_result.xml
+     * @param useChecksum whether to drop results which do not match the session's checksums
+     * @return the result, or null if the directory has no readable result
+     */
+    public static IInvocationResult getResultFromDir(File resultDir, Boolean useChecksum) {
+        return getResultFromDir(resultDir, useChecksum, false);
+    }
+
+    /**
+     * Load the IInvocationResult of a single result directory, optionally as a
+     * {@link CompactInvocationResult} whose test details are only read from the result file when
+     * first asked for. Results rebuilt from a {@link ResultJournal} are never compact.
+     *
+     * @param resultDir the directory of a session, containing its test_result.xml
+     * @param useChecksum whether to drop results which do not match the session's checksums
+     * @param compact whether to load the results as a {@link CompactInvocationResult}
+     * @return the result, or null if the directory has no readable result
+     */
+    public static IInvocationResult getResultFromDir(File resultDir, Boolean useChecksum,
+            boolean compact) {
+        if (!resultDir.isDirectory()) {
+            return null;
+        }
+        try {
+            File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+            if (!resultFile.exists()) {
+                return getResultFromJournal(resultDir);
+            }
+            Boolean invocationUseChecksum = useChecksum;
+            IInvocationResult invocation = compact
+                    ? new CompactInvocationResult(resultFile) : new InvocationResult();
+            invocation.setRetryDirectory(resultDir);
+            ChecksumReporter checksumReporter = null;
+            if (invocationUseChecksum) {
+                try {
+                    checksumReporter = ChecksumReporter.load(resultDir);
+                    invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithChecksum);
+                } catch (ChecksumValidationException e) {
+                    // Unable to read checksum form previous execution
+                    invocation.setRetryChecksumStatus(RetryChecksumStatus.RetryWithoutChecksum);
+                    invocationUseChecksum = false;
                 }
+            }
+            XmlPullParser parser = newPullParser();
+            parser.setInput(new FileReader(resultFile));
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            invocation.setStartTime(Long.valueOf(
+                    parser.getAttributeValue(NS, START_TIME_ATTR)));
+            invocation.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
+            invocation.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+            String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
+            for (String device : deviceList.split(",")) {
+                invocation.addDeviceSerial(device);
+            }
 
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
-                invocation.addInvocationInfo(BUILD_ID, parser.getAttributeValue(NS, BUILD_ID));
-                invocation.addInvocationInfo(BUILD_PRODUCT, parser.getAttributeValue(NS,
-                        BUILD_PRODUCT));
-                invocation.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
-
-                // TODO(stuartscott): may want to reload these incase the retry was done with
-                // --skip-device-info flag
-                parser.nextTag();
-                parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
-                parser.nextTag();
-                parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
-                parser.nextTag();
-                parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            invocation.addInvocationInfo(BUILD_ID, parser.getAttributeValue(NS, BUILD_ID));
+            invocation.addInvocationInfo(BUILD_PRODUCT, parser.getAttributeValue(NS,
+                    BUILD_PRODUCT));
+            invocation.setBuildFingerprint(parser.getAttributeValue(NS, BUILD_FINGERPRINT));
+
+            // TODO(stuartscott): may want to reload these incase the retry was done with
+            // --skip-device-info flag
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, SUMMARY_TAG);
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
+                String name = parser.getAttributeValue(NS, NAME_ATTR);
+                String abi = parser.getAttributeValue(NS, ABI_ATTR);
+                String moduleId = AbiUtils.createId(abi, name);
+                boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
+                IModuleResult module = invocation.getOrCreateModule(moduleId);
+                module.initializeDone(done);
+                int notExecuted = Integer.parseInt(
+                        parser.getAttributeValue(NS, NOT_EXECUTED_ATTR));
+                module.setNotExecuted(notExecuted);
+                long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
+                module.addRuntime(runtime);
                 while (parser.nextTag() == XmlPullParser.START_TAG) {
-                    parser.require(XmlPullParser.START_TAG, NS, MODULE_TAG);
-                    String name = parser.getAttributeValue(NS, NAME_ATTR);
-                    String abi = parser.getAttributeValue(NS, ABI_ATTR);
-                    String moduleId = AbiUtils.createId(abi, name);
-                    boolean done = Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR));
-                    IModuleResult module = invocation.getOrCreateModule(moduleId);
-                    module.initializeDone(done);
-                    int notExecuted = Integer.parseInt(
-                            parser.getAttributeValue(NS, NOT_EXECUTED_ATTR));
-                    module.setNotExecuted(notExecuted);
-                    long runtime = Long.parseLong(parser.getAttributeValue(NS, RUNTIME_ATTR));
-                    module.addRuntime(runtime);
+                    parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
+                    String caseName = parser.getAttributeValue(NS, NAME_ATTR);
+                    ICaseResult testCase = module.getOrCreateResult(caseName);
                     while (parser.nextTag() == XmlPullParser.START_TAG) {
-                        parser.require(XmlPullParser.START_TAG, NS, CASE_TAG);
-                        String caseName = parser.getAttributeValue(NS, NAME_ATTR);
-                        ICaseResult testCase = module.getOrCreateResult(caseName);
-                        while (parser.nextTag() == XmlPullParser.START_TAG) {
-                            parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
-                            String testName = parser.getAttributeValue(NS, NAME_ATTR);
-                            ITestResult test = testCase.getOrCreateResult(testName);
-                            String result = parser.getAttributeValue(NS, RESULT_ATTR);
-                            test.setResultStatus(TestStatus.getStatus(result));
-                            test.setRetry(true);
-                            while (parser.nextTag() == XmlPullParser.START_TAG) {
-                                if (parser.getName().equals(FAILURE_TAG)) {
-                                    test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
-                                    if (parser.nextTag() == XmlPullParser.START_TAG) {
-                                        parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
-                                        test.setStackTrace(parser.nextText());
-                                        parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
-                                        parser.nextTag();
-                                    }
-                                    parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
-                                } else if (parser.getName().equals(BUGREPORT_TAG)) {
-                                    test.setBugReport(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
-                                } else if (parser.getName().equals(LOGCAT_TAG)) {
-                                    test.setLog(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
-                                } else if (parser.getName().equals(SCREENSHOT_TAG)) {
-                                    test.setScreenshot(parser.nextText());
-                                    parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
-                                } else {
-                                    test.setReportLog(ReportLog.parse(parser));
-                                }
-                            }
-                            parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
-                            Boolean checksumMismatch = invocationUseChecksum
-                                    && !checksumReporter.containsTestResult(
-                                    test, module, invocation.getBuildFingerprint());
-                            if (checksumMismatch) {
-                                test.removeResult();
-                            }
+                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                        String testName = parser.getAttributeValue(NS, NAME_ATTR);
+                        ITestResult test = testCase.getOrCreateResult(testName);
+                        String result = parser.getAttributeValue(NS, RESULT_ATTR);
+                        test.setResultStatus(TestStatus.getStatus(result));
+                        test.setRetry(true);
+                        parseTestDetails(parser, test);
+                        Boolean checksumMismatch = invocationUseChecksum
+                                && !checksumReporter.containsTestResult(
+                                test, module, invocation.getBuildFingerprint());
+                        if (checksumMismatch) {
+                            test.removeResult();
+                        } else if (compact) {
+                            ((CompactModuleResult) module).deferDetails(test);
                         }
-                        parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
-                    }
-                    parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
-                    Boolean checksumMismatch = invocationUseChecksum
-                            && !checksumReporter.containsModuleResult(
-                            module, invocation.getBuildFingerprint());
-                    if (checksumMismatch) {
-                        module.initializeDone(false);
                     }
+                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+                }
+                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+                Boolean checksumMismatch = invocationUseChecksum
+                        && !checksumReporter.containsModuleResult(
+                        module, invocation.getBuildFingerprint());
+                if (checksumMismatch) {
+                    module.initializeDone(false);
                 }
-                parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
-                results.add(invocation);
-            } catch (XmlPullParserException e) {
-                e.printStackTrace();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+            parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+            return invocation;
+        } catch (XmlPullParserException e) {
+            e.printStackTrace();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        // Sort the table entries on each entry's timestamp.
-        Collections.sort(results, new Comparator<IInvocationResult>() {
-            public int compare(IInvocationResult result1, IInvocationResult result2) {
-                return Long.compare(result1.getStartTime(), result2.getStartTime());
+        return null;
+    }
+
+    /**
+     * Parses the failure, logs and report log of a test, from after its start tag to its end tag.
+     */
+    private static void parseTestDetails(XmlPullParser parser, ITestResult test)
+            throws XmlPullParserException, IOException {
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if (parser.getName().equals(FAILURE_TAG)) {
+                test.setMessage(parser.getAttributeValue(NS, MESSAGE_ATTR));
+                if (parser.nextTag() == XmlPullParser.START_TAG) {
+                    parser.require(XmlPullParser.START_TAG, NS, STACK_TAG);
+                    test.setStackTrace(parser.nextText());
+                    parser.require(XmlPullParser.END_TAG, NS, STACK_TAG);
+                    parser.nextTag();
+                }
+                parser.require(XmlPullParser.END_TAG, NS, FAILURE_TAG);
+            } else if (parser.getName().equals(BUGREPORT_TAG)) {
+                test.setBugReport(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, BUGREPORT_TAG);
+            } else if (parser.getName().equals(LOGCAT_TAG)) {
+                test.setLog(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, LOGCAT_TAG);
+            } else if (parser.getName().equals(SCREENSHOT_TAG)) {
+                test.setScreenshot(parser.nextText());
+                parser.require(XmlPullParser.END_TAG, NS, SCREENSHOT_TAG);
+            } else {
+                test.setReportLog(ReportLog.parse(parser));
             }
-        });
-        return results;
+        }
+        parser.require(XmlPullParser.END_TAG, NS, TEST_TAG);
+    }
+
+    /**
+     * Restores the details of the tests of a {@link CompactInvocationResult} which were deferred
+     * when it was loaded from the given result file.
+     */
+    static void loadDeferredDetails(File resultFile, List<IModuleResult> modules)
+            throws XmlPullParserException, IOException {
+        Map<String, CompactModuleResult> modulesById = new HashMap<>();
+        for (IModuleResult module : modules) {
+            modulesById.put(module.getId(), (CompactModuleResult) module);
+        }
+        try (Reader reader = new FileReader(resultFile)) {
+            XmlPullParser parser = newPullParser();
+            parser.setInput(reader);
+            CompactModuleResult module = null;
+            String caseName = null;
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                String tag = parser.getName();
+                if (MODULE_TAG.equals(tag)) {
+                    module = modulesById.get(AbiUtils.createId(
+                            parser.getAttributeValue(NS, ABI_ATTR),
+                            parser.getAttributeValue(NS, NAME_ATTR)));
+                } else if (CASE_TAG.equals(tag)) {
+                    caseName = parser.getAttributeValue(NS, NAME_ATTR);
+                } else if (TEST_TAG.equals(tag) && module != null && caseName != null) {
+                    ITestResult test = module.takeDeferredResult(caseName,
+                            parser.getAttributeValue(NS, NAME_ATTR));
+                    if (test != null) {
+                        parseTestDetails(parser, test);
+                    }
+                }
+            }
+        }
+    }
+
+    private static XmlPullParser newPullParser() throws XmlPullParserException {
+        XmlPullParserFactory factory = sParserFactory.get();
+        if (factory == null) {
+            factory = XmlPullParserFactory.newInstance();
+            sParserFactory.set(factory);
+        }
+        return factory.newPullParser();
+    }
+
+    /**
+     * Rebuild the IInvocationResult of a session from its journal, which holds the results of
+     * the modules which had run when the session ended, even if it did not end cleanly.
+     *
+     * @return the result, or null if the directory has no journal
+     */
+    public static IInvocationResult getResultFromJournal(File resultDir) throws IOException {
+        File journalFile = new File(resultDir, ResultJournal.JOURNAL_FILE_NAME);
+        if (!journalFile.isFile()) {
+            return null;
+        }
+        IInvocationResult invocation = ResultJournal.replay(journalFile);
+        if (invocation != null) {
+            invocation.setRetryDirectory(resultDir);
+        }
+        return invocation;
     }
 
     /**
@@ -427,9 +617,21 @@ public class ResultHandler {
         }
         serializer.endDocument();
         createChecksum(resultDir, result);
+        writeSummary(SessionSummary.create(resultDir, result, startTime, suitePlan,
+                commandLineArgs));
         return resultFile;
     }
 
+    private static void writeSummary(SessionSummary summary) {
+        File summaryFile = new File(summary.getResultDir(), SessionSummary.SUMMARY_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(summaryFile)) {
+            out.write(summary.toRecord().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Do not disrupt the process, the summary can be read from the result file
+            e.printStackTrace();
+        }
+    }
+
     public static File createFailureReport(File inputXml) {
         File failureReport = new File(inputXml.getParentFile(), FAILURE_REPORT_NAME);
         try (InputStream xslStream = ResultHandler.class.getResourceAsStream(
@@ -482,24 +684,243 @@ public class ResultHandler {
      */
     public static IInvocationResult findResult(File resultsDir, Integer sessionId)
             throws FileNotFoundException {
-        return findResult(resultsDir, sessionId, true);
+        return findResult(resultsDir, sessionId, true, false);
+    }
+
+    /**
+     * Find the IInvocationResult for the given sessionId, loaded as a
+     * {@link CompactInvocationResult} when possible.
+     */
+    public static IInvocationResult findCompactResult(File resultsDir, Integer sessionId)
+            throws FileNotFoundException {
+        return findResult(resultsDir, sessionId, true, true);
     }
 
     /**
      * Find the IInvocationResult for the given sessionId.
      */
-    private static IInvocationResult findResult(
-            File resultsDir, Integer sessionId, Boolean useChecksum) throws FileNotFoundException {
+    private static IInvocationResult findResult(File resultsDir, Integer sessionId,
+            Boolean useChecksum, boolean compact) throws FileNotFoundException {
         if (sessionId < 0) {
             throw new IllegalArgumentException(
                 String.format("Invalid session id [%d] ", sessionId));
         }
 
-        List<IInvocationResult> results = getResults(resultsDir, useChecksum);
-        if (results == null || sessionId >= results.size()) {
+        // Only the chosen session is parsed
+        SessionSummary summary = findSessionSummary(resultsDir, sessionId);
+        IInvocationResult result =
+                getResultFromDir(summary.getResultDir(), useChecksum, compact);
+        if (result == null) {
             throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
         }
-        return results.get(sessionId);
+        return result;
+    }
+
+    /**
+     * Find the {@link SessionSummary} for the given sessionId.
+     */
+    public static SessionSummary findSessionSummary(File resultsDir, Integer sessionId) {
+        if (sessionId < 0) {
+            throw new IllegalArgumentException(
+                String.format("Invalid session id [%d] ", sessionId));
+        }
+        List<SessionSummary> summaries = getSessionSummaries(resultsDir);
+        if (sessionId >= summaries.size()) {
+            throw new RuntimeException(String.format("Could not find session [%d]", sessionId));
+        }
+        return summaries.get(sessionId);
+    }
+
+    /**
+     * Get the summaries of the sessions in the results directory, in the order of their session
+     * ids, without parsing their results.
+     * <p/>
+     * Summaries are kept in an index in the results directory, and only read from the result
+     * directories of sessions which are new or whose results have changed since they were
+     * indexed.
+     */
+    public static List<SessionSummary> getSessionSummaries(File resultsDir) {
+        File indexFile = new File(resultsDir, SESSION_INDEX_FILE_NAME);
+        Map<String, String[]> index = loadSessionIndex(indexFile);
+        Map<String, String[]> newIndex = new LinkedHashMap<>();
+        List<SessionSummary> summaries = new ArrayList<>();
+        for (File resultDir : getResultDirectories(resultsDir)) {
+            File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+            if (!resultFile.exists()) {
+                // Sessions with only a journal may still be running, so are never indexed. Their
+                // journal keeps their summary file up to date.
+                if (new File(resultDir, ResultJournal.JOURNAL_FILE_NAME).isFile()) {
+                    SessionSummary summary = readSummaryFile(resultDir);
+                    if (summary != null) {
+                        summaries.add(summary);
+                    }
+                }
+                continue;
+            }
+            String stamp = resultFile.lastModified() + ":" + resultFile.length();
+            String[] entry = index.get(resultDir.getName());
+            SessionSummary summary = null;
+            if (entry != null && entry[0].equals(stamp)) {
+                summary = SessionSummary.parseRecord(resultDir, entry[1]);
+            }
+            if (summary == null) {
+                summary = readSummary(resultDir);
+                if (summary == null) {
+                    continue;
+                }
+                entry = new String[] {stamp, summary.toRecord()};
+            }
+            newIndex.put(resultDir.getName(), entry);
+            summaries.add(summary);
+        }
+        if (!newIndex.keySet().equals(index.keySet()) || !sameEntries(index, newIndex)) {
+            saveSessionIndex(indexFile, newIndex);
+        }
+        // Sort the table entries on each entry's timestamp.
+        Collections.sort(summaries, new Comparator<SessionSummary>() {
+            public int compare(SessionSummary summary1, SessionSummary summary2) {
+                return Long.compare(summary1.getStartTime(), summary2.getStartTime());
+            }
+        });
+        return summaries;
+    }
+
+    /**
+     * Read the summary of a session from its summary file, or from the header of its result
+     * file if the summary file is missing or older than the result file.
+     */
+    private static SessionSummary readSummary(File resultDir) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        File summaryFile = new File(resultDir, SessionSummary.SUMMARY_FILE_NAME);
+        if (summaryFile.lastModified() >= resultFile.lastModified()) {
+            SessionSummary summary = readSummaryFile(resultDir);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        try (Reader reader = new FileReader(resultFile)) {
+            XmlPullParser parser = newPullParser();
+            parser.setInput(reader);
+            // Everything needed is in the Result, Build and Summary tags before the modules
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            long startTime = Long.parseLong(parser.getAttributeValue(NS, START_TIME_ATTR));
+            String testPlan = parser.getAttributeValue(NS, SUITE_PLAN_ATTR);
+            String commandLineArgs = parser.getAttributeValue(NS, COMMAND_LINE_ARGS);
+            Set<String> devices = new LinkedHashSet<>(
+                    Arrays.asList(parser.getAttributeValue(NS, DEVICES_ATTR).split(",")));
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            String buildId = parser.getAttributeValue(NS, BUILD_ID);
+            String buildProduct = parser.getAttributeValue(NS, BUILD_PRODUCT);
+            String buildFingerprint = parser.getAttributeValue(NS, BUILD_FINGERPRINT);
+            parser.nextTag();
+            parser.require(XmlPullParser.END_TAG, NS, BUILD_TAG);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, SUMMARY_TAG);
+            return new SessionSummary(resultDir, startTime, testPlan, commandLineArgs, devices,
+                    buildId, buildProduct, buildFingerprint,
+                    Integer.parseInt(parser.getAttributeValue(NS, PASS_ATTR)),
+                    Integer.parseInt(parser.getAttributeValue(NS, FAILED_ATTR)),
+                    Integer.parseInt(parser.getAttributeValue(NS, NOT_EXECUTED_ATTR)),
+                    Integer.parseInt(parser.getAttributeValue(NS, MODULES_DONE_ATTR)),
+                    Integer.parseInt(parser.getAttributeValue(NS, MODULES_TOTAL_ATTR)));
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Read the summary of a session from its summary file.
+     *
+     * @return the summary, or null if the summary file is missing or could not be read
+     */
+    private static SessionSummary readSummaryFile(File resultDir) {
+        File summaryFile = new File(resultDir, SessionSummary.SUMMARY_FILE_NAME);
+        if (!summaryFile.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(summaryFile), StandardCharsets.UTF_8))) {
+            String record = reader.readLine();
+            return (record == null) ? null : SessionSummary.parseRecord(resultDir, record);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Read the attributes of the Result tag of a session's test_result.xml, without reading the
+     * rest of the file.
+     *
+     * @return the attributes, or null if the result file could not be read
+     */
+    static Map<String, String> readResultAttributes(File resultDir) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        try (Reader reader = new FileReader(resultFile)) {
+            XmlPullParser parser = newPullParser();
+            parser.setInput(reader);
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                attributes.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+            return attributes;
+        } catch (XmlPullParserException | IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return the index as result directory name -> {stamp of its result file, its summary}.
+     */
+    private static Map<String, String[]> loadSessionIndex(File indexFile) {
+        Map<String, String[]> index = new LinkedHashMap<>();
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = ResultJournal.parseRecord(line);
+                if (fields.size() == 4 && SESSION.equals(fields.get(0))) {
+                    index.put(fields.get(1), new String[] {fields.get(2), fields.get(3)});
+                }
+            }
+        } catch (IOException e) {
+            // Rebuilt from the result directories
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    private static void saveSessionIndex(File indexFile, Map<String, String[]> index) {
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, String[]> entry : index.entrySet()) {
+            ResultJournal.appendRecord(sb, SESSION, entry.getKey(), entry.getValue()[0],
+                    entry.getValue()[1]);
+        }
+        try {
+            FileUtil.writeAtomically(sb.toString(), indexFile);
+        } catch (IOException e) {
+            // Do not disrupt the process, the index is rebuilt next time
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean sameEntries(Map<String, String[]> index1,
+            Map<String, String[]> index2) {
+        for (Entry<String, String[]> entry : index1.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), index2.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -534,9 +955,11 @@ public class ResultHandler {
             if (!resultDir.isDirectory()) {
                 continue;
             }
-            // Only include if it contain results file
+            // Only include if it contain results file, or the journal of a session which did not
+            // get to write one
             File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
-            if (!resultFile.exists()) {
+            if (!resultFile.exists()
+                    && !new File(resultDir, ResultJournal.JOURNAL_FILE_NAME).exists()) {
                 continue;
             }
             directoryList.add(resultDir);
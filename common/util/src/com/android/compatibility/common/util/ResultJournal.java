@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An append-only log of the results of a session, written as the session runs so that the
+ * results survive the session being killed before its test_result.xml is written.
+ * <p/>
+ * Each line is a record of tab separated fields. The journal starts with the session's start
+ * time, plan and command line, followed by the device serials, build info and the results of
+ * each module as they come in. Results are either a snapshot of a module, which replaces the
+ * module's results when the journal is replayed, or the results of a single run of a module, eg.
+ * by a shard, which are merged into the module's results. Each is a MODULE or RUN record, one TEST
+ * record per test, and an END record; results cut short by the session being killed are
+ * ignored.
+ * <p/>
+ * Records are encoded by the calling thread and written by a background thread, so appending
+ * never waits for the disk. {@link #flush()} waits until everything appended so far is on disk.
+ * <p/>
+ * The {@link SessionSummary} of the session is kept up to date in the summary file next to the
+ * journal, so that the session can be listed without replaying its journal.
+ */
+public class ResultJournal {
+
+    public static final String JOURNAL_FILE_NAME = "test_result.journal";
+
+    private static final String START = "START";
+    private static final String BASE = "BASE";
+    private static final String DEVICE = "DEVICE";
+    private static final String INFO = "INFO";
+    private static final String MODULE = "MODULE";
+    private static final String RUN = "RUN";
+    private static final String TEST = "TEST";
+    private static final String END = "END";
+    private static final char DELIMITER = '\t';
+    private static final char NEWLINE = '\n';
+    private static final char ESCAPE = '\\';
+    // Escaped form of a null field, distinct from an empty one
+    private static final String NULL = "\\0";
+    private static final String BUILD_ID = "build_id";
+    private static final String BUILD_PRODUCT = "build_product";
+    private static final String BUILD_FINGERPRINT = "build_fingerprint";
+
+    private final File mResultDir;
+    private final FileOutputStream mOut;
+    private final ExecutorService mWriter;
+    // The first error hit by the writer thread, reported by the next flush
+    private volatile IOException mError = null;
+    // The header of the session journaled so far, for its summary
+    private long mStartTime;
+    private String mPlan;
+    private String mCommandLineArgs;
+    private final Set<String> mDeviceSerials = new LinkedHashSet<>();
+    private final Map<String, String> mInfo = new HashMap<>();
+
+    /**
+     * Opens the journal for appending, creating it if it does not exist.
+     */
+    public ResultJournal(File journalFile) throws IOException {
+        mResultDir = journalFile.getAbsoluteFile().getParentFile();
+        mOut = new FileOutputStream(journalFile, true);
+        mWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ResultJournal");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Records the start of a session.
+     */
+    public void startSession(long startTime, String plan, String commandLineArgs) {
+        mStartTime = startTime;
+        mPlan = plan;
+        mCommandLineArgs = commandLineArgs;
+        append(record(START, Long.toString(startTime), plan, commandLineArgs));
+        updateSummary(new InvocationResult());
+    }
+
+    /**
+     * Records that the session continues the session in the given result directory, whose
+     * results are the starting point of this session's results.
+     */
+    public void setBase(File resultDir) {
+        append(record(BASE, resultDir.getAbsolutePath()));
+    }
+
+    /**
+     * Records a device the session runs on.
+     */
+    public void addDeviceSerial(String serial) {
+        mDeviceSerials.add(serial);
+        append(record(DEVICE, serial));
+    }
+
+    /**
+     * Records an item of build info of the session.
+     */
+    public void addInvocationInfo(String key, String value) {
+        mInfo.put(key, value);
+        append(record(INFO, key, value));
+    }
+
+    /**
+     * Records the current state of a module, replacing any previous snapshot of the module.
+     */
+    public void addModule(IModuleResult module) {
+        append(encode(MODULE, module));
+    }
+
+    /**
+     * Encodes the results of a run of a module, to be recorded by {@link #addModuleRun(String)}.
+     * Encoding is most of the cost of journaling a run, so it can be done before taking the lock
+     * which orders the runs being merged.
+     */
+    public static String encodeModuleRun(IModuleResult run) {
+        return encode(RUN, run);
+    }
+
+    /**
+     * Records a run of a module encoded by {@link #encodeModuleRun(IModuleResult)}, which is
+     * merged into the results of the module when the journal is replayed.
+     */
+    public void addModuleRun(String encodedRun) {
+        append(encodedRun);
+    }
+
+    private static String encode(String type, IModuleResult module) {
+        StringBuilder sb = new StringBuilder();
+        appendRecord(sb, type, module.getId(), Long.toString(module.getRuntime()),
+                Boolean.toString(module.isDoneSoFar()), Integer.toString(module.getNotExecuted()),
+                Integer.toString(module.getExpectedTestRuns()),
+                Integer.toString(module.getTestRuns()));
+        for (ICaseResult caseResult : module.getResults()) {
+            for (ITestResult test : caseResult.getResults()) {
+                TestStatus status = test.getResultStatus();
+                appendRecord(sb, TEST, caseResult.getName(), test.getName(),
+                        (status == null) ? null : status.getValue(),
+                        Boolean.toString(test.isRetry()), test.getMessage(),
+                        test.getStackTrace(), test.getBugReport(), test.getLog(),
+                        test.getScreenshot(), serializeReportLog(test.getReportLog()));
+            }
+        }
+        appendRecord(sb, END);
+        return sb.toString();
+    }
+
+    /**
+     * Records the counts of the given results of the session in its summary file, along with
+     * the header journaled so far. The build info and devices of the results are used where none
+     * were journaled, eg. those of the session being retried.
+     */
+    public void updateSummary(IInvocationResult result) {
+        Map<String, String> info = new HashMap<>(result.getInvocationInfo());
+        info.putAll(mInfo);
+        Set<String> devices = new LinkedHashSet<>(result.getDeviceSerials());
+        devices.addAll(mDeviceSerials);
+        final String summary = new SessionSummary(mResultDir, mStartTime, mPlan,
+                mCommandLineArgs, devices, info.get(BUILD_ID), info.get(BUILD_PRODUCT),
+                info.get(BUILD_FINGERPRINT), result.countResults(TestStatus.PASS),
+                result.countResults(TestStatus.FAIL), result.getNotExecuted(),
+                result.getModuleCompleteCount(), result.getModules().size()).toRecord();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileUtil.writeAtomically(summary,
+                            new File(mResultDir, SessionSummary.SUMMARY_FILE_NAME));
+                } catch (IOException e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all records appended so far have been written and synced to disk.
+     *
+     * @throws IOException if any record could not be written
+     */
+    public void flush() throws IOException {
+        Future<?> flushed = mWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOut.flush();
+                    mOut.getFD().sync();
+                } catch (IOException e) {
+                    onError(e);
+                }
+            }
+        });
+        try {
+            flushed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    /**
+     * Flushes and closes the journal.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mWriter.shutdown();
+            mOut.close();
+        }
+    }
+
+    /**
+     * Rebuilds the results of a session from its journal. Records after the last complete
+     * results of a module are ignored.
+     *
+     * @return the results, or null if the journal does not start a session.
+     */
+    public static IInvocationResult replay(File journalFile) throws IOException {
+        IInvocationResult base = null;
+        IInvocationResult result = null;
+        Map<String, IModuleResult> modules = new LinkedHashMap<>();
+        IModuleResult module = null;
+        boolean isRun = false;
+        try (Reader reader = new InputStreamReader(new FileInputStream(journalFile),
+                StandardCharsets.UTF_8);
+                BufferedReader in = new BufferedReader(reader)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                List<String> fields = parseRecord(line);
+                String type = fields.get(0);
+                if (result == null) {
+                    if (START.equals(type) && fields.size() == 4) {
+                        result = new InvocationResult();
+                        result.setStartTime(Long.parseLong(fields.get(1)));
+                        result.setTestPlan(fields.get(2));
+                        result.setCommandLineArgs(fields.get(3));
+                    }
+                    // Nothing can be replayed before the session starts
+                    continue;
+                }
+                if (BASE.equals(type) && fields.size() == 2) {
+                    base = ResultHandler.getResultFromDir(new File(fields.get(1)), false);
+                    if (base != null) {
+                        // The results of the session are merged into those of its base
+                        for (IModuleResult baseModule : base.getModules()) {
+                            modules.put(baseModule.getId(), baseModule);
+                        }
+                    }
+                } else if (DEVICE.equals(type) && fields.size() == 2) {
+                    result.addDeviceSerial(fields.get(1));
+                } else if (INFO.equals(type) && fields.size() == 3) {
+                    result.addInvocationInfo(fields.get(1), fields.get(2));
+                    if (BUILD_FINGERPRINT.equals(fields.get(1))) {
+                        result.setBuildFingerprint(fields.get(2));
+                    }
+                } else if ((MODULE.equals(type) || RUN.equals(type)) && fields.size() == 7) {
+                    isRun = RUN.equals(type);
+                    module = new ModuleResult(fields.get(1));
+                    module.addRuntime(Long.parseLong(fields.get(2)));
+                    module.initializeDone(Boolean.parseBoolean(fields.get(3)));
+                    module.setNotExecuted(Integer.parseInt(fields.get(4)));
+                    module.setExpectedTestRuns(Integer.parseInt(fields.get(5)));
+                    for (int i = Integer.parseInt(fields.get(6)); i > 0; i--) {
+                        module.addTestRun();
+                    }
+                } else if (TEST.equals(type) && fields.size() == 11 && module != null) {
+                    ITestResult test =
+                            module.getOrCreateResult(fields.get(1)).getOrCreateResult(fields.get(2));
+                    String status = fields.get(3);
+                    test.setResultStatus((status == null) ? null : TestStatus.getStatus(status));
+                    test.setRetry(Boolean.parseBoolean(fields.get(4)));
+                    test.setMessage(fields.get(5));
+                    test.setStackTrace(fields.get(6));
+                    test.setBugReport(fields.get(7));
+                    test.setLog(fields.get(8));
+                    test.setScreenshot(fields.get(9));
+                    test.setReportLog(parseReportLog(fields.get(10)));
+                } else if (END.equals(type) && module != null) {
+                    // Only complete results are kept
+                    IModuleResult existing = modules.get(module.getId());
+                    if (isRun && existing != null) {
+                        existing.mergeFrom(module);
+                    } else {
+                        modules.put(module.getId(), module);
+                    }
+                    module = null;
+                } else {
+                    // A malformed or partially written record ends the current results
+                    module = null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Keep what was replayed up to the malformed record
+        }
+        if (result == null) {
+            return null;
+        }
+        if (base != null && result.getBuildFingerprint() == null) {
+            result.setBuildFingerprint(base.getBuildFingerprint());
+        }
+        for (IModuleResult moduleResult : modules.values()) {
+            result.mergeModuleResult(moduleResult);
+        }
+        return result;
+    }
+
+    private void append(final String records) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mOut.write(records.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    onError(e);
+                }
+            }
+        });
+    }
+
+    private void onError(IOException e) {
+        if (mError == null) {
+            mError = e;
+        }
+    }
+
+    private static String record(String type, String... fields) {
+        StringBuilder sb = new StringBuilder();
+        appendRecord(sb, type, fields);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a record of the given type and fields, escaped so that it is a single line.
+     */
+    static void appendRecord(StringBuilder sb, String type, String... fields) {
+        sb.append(type);
+        for (String field : fields) {
+            sb.append(DELIMITER);
+            if (field == null) {
+                sb.append(NULL);
+                continue;
+            }
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                switch (c) {
+                    case ESCAPE:
+                        sb.append(ESCAPE).append(ESCAPE);
+                        break;
+                    case DELIMITER:
+                        sb.append(ESCAPE).append('t');
+                        break;
+                    case NEWLINE:
+                        sb.append(ESCAPE).append('n');
+                        break;
+                    case '\r':
+                        sb.append(ESCAPE).append('r');
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+        }
+        sb.append(NEWLINE);
+    }
+
+    /**
+     * @return the type and fields of a record written by
+     * {@link #appendRecord(StringBuilder, String, String...)}, without its newline.
+     */
+    static List<String> parseRecord(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean isNull = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == DELIMITER) {
+                fields.add(isNull ? null : field.toString());
+                field.setLength(0);
+                isNull = false;
+            } else if (c == ESCAPE && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                if (next == 't') {
+                    field.append(DELIMITER);
+                } else if (next == 'n') {
+                    field.append(NEWLINE);
+                } else if (next == 'r') {
+                    field.append('\r');
+                } else if (next == '0') {
+                    isNull = true;
+                } else {
+                    field.append(next);
+                }
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(isNull ? null : field.toString());
+        return fields;
+    }
+
+    private static String serializeReportLog(ReportLog report) {
+        if (report == null) {
+            return null;
+        }
+        try {
+            return ReportLog.serialize(report);
+        } catch (XmlPullParserException | IOException e) {
+            return null;
+        }
+    }
+
+    private static ReportLog parseReportLog(String report) {
+        if (report == null) {
+            return null;
+        }
+        try {
+            return ReportLog.parse(report);
+        } catch (XmlPullParserException | IOException e) {
+            return null;
+        }
+    }
+}
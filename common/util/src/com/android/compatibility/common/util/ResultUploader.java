@@ -16,21 +16,19 @@
 
 package com.android.compatibility.common.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Uploads a result through a HTTP POST multipart/form-data request containing
  * the test result XML.
+ * <p/>
+ * The XML is gzipped as it is uploaded, rather than in memory first.
  */
 public class ResultUploader {
 
-    private static final int RESULT_XML_BYTES = 500 * 1024;
-
     /* package */ MultipartForm mMultipartForm;
 
     public ResultUploader(String serverUrl, String suiteName) {
@@ -45,29 +43,36 @@ public class ResultUploader {
      * @throws IOException
      */
     public int uploadResult(File reportFile, String referenceUrl) throws IOException {
-        InputStream input = new FileInputStream(reportFile);
-        try {
-            byte[] data = getBytes(input);
-            mMultipartForm.addFormFile("resultXml", "test-result.xml.gz", data);
-            if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
-                mMultipartForm.addFormValue("referenceUrl", referenceUrl);
-            }
-            return mMultipartForm.submit();
-        } finally {
-            input.close();
+        if (!reportFile.isFile()) {
+            throw new FileNotFoundException(reportFile.getAbsolutePath());
+        }
+        mMultipartForm.addGzippedFormFile("resultXml", "test-result.xml.gz", reportFile);
+        if (referenceUrl != null && !referenceUrl.trim().isEmpty()) {
+            mMultipartForm.addFormValue("referenceUrl", referenceUrl);
         }
+        return mMultipartForm.submit();
     }
 
-    private static byte[] getBytes(InputStream input) throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream(RESULT_XML_BYTES);
-        GZIPOutputStream gzipOutput = new GZIPOutputStream(byteOutput);
-        byte[] buffer = new byte[1024];
-        int count;
-        while ((count = input.read(buffer)) > 0) {
-            gzipOutput.write(buffer, 0, count);
-        }
-        gzipOutput.close();
-        return byteOutput.toByteArray();
+    /**
+     * Uploads the given file to the server on another thread, so that the caller can carry on
+     * while it uploads. The process does not exit until the upload has finished.
+     *
+     * @param reportFile The file to upload.
+     * @param referenceUrl A reference url to use.
+     * @return the response code of the server, once uploaded.
+     */
+    public CompletableFuture<Integer> uploadResultAsync(final File reportFile,
+            final String referenceUrl) {
+        final CompletableFuture<Integer> response = new CompletableFuture<>();
+        Thread uploader = new Thread(() -> {
+            try {
+                response.complete(uploadResult(reportFile, referenceUrl));
+            } catch (IOException | RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+        }, "ResultUploader");
+        uploader.start();
+        return response;
     }
 
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The header, build and summary of a session's results: enough to list the session or choose it
+ * for a retry without reading the results of its tests.
+ * <p/>
+ * Each result directory holds the summary of its session next to its test_result.xml, and the
+ * results directory holds an index of the summaries of all its sessions.
+ */
+public class SessionSummary {
+
+    public static final String SUMMARY_FILE_NAME = "test_result.summary";
+
+    private static final String SUMMARY = "SUMMARY";
+    private static final String BUILD_ID = "build_id";
+    private static final String BUILD_PRODUCT = "build_product";
+    private static final String BUILD_FINGERPRINT = "build_fingerprint";
+    private static final String DEVICE_DELIMITER = ",";
+    private static final int NUM_FIELDS = 13;
+
+    private final File mResultDir;
+    private final long mStartTime;
+    private final String mTestPlan;
+    private final String mCommandLineArgs;
+    private final Set<String> mDeviceSerials;
+    private final String mBuildId;
+    private final String mBuildProduct;
+    private final String mBuildFingerprint;
+    private final int mPassed;
+    private final int mFailed;
+    private final int mNotExecuted;
+    private final int mModulesDone;
+    private final int mModulesTotal;
+
+    SessionSummary(File resultDir, long startTime, String testPlan, String commandLineArgs,
+            Set<String> deviceSerials, String buildId, String buildProduct,
+            String buildFingerprint, int passed, int failed, int notExecuted, int modulesDone,
+            int modulesTotal) {
+        mResultDir = resultDir;
+        mStartTime = startTime;
+        mTestPlan = testPlan;
+        mCommandLineArgs = commandLineArgs;
+        mDeviceSerials = Collections.unmodifiableSet(deviceSerials);
+        mBuildId = buildId;
+        mBuildProduct = buildProduct;
+        mBuildFingerprint = buildFingerprint;
+        mPassed = passed;
+        mFailed = failed;
+        mNotExecuted = notExecuted;
+        mModulesDone = modulesDone;
+        mModulesTotal = modulesTotal;
+    }
+
+    /**
+     * Summarizes the results of a session as they are written to its test_result.xml.
+     */
+    static SessionSummary create(File resultDir, IInvocationResult result, long startTime,
+            String testPlan, String commandLineArgs) {
+        Map<String, String> info = result.getInvocationInfo();
+        return new SessionSummary(resultDir, startTime, testPlan, commandLineArgs,
+                new LinkedHashSet<>(result.getDeviceSerials()), info.get(BUILD_ID),
+                info.get(BUILD_PRODUCT), info.get(BUILD_FINGERPRINT),
+                result.countResults(TestStatus.PASS), result.countResults(TestStatus.FAIL),
+                result.getNotExecuted(), result.getModuleCompleteCount(),
+                result.getModules().size());
+    }
+
+    /**
+     * @return the directory of the session's results.
+     */
+    public File getResultDir() {
+        return mResultDir;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public String getTestPlan() {
+        return mTestPlan;
+    }
+
+    public String getCommandLineArgs() {
+        return mCommandLineArgs;
+    }
+
+    public Set<String> getDeviceSerials() {
+        return mDeviceSerials;
+    }
+
+    public String getBuildId() {
+        return mBuildId;
+    }
+
+    public String getBuildProduct() {
+        return mBuildProduct;
+    }
+
+    public String getBuildFingerprint() {
+        return mBuildFingerprint;
+    }
+
+    public int getPassed() {
+        return mPassed;
+    }
+
+    public int getFailed() {
+        return mFailed;
+    }
+
+    public int getNotExecuted() {
+        return mNotExecuted;
+    }
+
+    public int getModulesDone() {
+        return mModulesDone;
+    }
+
+    public int getModulesTotal() {
+        return mModulesTotal;
+    }
+
+    /**
+     * @return the summary as a single line record, without its result directory.
+     */
+    String toRecord() {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder devices = new StringBuilder();
+        for (String serial : mDeviceSerials) {
+            if (devices.length() > 0) {
+                devices.append(DEVICE_DELIMITER);
+            }
+            devices.append(serial);
+        }
+        ResultJournal.appendRecord(sb, SUMMARY, Long.toString(mStartTime), mTestPlan,
+                mCommandLineArgs, devices.toString(), mBuildId, mBuildProduct, mBuildFingerprint,
+                Integer.toString(mPassed), Integer.toString(mFailed),
+                Integer.toString(mNotExecuted), Integer.toString(mModulesDone),
+                Integer.toString(mModulesTotal));
+        // Drop the newline
+        return sb.substring(0, sb.length() - 1);
+    }
+
+    /**
+     * Parses a record written by {@link #toRecord()}.
+     *
+     * @return the summary, or null if the record is malformed.
+     */
+    static SessionSummary parseRecord(File resultDir, String record) {
+        List<String> fields = ResultJournal.parseRecord(record);
+        if (fields.size() != NUM_FIELDS || !SUMMARY.equals(fields.get(0))) {
+            return null;
+        }
+        try {
+            Set<String> devices = new LinkedHashSet<>();
+            if (!fields.get(4).isEmpty()) {
+                devices.addAll(Arrays.asList(fields.get(4).split(DEVICE_DELIMITER)));
+            }
+            return new SessionSummary(resultDir, Long.parseLong(fields.get(1)), fields.get(2),
+                    fields.get(3), devices, fields.get(5), fields.get(6), fields.get(7),
+                    Integer.parseInt(fields.get(8)), Integer.parseInt(fields.get(9)),
+                    Integer.parseInt(fields.get(10)), Integer.parseInt(fields.get(11)),
+                    Integer.parseInt(fields.get(12)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
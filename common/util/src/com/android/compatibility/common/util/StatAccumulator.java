@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Accumulates statistics of a stream of values in a single pass and constant memory, for tests
+ * which measure too many samples to keep them all. See {@link Stat} for statistics of arrays.
+ * <p/>
+ * The mean and variance are exact, using Welford's method. Quantiles are estimated by a
+ * {@link QuantileSketch} to within 1% of the value. Accumulators of different streams can be
+ * merged.
+ * <p/>
+ * Optionally, values further than a given ratio from the median of all the values added so far
+ * are rejected as outliers, as by {@link Stat#getStatWithOutlierRejection(double[], double)}.
+ * The first values are held until there are enough to give a stable median.
+ */
+public class StatAccumulator {
+
+    // Number of values held before outliers are rejected against the running median
+    private static final int WARMUP_COUNT = 32;
+
+    private final double mRejectionThreshold;
+    // All the values, giving the running median to reject outliers against
+    private final QuantileSketch mAll;
+    private final QuantileSketch mSketch = new QuantileSketch();
+    private double[] mWarmup;
+    private int mWarmupCount = 0;
+    private long mCount = 0;
+    private long mRejectedCount = 0;
+    private double mMean = 0;
+    // Sum of squared differences from the mean
+    private double mM2 = 0;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    /**
+     * Creates an accumulator of all the values added.
+     */
+    public StatAccumulator() {
+        mRejectionThreshold = 0;
+        mAll = null;
+        mWarmup = null;
+    }
+
+    /**
+     * Creates an accumulator which rejects values further than median * rejectionThreshold from
+     * the running median. rejectionThreshold should be bigger than 0.0 and lower than 1.0
+     */
+    public StatAccumulator(double rejectionThreshold) {
+        if (!(rejectionThreshold > 0 && rejectionThreshold < 1)) {
+            throw new IllegalArgumentException("Rejection threshold must be between 0 and 1");
+        }
+        mRejectionThreshold = rejectionThreshold;
+        mAll = new QuantileSketch();
+        mWarmup = new double[WARMUP_COUNT];
+    }
+
+    /**
+     * Adds a value. NaN values are ignored.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (mAll == null) {
+            accept(value);
+            return;
+        }
+        mAll.add(value);
+        if (mWarmup != null) {
+            mWarmup[mWarmupCount++] = value;
+            if (mWarmupCount == mWarmup.length) {
+                flushWarmup();
+            }
+            return;
+        }
+        addOrReject(value);
+    }
+
+    /**
+     * Adds all the given values.
+     */
+    public void addAll(double[] values) {
+        for (double value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Adds the values of another accumulator to this one, as if they had been added to this one.
+     * Values the other accumulator rejected stay rejected.
+     */
+    public void merge(StatAccumulator other) {
+        if ((mAll == null) != (other.mAll == null)) {
+            throw new IllegalArgumentException(
+                    "Cannot merge accumulators with and without outlier rejection");
+        }
+        if (mAll != null) {
+            mAll.merge(other.mAll);
+            mRejectedCount += other.mRejectedCount;
+            for (int i = 0; i < other.mWarmupCount; i++) {
+                if (mWarmup != null) {
+                    mWarmup[mWarmupCount++] = other.mWarmup[i];
+                    if (mWarmupCount == mWarmup.length) {
+                        flushWarmup();
+                    }
+                } else {
+                    addOrReject(other.mWarmup[i]);
+                }
+            }
+        }
+        if (other.mCount == 0) {
+            return;
+        }
+        mSketch.merge(other.mSketch);
+        // Chan et al.'s method of combining the means and variances of two sets
+        long count = mCount + other.mCount;
+        double delta = other.mMean - mMean;
+        mMean += delta * other.mCount / count;
+        mM2 += other.mM2 + delta * delta * mCount * other.mCount / count;
+        mMin = (mCount == 0) ? other.mMin : Math.min(mMin, other.mMin);
+        mMax = (mCount == 0) ? other.mMax : Math.max(mMax, other.mMax);
+        mCount = count;
+    }
+
+    /**
+     * @return the number of values accumulated, not counting those rejected.
+     */
+    public long getCount() {
+        flushWarmup();
+        return mCount;
+    }
+
+    /**
+     * @return the number of values rejected as outliers.
+     */
+    public long getRejectedCount() {
+        flushWarmup();
+        return mRejectedCount;
+    }
+
+    /**
+     * @return the average of the values, or NaN if there are none.
+     */
+    public double getMean() {
+        flushWarmup();
+        return (mCount == 0) ? Double.NaN : mMean;
+    }
+
+    /**
+     * @return the sample variance of the values, or NaN if there are less than two.
+     */
+    public double getVariance() {
+        flushWarmup();
+        return (mCount < 2) ? Double.NaN : mM2 / (mCount - 1);
+    }
+
+    /**
+     * @return the sample standard deviation of the values, or NaN if there are less than two.
+     */
+    public double getStddev() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the smallest value, or NaN if there are none.
+     */
+    public double getMin() {
+        flushWarmup();
+        return mMin;
+    }
+
+    /**
+     * @return the largest value, or NaN if there are none.
+     */
+    public double getMax() {
+        flushWarmup();
+        return mMax;
+    }
+
+    /**
+     * @return the estimated value at the given quantile, between 0 and 1 inclusive, or NaN if
+     * there are no values.
+     */
+    public double getQuantile(double quantile) {
+        flushWarmup();
+        return mSketch.getQuantile(quantile);
+    }
+
+    /**
+     * @return the statistics, as returned by {@link Stat#getStat(double[])}.
+     */
+    public Stat.StatResult getStatResult() {
+        return new Stat.StatResult(getMean(), getMin(), getMax(), getStddev(),
+                (int) Math.min(Integer.MAX_VALUE, getCount()));
+    }
+
+    private void accept(double value) {
+        mCount++;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (value - mMean);
+        if (mCount == 1 || value < mMin) {
+            mMin = value;
+        }
+        if (mCount == 1 || value > mMax) {
+            mMax = value;
+        }
+        mSketch.add(value);
+    }
+
+    private void addOrReject(double value) {
+        double median = mAll.getQuantile(0.5);
+        if ((value > median * (1.0 - mRejectionThreshold))
+                && (value < median * (1.0 + mRejectionThreshold))) {
+            accept(value);
+        } else {
+            mRejectedCount++;
+        }
+    }
+
+    /**
+     * Ends the warmup, checking the values held against the median of all the values so far.
+     */
+    private void flushWarmup() {
+        if (mWarmup == null) {
+            return;
+        }
+        double[] warmup = mWarmup;
+        int count = mWarmupCount;
+        mWarmup = null;
+        mWarmupCount = 0;
+        for (int i = 0; i < count; i++) {
+            addOrReject(warmup[i]);
+        }
+    }
+}
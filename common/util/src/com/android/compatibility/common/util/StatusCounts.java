@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * The number of tests with each {@link TestStatus}, including tests with no status yet.
+ * <p/>
+ * Kept up to date as the status of each test changes, so that the results of a session can be
+ * counted without visiting every test.
+ */
+class StatusCounts {
+
+    // Tests with no status are counted at index 0, others at their ordinal + 1
+    private final int[] mCounts = new int[TestStatus.values().length + 1];
+
+    /**
+     * Adds delta to the number of tests with the given status.
+     */
+    void add(TestStatus status, int delta) {
+        mCounts[index(status)] += delta;
+    }
+
+    /**
+     * @return the number of tests with the given status.
+     */
+    int get(TestStatus status) {
+        return mCounts[index(status)];
+    }
+
+    private static int index(TestStatus status) {
+        return (status == null) ? 0 : status.ordinal() + 1;
+    }
+}
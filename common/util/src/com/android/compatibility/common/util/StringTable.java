@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of strings, each stored once and referred to by an int id. Used to share the names of
+ * cases and tests between the modules of a session, where the same names appear once per ABI.
+ * <p/>
+ * Strings are never removed, so an id stays valid for the life of the table. Safe to use from
+ * multiple threads.
+ */
+class StringTable {
+
+    /** Returned by {@link #find(String)} for strings not in the table */
+    static final int NOT_FOUND = -1;
+
+    private final Map<String, Integer> mIds = new HashMap<>();
+    private final List<String> mStrings = new ArrayList<>();
+
+    /**
+     * @return the id of the string, adding it to the table if it is not already in it.
+     */
+    synchronized int intern(String s) {
+        Integer id = mIds.get(s);
+        if (id == null) {
+            id = mStrings.size();
+            mStrings.add(s);
+            mIds.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the string, or {@link #NOT_FOUND} if it is not in the table.
+     */
+    synchronized int find(String s) {
+        Integer id = mIds.get(s);
+        return (id == null) ? NOT_FOUND : id;
+    }
+
+    /**
+     * @return the string with the given id.
+     */
+    synchronized String get(int id) {
+        return mStrings.get(id);
+    }
+
+    /**
+     * @return the number of strings in the table.
+     */
+    synchronized int size() {
+        return mStrings.size();
+    }
+}
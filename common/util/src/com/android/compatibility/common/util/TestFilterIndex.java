@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An index of {@link TestFilter}s, keyed by ABI, module name, test class and test method.
+ * <p/>
+ * Each filter is parsed once when it is added, after which looking up the filters of a module or
+ * test takes constant time however many filters there are. Filters without an ABI apply to every
+ * ABI. Tests are of the form "class#method"; tests without a '#' are treated as a whole class.
+ * <p/>
+ * Duplicate filters are only stored once, and filters made redundant by a broader filter are
+ * dropped from {@link #getTestFilters} and {@link #getFilters}. A class filter covers the
+ * methods of the class, and a filter without an ABI covers the same filter with one. Whether a
+ * module filter covers the tests of the module depends on the kind of filter: excluding a module
+ * excludes all of its tests, but including a module alongside some of its tests only runs those
+ * tests, so the tests are kept.
+ * <p/>
+ * Not thread safe while filters are being added, but may be queried from multiple threads once
+ * all filters have been added.
+ */
+public class TestFilterIndex {
+
+    private static final char METHOD_SEPARATOR = '#';
+
+    private final boolean mModuleCoversTests;
+    // ABI (null for all ABIs) -> module name -> filters of the module
+    private final Map<String, Map<String, ModuleNode>> mModules = new HashMap<>();
+    private int mSize = 0;
+
+    /** The filters of a single module for a single ABI. */
+    private static class ModuleNode {
+        boolean mWholeModule = false;
+        // Class name -> filters of the class
+        final Map<String, ClassNode> mClasses = new HashMap<>();
+    }
+
+    /** The filters of a single test class. */
+    private static class ClassNode {
+        boolean mWholeClass = false;
+        final Set<String> mMethods = new HashSet<>();
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param moduleCoversTests whether a filter for a whole module makes filters for the tests of
+     * the module redundant, which is true of exclude filters but not of include filters.
+     */
+    public TestFilterIndex(boolean moduleCoversTests) {
+        mModuleCoversTests = moduleCoversTests;
+    }
+
+    /**
+     * Creates an index of the given filters.
+     *
+     * @see #TestFilterIndex(boolean)
+     */
+    public TestFilterIndex(Collection<String> filters, boolean moduleCoversTests) {
+        this(moduleCoversTests);
+        for (String filter : filters) {
+            addFilter(filter);
+        }
+    }
+
+    /**
+     * Parses and adds a filter of the form "[abi] module [test]".
+     */
+    public void addFilter(String filter) {
+        addFilter(TestFilter.createFrom(filter));
+    }
+
+    /**
+     * Adds a filter, unless it is already in the index.
+     */
+    public void addFilter(TestFilter filter) {
+        Map<String, ModuleNode> modules = mModules.get(filter.getAbi());
+        if (modules == null) {
+            modules = new HashMap<>();
+            mModules.put(filter.getAbi(), modules);
+        }
+        ModuleNode module = modules.get(filter.getName());
+        if (module == null) {
+            module = new ModuleNode();
+            modules.put(filter.getName(), module);
+        }
+        String test = filter.getTest();
+        if (test == null) {
+            if (!module.mWholeModule) {
+                module.mWholeModule = true;
+                mSize++;
+            }
+            return;
+        }
+        int separator = test.indexOf(METHOD_SEPARATOR);
+        String className = (separator < 0) ? test : test.substring(0, separator);
+        ClassNode classNode = module.mClasses.get(className);
+        if (classNode == null) {
+            classNode = new ClassNode();
+            module.mClasses.put(className, classNode);
+        }
+        if (separator < 0) {
+            if (!classNode.mWholeClass) {
+                classNode.mWholeClass = true;
+                mSize++;
+            }
+        } else if (classNode.mMethods.add(test.substring(separator + 1))) {
+            mSize++;
+        }
+    }
+
+    /**
+     * @return the number of distinct filters added to the index.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return true if no filters have been added to the index.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return true if any filter applies to the module or one of its tests.
+     */
+    public boolean hasModule(String abi, String name) {
+        return getModule(abi, name) != null || getModule(null, name) != null;
+    }
+
+    /**
+     * @return true if a filter applies to the whole module.
+     */
+    public boolean containsModule(String abi, String name) {
+        return isWholeModule(getModule(abi, name)) || isWholeModule(getModule(null, name));
+    }
+
+    /**
+     * @return true if a filter applies to one or more tests of the module, rather than to the
+     * whole module.
+     */
+    public boolean hasTestFilters(String abi, String name) {
+        return hasTests(getModule(abi, name)) || hasTests(getModule(null, name));
+    }
+
+    /**
+     * @return true if a filter applies to the whole test class, or to the whole module if
+     * module filters cover tests.
+     */
+    public boolean containsClass(String abi, String name, String className) {
+        if (mModuleCoversTests && containsModule(abi, name)) {
+            return true;
+        }
+        return isWholeClass(getClass(abi, name, className))
+                || isWholeClass(getClass(null, name, className));
+    }
+
+    /**
+     * @return true if a filter applies to the test method, its class, or to the whole module if
+     * module filters cover tests.
+     */
+    public boolean containsTest(String abi, String name, String className, String methodName) {
+        if (containsClass(abi, name, className)) {
+            return true;
+        }
+        return hasMethod(getClass(abi, name, className), methodName)
+                || hasMethod(getClass(null, name, className), methodName);
+    }
+
+    /**
+     * Returns the tests filtered in the given module for the given ABI, without duplicates or
+     * tests covered by the filter of their class, sorted so that equal sets of filters produce
+     * equal lists.
+     *
+     * @return the tests in the form "class" or "class#method".
+     */
+    public List<String> getTestFilters(String abi, String name) {
+        ModuleNode module = getModule(abi, name);
+        ModuleNode allAbis = getModule(null, name);
+        Set<String> tests = new TreeSet<>();
+        if (module != null) {
+            addTests(tests, module, allAbis);
+        }
+        if (allAbis != null) {
+            addTests(tests, allAbis, module);
+        }
+        if (module != null && allAbis != null) {
+            // Classes filtered for both were skipped by both calls above
+            for (String className : module.mClasses.keySet()) {
+                if (isWholeClass(module.mClasses.get(className))
+                        && isWholeClass(allAbis.mClasses.get(className))) {
+                    tests.add(className);
+                }
+            }
+        }
+        return new ArrayList<>(tests);
+    }
+
+    /**
+     * @return all filters in the index in the form "[abi] module [test]", without duplicates or
+     * filters covered by a broader filter.
+     */
+    public Set<String> getFilters() {
+        Set<String> filters = new TreeSet<>();
+        for (Entry<String, Map<String, ModuleNode>> abiEntry : mModules.entrySet()) {
+            String abi = abiEntry.getKey();
+            for (Entry<String, ModuleNode> moduleEntry : abiEntry.getValue().entrySet()) {
+                String name = moduleEntry.getKey();
+                ModuleNode module = moduleEntry.getValue();
+                ModuleNode allAbis = (abi == null) ? null : getModule(null, name);
+                if (module.mWholeModule && !isWholeModule(allAbis)) {
+                    filters.add(new TestFilter(abi, name, null).toString());
+                }
+                if (mModuleCoversTests && (module.mWholeModule || isWholeModule(allAbis))) {
+                    continue;
+                }
+                Set<String> tests = new TreeSet<>();
+                addTests(tests, module, allAbis);
+                for (String test : tests) {
+                    filters.add(new TestFilter(abi, name, test).toString());
+                }
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Adds the tests of the module which are not covered by the filters of the other module,
+     * which may be null.
+     */
+    private static void addTests(Set<String> tests, ModuleNode module, ModuleNode other) {
+        for (Entry<String, ClassNode> classEntry : module.mClasses.entrySet()) {
+            String className = classEntry.getKey();
+            ClassNode classNode = classEntry.getValue();
+            ClassNode otherClass = (other == null) ? null : other.mClasses.get(className);
+            if (isWholeClass(otherClass)) {
+                continue;
+            }
+            if (classNode.mWholeClass) {
+                tests.add(className);
+                continue;
+            }
+            for (String method : classNode.mMethods) {
+                if (!hasMethod(otherClass, method)) {
+                    tests.add(className + METHOD_SEPARATOR + method);
+                }
+            }
+        }
+    }
+
+    private ModuleNode getModule(String abi, String name) {
+        Map<String, ModuleNode> modules = mModules.get(abi);
+        return (modules == null) ? null : modules.get(name);
+    }
+
+    private ClassNode getClass(String abi, String name, String className) {
+        ModuleNode module = getModule(abi, name);
+        return (module == null) ? null : module.mClasses.get(className);
+    }
+
+    private static boolean isWholeModule(ModuleNode module) {
+        return module != null && module.mWholeModule;
+    }
+
+    private static boolean hasTests(ModuleNode module) {
+        return module != null && !module.mClasses.isEmpty();
+    }
+
+    private static boolean isWholeClass(ClassNode classNode) {
+        return classNode != null && classNode.mWholeClass;
+    }
+
+    private static boolean hasMethod(ClassNode classNode, String method) {
+        return classNode != null && classNode.mMethods.contains(method);
+    }
+}
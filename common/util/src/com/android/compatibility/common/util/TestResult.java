@@ -69,6 +69,12 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void setResultStatus(TestStatus status) {
+        if (status != mResult && mParent instanceof CaseResult) {
+            // Keep the counts of the case, module and invocation up to date
+            CaseResult parent = (CaseResult) mParent;
+            parent.updateCount(mResult, -1);
+            parent.updateCount(status, 1);
+        }
         mResult = status;
     }
 
@@ -212,7 +218,7 @@ public class TestResult implements ITestResult {
      */
     @Override
     public void reset() {
-        mResult = null;
+        setResultStatus(null);
         mMessage = null;
         mStackTrace = null;
         mReport = null;
@@ -255,6 +261,21 @@ public class TestResult implements ITestResult {
         return getName().compareTo(another.getName());
     }
 
+    /**
+     * Replace the result of a test with a copy of the result of another test.
+     */
+    static void copyResult(ITestResult from, ITestResult to) {
+        to.reset();
+        to.setResultStatus(from.getResultStatus());
+        to.setRetry(from.isRetry());
+        to.setMessage(from.getMessage());
+        to.setStackTrace(from.getStackTrace());
+        to.setReportLog(from.getReportLog());
+        to.setBugReport(from.getBugReport());
+        to.setLog(from.getLog());
+        to.setScreenshot(from.getScreenshot());
+    }
+
     /**
      * Strip out any invalid XML characters that might cause the report to be unviewable.
      * http://www.w3.org/TR/REC-xml/#dt-character
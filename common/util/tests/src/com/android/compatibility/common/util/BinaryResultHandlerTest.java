@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link BinaryResultHandler} and {@link BinaryResultReader}
+ */
+public class BinaryResultHandlerTest extends TestCase {
+
+    private static final String SUITE_NAME = "CTS";
+    private static final String SUITE_VERSION = "5.0";
+    private static final String SUITE_PLAN = "cts";
+    private static final String SUITE_BUILD = "12345";
+    private static final String ABI = "armeabi-v7a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS_A = "android.test.Foo";
+    private static final String CLASS_B = "android.test.Bar";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String STACK_TRACE = "Something small is not alright\n"
+            + " at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String LOGCAT = "https://cnsviewer.corp.google.com/cns/logcat.gz";
+    private static final String FINGERPRINT = "vendor/product/device:7.0/NRD90M/123:user/keys";
+    private static final String COMMAND_LINE_ARGS = "cts -m ModuleA";
+    private static final long START_MS = 1431586801000L;
+    private static final long END_MS = 1431673199000L;
+
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("result");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    public void testRoundTrip() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.addDeviceSerial("device123");
+        result.addInvocationInfo("build_fingerprint", FINGERPRINT);
+        result.setBuildFingerprint(FINGERPRINT);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.addRuntime(100);
+        moduleA.setDone(true);
+        ICaseResult caseA = moduleA.getOrCreateResult(CLASS_A);
+        caseA.getOrCreateResult(METHOD_1).passed(null);
+        caseA.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        caseA.getOrCreateResult(METHOD_2).setLog(LOGCAT);
+        IModuleResult moduleB = result.getOrCreateModule(ID_B);
+        moduleB.setNotExecuted(5);
+        ICaseResult caseB = moduleB.getOrCreateResult(CLASS_B);
+        caseB.getOrCreateResult(METHOD_1).passed(null);
+        // Not executed, so not reported
+        caseB.getOrCreateResult(METHOD_2);
+        BinaryResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, mResultDir, START_MS, END_MS, null, null, COMMAND_LINE_ARGS);
+
+        try (BinaryResultReader reader = new BinaryResultReader(
+                new File(mResultDir, BinaryResultHandler.BINARY_RESULT_FILE_NAME))) {
+            assertEquals("Wrong suite", SUITE_NAME,
+                    reader.getAttributes().get(BinaryResultHandler.SUITE_NAME_ATTR));
+            assertEquals("Wrong modules", 2, reader.getModuleIds().size());
+            assertNull("Unexpected module", reader.readModule("foo"));
+
+            IModuleResult module = reader.readModule(ID_B);
+            assertFalse("Module should not be done", module.isDone());
+            assertEquals("Wrong not executed", 5, module.getNotExecuted());
+            assertEquals("Wrong number of tests", 1,
+                    module.getResult(CLASS_B).getResults().size());
+
+            IInvocationResult read = reader.readResults();
+            assertEquals("Wrong start time", START_MS, read.getStartTime());
+            assertEquals("Wrong plan", SUITE_PLAN, read.getTestPlan());
+            assertEquals("Wrong command line", COMMAND_LINE_ARGS, read.getCommandLineArgs());
+            assertEquals("Wrong fingerprint", FINGERPRINT, read.getBuildFingerprint());
+            assertTrue("Missing device", read.getDeviceSerials().contains("device123"));
+            assertEquals("Wrong passes", 2, read.countResults(TestStatus.PASS));
+            module = read.getModules().get(0);
+            assertEquals("Wrong runtime", 100, module.getRuntime());
+            assertTrue("Module should be done", module.isDone());
+            ITestResult failure = module.getResult(CLASS_A).getResult(METHOD_2);
+            assertEquals("Wrong status", TestStatus.FAIL, failure.getResultStatus());
+            assertEquals("Wrong stack trace", STACK_TRACE, failure.getStackTrace());
+            assertEquals("Wrong log", LOGCAT, failure.getLog());
+            assertNull("Unexpected screenshot", failure.getScreenshot());
+            assertNull("Unexpected message",
+                    module.getResult(CLASS_A).getResult(METHOD_1).getMessage());
+        }
+    }
+
+    public void testNotBinary() throws Exception {
+        File resultFile = new File(mResultDir, BinaryResultHandler.BINARY_RESULT_FILE_NAME);
+        FileUtil.writeToFile("not a binary result file", resultFile);
+        try {
+            new BinaryResultReader(resultFile);
+            fail("Expected IOException");
+        } catch (IOException expected) {}
+    }
+}
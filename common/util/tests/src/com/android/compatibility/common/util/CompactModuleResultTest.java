@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Unit tests for {@link CompactModuleResult}
+ */
+public class CompactModuleResultTest extends TestCase {
+
+    private static final String NAME = "ModuleName";
+    private static final String ID = AbiUtils.createId("arm64-v8a", NAME);
+    private static final String ID_2 = AbiUtils.createId("armeabi-v7a", NAME);
+    private static final String CLASS = "android.test.FoorBar";
+    private static final String CLASS_2 = "android.test.FoorBar2";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String METHOD_3 = "testBlah3";
+    private static final String STACK_TRACE = "Something small is not alright\n " +
+            "at four.big.insects.Marley.sing(Marley.java:10)";
+    private CompactModuleResult mResult;
+
+    @Override
+    public void setUp() throws Exception {
+        mResult = new CompactModuleResult(ID);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mResult = null;
+    }
+
+    public void testTestResult() throws Exception {
+        ICaseResult caseResult = mResult.getOrCreateResult(CLASS);
+        ITestResult test = caseResult.getOrCreateResult(METHOD_1);
+        assertNull("Expected no status", test.getResultStatus());
+        assertNull("Unexpected test", caseResult.getResult(METHOD_2));
+        test.failed(STACK_TRACE);
+        test.setRetry(true);
+        // A new view of the same test sees the same result
+        ITestResult again = mResult.getResult(CLASS).getResult(METHOD_1);
+        assertEquals("Wrong name", CLASS + "#" + METHOD_1, again.getFullName());
+        assertEquals("Wrong status", TestStatus.FAIL, again.getResultStatus());
+        assertEquals("Wrong message", "Something small is not alright", again.getMessage());
+        assertEquals("Wrong stack trace", STACK_TRACE, again.getStackTrace());
+        assertTrue("Expected retry", again.isRetry());
+        // Passing does not override a failure
+        again.passed(null);
+        assertEquals("Wrong status", TestStatus.FAIL, test.getResultStatus());
+        test.reset();
+        assertNull("Expected no status", again.getResultStatus());
+        assertNull("Expected no message", again.getMessage());
+        assertFalse("Expected no retry", again.isRetry());
+    }
+
+    public void testCountResults() throws Exception {
+        ICaseResult testCase = mResult.getOrCreateResult(CLASS);
+        testCase.getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        testCase.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        testCase.getOrCreateResult(METHOD_3).passed(null);
+        mResult.getOrCreateResult(CLASS_2).getOrCreateResult(METHOD_1).passed(null);
+        assertEquals("Expected two failures", 2, mResult.countResults(TestStatus.FAIL));
+        assertEquals("Expected two passes", 2, mResult.countResults(TestStatus.PASS));
+        assertEquals("Expected one pass", 1, testCase.countResults(TestStatus.PASS));
+        assertEquals("Expected two failures", 2, testCase.getResults(TestStatus.FAIL).size());
+        assertEquals("Wrong test order", METHOD_1, testCase.getResults().get(0).getName());
+    }
+
+    public void testManyTests() throws Exception {
+        ICaseResult caseResult = mResult.getOrCreateResult(CLASS);
+        for (int i = 0; i < 1000; i++) {
+            caseResult.getOrCreateResult(METHOD_1 + i).passed(null);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("Wrong status", TestStatus.PASS,
+                    caseResult.getResult(METHOD_1 + i).getResultStatus());
+        }
+        assertEquals("Wrong number of tests", 1000, caseResult.getResults().size());
+    }
+
+    public void testMergeModule() throws Exception {
+        ICaseResult caseResult = mResult.getOrCreateResult(CLASS);
+        caseResult.getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        caseResult.getOrCreateResult(METHOD_3).passed(null);
+
+        ModuleResult otherResult = new ModuleResult(ID);
+        ICaseResult otherCaseResult = otherResult.getOrCreateResult(CLASS);
+        otherCaseResult.getOrCreateResult(METHOD_1).passed(null);
+        otherCaseResult.getOrCreateResult(METHOD_2).passed(null);
+        otherResult.getOrCreateResult(CLASS_2).getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        otherResult.setDone(true);
+
+        mResult.mergeFrom(otherResult);
+
+        assertEquals("Expected two results", 2, mResult.getResults().size());
+        assertEquals("Expected three passes", 3, mResult.countResults(TestStatus.PASS));
+        assertNull("Expected no stack trace",
+                mResult.getResult(CLASS).getResult(METHOD_1).getStackTrace());
+        assertEquals("Wrong stack trace", STACK_TRACE,
+                mResult.getResult(CLASS_2).getResult(METHOD_1).getStackTrace());
+        assertTrue(mResult.isDone());
+    }
+
+    public void testSharedNames() throws Exception {
+        CompactInvocationResult invocation = new CompactInvocationResult();
+        invocation.getOrCreateModule(ID).getOrCreateResult(CLASS)
+                .getOrCreateResult(METHOD_1).passed(null);
+        invocation.getOrCreateModule(ID_2).getOrCreateResult(CLASS)
+                .getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        assertEquals("Expected two modules", 2, invocation.getModules().size());
+        assertEquals("Expected one pass", 1, invocation.countResults(TestStatus.PASS));
+        assertEquals("Expected one failure", 1, invocation.countResults(TestStatus.FAIL));
+    }
+
+    public void testDeferredDetails() throws Exception {
+        File resultsDir = FileUtil.createTempDir("results");
+        try {
+            File resultDir = FileUtil.createTempDir("12345", resultsDir);
+            IInvocationResult result = new InvocationResult();
+            result.addDeviceSerial("device123");
+            IModuleResult module = result.getOrCreateModule(ID);
+            module.setDone(true);
+            ICaseResult caseResult = module.getOrCreateResult(CLASS);
+            caseResult.getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+            caseResult.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+            caseResult.getOrCreateResult(METHOD_3).passed(null);
+            ResultHandler.writeResults("CTS", "5.0", "cts", "12345", result, resultDir, 0, 1,
+                    null, null, "");
+
+            IInvocationResult loaded = ResultHandler.getResultFromDir(resultDir, false, true);
+            assertTrue("Expected a compact result", loaded instanceof CompactInvocationResult);
+            ICaseResult loadedCase = loaded.getModules().get(0).getResult(CLASS);
+            assertEquals("Expected two failures", 2, loaded.countResults(TestStatus.FAIL));
+            // A test reset before its details are read does not get them back
+            ITestResult reset = loadedCase.getResult(METHOD_2);
+            reset.reset();
+            reset.passed(null);
+            ITestResult failed = loadedCase.getResult(METHOD_1);
+            assertEquals("Wrong status", TestStatus.FAIL, failed.getResultStatus());
+            assertEquals("Wrong message", "Something small is not alright",
+                    failed.getMessage());
+            assertEquals("Wrong stack trace", STACK_TRACE, failed.getStackTrace());
+            assertNull("Expected no stack trace", reset.getStackTrace());
+            assertNull("Expected no stack trace",
+                    loadedCase.getResult(METHOD_3).getStackTrace());
+        } finally {
+            FileUtil.recursiveDelete(resultsDir);
+        }
+    }
+}
@@ -102,6 +102,33 @@ public class ModuleResultTest extends TestCase {
         assertTrue(mResult.isDone());
     }
 
+    public void testCountsFollowChanges() throws Exception {
+        InvocationResult invocation = new InvocationResult();
+        IModuleResult module = invocation.getOrCreateModule(ID);
+        module.setNotExecuted(3);
+        ITestResult test = module.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1);
+        test.failed(STACK_TRACE);
+        assertEquals("Expected one failure", 1, invocation.countResults(TestStatus.FAIL));
+        assertEquals("Expected three not executed", 3, invocation.getNotExecuted());
+        test.reset();
+        test.passed(null);
+        assertEquals("Expected no failures", 0, invocation.countResults(TestStatus.FAIL));
+        assertEquals("Expected one pass", 1, module.countResults(TestStatus.PASS));
+
+        ModuleResult otherResult = new ModuleResult(ID);
+        otherResult.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1).failed(STACK_TRACE);
+        otherResult.getOrCreateResult(CLASS_2).getOrCreateResult(METHOD_2).passed(null);
+        otherResult.setDone(true);
+        invocation.mergeModuleResult(otherResult);
+        assertEquals("Expected one failure", 1, invocation.countResults(TestStatus.FAIL));
+        assertEquals("Expected one pass", 1, invocation.countResults(TestStatus.PASS));
+        assertEquals("Expected none not executed", 0, invocation.getNotExecuted());
+        // Changes to the merged module no longer affect the invocation
+        otherResult.getResult(CLASS).getResult(METHOD_1).passed(null);
+        otherResult.getResult(CLASS).getResult(METHOD_1).reset();
+        assertEquals("Expected one failure", 1, invocation.countResults(TestStatus.FAIL));
+    }
+
     public void testSetDone() {
         assertFalse(mResult.isDone());
         mResult.setDone(true);
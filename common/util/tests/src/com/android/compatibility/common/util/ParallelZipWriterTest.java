@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ParallelZipWriter}
+ */
+public class ParallelZipWriterTest extends TestCase {
+
+    private static final String LOGCAT = "01-01 00:00:00.000  1234  1234 I ActivityManager: "
+            + "Start proc com.android.cts for instrumentation\n";
+    private static final long MODIFIED_MS = 1431586801000L;
+
+    private File mTempDir = null;
+    private File mResultDir = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mTempDir = FileUtil.createTempDir("zip");
+        mResultDir = new File(mTempDir, "2016.01.01_00.00.00");
+        File logs = new File(mResultDir, "logs");
+        logs.mkdirs();
+        new File(mResultDir, "empty").mkdirs();
+        StringBuilder logcat = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            logcat.append(LOGCAT);
+        }
+        write(new File(logs, "logcat.txt"), logcat.toString().getBytes());
+        write(new File(logs, "screenshot.png"), randomBytes(4096));
+        write(new File(logs, "random.bin"), randomBytes(4096));
+        write(new File(mResultDir, "test_result.xml"), new byte[0]);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTempDir);
+    }
+
+    public void testCreateZip() throws Exception {
+        File zip = new File(mTempDir, "results.zip");
+        ParallelZipWriter.createZip(mResultDir, zip, 2);
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                names.add(entry.getName());
+            }
+            String root = mResultDir.getName() + "/";
+            assertEquals("Wrong entries", Arrays.asList(root, root + "empty/", root + "logs/",
+                    root + "logs/logcat.txt", root + "logs/random.bin",
+                    root + "logs/screenshot.png", root + "test_result.xml"), names);
+            assertTrue("Expected a directory", zipFile.getEntry(root + "empty/").isDirectory());
+            assertEquals("Text should be deflated", ZipEntry.DEFLATED,
+                    zipFile.getEntry(root + "logs/logcat.txt").getMethod());
+            assertEquals("Screenshot should be stored", ZipEntry.STORED,
+                    zipFile.getEntry(root + "logs/screenshot.png").getMethod());
+            assertEquals("Incompressible file should be stored", ZipEntry.STORED,
+                    zipFile.getEntry(root + "logs/random.bin").getMethod());
+            for (String name : Arrays.asList("logs/logcat.txt", "logs/random.bin",
+                    "logs/screenshot.png", "test_result.xml")) {
+                byte[] expected = Files.readAllBytes(new File(mResultDir, name).toPath());
+                assertTrue("Wrong content for " + name, Arrays.equals(expected,
+                        read(zipFile, zipFile.getEntry(root + name))));
+            }
+        }
+    }
+
+    public void testSameForAnyThreads() throws Exception {
+        File single = new File(mTempDir, "single.zip");
+        File parallel = new File(mTempDir, "parallel.zip");
+        ParallelZipWriter.createZip(mResultDir, single, 1);
+        ParallelZipWriter.createZip(mResultDir, parallel, 8);
+        assertTrue("Zips differ", Arrays.equals(Files.readAllBytes(single.toPath()),
+                Files.readAllBytes(parallel.toPath())));
+    }
+
+    public void testUnreadableFile() throws Exception {
+        File logs = new File(mResultDir, "logs");
+        for (int i = 0; i < 20; i++) {
+            write(new File(logs, String.format("host_log_%02d.txt", i)), LOGCAT.getBytes());
+        }
+        // A dangling link cannot be read, and is followed by files still queued
+        Files.createSymbolicLink(new File(logs, "host_log_05.txt.link").toPath(),
+                new File(mTempDir, "missing").toPath());
+        final File zip = new File(mTempDir, "results.zip");
+        final Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(() -> {
+            try {
+                ParallelZipWriter.createZip(mResultDir, zip, 1);
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        });
+        thread.start();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse("createZip did not return", thread.isAlive());
+        assertTrue("Expected an IOException, got " + thrown[0],
+                thrown[0] instanceof IOException);
+        assertFalse("Zip should be deleted", zip.exists());
+    }
+
+    public void testIsCompressed() throws Exception {
+        assertTrue(ParallelZipWriter.isCompressed("bugreport.zip"));
+        assertTrue(ParallelZipWriter.isCompressed("screenshot.PNG"));
+        assertTrue(ParallelZipWriter.isCompressed("logcat.txt.gz"));
+        assertFalse(ParallelZipWriter.isCompressed("test_result.xml"));
+        assertFalse(ParallelZipWriter.isCompressed("logcat"));
+    }
+
+    private static void write(File file, byte[] bytes) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        file.setLastModified(MODIFIED_MS);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
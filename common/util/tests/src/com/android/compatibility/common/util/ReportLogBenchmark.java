@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.compatibility.common.util.ReportLog.Metric;
+
+import java.util.Random;
+
+/**
+ * Compares the time taken and the size of {@link ReportLog#serialize(ReportLog)} and
+ * {@link ReportLog#serializeCompact(ReportLog)}, and of parsing their output with
+ * {@link ReportLog#parse(String)}.
+ * <p/>
+ * Not part of {@link UnitTests}; run with
+ * "java com.android.compatibility.common.util.ReportLogBenchmark [values [iterations]]".
+ * The default report has a summary of as many values as a metric can hold, like the frame
+ * times reported by graphics performance tests.
+ */
+public class ReportLogBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        Random random = new Random(0);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = 16.6 + random.nextGaussian();
+        }
+        ReportLog report = new ReportLog();
+        report.setSummary(new Metric("android.view.cts.FrameTimeTest#testFrames:120",
+                "frame times", values, ResultType.LOWER_BETTER, ResultUnit.MS));
+        System.out.printf("%d values, %d iterations\n", count, iterations);
+
+        String xml = ReportLog.serialize(report);
+        String compact = ReportLog.serializeCompact(report);
+        System.out.printf("XML:     %,d chars\n", xml.length());
+        System.out.printf("Compact: %,d chars\n", compact.length());
+
+        long xmlSerialize = time(iterations, () -> ReportLog.serialize(report));
+        long compactSerialize = time(iterations, () -> ReportLog.serializeCompact(report));
+        System.out.printf("serialize:        %,d us per report\n", xmlSerialize);
+        System.out.printf("serializeCompact: %,d us per report\n", compactSerialize);
+        long xmlParse = time(iterations, () -> ReportLog.parse(xml));
+        long compactParse = time(iterations, () -> ReportLog.parse(compact));
+        System.out.printf("parse XML:        %,d us per report\n", xmlParse);
+        System.out.printf("parse compact:    %,d us per report\n", compactParse);
+        System.out.printf("Speedup: serialize %.1f, parse %.1f\n",
+                (double) xmlSerialize / Math.max(1, compactSerialize),
+                (double) xmlParse / Math.max(1, compactParse));
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    /**
+     * @return the average time of the task in microseconds, after warming it up.
+     */
+    private static long time(int iterations, Task task) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / iterations / 1000;
+    }
+}
@@ -152,4 +152,34 @@ public class ReportLogTest extends TestCase {
                 metric.getValues()));
     }
 
+    public void testCompact_noData() throws Exception {
+        ReportLog report = ReportLog.parse(ReportLog.serializeCompact(mReportLog));
+        assertNull(report.getSummary());
+    }
+
+    public void testCompact_summary() throws Exception {
+        double[] values = {-0.0, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, 1.0 / 3};
+        mReportLog.setSummary(new Metric("Sourc\u00e9", "Messag\u00e9", values,
+                ResultType.LOWER_BETTER, ResultUnit.MS));
+        String compact = ReportLog.serializeCompact(mReportLog);
+        assertFalse("Expected a single line", compact.contains("\n"));
+        Metric summary = ReportLog.parse(compact).getSummary();
+        assertEquals("Sourc\u00e9", summary.getSource());
+        assertEquals("Messag\u00e9", summary.getMessage());
+        assertEquals(ResultType.LOWER_BETTER, summary.getType());
+        assertEquals(ResultUnit.MS, summary.getUnit());
+        assertTrue("Expected values to be exact", Arrays.equals(values, summary.getValues()));
+    }
+
+    public void testCompact_truncated() throws Exception {
+        mReportLog.setSummary(new Metric(SOURCE, MESSAGE, VALUES, ResultType.NEUTRAL,
+                ResultUnit.FPS));
+        String compact = ReportLog.serializeCompact(mReportLog);
+        try {
+            ReportLog.parse(compact.substring(0, compact.length() - 12));
+            fail("Expected IOException when parsing a truncated report");
+        } catch (java.io.IOException e) {
+            // Expected
+        }
+    }
 }
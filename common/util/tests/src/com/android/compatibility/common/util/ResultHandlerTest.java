@@ -23,10 +23,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Unit tests for {@link ResultHandler}
@@ -196,6 +199,97 @@ public class ResultHandlerTest extends TestCase {
         checkResult(ResultHandler.getResults(resultsDir), resultDir);
     }
 
+    public void testSessionSummaries() throws Exception {
+        IInvocationResult result = new InvocationResult();
+        result.setStartTime(START_MS);
+        result.addDeviceSerial(DEVICE_A);
+        result.addInvocationInfo(BUILD_ID, EXAMPLE_BUILD_ID);
+        result.addInvocationInfo(BUILD_PRODUCT, EXAMPLE_BUILD_PRODUCT);
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        moduleA.setDone(true);
+        ICaseResult moduleACase = moduleA.getOrCreateResult(CLASS_A);
+        moduleACase.getOrCreateResult(METHOD_1).passed(null);
+        moduleACase.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        ResultHandler.writeResults(SUITE_NAME, SUITE_VERSION, SUITE_PLAN, SUITE_BUILD,
+                result, resultDir, START_MS, END_MS, REFERENCE_URL, LOG_URL,
+                COMMAND_LINE_ARGS);
+
+        checkSummaries(ResultHandler.getSessionSummaries(resultsDir));
+        assertTrue("Expected an index", new File(resultsDir,
+                ResultHandler.SESSION_INDEX_FILE_NAME).exists());
+        // Summaries are read from the index
+        new File(resultDir, SessionSummary.SUMMARY_FILE_NAME).delete();
+        checkSummaries(ResultHandler.getSessionSummaries(resultsDir));
+        // And from the header of the result file without a summary file or index
+        new File(resultsDir, ResultHandler.SESSION_INDEX_FILE_NAME).delete();
+        checkSummaries(ResultHandler.getSessionSummaries(resultsDir));
+        assertEquals("Wrong session", CLASS_A, ResultHandler.findResult(resultsDir, 0)
+                .getModules().get(0).getResults().get(0).getName());
+    }
+
+    private void checkSummaries(List<SessionSummary> summaries) {
+        assertEquals("Expected 1 session", 1, summaries.size());
+        SessionSummary summary = summaries.get(0);
+        assertEquals("Incorrect result directory", resultDir, summary.getResultDir());
+        assertEquals("Incorrect start time", START_MS, summary.getStartTime());
+        assertEquals("Incorrect test plan", SUITE_PLAN, summary.getTestPlan());
+        assertEquals("Incorrect command line", COMMAND_LINE_ARGS, summary.getCommandLineArgs());
+        assertTrue("Missing device", summary.getDeviceSerials().contains(DEVICE_A));
+        assertEquals("Incorrect Build ID", EXAMPLE_BUILD_ID, summary.getBuildId());
+        assertEquals("Incorrect Build Product", EXAMPLE_BUILD_PRODUCT, summary.getBuildProduct());
+        assertEquals("Expected 1 pass", 1, summary.getPassed());
+        assertEquals("Expected 1 failure", 1, summary.getFailed());
+        assertEquals("Expected 1 module done", 1, summary.getModulesDone());
+        assertEquals("Expected 1 module", 1, summary.getModulesTotal());
+    }
+
+    public void testSessionSummaryFromFile() throws Exception {
+        // The result file is not read when its summary file is up to date
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        FileUtil.writeToFile("not xml", resultFile);
+        resultFile.setLastModified(START_MS);
+        Set<String> devices = new HashSet<>(Arrays.asList(DEVICE_A, DEVICE_B));
+        SessionSummary summary = new SessionSummary(resultDir, START_MS, SUITE_PLAN,
+                COMMAND_LINE_ARGS, devices, EXAMPLE_BUILD_ID, null, DEVICE_A, 2, 1, 3, 1, 2);
+        FileUtil.writeToFile(summary.toRecord(),
+                new File(resultDir, SessionSummary.SUMMARY_FILE_NAME));
+
+        List<SessionSummary> summaries = ResultHandler.getSessionSummaries(resultsDir);
+        assertEquals("Expected 1 session", 1, summaries.size());
+        summary = summaries.get(0);
+        assertEquals("Incorrect command line", COMMAND_LINE_ARGS, summary.getCommandLineArgs());
+        assertEquals("Incorrect devices", devices, summary.getDeviceSerials());
+        assertNull("Unexpected Build Product", summary.getBuildProduct());
+        assertEquals("Expected 3 not executed", 3, summary.getNotExecuted());
+        assertEquals("Expected 2 modules", 2, summary.getModulesTotal());
+    }
+
+    public void testForEachResult() throws Exception {
+        // Sessions killed before writing their result file, rebuilt from their journals
+        int numSessions = 20;
+        for (int i = 0; i < numSessions; i++) {
+            File sessionDir = new File(resultsDir, String.format("session_%02d", i));
+            sessionDir.mkdirs();
+            ResultJournal journal = new ResultJournal(
+                    new File(sessionDir, ResultJournal.JOURNAL_FILE_NAME));
+            journal.startSession(START_MS + i, SUITE_PLAN, COMMAND_LINE_ARGS);
+            journal.close();
+        }
+        final List<Long> startTimes = new ArrayList<>();
+        ResultHandler.forEachResult(resultsDir, false, new Consumer<IInvocationResult>() {
+            @Override
+            public void accept(IInvocationResult result) {
+                startTimes.add(result.getStartTime());
+            }
+        });
+        assertEquals("Wrong number of sessions", numSessions, startTimes.size());
+        for (int i = 0; i < numSessions; i++) {
+            assertEquals("Sessions out of order", START_MS + i, (long) startTimes.get(i));
+        }
+        assertEquals("Wrong number of sessions", numSessions,
+                ResultHandler.getResults(resultsDir).size());
+    }
+
     public void testParsing() throws Exception {
         File resultsDir = null;
         FileWriter writer = null;
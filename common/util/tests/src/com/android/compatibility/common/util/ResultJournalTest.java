@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ResultJournal}
+ */
+public class ResultJournalTest extends TestCase {
+
+    private static final String ABI = "armeabi-v7a";
+    private static final String ID_A = AbiUtils.createId(ABI, "ModuleA");
+    private static final String ID_B = AbiUtils.createId(ABI, "ModuleB");
+    private static final String CLASS = "android.test.Foo";
+    private static final String METHOD_1 = "testBlah1";
+    private static final String METHOD_2 = "testBlah2";
+    private static final String MESSAGE = "Something\tsmall is not\\alright";
+    private static final String STACK_TRACE = "Something small is not alright\n"
+            + " at four.big.insects.Marley.sing(Marley.java:10)";
+    private static final String FINGERPRINT = "vendor/product/device:7.0/NRD90M/123:user/keys";
+    private static final String COMMAND_LINE_ARGS = "cts -m ModuleA";
+    private static final long START_MS = 1431586801000L;
+
+    private File mResultDir = null;
+    private File mJournalFile = null;
+
+    @Override
+    public void setUp() throws Exception {
+        mResultDir = FileUtil.createTempDir("result");
+        mJournalFile = new File(mResultDir, ResultJournal.JOURNAL_FILE_NAME);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultDir);
+    }
+
+    public void testReplay() throws Exception {
+        ResultJournal journal = new ResultJournal(mJournalFile);
+        journal.startSession(START_MS, "cts", COMMAND_LINE_ARGS);
+        journal.addDeviceSerial("device123");
+        journal.addInvocationInfo("build_fingerprint", FINGERPRINT);
+        IModuleResult moduleA = new ModuleResult(ID_A);
+        moduleA.addRuntime(100);
+        ICaseResult caseA = moduleA.getOrCreateResult(CLASS);
+        caseA.getOrCreateResult(METHOD_1).passed(null);
+        journal.addModule(moduleA);
+        // A later snapshot of the same module replaces the first
+        caseA.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        caseA.getOrCreateResult(METHOD_2).setMessage(MESSAGE);
+        moduleA.setDone(true);
+        journal.addModule(moduleA);
+        journal.close();
+
+        IInvocationResult result = ResultJournal.replay(mJournalFile);
+        assertEquals("Wrong start time", START_MS, result.getStartTime());
+        assertEquals("Wrong command line", COMMAND_LINE_ARGS, result.getCommandLineArgs());
+        assertEquals("Wrong fingerprint", FINGERPRINT, result.getBuildFingerprint());
+        assertTrue("Missing device", result.getDeviceSerials().contains("device123"));
+        assertEquals("Wrong number of modules", 1, result.getModules().size());
+        IModuleResult module = result.getModules().get(0);
+        assertEquals("Wrong runtime", 100, module.getRuntime());
+        assertTrue("Module should be done", module.isDone());
+        assertEquals("Wrong number of passes", 1, module.countResults(TestStatus.PASS));
+        ITestResult failure = module.getResult(CLASS).getResult(METHOD_2);
+        assertEquals("Wrong status", TestStatus.FAIL, failure.getResultStatus());
+        assertEquals("Wrong message", MESSAGE, failure.getMessage());
+        assertEquals("Wrong stack trace", STACK_TRACE, failure.getStackTrace());
+        assertNull("Unexpected bug report", failure.getBugReport());
+    }
+
+    public void testReplayRuns() throws Exception {
+        ResultJournal journal = new ResultJournal(mJournalFile);
+        journal.startSession(START_MS, "cts", COMMAND_LINE_ARGS);
+        // Runs of a module by two shards are merged
+        IModuleResult run1 = new ModuleResult(ID_A);
+        run1.addRuntime(100);
+        run1.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1).passed(null);
+        journal.addModuleRun(ResultJournal.encodeModuleRun(run1));
+        IModuleResult run2 = new ModuleResult(ID_A);
+        run2.addRuntime(50);
+        run2.getOrCreateResult(CLASS).getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        journal.addModuleRun(ResultJournal.encodeModuleRun(run2));
+        journal.close();
+
+        IInvocationResult result = ResultJournal.replay(mJournalFile);
+        assertEquals("Wrong number of modules", 1, result.getModules().size());
+        IModuleResult module = result.getModules().get(0);
+        assertEquals("Wrong runtime", 150, module.getRuntime());
+        assertEquals("Wrong number of passes", 1, module.countResults(TestStatus.PASS));
+        assertEquals("Wrong number of failures", 1, module.countResults(TestStatus.FAIL));
+    }
+
+    public void testSummary() throws Exception {
+        // mResultDir serves as the results directory of a single session
+        File sessionDir = new File(mResultDir, "session");
+        sessionDir.mkdir();
+        ResultJournal journal = new ResultJournal(
+                new File(sessionDir, ResultJournal.JOURNAL_FILE_NAME));
+        journal.startSession(START_MS, "cts", COMMAND_LINE_ARGS);
+        journal.addDeviceSerial("device123");
+        journal.addInvocationInfo("build_fingerprint", FINGERPRINT);
+        IInvocationResult result = new InvocationResult();
+        IModuleResult moduleA = result.getOrCreateModule(ID_A);
+        ICaseResult caseA = moduleA.getOrCreateResult(CLASS);
+        caseA.getOrCreateResult(METHOD_1).passed(null);
+        caseA.getOrCreateResult(METHOD_2).failed(STACK_TRACE);
+        moduleA.setDone(true);
+        result.getOrCreateModule(ID_B);
+        journal.addModule(moduleA);
+        journal.updateSummary(result);
+        journal.close();
+
+        // Listed from the summary file, without replaying the journal
+        List<SessionSummary> summaries = ResultHandler.getSessionSummaries(mResultDir);
+        assertEquals("Expected 1 session", 1, summaries.size());
+        SessionSummary summary = summaries.get(0);
+        assertEquals("Wrong start time", START_MS, summary.getStartTime());
+        assertEquals("Wrong command line", COMMAND_LINE_ARGS, summary.getCommandLineArgs());
+        assertEquals("Wrong fingerprint", FINGERPRINT, summary.getBuildFingerprint());
+        assertTrue("Missing device", summary.getDeviceSerials().contains("device123"));
+        assertEquals("Expected 1 pass", 1, summary.getPassed());
+        assertEquals("Expected 1 failure", 1, summary.getFailed());
+        assertEquals("Expected 1 module done", 1, summary.getModulesDone());
+        assertEquals("Expected 2 modules", 2, summary.getModulesTotal());
+    }
+
+    public void testReplayPartial() throws Exception {
+        ResultJournal journal = new ResultJournal(mJournalFile);
+        journal.startSession(START_MS, "cts", COMMAND_LINE_ARGS);
+        IModuleResult moduleA = new ModuleResult(ID_A);
+        moduleA.getOrCreateResult(CLASS).getOrCreateResult(METHOD_1).passed(null);
+        journal.addModule(moduleA);
+        journal.close();
+        // Simulate the session being killed while writing a snapshot of another module
+        try (FileWriter writer = new FileWriter(mJournalFile, true)) {
+            writer.write("MODULE\t" + ID_B + "\t0\tfalse\t0\t0\t0\nTEST\t" + CLASS + "\t");
+        }
+
+        IInvocationResult result = ResultJournal.replay(mJournalFile);
+        assertEquals("Wrong number of modules", 1, result.getModules().size());
+        assertEquals("Wrong module", ID_A, result.getModules().get(0).getId());
+        // Sessions without a test_result.xml are rebuilt from their journal
+        IInvocationResult recovered = ResultHandler.getResultFromDir(mResultDir, false);
+        assertEquals("Wrong start time", START_MS, recovered.getStartTime());
+        assertEquals("Wrong number of modules", 1, recovered.getModules().size());
+    }
+}
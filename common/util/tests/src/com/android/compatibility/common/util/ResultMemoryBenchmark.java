@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+/**
+ * Compares the heap used by an {@link InvocationResult} and a {@link CompactInvocationResult}
+ * holding the same session.
+ * <p/>
+ * Not part of {@link UnitTests}; run with
+ * "java com.android.compatibility.common.util.ResultMemoryBenchmark [modules [cases [tests]]]".
+ * The default session is sized like dEQP run on two ABIs, with one test in a hundred failing.
+ */
+public class ResultMemoryBenchmark {
+
+    private static final String[] ABIS = {"arm64-v8a", "armeabi-v7a"};
+    private static final String STACK_TRACE = "junit.framework.AssertionFailedError: Fail\n"
+            + " at dEQP.Test.run(Test.java:10)";
+
+    public static void main(String[] args) throws Exception {
+        int modules = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int cases = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int tests = (args.length > 2) ? Integer.parseInt(args[2]) : 250;
+        System.out.printf("%d modules x %d ABIs x %d cases x %d tests\n",
+                modules, ABIS.length, cases, tests);
+        long classic = measure(new InvocationResult(), modules, cases, tests);
+        System.out.printf("InvocationResult:        %,d bytes\n", classic);
+        long compact = measure(new CompactInvocationResult(), modules, cases, tests);
+        System.out.printf("CompactInvocationResult: %,d bytes\n", compact);
+        System.out.printf("Ratio: %.2f\n", (double) classic / compact);
+    }
+
+    /**
+     * @return the heap retained by the result once filled with the session.
+     */
+    private static long measure(IInvocationResult result, int modules, int cases, int tests) {
+        long before = usedMemory();
+        fill(result, modules, cases, tests);
+        long after = usedMemory();
+        // Keep the result reachable until it has been measured
+        if (result.countResults(TestStatus.PASS) < 0) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static void fill(IInvocationResult result, int modules, int cases, int tests) {
+        int count = 0;
+        for (String abi : ABIS) {
+            for (int m = 0; m < modules; m++) {
+                IModuleResult module = result.getOrCreateModule(
+                        AbiUtils.createId(abi, "CtsDeqpTestCases" + m));
+                for (int c = 0; c < cases; c++) {
+                    // New strings for every module, as when parsed from a report
+                    ICaseResult caseResult = module.getOrCreateResult(
+                            new String("dEQP-GLES3.functional.module" + m + ".case" + c));
+                    for (int t = 0; t < tests; t++) {
+                        ITestResult test = caseResult.getOrCreateResult(
+                                new String("variant_" + t));
+                        if (++count % 100 == 0) {
+                            test.failed(STACK_TRACE);
+                        } else {
+                            test.passed(null);
+                        }
+                    }
+                }
+                module.setDone(true);
+            }
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for {@link ResultUploader}, against a local HTTP server.
+ */
+public class ResultUploaderTest extends TestCase {
+
+    private static final String RESULT_XML = "<?xml version='1.0' encoding='UTF-8' ?>"
+            + "<Result suite_name=\"CTS\" />";
+    private static final String BOUNDARY = "C75I55u3R3p0r73r";
+
+    private HttpServer mServer = null;
+    private File mResultFile = null;
+    // The responses the server gives, in order; the last is repeated
+    private List<Integer> mResponses = new ArrayList<>();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final List<byte[]> mBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+    private final List<String> mTransferEncodings =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void setUp() throws Exception {
+        mResultFile = FileUtil.createTempFile("test_result", ".xml");
+        try (FileWriter writer = new FileWriter(mResultFile)) {
+            writer.write(RESULT_XML);
+        }
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", this::handle);
+        mServer.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mServer.stop(0);
+        FileUtil.deleteFile(mResultFile);
+    }
+
+    public void testUploadResult() throws Exception {
+        mResponses.add(200);
+        assertEquals("Wrong response", 200, newUploader().uploadResult(mResultFile, "ref"));
+        assertEquals("Wrong number of requests", 1, mRequests.get());
+        assertEquals("Result should be streamed in chunks", "chunked",
+                mTransferEncodings.get(0));
+        assertEquals("Wrong result", RESULT_XML, getResult(mBodies.get(0)));
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        mResponses.add(503);
+        mResponses.add(500);
+        mResponses.add(200);
+        assertEquals("Wrong response", 200, newUploader().uploadResult(mResultFile, null));
+        assertEquals("Wrong number of requests", 3, mRequests.get());
+        for (byte[] body : mBodies) {
+            assertEquals("Each attempt should send the whole result", RESULT_XML,
+                    getResult(body));
+        }
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        mResponses.add(500);
+        try {
+            newUploader().uploadResult(mResultFile, null);
+            fail("Expected upload to fail");
+        } catch (IOException expected) {
+        }
+        assertEquals("Wrong number of requests", 3, mRequests.get());
+    }
+
+    public void testDoesNotRetryRequestErrors() throws Exception {
+        mResponses.add(400);
+        try {
+            newUploader().uploadResult(mResultFile, null);
+            fail("Expected upload to fail");
+        } catch (IOException expected) {
+        }
+        // Only sent again with its length, in case the server refused the chunked request
+        assertEquals("Wrong number of requests", 2, mRequests.get());
+        assertNull("Result should be sent with its length", mTransferEncodings.get(1));
+    }
+
+    public void testDoesNotResendRefusedRequests() throws Exception {
+        mResponses.add(403);
+        try {
+            newUploader().uploadResult(mResultFile, null);
+            fail("Expected upload to fail");
+        } catch (IOException expected) {
+        }
+        // Sending its length would not change the response
+        assertEquals("Wrong number of requests", 1, mRequests.get());
+    }
+
+    public void testFallsBackToFixedLength() throws Exception {
+        mResponses.add(411);
+        mResponses.add(200);
+        assertEquals("Wrong response", 200, newUploader().uploadResult(mResultFile, null));
+        assertEquals("Wrong number of requests", 2, mRequests.get());
+        assertEquals("Result should first be streamed in chunks", "chunked",
+                mTransferEncodings.get(0));
+        assertNull("Result should be sent with its length", mTransferEncodings.get(1));
+        assertEquals("Wrong result", RESULT_XML, getResult(mBodies.get(1)));
+    }
+
+    public void testUploadResultAsync() throws Exception {
+        mResponses.add(200);
+        assertEquals("Wrong response", Integer.valueOf(200),
+                newUploader().uploadResultAsync(mResultFile, null).get());
+        assertEquals("Wrong result", RESULT_XML, getResult(mBodies.get(0)));
+    }
+
+    private ResultUploader newUploader() {
+        ResultUploader uploader = new ResultUploader(String.format("http://127.0.0.1:%d/",
+                mServer.getAddress().getPort()), "CTS");
+        uploader.mMultipartForm.setRetryPolicy(3, 1);
+        return uploader;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int request = mRequests.getAndIncrement();
+        mTransferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+        mBodies.add(readAll(exchange.getRequestBody()));
+        int response = mResponses.get(Math.min(request, mResponses.size() - 1));
+        exchange.sendResponseHeaders(response, -1);
+        exchange.close();
+    }
+
+    /**
+     * @return the result XML in the body of a request, un-gzipped.
+     */
+    private static String getResult(byte[] body) throws IOException {
+        String header = "Content-Transfer-Encoding: binary" + System.lineSeparator()
+                + System.lineSeparator();
+        String footer = System.lineSeparator() + "--" + BOUNDARY + "--";
+        // ISO-8859-1 maps every byte to a char, so indices are byte offsets
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int start = text.indexOf(header) + header.length();
+        int end = text.lastIndexOf(footer);
+        try (InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(body, start, end - start))) {
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link StatAccumulator} and {@link QuantileSketch}
+ */
+public class StatAccumulatorTest extends TestCase {
+
+    private static final double ACCURACY = QuantileSketch.DEFAULT_RELATIVE_ACCURACY;
+
+    /**
+     * Test that the statistics match those of {@link Stat#getStat(double[])}.
+     */
+    public void testMatchesStat() {
+        double[] values = randomValues(new Random(0), 10000);
+        StatAccumulator stats = new StatAccumulator();
+        stats.addAll(values);
+        Stat.StatResult expected = Stat.getStat(values);
+        assertEquals(expected.mDataCount, stats.getCount());
+        assertEquals(expected.mAverage, stats.getMean(), 1e-9);
+        assertEquals(expected.mStddev, stats.getStddev(), 1e-9);
+        assertEquals(expected.mMin, stats.getMin(), 0);
+        assertEquals(expected.mMax, stats.getMax(), 0);
+    }
+
+    /**
+     * Test that quantiles are within the relative accuracy of the exact quantiles.
+     */
+    public void testQuantiles() {
+        double[] values = randomValues(new Random(1), 100000);
+        StatAccumulator stats = new StatAccumulator();
+        stats.addAll(values);
+        double[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        for (double quantile : new double[] {0, 0.5, 0.9, 0.99, 1}) {
+            double expected = sorted[(int) (quantile * (sorted.length - 1))];
+            assertEquals("Wrong quantile " + quantile, expected, stats.getQuantile(quantile),
+                    expected * ACCURACY);
+        }
+    }
+
+    /**
+     * Test that quantiles of values of both signs, including zero, are ordered.
+     */
+    public void testQuantilesOfBothSigns() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = -100; i <= 100; i++) {
+            sketch.add(i);
+        }
+        assertEquals(-100, sketch.getQuantile(0), 0);
+        assertEquals(-50, sketch.getQuantile(0.25), 50 * ACCURACY);
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertEquals(50, sketch.getQuantile(0.75), 50 * ACCURACY);
+        assertEquals(100, sketch.getQuantile(1), 0);
+    }
+
+    /**
+     * Test that merging accumulators is the same as adding all the values to one.
+     */
+    public void testMerge() {
+        double[] values = randomValues(new Random(2), 20000);
+        StatAccumulator all = new StatAccumulator();
+        all.addAll(values);
+        StatAccumulator first = new StatAccumulator();
+        StatAccumulator second = new StatAccumulator();
+        first.addAll(Arrays.copyOfRange(values, 0, 5000));
+        second.addAll(Arrays.copyOfRange(values, 5000, values.length));
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-9);
+        assertEquals(all.getStddev(), first.getStddev(), 1e-9);
+        assertEquals(all.getMin(), first.getMin(), 0);
+        assertEquals(all.getMax(), first.getMax(), 0);
+        for (double quantile : new double[] {0.5, 0.9, 0.99}) {
+            assertEquals(all.getQuantile(quantile), first.getQuantile(quantile), 0);
+        }
+    }
+
+    /**
+     * Test that values far from the running median are rejected.
+     */
+    public void testOutlierRejection() {
+        Random random = new Random(3);
+        StatAccumulator stats = new StatAccumulator(0.5);
+        for (int i = 0; i < 1000; i++) {
+            // A spike every hundred samples
+            stats.add((i % 100 == 50) ? 1000 : 10 + random.nextDouble());
+        }
+        assertEquals(10, stats.getRejectedCount());
+        assertEquals(990, stats.getCount());
+        assertTrue("Spikes should be rejected", stats.getMax() < 11);
+        assertEquals(10.5, stats.getMean(), 0.1);
+    }
+
+    /**
+     * Test that memory stays bounded for values spanning many orders of magnitude.
+     */
+    public void testWideRange() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int exponent = -300; exponent <= 300; exponent++) {
+            sketch.add(Math.pow(10, exponent));
+        }
+        assertEquals(1e300, sketch.getQuantile(1), 0);
+        // The largest values keep their accuracy
+        assertEquals(1e299, sketch.getQuantile(599.0 / 600), 1e299 * ACCURACY);
+    }
+
+    private static double[] randomValues(Random random, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            // Long tailed, like latencies
+            values[i] = 5 + Math.exp(random.nextGaussian());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link TestFilterIndex}
+ */
+public class TestFilterIndexTest extends TestCase {
+
+    private static final String ABI_32 = "armeabi-v7a";
+    private static final String ABI_64 = "arm64-v8a";
+    private static final String NAME_A = "ModuleA";
+    private static final String NAME_B = "ModuleB";
+    private static final String CLASS = "com.android.foobar.Blah";
+    private static final String OTHER_CLASS = "com.android.foobar.Other";
+    private static final String METHOD = "testAllTheThings";
+    private static final String TEST = CLASS + "#" + METHOD;
+    private static final String OTHER_TEST = OTHER_CLASS + "#" + METHOD;
+
+    public void testModuleFilters() throws Exception {
+        TestFilterIndex index = new TestFilterIndex(Arrays.asList(
+                NAME_A, ABI_64 + " " + NAME_B), true);
+        assertTrue("Missing module", index.containsModule(ABI_32, NAME_A));
+        assertTrue("Missing module", index.containsModule(ABI_64, NAME_A));
+        assertFalse("Unexpected module", index.containsModule(ABI_32, NAME_B));
+        assertTrue("Missing module", index.containsModule(ABI_64, NAME_B));
+        assertFalse("Unexpected test filters", index.hasTestFilters(ABI_64, NAME_A));
+        assertTrue("Missing test", index.containsTest(ABI_32, NAME_A, CLASS, METHOD));
+        assertFalse("Unexpected test", index.containsTest(ABI_32, NAME_B, CLASS, METHOD));
+    }
+
+    public void testTestFilters() throws Exception {
+        TestFilterIndex index = new TestFilterIndex(Arrays.asList(
+                NAME_A + " " + TEST, NAME_A + " " + TEST, ABI_32 + " " + NAME_A + " " + CLASS,
+                ABI_64 + " " + NAME_A + " " + OTHER_TEST), false);
+        assertEquals("Duplicate not removed", 3, index.size());
+        assertTrue("Missing module", index.hasModule(ABI_32, NAME_A));
+        assertFalse("Unexpected module", index.containsModule(ABI_32, NAME_A));
+        assertTrue("Missing test filters", index.hasTestFilters(ABI_32, NAME_A));
+        assertTrue("Missing class", index.containsClass(ABI_32, NAME_A, CLASS));
+        assertFalse("Unexpected class", index.containsClass(ABI_64, NAME_A, CLASS));
+        assertTrue("Missing test", index.containsTest(ABI_32, NAME_A, CLASS, "testOther"));
+        assertTrue("Missing test", index.containsTest(ABI_64, NAME_A, CLASS, METHOD));
+        assertFalse("Unexpected test", index.containsTest(ABI_64, NAME_A, CLASS, "testOther"));
+        // The class filter covers its method
+        assertEquals("Wrong filters", Arrays.asList(CLASS), index.getTestFilters(ABI_32, NAME_A));
+        assertEquals("Wrong filters", Arrays.asList(TEST, OTHER_TEST),
+                index.getTestFilters(ABI_64, NAME_A));
+        assertTrue("Unexpected filters", index.getTestFilters(ABI_64, NAME_B).isEmpty());
+    }
+
+    public void testGetFilters_exclude() throws Exception {
+        List<String> filters = Arrays.asList(NAME_A, ABI_32 + " " + NAME_A,
+                NAME_A + " " + TEST, ABI_64 + " " + NAME_B + " " + CLASS,
+                ABI_64 + " " + NAME_B + " " + TEST, NAME_B + " " + OTHER_TEST);
+        Set<String> minimized = new TestFilterIndex(filters, true).getFilters();
+        assertEquals("Wrong number of filters", 3, minimized.size());
+        assertTrue("Missing filter", minimized.contains(NAME_A));
+        assertTrue("Missing filter", minimized.contains(ABI_64 + " " + NAME_B + " " + CLASS));
+        assertTrue("Missing filter", minimized.contains(NAME_B + " " + OTHER_TEST));
+    }
+
+    public void testGetFilters_include() throws Exception {
+        List<String> filters = Arrays.asList(NAME_A, NAME_A + " " + TEST,
+                NAME_A + " " + CLASS, ABI_32 + " " + NAME_A + " " + TEST);
+        Set<String> minimized = new TestFilterIndex(filters, false).getFilters();
+        // Including the module does not cover the class, which narrows the module to that class
+        assertEquals("Wrong number of filters", 2, minimized.size());
+        assertTrue("Missing filter", minimized.contains(NAME_A));
+        assertTrue("Missing filter", minimized.contains(NAME_A + " " + CLASS));
+    }
+}
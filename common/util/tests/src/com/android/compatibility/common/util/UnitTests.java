@@ -28,15 +28,22 @@ public class UnitTests extends TestSuite {
     public UnitTests() {
         super();
         addTestSuite(AbiUtilsTest.class);
+        addTestSuite(BinaryResultHandlerTest.class);
         addTestSuite(CaseResultTest.class);
+        addTestSuite(CompactModuleResultTest.class);
         addTestSuite(DynamicConfigTest.class);
         addTestSuite(MetricsXmlSerializerTest.class);
         addTestSuite(ModuleResultTest.class);
         addTestSuite(MultipartFormTest.class);
+        addTestSuite(ParallelZipWriterTest.class);
         addTestSuite(ReportLogTest.class);
         addTestSuite(ResultHandlerTest.class);
+        addTestSuite(ResultJournalTest.class);
+        addTestSuite(ResultUploaderTest.class);
+        addTestSuite(StatAccumulatorTest.class);
         addTestSuite(StatTest.class);
         addTestSuite(TestFilterTest.class);
+        addTestSuite(TestFilterIndexTest.class);
         addTestSuite(TestResultTest.class);
     }
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.compatibility.common.util;
+
+import com.android.tradefed.util.FileUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares the time taken by {@link ZipUtil} and {@link ParallelZipWriter} to zip a result
+ * directory.
+ * <p/>
+ * Not part of {@link UnitTests}; run with
+ * "java com.android.compatibility.common.util.ZipBenchmark [modules [threads]]".
+ * Each module of the generated result directory has a logcat, a zipped bugreport, a few PNG
+ * screenshots and a host log, in the proportions of a session run with bugreports on failure.
+ */
+public class ZipBenchmark {
+
+    private static final String LOG_LINE = "%02d-%02d %02d:%02d:%02d.%03d %5d %5d I %s: "
+            + "Test %d of module %d completed in %d ms\n";
+    private static final String[] TAGS = {"ActivityManager", "TestRunner", "PackageManager",
+            "WindowManager", "InputDispatcher"};
+    private static final int LOGCAT_SIZE = 4 * 1024 * 1024;
+    private static final int BUGREPORT_SIZE = 2 * 1024 * 1024;
+    private static final int SCREENSHOT_SIZE = 300 * 1024;
+    private static final int SCREENSHOTS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int modules = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        File tempDir = FileUtil.createTempDir("zip-benchmark");
+        try {
+            File resultDir = new File(tempDir, "2016.01.01_00.00.00");
+            long size = createResultDir(resultDir, modules);
+            System.out.printf("%d modules, %,d bytes\n", modules, size);
+
+            File classic = new File(tempDir, "classic.zip");
+            long start = System.currentTimeMillis();
+            ZipUtil.createZip(resultDir, classic);
+            long classicMs = System.currentTimeMillis() - start;
+            System.out.printf("ZipUtil:                       %,d ms, %,d bytes\n",
+                    classicMs, classic.length());
+
+            File parallel = new File(tempDir, "parallel.zip");
+            start = System.currentTimeMillis();
+            ParallelZipWriter.createZip(resultDir, parallel, threads);
+            long parallelMs = System.currentTimeMillis() - start;
+            System.out.printf("ParallelZipWriter (%2d threads): %,d ms, %,d bytes\n",
+                    threads, parallelMs, parallel.length());
+            System.out.printf("Speedup: %.2f\n", (double) classicMs / Math.max(1, parallelMs));
+        } finally {
+            FileUtil.recursiveDelete(tempDir);
+        }
+    }
+
+    /**
+     * @return the total size of the files created.
+     */
+    private static long createResultDir(File resultDir, int modules) throws Exception {
+        Random random = new Random(0);
+        long size = 0;
+        for (int m = 0; m < modules; m++) {
+            File logs = new File(resultDir, "logs/module" + m);
+            logs.mkdirs();
+            size += writeLogcat(new File(logs, "logcat.txt"), random, m);
+            size += writeBugreport(new File(logs, "bugreport.zip"), random);
+            for (int s = 0; s < SCREENSHOTS; s++) {
+                size += writeRandom(new File(logs, "screenshot" + s + ".png"), random,
+                        SCREENSHOT_SIZE);
+            }
+            size += writeLogcat(new File(logs, "host_log.txt"), random, m) ;
+        }
+        return size;
+    }
+
+    private static long writeLogcat(File file, Random random, int module) throws Exception {
+        long size = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; size < LOGCAT_SIZE; i++) {
+                byte[] line = String.format(LOG_LINE, 1 + random.nextInt(12),
+                        1 + random.nextInt(28), random.nextInt(24), random.nextInt(60),
+                        random.nextInt(60), random.nextInt(1000), 1000 + random.nextInt(9000),
+                        1000 + random.nextInt(9000), TAGS[random.nextInt(TAGS.length)], i,
+                        module, random.nextInt(5000)).getBytes();
+                out.write(line);
+                size += line.length;
+            }
+        }
+        return size;
+    }
+
+    private static long writeBugreport(File file, Random random) throws Exception {
+        // Bugreports are zips of already deflated logs, which do not compress any further
+        byte[] data = new byte[BUGREPORT_SIZE];
+        random.nextBytes(data);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.setLevel(0);
+            out.putNextEntry(new ZipEntry("bugreport.txt.gz"));
+            out.write(data);
+            out.closeEntry();
+        }
+        return file.length();
+    }
+
+    private static long writeRandom(File file, Random random, int size) throws Exception {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return size;
+    }
+}